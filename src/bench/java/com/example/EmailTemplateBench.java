@@ -0,0 +1,63 @@
+package com.example;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class EmailTemplateBench {
+    /**
+     * Renders personalized notification emails with string concatenation and with a
+     * compiled template: EmailTemplateBench [emails]
+     */
+    public static void main(String[] args) {
+        int emails = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        EmailTemplate template = EmailTemplate.compile("""
+            <html><body>
+            <h2>{{icon}} {{title}}</h2>
+            <p>Hello {{name}},</p>
+            <p>{{message}}</p>
+            {{#actionUrl}}<p><a href="{{actionUrl}}" style="background-color: #22c55e; color: white; padding: 10px 20px; text-decoration: none; border-radius: 5px;">View Details</a></p>{{/actionUrl}}
+            <hr>
+            <p><small>This notification was sent on {{createdAt}}</small></p>
+            </body></html>
+            """);
+
+        for (int round = 0; round < 3; round++) {
+            boolean report = round == 2;
+            long checksum = 0;
+
+            long start = System.nanoTime();
+            for (int i = 0; i < emails; i++) {
+                String body = "<html><body>\n"
+                    + "<h2>🎉 Weekend deal for farmer #" + i + "</h2>\n"
+                    + "<p>Hello Farmer " + i + ",</p>\n"
+                    + "<p>Get 10% off seeds & fertilizer <b>this weekend</b></p>\n"
+                    + "<p><a href=\"/promo/" + i + "\" style=\"background-color: #22c55e; color: white; padding: 10px 20px; "
+                    + "text-decoration: none; border-radius: 5px;\">View Details</a></p>\n"
+                    + "<hr>\n"
+                    + "<p><small>This notification was sent on 2026-10-18T09:00</small></p>\n"
+                    + "</body></html>\n";
+                checksum += body.length();
+            }
+            long concatenation = System.nanoTime() - start;
+
+            Map<String, Object> values = new HashMap<>();
+            values.put("icon", "🎉");
+            values.put("message", "Get 10% off seeds & fertilizer <b>this weekend</b>");
+            values.put("createdAt", "2026-10-18T09:00");
+            start = System.nanoTime();
+            for (int i = 0; i < emails; i++) {
+                values.put("title", "Weekend deal for farmer #" + i);
+                values.put("name", "Farmer " + i);
+                values.put("actionUrl", "/promo/" + i);
+                checksum += template.render(values).length();
+            }
+            long templated = System.nanoTime() - start;
+
+            if (report) {
+                System.out.printf("concatenation (unescaped) %,10.0f emails/s%n", emails / (concatenation / 1e9));
+                System.out.printf("compiled template (escaped) %,8.0f emails/s (checksum %d)%n",
+                    emails / (templated / 1e9), checksum);
+            }
+        }
+    }
+}
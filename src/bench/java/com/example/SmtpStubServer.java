@@ -0,0 +1,227 @@
+package com.example;
+
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process SMTP server that accepts and discards mail, for exercising the mail
+ * path offline. Each new connection waits an injected setup delay before the
+ * greeting, standing in for the TLS handshake and AUTH round trips of a real relay.
+ *
+ * Usage: SmtpStubServer [messages] [setupDelayMillis] [connections]
+ */
+public class SmtpStubServer implements Closeable {
+    private final ServerSocket serverSocket;
+    private final ExecutorService connectionHandlers;
+    private final AtomicLong messageCount = new AtomicLong();
+    private final AtomicLong connectionCount = new AtomicLong();
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+    private volatile long setupDelayMillis;
+    private volatile boolean closed;
+
+    public SmtpStubServer(long setupDelayMillis) throws IOException {
+        this.setupDelayMillis = setupDelayMillis;
+        this.serverSocket = new ServerSocket(0, 100, InetAddress.getLoopbackAddress());
+        this.connectionHandlers = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "smtp-stub-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public SmtpStubServer start() {
+        Thread acceptor = new Thread(this::acceptLoop, "smtp-stub-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+
+    public int getPort() { return serverSocket.getLocalPort(); }
+    public long getMessageCount() { return messageCount.get(); }
+    public long getConnectionCount() { return connectionCount.get(); }
+    public void setSetupDelayMillis(long setupDelayMillis) { this.setupDelayMillis = setupDelayMillis; }
+
+    /**
+     * Cut every open client connection, as a relay restart would
+     */
+    public void dropConnections() {
+        for (Socket socket : openSockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+
+    /**
+     * Plain SMTP session settings pointing at this stub
+     */
+    public Session createSession() {
+        Properties props = new Properties();
+        props.put("mail.smtp.host", "127.0.0.1");
+        props.put("mail.smtp.port", String.valueOf(getPort()));
+        props.put("mail.smtp.connectiontimeout", "10000");
+        props.put("mail.smtp.timeout", "10000");
+        return Session.getInstance(props);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        dropConnections();
+        connectionHandlers.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                connectionCount.incrementAndGet();
+                openSockets.add(socket);
+                connectionHandlers.execute(() -> handle(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("SMTP stub accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+             OutputStream out = socket.getOutputStream()) {
+
+            socket.setTcpNoDelay(true);
+            Thread.sleep(setupDelayMillis);
+            reply(out, "220 localhost ESMTP stub");
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+                switch (command) {
+                    case "EHLO":
+                        reply(out, "250-localhost\r\n250-8BITMIME\r\n250 SIZE 10485760");
+                        break;
+                    case "HELO":
+                    case "MAIL":
+                    case "RCPT":
+                    case "RSET":
+                    case "NOOP":
+                        reply(out, "250 OK");
+                        break;
+                    case "DATA":
+                        reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                        while ((line = in.readLine()) != null && !line.equals(".")) {
+                            // Discard the message body
+                        }
+                        messageCount.incrementAndGet();
+                        reply(out, "250 OK queued");
+                        break;
+                    case "QUIT":
+                        reply(out, "221 Bye");
+                        return;
+                    default:
+                        reply(out, "500 Unrecognized command");
+                }
+            }
+        } catch (IOException e) {
+            // Client went away
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            openSockets.remove(socket);
+        }
+    }
+
+    private static void reply(OutputStream out, String response) throws IOException {
+        out.write((response + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private static Message buildMessage(Session session, int index) throws MessagingException {
+        MimeMessage message = new MimeMessage(session);
+        message.setFrom(new InternetAddress("notifications@farmconnect.test"));
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse("customer" + index + "@farmconnect.test"));
+        message.setSubject("Order update #" + index);
+        message.setContent("<html><body><p>Your order has shipped.</p></body></html>", "text/html; charset=UTF-8");
+        return message;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        long setupDelay = args.length > 1 ? Long.parseLong(args[1]) : 20;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        try (SmtpStubServer server = new SmtpStubServer(setupDelay).start()) {
+            Session session = server.createSession();
+            System.out.println("SMTP stub on port " + server.getPort() + " with " + setupDelay + "ms connection setup");
+
+            // Before: one Transport.send per message from the same number of threads
+            ExecutorService senders = Executors.newFixedThreadPool(connections);
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                Message message = buildMessage(session, i);
+                futures.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        Transport.send(message);
+                    } catch (MessagingException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }, senders));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            report("Transport.send", messages, start, server.getConnectionCount());
+            senders.shutdown();
+
+            // After: pooled connections with batched sends
+            long connectionsBefore = server.getConnectionCount();
+            SmtpTransportPool pool = new SmtpTransportPool(session, connections);
+            futures.clear();
+            start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                futures.add(pool.submit(buildMessage(session, i)));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            report("SmtpTransportPool", messages, start, server.getConnectionCount() - connectionsBefore);
+            pool.shutdown();
+
+            System.out.println("Stub accepted " + server.getMessageCount() + " messages");
+        }
+    }
+
+    private static void report(String label, int messages, long start, long connections) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-18s %6d msgs in %6.2fs = %8.0f msg/s over %d connections%n",
+            label, messages, seconds, messages / seconds, connections);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.models;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+final class IdsBench {
+    /**
+     * Insert throughput into an H2 table keyed like our id columns, random UUIDs
+     * against ULIDs: IdsBench [rows]
+     */
+    public static void main(String[] args) throws SQLException, IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        Path dir = Files.createTempDirectory("id-bench");
+        try {
+            for (int round = 0; round < 2; round++) {
+                boolean report = round == 1;
+                runInsertBenchmark(dir, "uuid" + round, Ids.RANDOM_UUID, rows, report);
+                runInsertBenchmark(dir, "ulid" + round, Ids.ULID, rows, report);
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void runInsertBenchmark(Path dir, String name, Ids.Generator ids, int rows, boolean report)
+            throws SQLException, IOException {
+        String url = "jdbc:h2:" + dir.resolve(name).toAbsolutePath();
+        try (Connection conn = DriverManager.getConnection(url, "sa", "")) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("""
+                    CREATE TABLE records (
+                        id VARCHAR(36) PRIMARY KEY,
+                        payload VARCHAR(64)
+                    )
+                """);
+            }
+            conn.setAutoCommit(false);
+
+            long start = System.nanoTime();
+            try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO records (id, payload) VALUES (?, ?)")) {
+                for (int i = 1; i <= rows; i++) {
+                    stmt.setString(1, ids.nextId());
+                    stmt.setString(2, "payload-" + i);
+                    stmt.addBatch();
+                    if (i % 1_000 == 0) {
+                        stmt.executeBatch();
+                        conn.commit();
+                    }
+                }
+                stmt.executeBatch();
+                conn.commit();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("CHECKPOINT SYNC");
+            }
+            if (report) {
+                long bytes = Files.size(dir.resolve(name + ".mv.db"));
+                System.out.printf("%-4s %,9d rows in %6d ms  %,10.0f rows/s  file %,6d KB%n",
+                    name.substring(0, 4), rows, elapsed / 1_000_000, rows * 1e9 / elapsed, bytes / 1024);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.models;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+final class MoneyBench {
+    /**
+     * Prices the same carts with double, BigDecimal and long cents, reporting time and
+     * bytes allocated per cart: MoneyBench [carts] [lines]
+     */
+    public static void main(String[] args) {
+        int carts = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int lines = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        Random random = new Random(42);
+        double[] prices = new double[lines];
+        int[] quantities = new int[lines];
+        for (int i = 0; i < lines; i++) {
+            prices[i] = (50 + random.nextInt(5_000)) / 100.0;
+            quantities[i] = 1 + random.nextInt(10);
+        }
+
+        long[] pricesMinor = new long[lines];
+        BigDecimal[] pricesDecimal = new BigDecimal[lines];
+        for (int i = 0; i < lines; i++) {
+            pricesMinor[i] = Money.toMinor(prices[i]);
+            pricesDecimal[i] = BigDecimal.valueOf(prices[i]);
+        }
+        BigDecimal taxRate = new BigDecimal("0.085");
+
+        for (int round = 0; round < 3; round++) {
+            boolean report = round == 2;
+            long checksum = 0;
+
+            long allocBefore = allocatedBytes();
+            long start = System.nanoTime();
+            for (int c = 0; c < carts; c++) {
+                double subtotal = 0;
+                for (int i = 0; i < lines; i++) {
+                    subtotal += prices[i] * quantities[i];
+                }
+                double tax = subtotal * 0.085;
+                double shipping = subtotal >= 50 ? 0 : 5.99;
+                checksum += Math.round((subtotal + tax + shipping) * 100);
+            }
+            report(report, "double", start, allocBefore, carts, checksum);
+
+            checksum = 0;
+            allocBefore = allocatedBytes();
+            start = System.nanoTime();
+            for (int c = 0; c < carts; c++) {
+                BigDecimal subtotal = BigDecimal.ZERO;
+                for (int i = 0; i < lines; i++) {
+                    subtotal = subtotal.add(pricesDecimal[i].multiply(BigDecimal.valueOf(quantities[i])));
+                }
+                BigDecimal tax = subtotal.multiply(taxRate).setScale(2, RoundingMode.HALF_UP);
+                BigDecimal shipping = subtotal.compareTo(BigDecimal.valueOf(50)) >= 0 ? BigDecimal.ZERO : new BigDecimal("5.99");
+                checksum += Money.toMinor(subtotal.add(tax).add(shipping));
+            }
+            report(report, "BigDecimal", start, allocBefore, carts, checksum);
+
+            checksum = 0;
+            allocBefore = allocatedBytes();
+            start = System.nanoTime();
+            for (int c = 0; c < carts; c++) {
+                long subtotal = 0;
+                for (int i = 0; i < lines; i++) {
+                    subtotal = Money.addMinor(subtotal, Money.multiplyMinor(pricesMinor[i], quantities[i]));
+                }
+                long tax = Money.percentageMinor(subtotal, 850);
+                long shipping = subtotal >= 5_000 ? 0 : 599;
+                checksum += subtotal + tax + shipping;
+            }
+            report(report, "long cents", start, allocBefore, carts, checksum);
+        }
+    }
+
+    private static void report(boolean print, String label, long start, long allocBefore, int carts, long checksum) {
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocBefore;
+        if (print) {
+            System.out.printf("%-10s %8.1f ns/cart %10.1f bytes/cart (checksum %d)%n",
+                label, (double) elapsed / carts, (double) allocated / carts, checksum);
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
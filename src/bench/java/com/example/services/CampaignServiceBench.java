@@ -0,0 +1,97 @@
+package com.example.services;
+
+import com.example.models.Customer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+final class CampaignServiceBench {
+    /**
+     * Runs a campaign against a scratch database, kills it midway and resumes it:
+     * CampaignServiceBench [customers] [sendsPerSecond]
+     */
+    public static void main(String[] args) throws Exception {
+        int customers = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        double rate = args.length > 1 ? Double.parseDouble(args[1]) : 5_000;
+
+        Path dir = Files.createTempDirectory("campaign-sim");
+        String url = "jdbc:h2:" + dir.resolve("campaign").toAbsolutePath();
+        try {
+            int eligible = seedCustomers(url, customers);
+
+            Map<String, AtomicInteger> received = new ConcurrentHashMap<>();
+            CampaignService.RecipientSender countingSender = (recipient, campaign) -> {
+                received.computeIfAbsent(recipient.getId(), id -> new AtomicInteger()).incrementAndGet();
+                return CompletableFuture.completedFuture(true);
+            };
+
+            long start = System.nanoTime();
+            CampaignService first = new CampaignService(url, url, countingSender, CampaignService.DEFAULT_SHARDS, CampaignService.DEFAULT_PAGE_SIZE, rate);
+            CompletableFuture<CampaignService.CampaignResult> launched = first.launch("Harvest sale", "20% off all grains", "HARVEST20");
+            Thread.sleep((long) (eligible / rate * 500));
+            first.shutdown();
+            launched.handle((r, error) -> null).join();
+            System.out.printf("killed after %d sends%n", received.size());
+
+            CampaignService second = new CampaignService(url, url, countingSender, CampaignService.DEFAULT_SHARDS, CampaignService.DEFAULT_PAGE_SIZE, rate);
+            CampaignService.CampaignResult result = second.resumeIncomplete().get(0).join();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            long duplicates = received.values().stream().filter(count -> count.get() > 1).count();
+            System.out.printf("%d customers, %d eligible, %d received, %d received twice%n",
+                customers, eligible, received.size(), duplicates);
+            System.out.printf("%.1fs at a limit of %.0f/s (%.0f sends/s incl. restart)%n",
+                seconds, rate, (eligible + duplicates) / seconds);
+            System.out.println(result);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    // Same schema as the app's Customer table; every 10th account is deactivated
+    // and every 7th has opted out of promotions
+    private static int seedCustomers(String url, int customers) throws SQLException {
+        try (Connection conn = DriverManager.getConnection(url, "sa", "")) {
+            conn.createStatement().execute("""
+                CREATE TABLE Customer (
+                    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+                    name VARCHAR(255), username VARCHAR(255), email VARCHAR(255), phone VARCHAR(50),
+                    address VARCHAR(255), passwordHash VARCHAR(255), passwordSalt VARCHAR(255),
+                    verified BOOLEAN DEFAULT FALSE, deactivated BOOLEAN DEFAULT FALSE, isAdmin BOOLEAN DEFAULT FALSE,
+                    promotionalNotifications BOOLEAN DEFAULT TRUE
+                )
+            """);
+            conn.setAutoCommit(false);
+            int eligible = 0;
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO Customer (name, username, email, address, deactivated, promotionalNotifications) "
+                        + "VALUES (?, ?, ?, ?, ?, ?)")) {
+                for (int i = 1; i <= customers; i++) {
+                    boolean deactivated = i % 10 == 0;
+                    boolean optedOut = i % 7 == 0;
+                    stmt.setString(1, "Customer " + i);
+                    stmt.setString(2, "customer" + i);
+                    stmt.setString(3, "customer" + i + "@farmconnect.test");
+                    stmt.setString(4, "Nairobi");
+                    stmt.setBoolean(5, deactivated);
+                    stmt.setBoolean(6, !optedOut);
+                    stmt.addBatch();
+                    if (!deactivated && !optedOut) {
+                        eligible++;
+                    }
+                }
+                stmt.executeBatch();
+            }
+            conn.commit();
+            return eligible;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.services;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+final class CouponServiceBench {
+    /**
+     * Race many checkouts for one limited code and confirm it is never over-redeemed:
+     * CouponServiceBench [threads] [attempts]
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int attempts = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        long limit = attempts / 4;
+
+        CouponService service = new CouponService("jdbc:h2:mem:coupons;DB_CLOSE_DELAY=-1");
+        service.saveCoupon(new CouponService.Coupon("HARVEST25", CouponService.DiscountType.PERCENT_OFF, new BigDecimal("25"), BigDecimal.ZERO,
+            limit, 3, null, null));
+
+        LongAdder accepted = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            pool.submit(() -> {
+                start.await();
+                for (int i = thread; i < attempts; i += threads) {
+                    if (service.redeem("harvest25", "user-" + (i % 50_000), "order-" + i) == CouponService.RedemptionResult.ACCEPTED) {
+                        accepted.increment();
+                    }
+                }
+                return null;
+            });
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        service.flush();
+
+        System.out.printf("%d attempts on %d threads in %.2fs (%.0f/s): accepted=%d, limit=%d, counter=%d%n",
+            attempts, threads, seconds, attempts / seconds, accepted.sum(), limit,
+            service.getCoupon("HARVEST25").getRedemptionCount());
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.services;
+
+import com.example.models.Customer;
+import com.example.models.Notification;
+import com.example.models.User;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+final class NotificationDigesterBench {
+    /**
+     * Simulates a busy day of low-priority traffic and compares emails sent with and
+     * without digests: NotificationDigesterBench [users] [eventsPerUser] [ordersPerUser]
+     */
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int eventsPerUser = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        int ordersPerUser = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        LongAdder emails = new LongAdder();
+        NotificationDigester digester = new NotificationDigester(
+            (user, subject, body) -> {
+                emails.increment();
+                return CompletableFuture.completedFuture(true);
+            },
+            notification -> { }, Duration.ofHours(1), NotificationDigester.DEFAULT_MAX_ENTRIES);
+
+        Random random = new Random(42);
+        long immediate = 0;
+        long total = 0;
+        for (int u = 0; u < users; u++) {
+            User user = new Customer("Farmer " + u, "farmer" + u, "farmer" + u + "@farmconnect.test", null, "Nairobi");
+            for (int e = 0; e < eventsPerUser; e++) {
+                Notification notification;
+                int kind = random.nextInt(100);
+                if (kind < 70) {
+                    String orderId = "ORD-" + u + "-" + random.nextInt(ordersPerUser);
+                    notification = Notification.createOrderNotification(user.getId(), orderId,
+                        Notification.Type.ORDER_UPDATED, "Customer", "Maize");
+                } else if (kind < 98) {
+                    notification = Notification.createPromotionalNotification(user.getId(), "Weekend deal",
+                        "Fresh produce discounts", "SAVE10");
+                } else {
+                    notification = Notification.createSecurityNotification(user.getId(), "login", "Kisumu");
+                }
+                total++;
+
+                if (digester.accepts(notification)) {
+                    digester.add(user, notification);
+                } else {
+                    immediate++;
+                }
+            }
+        }
+        digester.flushAll();
+
+        long withDigest = emails.sum() + immediate;
+        System.out.printf("%d notifications for %d users%n", total, users);
+        System.out.printf("without digests: %d emails%n", total);
+        System.out.printf("with digests:    %d emails (%d digests + %d immediate), %.0fx fewer%n",
+            withDigest, emails.sum(), immediate, (double) total / withDigest);
+        System.out.println(digester);
+    }
+}
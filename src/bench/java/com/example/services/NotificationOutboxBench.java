@@ -0,0 +1,113 @@
+package com.example.services;
+
+import com.example.models.Customer;
+import com.example.models.Notification;
+import com.example.models.User;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+final class NotificationOutboxBench {
+    /**
+     * Commits payments with their notifications against a scratch database, rolls
+     * some back, enqueues some twice, fails some deliveries and kills the relay
+     * midway: NotificationOutboxBench [payments]
+     */
+    public static void main(String[] args) throws Exception {
+        int payments = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+
+        Path dir = Files.createTempDirectory("outbox-sim");
+        String url = "jdbc:h2:" + dir.resolve("outbox").toAbsolutePath();
+        try {
+            try (Connection conn = DriverManager.getConnection(url, "sa", "")) {
+                conn.createStatement().execute(
+                    "CREATE TABLE payments (id VARCHAR(36) PRIMARY KEY, user_id VARCHAR(36), status VARCHAR(20))");
+            }
+
+            Map<String, AtomicInteger> received = new ConcurrentHashMap<>();
+            NotificationOutbox.Delivery flaky = (recipient, notification) -> {
+                // One delivery in ten fails and is retried
+                if (ThreadLocalRandom.current().nextInt(10) == 0) {
+                    return CompletableFuture.failedFuture(new IllegalStateException("SMTP unavailable"));
+                }
+                received.computeIfAbsent(notification.getMetadata().get("transactionId"), id -> new AtomicInteger())
+                    .incrementAndGet();
+                return CompletableFuture.completedFuture(true);
+            };
+            Function<String, User> anyone = userId -> new Customer("Customer " + userId, "customer" + userId,
+                "customer" + userId + "@farmconnect.test", null, "Nairobi");
+
+            NotificationOutbox first = new NotificationOutbox(url, anyone, flaky, NotificationOutbox.DEFAULT_BATCH_SIZE, 20);
+            Set<String> committed = ConcurrentHashMap.newKeySet();
+            long enqueueNanos = 0;
+            try (Connection conn = DriverManager.getConnection(url, "sa", "");
+                 PreparedStatement insert = conn.prepareStatement("INSERT INTO payments VALUES (?, ?, ?)")) {
+                conn.setAutoCommit(false);
+                for (int i = 0; i < payments; i++) {
+                    String id = "TX-" + i;
+                    long start = System.nanoTime();
+                    insert.setString(1, id);
+                    insert.setString(2, String.valueOf(i % 500));
+                    insert.setString(3, "COMPLETED");
+                    insert.executeUpdate();
+                    Notification notification = new Notification(String.valueOf(i % 500),
+                        Notification.Type.PAYMENT_RECEIVED, "Payment Received", "Payment " + id + " received");
+                    notification.addMetadata("transactionId", id);
+                    first.enqueue(conn, "payment:" + id + ":COMPLETED", notification);
+                    // Every 20th payment also raises the same event twice
+                    if (i % 20 == 0) {
+                        first.enqueue(conn, "payment:" + id + ":COMPLETED", notification);
+                    }
+                    // Every 10th payment fails to commit and must not notify anyone
+                    if (i % 10 == 9) {
+                        conn.rollback();
+                    } else {
+                        conn.commit();
+                        committed.add(id);
+                    }
+                    enqueueNanos += System.nanoTime() - start;
+
+                    if (i == payments / 2) {
+                        first.shutdown();
+                        System.out.printf("relay killed with %d notifications delivered%n", received.size());
+                    }
+                }
+            }
+
+            // Let the dead relay's leases run out rather than wait a minute for them
+            try (Connection conn = DriverManager.getConnection(url, "sa", "")) {
+                conn.createStatement().execute("UPDATE notification_outbox SET next_attempt_at = CURRENT_TIMESTAMP "
+                    + "WHERE delivered_at IS NULL");
+            }
+            NotificationOutbox second = new NotificationOutbox(url, anyone, flaky, NotificationOutbox.DEFAULT_BATCH_SIZE, 20);
+            long deadline = System.currentTimeMillis() + 60_000;
+            while (!received.keySet().containsAll(committed) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Thread.sleep(200);
+            second.shutdown();
+
+            long twice = received.values().stream().filter(count -> count.get() > 1).count();
+            long rolledBack = received.keySet().stream().filter(id -> !committed.contains(id)).count();
+            System.out.printf("%d payments, %d committed, %d notified, %d notified twice, %d notified after rollback%n",
+                payments, committed.size(), received.size(), twice, rolledBack);
+            System.out.printf("%.1fus per checkout transaction including the outbox write%n",
+                enqueueNanos / 1e3 / payments);
+            System.out.println("first " + first);
+            System.out.println("second " + second);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.services;
+
+import com.example.models.PaymentMethod.PaymentType;
+import com.example.services.PaymentGatewayService.PaymentProvider;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offline harness that replays payment traffic through each routing policy
+ * against simulated providers and compares fees, latency and failures.
+ *
+ * Usage: PaymentRoutingSimulation [traffic.csv]
+ * The CSV has one payment per line: offsetMillis,paymentType,amount,currency
+ * Without a file, a synthetic day of traffic is generated.
+ */
+public class PaymentRoutingSimulation {
+
+    // One recorded payment
+    public static class TrafficRecord {
+        private final long offsetMillis;
+        private final PaymentType type;
+        private final double amount;
+        private final String currency;
+
+        public TrafficRecord(long offsetMillis, PaymentType type, double amount, String currency) {
+            this.offsetMillis = offsetMillis;
+            this.type = type;
+            this.amount = amount;
+            this.currency = currency;
+        }
+
+        public long getOffsetMillis() { return offsetMillis; }
+        public PaymentType getType() { return type; }
+        public double getAmount() { return amount; }
+        public String getCurrency() { return currency; }
+    }
+
+    // Latency and error behaviour of a simulated provider, with an optional outage window
+    public static class ProviderModel {
+        private final double medianMillis;
+        private final double spread;
+        private final double errorRate;
+        private double degradedFrom = 1.0;
+        private double degradedTo = 1.0;
+        private double degradedErrorRate;
+        private double degradedLatencyFactor = 1.0;
+
+        public ProviderModel(double medianMillis, double spread, double errorRate) {
+            this.medianMillis = medianMillis;
+            this.spread = spread;
+            this.errorRate = errorRate;
+        }
+
+        /**
+         * Degrade the provider between two points of the trace (0.0 - 1.0)
+         */
+        public ProviderModel degrade(double from, double to, double errorRate, double latencyFactor) {
+            this.degradedFrom = from;
+            this.degradedTo = to;
+            this.degradedErrorRate = errorRate;
+            this.degradedLatencyFactor = latencyFactor;
+            return this;
+        }
+
+        boolean isDegraded(double progress) {
+            return progress >= degradedFrom && progress < degradedTo;
+        }
+
+        long sampleLatencyNanos(Random random, double progress) {
+            // Log-normal latency around the median
+            double millis = medianMillis * Math.exp(spread * random.nextGaussian());
+            if (isDegraded(progress)) {
+                millis *= degradedLatencyFactor;
+            }
+            return TimeUnit.MICROSECONDS.toNanos((long) (millis * 1000));
+        }
+
+        boolean sampleFailure(Random random, double progress) {
+            return random.nextDouble() < (isDegraded(progress) ? degradedErrorRate : errorRate);
+        }
+    }
+
+    // Aggregated outcome of replaying the trace under one policy
+    public static class Result {
+        private final PaymentRouter.Policy policy;
+        private final Map<PaymentProvider, Integer> routed = new EnumMap<>(PaymentProvider.class);
+        private final List<Long> latencies = new ArrayList<>();
+        private int failed;
+        private double fees;
+
+        Result(PaymentRouter.Policy policy) {
+            this.policy = policy;
+        }
+
+        public PaymentRouter.Policy getPolicy() { return policy; }
+        public int getPaymentCount() { return latencies.size(); }
+        public int getFailedCount() { return failed; }
+        public double getTotalFees() { return fees; }
+        public Map<PaymentProvider, Integer> getRoutedCounts() { return routed; }
+
+        public double getLatencyPercentileMillis(double percentile) {
+            if (latencies.isEmpty()) {
+                return 0.0;
+            }
+            long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+            int index = Math.max(0, (int) Math.ceil(percentile * sorted.length) - 1);
+            return TimeUnit.NANOSECONDS.toMicros(sorted[index]) / 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-12s payments=%d failed=%d (%.2f%%) fees=$%.2f p50=%.0fms p99=%.0fms routed=%s",
+                policy, getPaymentCount(), failed, 100.0 * failed / Math.max(1, getPaymentCount()), fees,
+                getLatencyPercentileMillis(0.50), getLatencyPercentileMillis(0.99), routed);
+        }
+    }
+
+    /**
+     * Replay the trace under one policy; deterministic for a given seed
+     */
+    public static Result replay(List<TrafficRecord> traffic, PaymentRouter.Policy policy,
+                                Map<PaymentProvider, ProviderModel> models, long seed) {
+        Map<PaymentProvider, ProviderMetrics> metrics = new EnumMap<>(PaymentProvider.class);
+        for (PaymentProvider provider : PaymentProvider.values()) {
+            metrics.put(provider, new ProviderMetrics());
+        }
+
+        PaymentRouter router = new PaymentRouter(policy, metrics::get, provider -> true);
+        Random random = new Random(seed);
+        Result result = new Result(policy);
+        long duration = Math.max(1, traffic.get(traffic.size() - 1).getOffsetMillis());
+
+        for (TrafficRecord record : traffic) {
+            double progress = (double) record.getOffsetMillis() / duration;
+            PaymentProvider provider = router.rank(record.getType(), record.getCurrency(), record.getAmount()).get(0);
+            ProviderModel model = models.get(provider);
+
+            long latency = model.sampleLatencyNanos(random, progress);
+            result.latencies.add(latency);
+            result.routed.merge(provider, 1, Integer::sum);
+
+            if (model.sampleFailure(random, progress)) {
+                metrics.get(provider).recordFailure(latency);
+                result.failed++;
+            } else {
+                metrics.get(provider).recordSuccess(latency);
+                result.fees += PaymentGatewayService.getProviderFee(provider, record.getAmount());
+            }
+        }
+
+        return result;
+    }
+
+    public static List<TrafficRecord> loadTraffic(Path file) throws IOException {
+        List<TrafficRecord> traffic = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split(",");
+            traffic.add(new TrafficRecord(
+                Long.parseLong(parts[0].trim()),
+                PaymentType.valueOf(parts[1].trim().toUpperCase()),
+                Double.parseDouble(parts[2].trim()),
+                parts.length > 3 ? parts[3].trim() : "USD"));
+        }
+        return traffic;
+    }
+
+    public static List<TrafficRecord> syntheticTraffic(int payments, long seed) {
+        Random random = new Random(seed);
+        PaymentType[] types = { PaymentType.CREDIT_CARD, PaymentType.CREDIT_CARD, PaymentType.DEBIT_CARD,
+                                PaymentType.PAYPAL, PaymentType.APPLE_PAY, PaymentType.BANK_TRANSFER };
+        long dayMillis = TimeUnit.DAYS.toMillis(1);
+
+        List<TrafficRecord> traffic = new ArrayList<>(payments);
+        for (int i = 0; i < payments; i++) {
+            double amount = Math.round((5 + random.nextDouble() * 120) * 100) / 100.0;
+            traffic.add(new TrafficRecord(dayMillis * i / payments, types[random.nextInt(types.length)], amount, "USD"));
+        }
+        return traffic;
+    }
+
+    /**
+     * Provider behaviour used by the harness: Stripe suffers an outage mid-trace
+     */
+    public static Map<PaymentProvider, ProviderModel> defaultModels() {
+        Map<PaymentProvider, ProviderModel> models = new EnumMap<>(PaymentProvider.class);
+        models.put(PaymentProvider.STRIPE, new ProviderModel(350, 0.4, 0.005).degrade(0.4, 0.6, 0.6, 8.0));
+        models.put(PaymentProvider.PAYPAL, new ProviderModel(600, 0.5, 0.01));
+        models.put(PaymentProvider.SQUARE, new ProviderModel(450, 0.5, 0.01));
+        models.put(PaymentProvider.RAZORPAY, new ProviderModel(700, 0.6, 0.02));
+        models.put(PaymentProvider.MOCK, new ProviderModel(50, 0.2, 0.0));
+        return models;
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<TrafficRecord> traffic = args.length > 0
+            ? loadTraffic(Path.of(args[0]))
+            : syntheticTraffic(100_000, 42L);
+
+        if (traffic.isEmpty()) {
+            System.err.println("No traffic to replay");
+            return;
+        }
+
+        Map<PaymentProvider, ProviderModel> models = defaultModels();
+        System.out.println("Replaying " + traffic.size() + " payments");
+        for (PaymentRouter.Policy policy : PaymentRouter.Policy.values()) {
+            System.out.println(replay(traffic, policy, models, 7L));
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.services;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+final class PricingEngineBench {
+    /**
+     * Compile a large rule set and time pricing of a 50-line cart:
+     * PricingEngineBench [rules] [iterations]
+     */
+    public static void main(String[] args) {
+        int ruleCount = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        Random random = new Random(42);
+
+        List<PricingEngine.PricingRule> ruleSet = new ArrayList<>(PricingEngine.defaultRules());
+        for (int i = 0; i < ruleCount; i++) {
+            BigDecimal percent = BigDecimal.valueOf(1 + random.nextInt(30));
+            switch (i % 5) {
+                case 0: ruleSet.add(PricingEngine.PricingRule.productPercentOff("p" + i, "product-" + random.nextInt(20_000), percent)); break;
+                case 1: ruleSet.add(PricingEngine.PricingRule.categoryPercentOff("c" + i, "category-" + random.nextInt(200), percent)); break;
+                case 2: ruleSet.add(PricingEngine.PricingRule.cartPercentOff("cp" + i, BigDecimal.valueOf(random.nextInt(500)), percent)); break;
+                case 3: ruleSet.add(PricingEngine.PricingRule.cartAmountOff("ca" + i, BigDecimal.valueOf(random.nextInt(500)), BigDecimal.valueOf(random.nextInt(20)))); break;
+                default: ruleSet.add(PricingEngine.PricingRule.cartPercentOff("coupon" + i, BigDecimal.ZERO, percent).withCoupon("SAVE" + i)); break;
+            }
+        }
+        for (int region = 0; region < 50; region++) {
+            ruleSet.add(PricingEngine.PricingRule.taxRate("tax-" + region, "REGION-" + region, BigDecimal.valueOf(random.nextInt(1000), 4)));
+        }
+
+        long compileStart = System.nanoTime();
+        PricingEngine engine = new PricingEngine(ruleSet);
+        System.out.printf("Compiled %d rules in %.2fms%n", ruleSet.size(), (System.nanoTime() - compileStart) / 1e6);
+
+        List<PricingEngine.CartLine> cart = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            cart.add(new PricingEngine.CartLine("product-" + random.nextInt(20_000), "category-" + random.nextInt(200),
+                1 + random.nextInt(5), 100 + random.nextInt(5_000)));
+        }
+        Set<String> coupons = Set.of("SAVE4", "SAVE9");
+
+        long checksum = 0;
+        for (int i = 0; i < iterations / 10; i++) {
+            checksum += engine.price(cart, "REGION-" + (i % 50), coupons, false).getTotalCents();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            checksum += engine.price(cart, "REGION-" + (i % 50), coupons, (i & 1) == 0).getTotalCents();
+        }
+        double nanosPerCart = (System.nanoTime() - start) / (double) iterations;
+
+        System.out.println(engine.price(cart, "REGION-1", coupons, false));
+        System.out.printf("Priced a %d-line cart %d times: %.2f us per cart (checksum %d)%n",
+            cart.size(), iterations, nanosPerCart / 1000, checksum);
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.services;
+
+import javafx.application.Platform;
+import java.util.concurrent.TimeUnit;
+
+final class RealTimeTrackingServiceBench {
+    /**
+     * Starts a million tracking sessions, waits for every session's first update
+     * tick and stops them: RealTimeTrackingServiceBench [sessions]. Updates go
+     * through the JavaFX toolkit, so this needs a display.
+     */
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        
+        Platform.startup(() -> { });
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+        
+        long start = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            RealTimeTrackingService.startTracking("ORD-" + i, "CUST-" + (i % 10_000), update -> { });
+        }
+        double startSeconds = (System.nanoTime() - start) / 1e9;
+        System.gc();
+        long heapPerSession = (runtime.totalMemory() - runtime.freeMemory() - heapBefore) / sessions;
+        System.out.printf("%d sessions started in %.1fs (%.0f/s), %d B heap per session%n",
+            sessions, startSeconds, sessions / startSeconds, heapPerSession);
+        
+        // Every session's first tick falls due 30 seconds after it started
+        long firstTickDue = start + TimeUnit.SECONDS.toNanos(RealTimeTrackingService.FIRST_UPDATE_SECONDS);
+        while (RealTimeTrackingService.timers.getExpiredCount() < sessions) {
+            Thread.sleep(10);
+        }
+        System.out.printf("first tick of all %d sessions ran within %.0fms of the last one falling due%n",
+            sessions, (System.nanoTime() - firstTickDue) / 1e6 - startSeconds * 1000);
+        System.out.println("  " + RealTimeTrackingService.timers);
+        
+        long stopStart = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            RealTimeTrackingService.stopTracking("ORD-" + i);
+        }
+        System.out.printf("%d sessions stopped in %.0fms%n", sessions, (System.nanoTime() - stopStart) / 1e6);
+        Thread.sleep(200);
+        System.out.println("  " + RealTimeTrackingService.timers);
+        RealTimeTrackingService.shutdown();
+        Platform.exit();
+    }
+}
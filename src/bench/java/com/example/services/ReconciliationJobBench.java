@@ -0,0 +1,101 @@
+package com.example.services;
+
+import java.io.BufferedWriter;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Random;
+
+final class ReconciliationJobBench {
+    /**
+     * Seed a scratch database and a matching settlement file with a few injected
+     * discrepancies, then reconcile and report throughput against the target:
+     * ReconciliationJobBench [transactions] (default 1M rows, target under a minute)
+     */
+    public static void main(String[] args) throws Exception {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Path scratch = Files.createTempDirectory("reconciliation");
+        String benchUrl = "jdbc:h2:" + scratch.resolve("bench").toAbsolutePath();
+        Path settlementFile = scratch.resolve("settlement.csv");
+
+        LocalDateTime from = LocalDateTime.now().minusDays(30);
+        LocalDateTime to = LocalDateTime.now();
+        System.out.println("Seeding " + transactions + " transactions into " + scratch);
+        seedBenchmark(benchUrl, settlementFile, transactions, from, to);
+
+        long loadStart = System.nanoTime();
+        Map<String, ReconciliationJob.SettlementRecord> settlement = ReconciliationJob.loadSettlementFile(settlementFile);
+        System.out.printf("Loaded %d settlement records in %.2fs%n", settlement.size(), (System.nanoTime() - loadStart) / 1e9);
+
+        ReconciliationJob job = new ReconciliationJob(benchUrl, Runtime.getRuntime().availableProcessors(), 1_000);
+        ReconciliationJob.ReconciliationReport report = job.reconcile(from, to, settlement);
+        System.out.println(report);
+    }
+
+    private static void seedBenchmark(String url, Path settlementFile, int count, LocalDateTime from,
+                                      LocalDateTime to) throws Exception {
+        String createTable = """
+            CREATE TABLE IF NOT EXISTS transactions (
+                id VARCHAR(36) PRIMARY KEY,
+                processor_transaction_id VARCHAR(100),
+                status VARCHAR(20) NOT NULL,
+                total_amount DECIMAL(10,2) NOT NULL,
+                currency VARCHAR(3) DEFAULT 'USD',
+                created_at TIMESTAMP NOT NULL
+            )
+        """;
+        String insert = "INSERT INTO transactions (id, processor_transaction_id, status, total_amount, currency, created_at) VALUES (?, ?, ?, ?, ?, ?)";
+
+        Random random = new Random(42);
+        long spanMillis = Duration.between(from, to).toMillis();
+
+        try (Connection conn = DriverManager.getConnection(url, "sa", "");
+             BufferedWriter settlement = Files.newBufferedWriter(settlementFile)) {
+            conn.createStatement().execute(createTable);
+            conn.setAutoCommit(false);
+            settlement.write("processor_transaction_id,amount,currency,status");
+            settlement.newLine();
+
+            try (PreparedStatement stmt = conn.prepareStatement(insert)) {
+                for (int i = 0; i < count; i++) {
+                    String processorId = "ch_" + i;
+                    long amountMinor = 500 + random.nextInt(20_000);
+                    String status = random.nextInt(50) == 0 ? "REFUNDED" : "COMPLETED";
+
+                    stmt.setString(1, "txn-" + i);
+                    stmt.setString(2, processorId);
+                    stmt.setString(3, status);
+                    stmt.setBigDecimal(4, BigDecimal.valueOf(amountMinor, 2));
+                    stmt.setString(5, "USD");
+                    stmt.setTimestamp(6, Timestamp.valueOf(from.plusNanos(spanMillis * 1_000_000L / count * i)));
+                    stmt.addBatch();
+
+                    // Roughly 0.1% of each kind of discrepancy
+                    int fault = random.nextInt(4_000);
+                    if (fault == 0) {
+                        continue; // missing at provider
+                    }
+                    long settledMinor = fault == 1 ? amountMinor + 1 : amountMinor;
+                    String settledStatus = fault == 2 ? "failed" : ReconciliationJob.expectedSettlementStatus(status);
+                    settlement.write(processorId + "," + BigDecimal.valueOf(settledMinor, 2) + ",USD," + settledStatus);
+                    settlement.newLine();
+                    if (fault == 3) {
+                        settlement.write("ch_unknown_" + i + "," + BigDecimal.valueOf(amountMinor, 2) + ",USD,succeeded");
+                        settlement.newLine();
+                    }
+
+                    if (i % 10_000 == 9_999) {
+                        stmt.executeBatch();
+                        conn.commit();
+                    }
+                }
+                stmt.executeBatch();
+                conn.commit();
+            }
+        }
+    }
+}
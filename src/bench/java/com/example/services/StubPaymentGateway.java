@@ -0,0 +1,196 @@
+package com.example.services;
+
+import com.example.services.PaymentGatewayService.PaymentProvider;
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.StringAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.nio.support.BasicResponseProducer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+
+/**
+ * In-process payment gateway speaking HTTP/1.1 or cleartext HTTP/2.
+ * Replies to POST /v1/charges after an injected delay, with configurable decline
+ * and 5xx rates, so the HTTP client and pool can be benchmarked offline.
+ *
+ * Usage: StubPaymentGateway [requests] [concurrency] [latencyMillis]
+ */
+public class StubPaymentGateway implements Closeable {
+    public static final String CHARGE_PATH = "/v1/charges";
+
+    private final HttpAsyncServer server;
+    private final ScheduledExecutorService responder;
+    private final AtomicLong requestCount = new AtomicLong();
+    private volatile long latencyMillis;
+    private volatile double declineRate;
+    private volatile double errorRate;
+    private int port;
+
+    /**
+     * @param versionPolicy FORCE_HTTP_1 or FORCE_HTTP_2 (cleartext, prior knowledge)
+     */
+    public StubPaymentGateway(HttpVersionPolicy versionPolicy, long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        this.responder = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "stub-gateway-responder");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.server = H2ServerBootstrap.bootstrap()
+            .setVersionPolicy(versionPolicy)
+            .setIOReactorConfig(IOReactorConfig.custom().setTcpNoDelay(true).build())
+            .register(CHARGE_PATH, new AsyncServerRequestHandler<Message<HttpRequest, String>>() {
+                @Override
+                public AsyncRequestConsumer<Message<HttpRequest, String>> prepare(HttpRequest request, EntityDetails entityDetails,
+                                                                                  HttpContext context) {
+                    return new BasicRequestConsumer<>(new StringAsyncEntityConsumer());
+                }
+
+                @Override
+                public void handle(Message<HttpRequest, String> message, ResponseTrigger responseTrigger, HttpContext context) {
+                    long id = requestCount.incrementAndGet();
+                    // Delay the reply without holding an I/O thread
+                    responder.schedule(() -> {
+                        try {
+                            responseTrigger.submitResponse(buildReply(id), context);
+                        } catch (Exception e) {
+                            System.err.println("Stub gateway failed to reply: " + e);
+                        }
+                    }, latencyMillis, TimeUnit.MILLISECONDS);
+                }
+            })
+            .create();
+    }
+
+    /**
+     * Start listening on an ephemeral local port
+     */
+    public StubPaymentGateway start() throws Exception {
+        server.start();
+        ListenerEndpoint endpoint = server.listen(new InetSocketAddress("127.0.0.1", 0), URIScheme.HTTP).get();
+        this.port = ((InetSocketAddress) endpoint.getAddress()).getPort();
+        return this;
+    }
+
+    public URI getChargeUri() {
+        return URI.create("http://127.0.0.1:" + port + CHARGE_PATH);
+    }
+
+    public long getRequestCount() { return requestCount.get(); }
+    public void setLatencyMillis(long latencyMillis) { this.latencyMillis = latencyMillis; }
+    public void setDeclineRate(double declineRate) { this.declineRate = declineRate; }
+    public void setErrorRate(double errorRate) { this.errorRate = errorRate; }
+
+    @Override
+    public void close() {
+        server.close(CloseMode.GRACEFUL);
+        responder.shutdownNow();
+    }
+
+    private BasicResponseProducer buildReply(long id) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < errorRate) {
+            return new BasicResponseProducer(503, "{\"message\":\"Injected gateway error\"}", ContentType.APPLICATION_JSON);
+        }
+        if (random.nextDouble() < declineRate) {
+            return new BasicResponseProducer(402,
+                "{\"status\":\"declined\",\"message\":\"Card declined\"}", ContentType.APPLICATION_JSON);
+        }
+        return new BasicResponseProducer(200,
+            "{\"id\":\"ch_stub_" + id + "\",\"status\":\"succeeded\",\"message\":\"Payment successful\"}",
+            ContentType.APPLICATION_JSON);
+    }
+
+    /**
+     * Fire requests with a bounded number in flight and report throughput and pool usage
+     */
+    private static void benchmark(String label, PaymentHttpClient client, URI uri, int requests,
+                                  int concurrency, int pipelineDepth) throws Exception {
+        Semaphore inFlight = new Semaphore(concurrency);
+        AtomicInteger failures = new AtomicInteger();
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        Map<String, Object> body = Map.of("amount", 12.50, "currency", "USD", "description", "benchmark");
+
+        long start = System.nanoTime();
+        for (int sent = 0; sent < requests; sent += pipelineDepth) {
+            inFlight.acquire();
+            CompletableFuture<?> future;
+            if (pipelineDepth > 1) {
+                List<Map<String, Object>> batch = new ArrayList<>();
+                for (int i = 0; i < pipelineDepth; i++) {
+                    batch.add(body);
+                }
+                future = client.postPaymentsPipelined(PaymentProvider.STRIPE, uri, batch, "USD")
+                    .thenAccept(responses -> responses.stream()
+                        .filter(response -> !response.isSuccess())
+                        .forEach(response -> failures.incrementAndGet()));
+            } else {
+                future = client.postPayment(PaymentProvider.STRIPE, uri, body, "USD", null)
+                    .thenAccept(response -> {
+                        if (!response.isSuccess()) {
+                            failures.incrementAndGet();
+                        }
+                    });
+            }
+            futures.add(future.whenComplete((ignored, error) -> {
+                if (error != null) {
+                    failures.incrementAndGet();
+                }
+                inFlight.release();
+            }));
+        }
+
+        PoolStats peak = client.getPoolStats();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).exceptionally(e -> null).join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%-22s %7d req in %6.2fs = %9.0f req/s, failures=%d, pool at peak=%s%n",
+            label, requests, seconds, requests / seconds, failures.get(), peak);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        long latency = args.length > 2 ? Long.parseLong(args[2]) : 20;
+
+        try (StubPaymentGateway gateway = new StubPaymentGateway(HttpVersionPolicy.FORCE_HTTP_1, latency).start();
+             PaymentHttpClient client = new PaymentHttpClient(HttpVersionPolicy.FORCE_HTTP_1, 64, 64, 10_000)) {
+            System.out.println("HTTP/1.1 stub gateway at " + gateway.getChargeUri() + " with " + latency + "ms latency");
+            benchmark("HTTP/1.1 pooled", client, gateway.getChargeUri(), requests, concurrency, 1);
+            benchmark("HTTP/1.1 pipelined x16", client, gateway.getChargeUri(), requests, Math.max(1, concurrency / 16), 16);
+        }
+
+        try (StubPaymentGateway gateway = new StubPaymentGateway(HttpVersionPolicy.FORCE_HTTP_2, latency).start();
+             PaymentHttpClient client = new PaymentHttpClient(HttpVersionPolicy.FORCE_HTTP_2, 64, 64, 10_000)) {
+            System.out.println("HTTP/2 stub gateway at " + gateway.getChargeUri() + " with " + latency + "ms latency");
+            benchmark("HTTP/2 multiplexed", client, gateway.getChargeUri(), requests, concurrency, 1);
+        }
+    }
+}
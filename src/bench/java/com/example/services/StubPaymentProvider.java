@@ -0,0 +1,63 @@
+package com.example.services;
+
+import com.example.models.PaymentMethod;
+import com.example.services.PaymentGatewayService.PaymentProvider;
+import com.example.services.PaymentGatewayService.PaymentResponse;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for a payment provider with injectable latency and failures.
+ * Register it with {@link PaymentGatewayService#registerProviderClient} to exercise
+ * bulkheads, timeouts and circuit breakers without calling a real gateway.
+ */
+public class StubPaymentProvider implements PaymentGatewayService.ProviderClient {
+    private final PaymentProvider provider;
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile long latencyMillis;
+    private volatile long jitterMillis;
+    private volatile double failureRate;
+    private volatile double declineRate;
+
+    public StubPaymentProvider(PaymentProvider provider, long latencyMillis, long jitterMillis) {
+        this.provider = provider;
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    // Injection knobs; safe to change while calls are in flight
+    public void setLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    public void setFailureRate(double failureRate) { this.failureRate = failureRate; }
+    public void setDeclineRate(double declineRate) { this.declineRate = declineRate; }
+
+    public PaymentProvider getProvider() { return provider; }
+
+    @Override
+    public PaymentResponse charge(PaymentMethod paymentMethod, double amount, String currency,
+                                  String description, Map<String, Object> metadata) throws Exception {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        long delay = latencyMillis + (jitterMillis > 0 ? random.nextLong(jitterMillis + 1) : 0);
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+
+        if (random.nextDouble() < failureRate) {
+            throw new IllegalStateException(provider + " stub: injected outage");
+        }
+
+        long id = sequence.incrementAndGet();
+        if (random.nextDouble() < declineRate) {
+            return new PaymentResponse(false, null, null, "Stub payment declined",
+                provider, 0.0, currency, metadata);
+        }
+
+        return new PaymentResponse(true, "TXN_STUB_" + id, "stub_" + provider.name().toLowerCase() + "_" + id,
+            "Stub payment successful", provider, amount, currency, metadata);
+    }
+}
@@ -0,0 +1,197 @@
+package com.example.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.StringAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.nio.support.BasicResponseProducer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+
+/**
+ * In-process SMS provider speaking the {@link HttpSmsGateway} protocol.
+ * Answers POST /v1/sms/batch after an injected delay. Numbers not in +E.164 form
+ * are rejected; whole-batch 503s and per-message throttling can be injected, so
+ * the SMS channel can be benchmarked and its retries exercised offline.
+ *
+ * Usage: StubSmsGateway [messages] [latencyMillis]
+ */
+public class StubSmsGateway implements Closeable {
+    public static final String BATCH_PATH = "/v1/sms/batch";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final HttpAsyncServer server;
+    private final ScheduledExecutorService responder;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong acceptedCount = new AtomicLong();
+    private volatile long latencyMillis;
+    private volatile double batchErrorRate;
+    private volatile double throttleRate;
+    private int port;
+
+    public StubSmsGateway(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        this.responder = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "stub-sms-responder");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.server = H2ServerBootstrap.bootstrap()
+            .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_1)
+            .setIOReactorConfig(IOReactorConfig.custom().setTcpNoDelay(true).build())
+            .register(BATCH_PATH, new AsyncServerRequestHandler<Message<HttpRequest, String>>() {
+                @Override
+                public AsyncRequestConsumer<Message<HttpRequest, String>> prepare(HttpRequest request, EntityDetails entityDetails,
+                                                                                  HttpContext context) {
+                    return new BasicRequestConsumer<>(new StringAsyncEntityConsumer());
+                }
+
+                @Override
+                public void handle(Message<HttpRequest, String> message, ResponseTrigger responseTrigger, HttpContext context) {
+                    requestCount.incrementAndGet();
+                    BasicResponseProducer reply = buildReply(message.getBody());
+                    // Delay the reply without holding an I/O thread
+                    responder.schedule(() -> {
+                        try {
+                            responseTrigger.submitResponse(reply, context);
+                        } catch (Exception e) {
+                            System.err.println("Stub SMS gateway failed to reply: " + e);
+                        }
+                    }, latencyMillis, TimeUnit.MILLISECONDS);
+                }
+            })
+            .create();
+    }
+
+    /**
+     * Start listening on an ephemeral local port
+     */
+    public StubSmsGateway start() throws Exception {
+        server.start();
+        ListenerEndpoint endpoint = server.listen(new InetSocketAddress("127.0.0.1", 0), URIScheme.HTTP).get();
+        this.port = ((InetSocketAddress) endpoint.getAddress()).getPort();
+        return this;
+    }
+
+    public URI getBatchUri() {
+        return URI.create("http://127.0.0.1:" + port + BATCH_PATH);
+    }
+
+    public long getRequestCount() { return requestCount.get(); }
+    public long getAcceptedCount() { return acceptedCount.get(); }
+    public void setLatencyMillis(long latencyMillis) { this.latencyMillis = latencyMillis; }
+    public void setBatchErrorRate(double batchErrorRate) { this.batchErrorRate = batchErrorRate; }
+    public void setThrottleRate(double throttleRate) { this.throttleRate = throttleRate; }
+
+    @Override
+    public void close() {
+        server.close(CloseMode.GRACEFUL);
+        responder.shutdownNow();
+    }
+
+    private BasicResponseProducer buildReply(String body) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < batchErrorRate) {
+            return new BasicResponseProducer(503, "{\"message\":\"Injected gateway error\"}", ContentType.APPLICATION_JSON);
+        }
+
+        try {
+            List<Map<String, String>> results = new ArrayList<>();
+            for (JsonNode message : objectMapper.readTree(body).path("messages")) {
+                Map<String, String> result = new HashMap<>();
+                result.put("id", message.path("id").asText());
+                if (!message.path("to").asText().matches("\\+[1-9][0-9]{6,14}")) {
+                    result.put("status", "REJECTED");
+                    result.put("error", "Invalid destination number");
+                } else if (random.nextDouble() < throttleRate) {
+                    result.put("status", "RETRY");
+                    result.put("error", "Carrier throttled");
+                } else {
+                    result.put("status", "SENT");
+                    acceptedCount.incrementAndGet();
+                }
+                results.add(result);
+            }
+            return new BasicResponseProducer(200, objectMapper.writeValueAsString(Map.of("results", results)),
+                ContentType.APPLICATION_JSON);
+        } catch (Exception e) {
+            return new BasicResponseProducer(400, "{\"message\":\"Malformed batch\"}", ContentType.APPLICATION_JSON);
+        }
+    }
+
+    private static void run(String label, SmsChannel channel, StubSmsGateway stub, int messages, int invalidEvery) {
+        long requestsBefore = stub.getRequestCount();
+        List<CompletableFuture<Boolean>> results = new ArrayList<>(messages);
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            String to = invalidEvery > 0 && i % invalidEvery == 0 ? "0700-INVALID-" + i : "+2547" + (10_000_000 + i);
+            results.add(channel.send(to, "Your order ORD-" + i + " is out for delivery"));
+        }
+        long delivered = results.stream().filter(CompletableFuture::join).count();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%-24s %6d msgs in %6.2fs = %7.0f msg/s, delivered=%d, gateway requests=%d%n",
+            label, messages, seconds, messages / seconds, delivered, stub.getRequestCount() - requestsBefore);
+        System.out.println("  " + channel);
+        channel.shutdown();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        long latency = args.length > 1 ? Long.parseLong(args[1]) : 20;
+
+        try (StubSmsGateway stub = new StubSmsGateway(latency).start();
+             HttpSmsGateway gateway = new HttpSmsGateway(stub.getBatchUri())) {
+            System.out.println("Stub SMS gateway at " + stub.getBatchUri() + " with " + latency + "ms latency");
+
+            run("one message per request", new SmsChannel(gateway, 1, 0, 8, 5, 1.0 / 60), stub, messages, 0);
+            run("batches of 50", new SmsChannel(gateway, 50, 20, 8, 5, 1.0 / 60), stub, messages, 0);
+
+            // 10% of requests fail outright, 5% of messages throttled, 1% invalid numbers
+            stub.setBatchErrorRate(0.10);
+            stub.setThrottleRate(0.05);
+            run("batches with failures", new SmsChannel(gateway, 50, 20, 8, 5, 1.0 / 60), stub, messages, 100);
+            stub.setBatchErrorRate(0);
+            stub.setThrottleRate(0);
+
+            // One handset: the burst goes out, the rest wait for the per-number limit
+            SmsChannel limited = new SmsChannel(gateway, 50, 20, 8, 5, 2.0);
+            List<CompletableFuture<Boolean>> toOneNumber = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int i = 0; i < 11; i++) {
+                toOneNumber.add(limited.send("+254700000001", "Alert " + i));
+            }
+            CompletableFuture.allOf(toOneNumber.toArray(new CompletableFuture[0])).join();
+            System.out.printf("11 messages to one number at burst 5, 2/s: %.1fs%n  %s%n",
+                (System.nanoTime() - start) / 1e9, limited);
+            limited.shutdown();
+        }
+    }
+}
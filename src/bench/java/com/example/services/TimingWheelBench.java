@@ -0,0 +1,111 @@
+package com.example.services;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+final class TimingWheelBench {
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // Schedules periodic timers spread over one period, lets them run, then cancels them all
+    private static void run(String label, int timers, long periodMillis, int periods, Scheduler scheduler,
+                            Cancellation cancellation) throws InterruptedException {
+        LongAdder runs = new LongAdder();
+        long[] lateness = new long[timers];
+        long heapBefore = usedHeap();
+
+        Object[] handles = new Object[timers];
+        long start = System.nanoTime();
+        for (int i = 0; i < timers; i++) {
+            long initialDelay = ThreadLocalRandom.current().nextLong(periodMillis);
+            long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(initialDelay);
+            int index = i;
+            long[] nextDue = { due };
+            handles[i] = scheduler.schedule(() -> {
+                long late = System.nanoTime() - nextDue[0];
+                // The first run may fall due while timers are still being scheduled
+                if (nextDue[0] != due) {
+                    lateness[index] = Math.max(lateness[index], late);
+                }
+                nextDue[0] += TimeUnit.MILLISECONDS.toNanos(periodMillis);
+                runs.increment();
+            }, initialDelay, periodMillis);
+        }
+        double scheduleMillis = (System.nanoTime() - start) / 1e6;
+        long heapPerTimer = (usedHeap() - heapBefore) / timers;
+
+        long gcBefore = gcCount();
+        long cpuBefore = processCpuNanos();
+        Thread.sleep(periodMillis * periods + periodMillis / 2);
+        double cpuMillis = (processCpuNanos() - cpuBefore) / 1e6;
+        long gcs = gcCount() - gcBefore;
+        long totalRuns = runs.sum();
+
+        long cancelStart = System.nanoTime();
+        for (Object handle : handles) {
+            cancellation.cancel(handle);
+        }
+        double cancelMillis = (System.nanoTime() - cancelStart) / 1e6;
+
+        long[] sorted = lateness.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-28s schedule %6.0fms, %4d B/timer retained, %9d runs (%.2f per timer), "
+                + "worst lateness p50 %5.1fms p99 %6.1fms, %5.0fms CPU while running, %3d GCs, cancel all %5.0fms%n",
+            label, scheduleMillis, heapPerTimer, totalRuns, (double) totalRuns / timers,
+            sorted[timers / 2] / 1e6, sorted[(int) (timers * 0.99)] / 1e6, cpuMillis, gcs, cancelMillis);
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+            .getProcessCpuTime();
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream()
+            .mapToLong(bean -> Math.max(0, bean.getCollectionCount())).sum();
+    }
+
+    @FunctionalInterface
+    private interface Scheduler {
+        Object schedule(Runnable task, long initialDelayMillis, long periodMillis);
+    }
+
+    @FunctionalInterface
+    private interface Cancellation {
+        void cancel(Object handle);
+    }
+
+    /**
+     * Compares a million fixed-rate timers, the shape of tracking sessions, on a
+     * scheduled thread pool and on the wheel: TimingWheelBench [timers] [periodMillis] [periods]
+     */
+    public static void main(String[] args) throws Exception {
+        int timers = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        long period = args.length > 1 ? Long.parseLong(args[1]) : 10_000;
+        int periods = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        ScheduledExecutorService pool = Executors.newScheduledThreadPool(5);
+        run("ScheduledThreadPool(5)", timers, period, periods,
+            (task, delay, every) -> pool.scheduleAtFixedRate(task, delay, every, TimeUnit.MILLISECONDS),
+            handle -> ((ScheduledFuture<?>) handle).cancel(false));
+        pool.shutdownNow();
+
+        TimingWheel wheel = new TimingWheel("bench-wheel", 10, 2);
+        run("TimingWheel(10ms, 2 workers)", timers, period, periods,
+            (task, delay, every) -> wheel.scheduleAtFixedRate(task, delay, every, TimeUnit.MILLISECONDS),
+            handle -> ((TimingWheel.Timeout) handle).cancel());
+        Thread.sleep(100);
+        System.out.println(wheel);
+        wheel.stop();
+    }
+}
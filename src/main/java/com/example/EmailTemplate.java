@@ -0,0 +1,274 @@
+package com.example;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HTML email template, parsed once and rendered many times.
+ *
+ * Syntax is a small subset of Mustache:
+ * {{name}} inserts a value HTML-escaped, {{{name}}} inserts it as-is, and
+ * {{#name}}...{{/name}} renders its body once if the value is present (not null,
+ * false or empty) or once per element if it is a collection of maps. Inside a
+ * repeated section names resolve against the element first, then the outer values.
+ *
+ * Rendering appends the precompiled segments into a per-thread buffer that is
+ * reused across calls, so a campaign pays for parsing once and allocates little
+ * beyond the resulting string.
+ */
+public final class EmailTemplate {
+    // Don't keep a huge buffer around after one unusually large email
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(4096));
+
+    private final List<Segment> segments;
+
+    private interface Segment {
+        void render(StringBuilder out, Scope scope);
+    }
+
+    private static final class Scope {
+        private final Map<String, ?> values;
+        private final Scope parent;
+
+        Scope(Map<String, ?> values, Scope parent) {
+            this.values = values;
+            this.parent = parent;
+        }
+
+        Object lookup(String name) {
+            for (Scope scope = this; scope != null; scope = scope.parent) {
+                Object value = scope.values.get(name);
+                if (value != null) {
+                    return value;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class Literal implements Segment {
+        private final String text;
+
+        Literal(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void render(StringBuilder out, Scope scope) {
+            out.append(text);
+        }
+    }
+
+    private static final class Variable implements Segment {
+        private final String name;
+        private final boolean escape;
+
+        Variable(String name, boolean escape) {
+            this.name = name;
+            this.escape = escape;
+        }
+
+        @Override
+        public void render(StringBuilder out, Scope scope) {
+            Object value = scope.lookup(name);
+            if (value == null) {
+                return;
+            }
+            if (escape) {
+                escapeHtml(value.toString(), out);
+            } else {
+                out.append(value);
+            }
+        }
+    }
+
+    private static final class Section implements Segment {
+        private final String name;
+        private final List<Segment> body = new ArrayList<>();
+
+        Section(String name) {
+            this.name = name;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void render(StringBuilder out, Scope scope) {
+            Object value = scope.lookup(name);
+            if (value instanceof Collection) {
+                for (Object item : (Collection<?>) value) {
+                    Scope itemScope = item instanceof Map ? new Scope((Map<String, ?>) item, scope) : scope;
+                    renderBody(out, itemScope);
+                }
+            } else if (isPresent(value)) {
+                renderBody(out, scope);
+            }
+        }
+
+        private void renderBody(StringBuilder out, Scope scope) {
+            for (Segment segment : body) {
+                segment.render(out, scope);
+            }
+        }
+
+        private static boolean isPresent(Object value) {
+            if (value == null || Boolean.FALSE.equals(value)) {
+                return false;
+            }
+            return !(value instanceof CharSequence) || ((CharSequence) value).length() > 0;
+        }
+    }
+
+    private EmailTemplate(List<Segment> segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * Parse a template; throws IllegalArgumentException on unbalanced tags
+     */
+    public static EmailTemplate compile(String source) {
+        List<Segment> root = new ArrayList<>();
+        Deque<Section> open = new ArrayDeque<>();
+        List<Segment> current = root;
+        int position = 0;
+
+        while (position < source.length()) {
+            int tagStart = source.indexOf("{{", position);
+            if (tagStart < 0) {
+                current.add(new Literal(source.substring(position)));
+                break;
+            }
+            if (tagStart > position) {
+                current.add(new Literal(source.substring(position, tagStart)));
+            }
+
+            boolean raw = source.startsWith("{{{", tagStart);
+            String closing = raw ? "}}}" : "}}";
+            int nameStart = tagStart + (raw ? 3 : 2);
+            int tagEnd = source.indexOf(closing, nameStart);
+            if (tagEnd < 0) {
+                throw new IllegalArgumentException("Unclosed tag at offset " + tagStart);
+            }
+            String tag = source.substring(nameStart, tagEnd).trim();
+            position = tagEnd + closing.length();
+
+            if (!raw && tag.startsWith("#")) {
+                Section section = new Section(tag.substring(1).trim());
+                current.add(section);
+                open.push(section);
+                current = section.body;
+            } else if (!raw && tag.startsWith("/")) {
+                String name = tag.substring(1).trim();
+                if (open.isEmpty() || !open.peek().name.equals(name)) {
+                    throw new IllegalArgumentException("Unexpected {{/" + name + "}} at offset " + tagStart);
+                }
+                open.pop();
+                current = open.isEmpty() ? root : open.peek().body;
+            } else {
+                current.add(new Variable(tag, !raw));
+            }
+        }
+
+        if (!open.isEmpty()) {
+            throw new IllegalArgumentException("Unclosed section {{#" + open.peek().name + "}}");
+        }
+        return new EmailTemplate(mergeLiterals(root));
+    }
+
+    /**
+     * Render with the given values into a new string
+     */
+    public String render(Map<String, ?> values) {
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        renderTo(buffer, values);
+        String result = buffer.toString();
+        if (buffer.capacity() > MAX_RETAINED_BUFFER) {
+            BUFFER.remove();
+        }
+        return result;
+    }
+
+    /**
+     * Append the rendered template to a caller-owned buffer
+     */
+    public void renderTo(StringBuilder out, Map<String, ?> values) {
+        Scope scope = new Scope(values, null);
+        for (Segment segment : segments) {
+            segment.render(out, scope);
+        }
+    }
+
+    /**
+     * Append text with &, <, >, " and ' replaced by entities
+     */
+    public static void escapeHtml(String text, StringBuilder out) {
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            String entity;
+            switch (text.charAt(i)) {
+                case '&': entity = "&amp;"; break;
+                case '<': entity = "&lt;"; break;
+                case '>': entity = "&gt;"; break;
+                case '"': entity = "&quot;"; break;
+                case '\'': entity = "&#39;"; break;
+                default: continue;
+            }
+            out.append(text, start, i).append(entity);
+            start = i + 1;
+        }
+        out.append(text, start, text.length());
+    }
+
+    /**
+     * The URL if it is safe to put in a link: relative, or http(s). Escaping alone
+     * does not stop javascript: or data: links, so anything else yields null.
+     */
+    public static String safeUrl(String url) {
+        if (url == null || url.isBlank()) {
+            return null;
+        }
+        try {
+            String scheme = new URI(url.trim()).getScheme();
+            if (scheme == null || scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https")) {
+                return url.trim();
+            }
+        } catch (URISyntaxException e) {
+            // Not a URL we can vouch for
+        }
+        return null;
+    }
+
+    // Sections were filled in while parsing; join neighbouring literals for fewer appends
+    private static List<Segment> mergeLiterals(List<Segment> segments) {
+        List<Segment> merged = new ArrayList<>(segments.size());
+        StringBuilder pending = new StringBuilder();
+        for (Segment segment : segments) {
+            if (segment instanceof Literal) {
+                pending.append(((Literal) segment).text);
+                continue;
+            }
+            if (pending.length() > 0) {
+                merged.add(new Literal(pending.toString()));
+                pending.setLength(0);
+            }
+            if (segment instanceof Section) {
+                Section section = (Section) segment;
+                List<Segment> body = mergeLiterals(section.body);
+                section.body.clear();
+                section.body.addAll(body);
+            }
+            merged.add(segment);
+        }
+        if (pending.length() > 0) {
+            merged.add(new Literal(pending.toString()));
+        }
+        return merged;
+    }
+}
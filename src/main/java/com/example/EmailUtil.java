@@ -2,6 +2,7 @@ package com.example;
 
 import jakarta.mail.*;
 import jakarta.mail.internet.*;
+import java.util.Map;
 import java.util.Properties;
 import java.io.UnsupportedEncodingException;
 
@@ -14,6 +15,82 @@ public class EmailUtil {
     private static final String USERNAME = "932f87001@smtp-brevo.com"; // Replace with your Brevo SMTP login
     private static final String PASSWORD = "fsYmgKwQEtOzUVAN"; // Replace with your Brevo SMTP password (keep secure!)
 
+    private static final int SMTP_CONNECTIONS = 4;
+
+    private static final EmailTemplate VERIFICATION_TEMPLATE = EmailTemplate.compile("""
+        <!DOCTYPE html>\
+        <html><head><meta charset='UTF-8'></head><body>\
+        <div style='font-family: Arial, sans-serif; max-width: 600px; margin: 0 auto;'>\
+        <h2 style='color: #2E8B57;'>Email Verification - Agro Stock</h2>\
+        <p>Hello,</p>\
+        <p>Thank you for registering with Agro Stock. Please use the verification code below to complete your registration:</p>\
+        <div style='background-color: #f0f0f0; padding: 20px; text-align: center; font-size: 24px; font-weight: bold; color: #2E8B57; border-radius: 5px; margin: 20px 0;'>\
+        {{code}}\
+        </div>\
+        <p>Please enter this code in the application to complete your email verification.</p>\
+        <p>If you didn't request this verification, please ignore this email.</p>\
+        <br>\
+        <p>Best regards,<br>Agro Stock Support Team</p>\
+        </div></body></html>""");
+
+    private static final EmailTemplate PASSWORD_RESET_TEMPLATE = EmailTemplate.compile("""
+        <html><body style='font-family: Arial, sans-serif; max-width: 600px; margin: 0 auto;'>\
+        <div style='background-color: #f8f9fa; padding: 20px; border-radius: 10px;'>\
+        <h2 style='color: #22c55e; text-align: center;'>🔒 Password Reset Request</h2>\
+        <p>Hello,</p>\
+        <p>We received a request to reset your password for your FarmConnect account.</p>\
+        <p>Please use the following token to reset your password:</p>\
+        <div style='background-color: #e9ecef; padding: 15px; border-radius: 5px; \
+        text-align: center; font-size: 24px; font-weight: bold; color: #495057; \
+        letter-spacing: 2px; margin: 20px 0;'>\
+        {{token}}\
+        </div>\
+        <p style='color: #dc3545; font-weight: bold;'>⚠️ This token will expire in 15 minutes.</p>\
+        <p>If you didn't request this password reset, please ignore this email and your \
+        password will remain unchanged.</p>\
+        <hr style='margin: 30px 0;'>\
+        <p style='color: #6c757d; font-size: 12px;'>This is an automated message from FarmConnect. \
+        Please do not reply to this email.</p>\
+        </div>\
+        </body></html>""");
+
+    private static SmtpTransportPool transportPool;
+
+    /**
+     * Pooled connections to the SMTP relay, opened on first use
+     */
+    public static synchronized SmtpTransportPool getTransportPool() {
+        if (transportPool == null) {
+            Properties props = new Properties();
+            props.put("mail.smtp.auth", "true");
+            props.put("mail.smtp.starttls.enable", "true");
+            props.put("mail.smtp.host", SMTP_HOST);
+            props.put("mail.smtp.port", SMTP_PORT);
+            props.put("mail.smtp.ssl.trust", SMTP_HOST); // Trust the host
+            props.put("mail.smtp.connectiontimeout", "10000"); // 10 seconds
+            props.put("mail.smtp.timeout", "10000"); // 10 seconds
+
+            Session session = Session.getInstance(props, new Authenticator() {
+                @Override
+                protected PasswordAuthentication getPasswordAuthentication() {
+                    return new PasswordAuthentication(USERNAME, PASSWORD);
+                }
+            });
+            transportPool = new SmtpTransportPool(session, SMTP_CONNECTIONS);
+        }
+        return transportPool;
+    }
+
+    /**
+     * Route all mail through another pool, e.g. one pointed at SmtpStubServer
+     */
+    public static synchronized void setTransportPool(SmtpTransportPool pool) {
+        if (transportPool != null && transportPool != pool) {
+            transportPool.shutdown();
+        }
+        transportPool = pool;
+    }
+
     public static void sendVerificationEmail(String to, String verificationCode) throws MessagingException, UnsupportedEncodingException {
         // Validate email address
         if (to == null || to.trim().isEmpty()) {
@@ -26,26 +103,16 @@ public class EmailUtil {
             throw new IllegalArgumentException("Invalid email address format: " + cleanEmail);
         }
         
+        if (verificationCode == null || verificationCode.isBlank()) {
+            throw new IllegalArgumentException("Verification code cannot be null or empty");
+        }
+        
         System.out.println("Sending email to: '" + cleanEmail + "'");
         System.out.println("Verification code: " + verificationCode);
         
-        // SMTP properties
-        Properties props = new Properties();
-        props.put("mail.smtp.auth", "true");
-        props.put("mail.smtp.starttls.enable", "true");
-        props.put("mail.smtp.host", SMTP_HOST);
-        props.put("mail.smtp.port", SMTP_PORT);
-        props.put("mail.smtp.ssl.trust", SMTP_HOST); // Trust the host
-        props.put("mail.smtp.connectiontimeout", "10000"); // 10 seconds
-        props.put("mail.smtp.timeout", "10000"); // 10 seconds
-
-        // Create mail session
-        Session session = Session.getInstance(props, new Authenticator() {
-            @Override
-            protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(USERNAME, PASSWORD);
-            }
-        });
+        // Shared session and connections
+        SmtpTransportPool pool = getTransportPool();
+        Session session = pool.getSession();
 
         try {
             // Compose the message
@@ -63,25 +130,12 @@ public class EmailUtil {
             message.setHeader("X-Mailer", "Agro Stock Application");
 
             // Email body (HTML with better formatting)
-            String content = "<!DOCTYPE html>"
-                    + "<html><head><meta charset='UTF-8'></head><body>"
-                    + "<div style='font-family: Arial, sans-serif; max-width: 600px; margin: 0 auto;'>"
-                    + "<h2 style='color: #2E8B57;'>Email Verification - Agro Stock</h2>"
-                    + "<p>Hello,</p>"
-                    + "<p>Thank you for registering with Agro Stock. Please use the verification code below to complete your registration:</p>"
-                    + "<div style='background-color: #f0f0f0; padding: 20px; text-align: center; font-size: 24px; font-weight: bold; color: #2E8B57; border-radius: 5px; margin: 20px 0;'>"
-                    + verificationCode
-                    + "</div>"
-                    + "<p>Please enter this code in the application to complete your email verification.</p>"
-                    + "<p>If you didn't request this verification, please ignore this email.</p>"
-                    + "<br>"
-                    + "<p>Best regards,<br>Agro Stock Support Team</p>"
-                    + "</div></body></html>";
+            String content = VERIFICATION_TEMPLATE.render(Map.of("code", verificationCode));
 
             message.setContent(content, "text/html; charset=UTF-8");
 
             // Send the email
-            Transport.send(message);
+            pool.send(message);
             System.out.println("Verification email sent successfully to: " + cleanEmail);
             
         } catch (Exception e) {
@@ -115,23 +169,9 @@ public class EmailUtil {
         System.out.println("Sending notification email to: '" + cleanEmail + "'");
         System.out.println("Subject: " + subject);
         
-        // SMTP properties
-        Properties props = new Properties();
-        props.put("mail.smtp.auth", "true");
-        props.put("mail.smtp.starttls.enable", "true");
-        props.put("mail.smtp.host", SMTP_HOST);
-        props.put("mail.smtp.port", SMTP_PORT);
-        props.put("mail.smtp.ssl.trust", SMTP_HOST);
-        props.put("mail.smtp.connectiontimeout", "10000");
-        props.put("mail.smtp.timeout", "10000");
-
-        // Create mail session
-        Session session = Session.getInstance(props, new Authenticator() {
-            @Override
-            protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(USERNAME, PASSWORD);
-            }
-        });
+        // Shared session and connections
+        SmtpTransportPool pool = getTransportPool();
+        Session session = pool.getSession();
 
         try {
             // Create the email message
@@ -144,7 +184,7 @@ public class EmailUtil {
             message.setContent(body, "text/html; charset=UTF-8");
 
             // Send the email
-            Transport.send(message);
+            pool.send(message);
             System.out.println("Notification email sent successfully to: " + cleanEmail);
             
         } catch (Exception e) {
@@ -163,27 +203,12 @@ public class EmailUtil {
      */
     public static void sendPasswordResetEmail(String to, String resetToken) 
             throws MessagingException, UnsupportedEncodingException {
+        if (resetToken == null || resetToken.isBlank()) {
+            throw new IllegalArgumentException("Reset token cannot be null or empty");
+        }
         String subject = "🔒 Password Reset Request - FarmConnect";
         
-        String body = "<html><body style='font-family: Arial, sans-serif; max-width: 600px; margin: 0 auto;'>" +
-                "<div style='background-color: #f8f9fa; padding: 20px; border-radius: 10px;'>" +
-                "<h2 style='color: #22c55e; text-align: center;'>🔒 Password Reset Request</h2>" +
-                "<p>Hello,</p>" +
-                "<p>We received a request to reset your password for your FarmConnect account.</p>" +
-                "<p>Please use the following token to reset your password:</p>" +
-                "<div style='background-color: #e9ecef; padding: 15px; border-radius: 5px; " +
-                "text-align: center; font-size: 24px; font-weight: bold; color: #495057; " +
-                "letter-spacing: 2px; margin: 20px 0;'>" +
-                resetToken +
-                "</div>" +
-                "<p style='color: #dc3545; font-weight: bold;'>⚠️ This token will expire in 15 minutes.</p>" +
-                "<p>If you didn't request this password reset, please ignore this email and your " +
-                "password will remain unchanged.</p>" +
-                "<hr style='margin: 30px 0;'>" +
-                "<p style='color: #6c757d; font-size: 12px;'>This is an automated message from FarmConnect. " +
-                "Please do not reply to this email.</p>" +
-                "</div>" +
-                "</body></html>";
+        String body = PASSWORD_RESET_TEMPLATE.render(Map.of("token", resetToken));
         
         sendNotificationEmail(to, subject, body);
     }
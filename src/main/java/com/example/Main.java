@@ -51,8 +51,10 @@ import java.util.Random;
 
 // Payment system imports
 import com.example.models.PaymentMethod;
+import com.example.models.Money;
 import com.example.models.Transaction;
 import com.example.services.PaymentService;
+import com.example.services.PaymentRetryScheduler;
 import com.example.ui.AnalyticsDashboard;
 
 public class Main extends Application {
@@ -73,18 +75,20 @@ public class Main extends Application {
     private List<CartItem> cartItems = new ArrayList<>();
     private Label cartBadge;
     private Customer currentCustomer;
+    // Order being paid for; kept after a failed payment so another attempt pays the same order
+    private String pendingOrderId;
 
     private static Connection dbConnection;
 
     private static class CartItem {
         private String name;
-        private double price;
+        private long priceMinor; // cents
         private String unit;
         private int quantity;
 
         public CartItem(String name, double price, String unit, int quantity) {
             this.name = name;
-            this.price = price;
+            this.priceMinor = Money.toMinor(price);
             this.unit = unit;
             this.quantity = quantity;
         }
@@ -94,7 +98,15 @@ public class Main extends Application {
         }
 
         public double getPrice() {
-            return price;
+            return Money.toMajor(priceMinor);
+        }
+
+        public long getPriceMinor() {
+            return priceMinor;
+        }
+
+        public long getLineTotalMinor() {
+            return Money.multiplyMinor(priceMinor, quantity);
         }
 
         public String getUnit() {
@@ -110,6 +122,14 @@ public class Main extends Application {
         }
     }
 
+    private long cartSubtotalMinor() {
+        long subtotalMinor = 0;
+        for (CartItem item : cartItems) {
+            subtotalMinor = Money.addMinor(subtotalMinor, item.getLineTotalMinor());
+        }
+        return subtotalMinor;
+    }
+
     private void updateCartBadge() {
         if (cartBadge != null) {
             int totalItems = cartItems.stream().mapToInt(CartItem::getQuantity).sum();
@@ -123,6 +143,9 @@ public class Main extends Application {
         this.primaryStage = primaryStage;
         this.productsList = FXCollections.observableArrayList();
 
+        // Resume payment retries left pending by a previous run
+        PaymentRetryScheduler.getInstance();
+
         // Initialize H2 database connection
         try {
             dbConnection = DriverManager.getConnection("jdbc:h2:~/farmers_customers_db;MODE=MySQL", "sa", "");
@@ -163,7 +186,8 @@ public class Main extends Application {
                     "passwordSalt VARCHAR(255), " +
                     "verified BOOLEAN DEFAULT FALSE, " +
                     "deactivated BOOLEAN DEFAULT FALSE, " +
-                    "isAdmin BOOLEAN DEFAULT FALSE" +
+                    "isAdmin BOOLEAN DEFAULT FALSE, " +
+                    "promotionalNotifications BOOLEAN DEFAULT TRUE" +
                     ")";
             String createProductTable = "CREATE TABLE IF NOT EXISTS Product (" +
                     "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
@@ -722,6 +746,7 @@ public class Main extends Application {
                     customer.setPasswordHash(rs.getString("passwordHash"));
                     customer.setPasswordSalt(rs.getString("passwordSalt"));
                     customer.setAdmin(rs.getBoolean("isAdmin"));
+                    customer.setPromotionalNotificationsEnabled(rs.getBoolean("promotionalNotifications"));
                     // Set the database ID to the customer object
                     customer.setId(String.valueOf(rs.getLong("id")));
                     
@@ -1465,6 +1490,14 @@ public class Main extends Application {
         return email.contains("@") && email.contains(".");
     }
 
+    // Campaigns pick their recipients by this column
+    private void saveNotificationPreferences(Customer customer) throws SQLException {
+        var stmt = dbConnection.prepareStatement("UPDATE Customer SET promotionalNotifications=? WHERE username=?");
+        stmt.setBoolean(1, customer.isPromotionalNotificationsEnabled());
+        stmt.setString(2, customer.getUsername());
+        stmt.executeUpdate();
+    }
+
     private void showAlert(String title, String content) {
         Alert alert = new Alert(Alert.AlertType.INFORMATION);
         alert.setTitle(title);
@@ -1946,6 +1979,13 @@ public class Main extends Application {
                     orderNotificationsCheck.isSelected(),
                     promotionalNotificationsCheck.isSelected()
                 );
+                if (currentUser instanceof Customer) {
+                    try {
+                        saveNotificationPreferences((Customer) currentUser);
+                    } catch (Exception ex) {
+                        System.err.println("Failed to save notification preferences: " + ex.getMessage());
+                    }
+                }
                 
                 Platform.runLater(() -> {
                     Alert alert = new Alert(Alert.AlertType.INFORMATION);
@@ -2925,7 +2965,12 @@ public class Main extends Application {
         Button saveSettingsBtn = new Button("Save Settings");
         saveSettingsBtn.setStyle("-fx-background-color: #1565C0; -fx-text-fill: white; -fx-font-weight: bold; -fx-padding: 10px 20px; -fx-background-radius: 5px;");
         saveSettingsBtn.setOnAction(e -> {
-            // Save notification preferences to database here
+            try {
+                saveNotificationPreferences(customer);
+            } catch (Exception ex) {
+                showAlert("Error", "Failed to save notification preferences: " + ex.getMessage());
+                return;
+            }
             showAlert("Settings Saved", "Your notification preferences have been updated.");
         });
 
@@ -3545,15 +3590,13 @@ public class Main extends Application {
         summary.setStyle(
                 "-fx-background-color: white; -fx-padding: 20px; -fx-background-radius: 10px; -fx-effect: dropshadow(gaussian, rgba(0,0,0,0.1), 10, 0, 0, 2);");
 
-        double subtotal = this.cartItems.stream()
-                .mapToDouble(item -> item.getPrice() * item.getQuantity())
-                .sum();
-        double shipping = 5.99;
-        double total = subtotal + shipping;
+        Money subtotal = Money.ofMinor(cartSubtotalMinor());
+        Money shipping = Money.ofMinor(599);
+        Money total = subtotal.plus(shipping);
 
-        Label subtotalLabel = new Label(String.format("Subtotal: $%.2f", subtotal));
-        Label shippingLabel = new Label(String.format("Shipping: $%.2f", shipping));
-        Label totalLabel = new Label(String.format("Total: $%.2f", total));
+        Label subtotalLabel = new Label("Subtotal: " + subtotal.format());
+        Label shippingLabel = new Label("Shipping: " + shipping.format());
+        Label totalLabel = new Label("Total: " + total.format());
         totalLabel.setStyle("-fx-font-weight: bold; -fx-font-size: 18px;");
 
         Button checkoutBtn = new Button("Proceed to Checkout");
@@ -3935,7 +3978,7 @@ public class Main extends Application {
 
         // Items summary
         VBox itemsList = new VBox(8); // Reduced spacing
-        double subtotal = 0;
+        long subtotalMinor = 0;
         for (CartItem item : cartItems) {
             HBox itemRow = new HBox();
             itemRow.setAlignment(Pos.CENTER_LEFT);
@@ -3950,36 +3993,37 @@ public class Main extends Application {
             Region spacer = new Region();
             HBox.setHgrow(spacer, Priority.ALWAYS);
             
-            double itemTotal = item.getPrice() * item.getQuantity();
-            Label price = new Label(String.format("$%.2f", itemTotal));
+            long itemTotalMinor = item.getLineTotalMinor();
+            Label price = new Label(Money.ofMinor(itemTotalMinor).format());
             price.setStyle("-fx-font-size: 14px; -fx-font-weight: bold; -fx-text-fill: #4CAF50;");
             
             itemRow.getChildren().addAll(itemName, quantity, spacer, price);
             itemsList.getChildren().add(itemRow);
             
-            subtotal += itemTotal;
+            subtotalMinor = Money.addMinor(subtotalMinor, itemTotalMinor);
         }
+        Money subtotal = Money.ofMinor(subtotalMinor);
+        Money tax = subtotal.percentage(850);
+        boolean freeShipping = subtotalMinor >= 5000;
+        Money shipping = Money.ofMinor(freeShipping ? 0 : 599);
+        Money total = subtotal.plus(tax).plus(shipping);
 
         // Cost breakdown
         VBox costBreakdown = new VBox(6); // Reduced spacing
         costBreakdown.setStyle("-fx-background-color: #f8f9fa; -fx-padding: 12px; -fx-background-radius: 8px;"); // Reduced padding
 
-        Label subtotalLabel = new Label(String.format("Subtotal: $%.2f", subtotal));
+        Label subtotalLabel = new Label("Subtotal: " + subtotal.format());
         subtotalLabel.setStyle("-fx-font-size: 13px; -fx-text-fill: #333333;"); // Added text color
         
-        Label taxLabel = new Label(String.format("Tax (8.5%%): $%.2f", subtotal * 0.085));
+        Label taxLabel = new Label("Tax (8.5%): " + tax.format());
         taxLabel.setStyle("-fx-font-size: 13px; -fx-text-fill: #333333;");
         
-        Label shippingLabel = new Label(subtotal >= 50 ? "Shipping: FREE" : "Shipping: $5.99");
+        Label shippingLabel = new Label(freeShipping ? "Shipping: FREE" : "Shipping: " + shipping.format());
         shippingLabel.setStyle("-fx-font-size: 13px; -fx-text-fill: #333333;");
         
         Separator separator = new Separator();
         
-        double tax = subtotal * 0.085;
-        double shipping = subtotal >= 50 ? 0 : 5.99;
-        double total = subtotal + tax + shipping;
-        
-        Label totalLabel = new Label(String.format("Total: $%.2f", total));
+        Label totalLabel = new Label("Total: " + total.format());
         totalLabel.setStyle("-fx-font-size: 15px; -fx-font-weight: bold; -fx-text-fill: #2E7D32;"); // Reduced font size
 
         costBreakdown.getChildren().addAll(subtotalLabel, taxLabel, shippingLabel, separator, totalLabel);
@@ -3994,7 +4038,7 @@ public class Main extends Application {
         summary.setStyle("-fx-background-color: #e3f2fd; -fx-padding: 12px; -fx-background-radius: 8px;"); // Reduced padding
 
         int totalItems = cartItems.stream().mapToInt(CartItem::getQuantity).sum();
-        double subtotal = cartItems.stream().mapToDouble(item -> item.getPrice() * item.getQuantity()).sum();
+        Money subtotal = Money.ofMinor(cartSubtotalMinor());
 
         Label summaryTitle = new Label("🛒 Order Summary");
         summaryTitle.setStyle("-fx-font-size: 16px; -fx-font-weight: bold; -fx-text-fill: #333333;");
@@ -4002,7 +4046,7 @@ public class Main extends Application {
         Label itemsLabel = new Label(String.format("%d items in cart", totalItems));
         itemsLabel.setStyle("-fx-text-fill: #333333;");
         
-        Label subtotalLabel = new Label(String.format("Subtotal: $%.2f", subtotal));
+        Label subtotalLabel = new Label("Subtotal: " + subtotal.format());
         subtotalLabel.setStyle("-fx-text-fill: #333333;");
 
         summary.getChildren().addAll(summaryTitle, itemsLabel, subtotalLabel);
@@ -4072,23 +4116,36 @@ public class Main extends Application {
             com.example.services.PaymentService paymentService = new com.example.services.PaymentService();
 
             // Calculate totals
-            double subtotal = cartItems.stream().mapToDouble(item -> item.getPrice() * item.getQuantity()).sum();
+            Money subtotal = Money.ofMinor(cartSubtotalMinor());
             
             // Create a mock payment method for demo
             com.example.models.PaymentMethod.PaymentType type = com.example.models.PaymentMethod.PaymentType.valueOf(paymentMethodType);
             com.example.models.PaymentMethod paymentMethod = new com.example.models.PaymentMethod(
                 currentCustomer.getId(), type, type.getDisplayName() + " •••• 1234"
             );
+            // Demo details, since the gateway validates them before charging
+            if (type == com.example.models.PaymentMethod.PaymentType.CREDIT_CARD
+                    || type == com.example.models.PaymentMethod.PaymentType.DEBIT_CARD) {
+                paymentMethod.setMaskedCardNumber("**** **** **** 1234");
+                paymentMethod.setCardType("VISA");
+                paymentMethod.setExpiryMonth("12");
+                paymentMethod.setExpiryYear(String.valueOf(java.time.Year.now().getValue() + 3));
+            } else if (type == com.example.models.PaymentMethod.PaymentType.PAYPAL) {
+                paymentMethod.setWalletAccountId(currentCustomer.getEmail());
+            } else if (type == com.example.models.PaymentMethod.PaymentType.BANK_TRANSFER) {
+                paymentMethod.setMaskedAccountNumber("****1234");
+            }
 
             // Save payment method
             paymentService.savePaymentMethod(paymentMethod);
 
             // Create transaction
-            String orderId = "ORD_" + System.currentTimeMillis();
+            String orderId = pendingOrderId != null ? pendingOrderId : "ORD_" + System.currentTimeMillis();
+            pendingOrderId = orderId;
             com.example.models.Transaction transaction = new com.example.models.Transaction(
                 orderId, currentCustomer.getId(), paymentMethod.getId(),
                 com.example.models.Transaction.TransactionType.PURCHASE,
-                java.math.BigDecimal.valueOf(subtotal), "USD"
+                subtotal.toBigDecimal(), subtotal.getCurrency()
             );
 
             // Add items to transaction
@@ -4098,7 +4155,7 @@ public class Main extends Application {
                         "ITEM_" + System.currentTimeMillis(), // Using generated ID since CartItem doesn't have product ID
                         cartItem.getName(),
                         cartItem.getQuantity(),
-                        java.math.BigDecimal.valueOf(cartItem.getPrice())
+                        Money.ofMinor(cartItem.getPriceMinor()).toBigDecimal()
                     );
                 transactionItem.setCategory("Agricultural Products"); // Default category
                 transaction.addItem(transactionItem);
@@ -4153,6 +4210,13 @@ public class Main extends Application {
                 
                 if (result.getStatus().isSuccessful()) {
                     showOrderConfirmation(result, address, phone, notes);
+                } else if (result.getStatus() == com.example.models.Transaction.TransactionStatus.PROCESSING) {
+                    // The provider has not answered yet; paying again could charge twice
+                    showAlert("Payment Being Confirmed",
+                        "We are waiting for the payment provider to confirm your payment of "
+                            + result.getFormattedAmount() + ". You will be notified once it is confirmed, "
+                            + "so please do not pay for this order again.",
+                        Alert.AlertType.INFORMATION);
                 } else {
                     showPaymentFailureDialog(result, paymentService);
                 }
@@ -4168,27 +4232,47 @@ public class Main extends Application {
 
     private void showPaymentFailureDialog(com.example.models.Transaction transaction, 
                                         com.example.services.PaymentService paymentService) {
-        Alert alert = new Alert(Alert.AlertType.ERROR);
-        alert.setTitle("Payment Failed");
-        alert.setHeaderText("Payment could not be processed");
-        alert.setContentText("Reason: " + transaction.getFailureReason() + "\n\nWould you like to try again or choose a different payment method?");
+        boolean retryPending = paymentService.isRetryPending(transaction.getId());
+
+        Alert alert = new Alert(retryPending ? Alert.AlertType.INFORMATION : Alert.AlertType.ERROR);
+        if (retryPending) {
+            alert.setTitle("Payment Pending");
+            alert.setHeaderText("Your payment will be retried automatically");
+            alert.setContentText("Reason: " + transaction.getFailureReason()
+                + "\n\nWe will try again shortly and notify you of the result. You can also try again now "
+                + "or choose a different payment method.");
+        } else {
+            alert.setTitle("Payment Failed");
+            alert.setHeaderText("Payment could not be processed");
+            alert.setContentText("Reason: " + transaction.getFailureReason() + "\n\nWould you like to try again or choose a different payment method?");
+        }
 
-        ButtonType retryButton = new ButtonType("Try Again");
+        ButtonType retryButton = new ButtonType(retryPending ? "Try Again Now" : "Try Again");
         ButtonType changeMethodButton = new ButtonType("Change Payment Method");
+        ButtonType waitButton = new ButtonType("Wait for Retry", ButtonBar.ButtonData.OK_DONE);
         ButtonType cancelButton = new ButtonType("Cancel", ButtonBar.ButtonData.CANCEL_CLOSE);
 
-        alert.getButtonTypes().setAll(retryButton, changeMethodButton, cancelButton);
+        if (retryPending) {
+            alert.getButtonTypes().setAll(retryButton, changeMethodButton, waitButton, cancelButton);
+        } else {
+            alert.getButtonTypes().setAll(retryButton, changeMethodButton, cancelButton);
+        }
 
         Optional<ButtonType> result = alert.showAndWait();
-        if (result.isPresent()) {
-            if (result.get() == retryButton && transaction.canBeRetried()) {
-                // Retry payment
-                transaction.incrementRetryCount();
-                showPaymentProcessingDialog(transaction, paymentService, "", "", "");
-            } else if (result.get() == changeMethodButton) {
-                // Show checkout dialog again
-                showCheckoutDialog();
-            }
+        if (result.isEmpty() || result.get() == waitButton) {
+            return;
+        }
+        // Any other choice replaces the scheduled retry, which must not charge alongside it
+        paymentService.cancelRetry(transaction.getId());
+        if (result.get() == retryButton && transaction.canBeRetried()) {
+            // Retry payment
+            transaction.incrementRetryCount();
+            showPaymentProcessingDialog(transaction, paymentService, "", "", "");
+        } else if (result.get() == changeMethodButton) {
+            // Show checkout dialog again; the new payment keeps this order id
+            showCheckoutDialog();
+        } else if (result.get() == cancelButton) {
+            pendingOrderId = null;
         }
     }
 
@@ -4196,6 +4280,7 @@ public class Main extends Application {
                                       String address, String phone, String notes) {
         // Clear the cart
         cartItems.clear();
+        pendingOrderId = null;
         updateCartBadge();
 
         // Create detailed confirmation dialog
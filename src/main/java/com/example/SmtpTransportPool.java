@@ -0,0 +1,241 @@
+package com.example;
+
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Long-lived SMTP connections shared by all outgoing mail.
+ *
+ * Messages are queued and picked up by a fixed set of sender threads, each owning
+ * one connection. A sender drains whatever has queued up and sends it back to back
+ * over its connection, so the TLS handshake and AUTH are paid once per connection
+ * rather than once per email. A broken connection is reopened and the message
+ * retried once; idle connections are closed and reopened on demand.
+ */
+public class SmtpTransportPool {
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30_000;
+    // Servers such as Brevo cap messages per session; reconnect well before that
+    private static final int MAX_MESSAGES_PER_CONNECTION = 500;
+    // How long send() waits for the server to accept a message, queueing included
+    private static final long SEND_TIMEOUT_MILLIS = 120_000;
+
+    private final Session session;
+    private final int batchSize;
+    private final long idleTimeoutMillis;
+    private final LinkedBlockingQueue<PendingMail> queue = new LinkedBlockingQueue<>();
+    private final List<Thread> senders = new ArrayList<>();
+    private volatile boolean shutdown;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+
+    private static class PendingMail {
+        private final Message message;
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        PendingMail(Message message) {
+            this.message = message;
+        }
+    }
+
+    public SmtpTransportPool(Session session, int connections) {
+        this(session, connections, DEFAULT_BATCH_SIZE, DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+
+    public SmtpTransportPool(Session session, int connections, int batchSize, long idleTimeoutMillis) {
+        this.session = session;
+        this.batchSize = batchSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+
+        for (int i = 1; i <= connections; i++) {
+            Thread sender = new Thread(this::runSender, "smtp-sender-" + i);
+            sender.setDaemon(true);
+            sender.start();
+            senders.add(sender);
+        }
+    }
+
+    /**
+     * Session to build messages with; carries the server settings and credentials
+     */
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * Queue a message; the future completes once the server has accepted it
+     */
+    public CompletableFuture<Void> submit(Message message) {
+        PendingMail mail = new PendingMail(message);
+        if (shutdown) {
+            mail.result.completeExceptionally(new MessagingException("SMTP pool is shut down"));
+            return mail.result;
+        }
+        queue.add(mail);
+        // Shut down after the check above: if shutdown() already drained the queue,
+        // nobody else will complete this mail
+        if (shutdown && queue.remove(mail)) {
+            mail.result.completeExceptionally(new MessagingException("SMTP pool is shut down"));
+        }
+        return mail.result;
+    }
+
+    /**
+     * Send a message over a pooled connection and wait for the server to accept it.
+     * Gives up after two minutes; the message may still go out later in that case.
+     */
+    public void send(Message message) throws MessagingException {
+        try {
+            submit(message).get(SEND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new MessagingException("Timed out waiting for the SMTP server to accept the email");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while sending email", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MessagingException) {
+                throw (MessagingException) e.getCause();
+            }
+            throw new MessagingException("Error sending email", (Exception) e.getCause());
+        }
+    }
+
+    public int getQueuedCount() { return queue.size(); }
+    public long getSentCount() { return sent.sum(); }
+    public long getFailedCount() { return failed.sum(); }
+    public long getConnectionsOpened() { return connectionsOpened.sum(); }
+    public long getReconnectCount() { return reconnects.sum(); }
+
+    public void shutdown() {
+        shutdown = true;
+        senders.forEach(Thread::interrupt);
+        PendingMail mail;
+        while ((mail = queue.poll()) != null) {
+            mail.result.completeExceptionally(new MessagingException("SMTP pool is shut down"));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SmtpTransportPool{senders=%d, queued=%d, sent=%d, failed=%d, connections=%d, reconnects=%d}",
+                senders.size(), getQueuedCount(), getSentCount(), getFailedCount(), getConnectionsOpened(),
+                getReconnectCount());
+    }
+
+    private void runSender() {
+        Transport transport = null;
+        int sentOnConnection = 0;
+        List<PendingMail> batch = new ArrayList<>(batchSize);
+
+        while (!shutdown) {
+            try {
+                PendingMail first = queue.poll(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    // Idle: let the server forget us rather than have it drop us mid-send later
+                    close(transport);
+                    transport = null;
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            for (int i = 0; i < batch.size(); i++) {
+                PendingMail mail = batch.get(i);
+                if (transport != null && sentOnConnection >= MAX_MESSAGES_PER_CONNECTION) {
+                    close(transport);
+                    transport = null;
+                }
+
+                try {
+                    if (transport == null) {
+                        transport = connect();
+                        sentOnConnection = 0;
+                    }
+                    deliver(transport, mail);
+                    sentOnConnection++;
+                } catch (SendFailedException e) {
+                    // Rejected recipients; the connection itself is fine
+                    fail(mail, e);
+                } catch (RuntimeException e) {
+                    // A broken message must not kill the sender; the connection state is unknown
+                    close(transport);
+                    transport = null;
+                    fail(mail, e);
+                } catch (MessagingException e) {
+                    close(transport);
+                    transport = null;
+                    try {
+                        reconnects.increment();
+                        transport = connect();
+                        sentOnConnection = 0;
+                        deliver(transport, mail);
+                        sentOnConnection++;
+                    } catch (RuntimeException retryError) {
+                        close(transport);
+                        transport = null;
+                        fail(mail, retryError);
+                    } catch (MessagingException retryError) {
+                        close(transport);
+                        transport = null;
+                        // Server unreachable; fail the rest of the batch instead of timing out on each
+                        for (int j = i; j < batch.size(); j++) {
+                            fail(batch.get(j), retryError);
+                        }
+                        break;
+                    }
+                }
+            }
+            batch.clear();
+        }
+
+        close(transport);
+    }
+
+    private Transport connect() throws MessagingException {
+        Transport transport = session.getTransport("smtp");
+        transport.connect();
+        connectionsOpened.increment();
+        return transport;
+    }
+
+    private void deliver(Transport transport, PendingMail mail) throws MessagingException {
+        mail.message.saveChanges();
+        transport.sendMessage(mail.message, mail.message.getAllRecipients());
+        sent.increment();
+        mail.result.complete(null);
+    }
+
+    private void fail(PendingMail mail, Exception error) {
+        failed.increment();
+        System.err.println("Error sending email: " + error.getMessage());
+        mail.result.completeExceptionally(error);
+    }
+
+    private static void close(Transport transport) {
+        if (transport == null) {
+            return;
+        }
+        try {
+            transport.close();
+        } catch (MessagingException e) {
+            // Already broken; nothing more to release
+        }
+    }
+}
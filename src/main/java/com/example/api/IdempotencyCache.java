@@ -0,0 +1,168 @@
+package com.example.api;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Idempotency layer for side-effecting API calls.
+ * Concurrent requests with the same key share one execution, and completed
+ * results are replayed until they expire. A key reused for a different request,
+ * told apart by a caller-supplied fingerprint, is rejected instead of replayed.
+ */
+public class IdempotencyCache<T> {
+
+    private final Map<String, Entry<T>> entries;
+    private final long ttlMillis;
+    private final int maxEntries;
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * A key was reused with a request that differs from the one it was first used for
+     */
+    public static class KeyReuseException extends IllegalArgumentException {
+        public KeyReuseException(String key) {
+            super("Idempotency key " + key + " was already used for a different request");
+        }
+    }
+
+    // A recorded execution: in flight while completedAt is zero
+    private static class Entry<T> {
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final String fingerprint;
+        private volatile long completedAt;
+
+        Entry(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        boolean isExpired(long now, long ttlMillis) {
+            long done = completedAt;
+            return done != 0 && now - done > ttlMillis;
+        }
+    }
+
+    public IdempotencyCache(long ttl, TimeUnit unit, int maxEntries) {
+        this.entries = new ConcurrentHashMap<>();
+        this.ttlMillis = unit.toMillis(ttl);
+        this.maxEntries = maxEntries;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "idempotency-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long sweepInterval = Math.max(1000L, Math.min(ttlMillis, 60_000L));
+        sweeper.scheduleAtFixedRate(this::evictExpired, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Run the action once per key; duplicates receive the in-flight or cached result
+     */
+    public CompletableFuture<T> execute(String key, Supplier<CompletableFuture<T>> action) {
+        return execute(key, action, value -> true);
+    }
+
+    /**
+     * As {@link #execute(String, Supplier)}, but results rejected by {@code cacheable}
+     * are only shared with concurrent duplicates and not replayed afterwards
+     */
+    public CompletableFuture<T> execute(String key, Supplier<CompletableFuture<T>> action, Predicate<T> cacheable) {
+        return execute(key, null, action, cacheable);
+    }
+
+    /**
+     * As {@link #execute(String, Supplier, Predicate)}, but a duplicate whose fingerprint
+     * differs from the recorded one fails with {@link KeyReuseException}
+     */
+    public CompletableFuture<T> execute(String key, String fingerprint, Supplier<CompletableFuture<T>> action,
+                                        Predicate<T> cacheable) {
+        if (key == null || key.isEmpty()) {
+            return action.get();
+        }
+
+        Entry<T> entry = new Entry<>(fingerprint);
+        while (true) {
+            Entry<T> existing = entries.putIfAbsent(key, entry);
+            if (existing == null) {
+                break;
+            }
+            if (!existing.isExpired(System.currentTimeMillis(), ttlMillis)) {
+                if (!Objects.equals(existing.fingerprint, fingerprint)) {
+                    return CompletableFuture.failedFuture(new KeyReuseException(key));
+                }
+                return existing.result;
+            }
+            if (entries.replace(key, existing, entry)) {
+                break;
+            }
+        }
+
+        // Over capacity: duplicates already waiting on the entry still get the result,
+        // but it is dropped on completion rather than letting the map grow without bound
+        boolean record = true;
+        if (entries.size() > maxEntries) {
+            evictExpired();
+            record = entries.size() <= maxEntries;
+        }
+
+        boolean keep = record;
+        try {
+            action.get().whenComplete((value, error) -> {
+                if (error != null) {
+                    // Failed executions are not cached so the client can retry
+                    entries.remove(key, entry);
+                    entry.result.completeExceptionally(error);
+                } else if (keep && cacheable.test(value)) {
+                    entry.completedAt = System.currentTimeMillis();
+                    entry.result.complete(value);
+                } else {
+                    entries.remove(key, entry);
+                    entry.result.complete(value);
+                }
+            });
+        } catch (RuntimeException e) {
+            entries.remove(key, entry);
+            entry.result.completeExceptionally(e);
+        }
+
+        return entry.result;
+    }
+
+    /**
+     * Whether a completed or in-flight execution is recorded for the key
+     */
+    public boolean contains(String key) {
+        Entry<T> entry = entries.get(key);
+        return entry != null && !entry.isExpired(System.currentTimeMillis(), ttlMillis);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Remove completed entries older than the time-to-live
+     */
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry<T>> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().isExpired(now, ttlMillis)) {
+                it.remove();
+            }
+        }
+    }
+
+    public void shutdown() {
+        sweeper.shutdownNow();
+        entries.clear();
+    }
+}
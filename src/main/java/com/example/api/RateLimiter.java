@@ -0,0 +1,187 @@
+package com.example.api;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-client, per-endpoint token bucket rate limiter.
+ * Each bucket is a single lock-free counter holding the time at which the
+ * bucket will be full again, so acquiring a token is one CAS on the hot path.
+ */
+public class RateLimiter {
+
+    // Default limit applied to endpoints without an explicit configuration
+    private static final Limit DEFAULT_LIMIT = new Limit(20, 10.0);
+    private static final int DEFAULT_MAX_TRACKED_CLIENTS = 10_000;
+    // At capacity, new clients trigger at most one idle sweep per interval
+    private static final long EVICTION_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<String, Limit> endpointLimits;
+    private final Map<String, Bucket> buckets;
+    private final Map<String, Bucket> overflowBuckets;
+    private final int maxTrackedClients;
+    private final AtomicLong lastEvictionAt;
+
+    // Token bucket configuration: burst capacity and sustained refill rate
+    public static class Limit {
+        private final int burst;
+        private final double refillPerSecond;
+        private final long nanosPerToken;
+
+        public Limit(int burst, double refillPerSecond) {
+            if (burst < 1) {
+                throw new IllegalArgumentException("Burst must be at least 1");
+            }
+            if (refillPerSecond <= 0) {
+                throw new IllegalArgumentException("Refill rate must be positive");
+            }
+            this.burst = burst;
+            this.refillPerSecond = refillPerSecond;
+            this.nanosPerToken = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / refillPerSecond));
+        }
+
+        public int getBurst() { return burst; }
+        public double getRefillPerSecond() { return refillPerSecond; }
+        long getNanosPerToken() { return nanosPerToken; }
+        long getCapacityNanos() { return nanosPerToken * burst; }
+    }
+
+    // Outcome of a token acquisition attempt
+    public static class Decision {
+        private final boolean allowed;
+        private final int remaining;
+        private final long retryAfterMillis;
+
+        Decision(boolean allowed, int remaining, long retryAfterMillis) {
+            this.allowed = allowed;
+            this.remaining = remaining;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        public boolean isAllowed() { return allowed; }
+        public int getRemaining() { return remaining; }
+        public long getRetryAfterMillis() { return retryAfterMillis; }
+
+        public long getRetryAfterSeconds() {
+            return Math.max(1L, (retryAfterMillis + 999) / 1000);
+        }
+    }
+
+    // Lock-free bucket: stores the instant (in nanos) at which it is completely refilled
+    private static class Bucket {
+        private final AtomicLong fullAt;
+
+        Bucket(long now) {
+            this.fullAt = new AtomicLong(now);
+        }
+
+        Decision tryAcquire(Limit limit, long now) {
+            long interval = limit.getNanosPerToken();
+            long capacity = limit.getCapacityNanos();
+
+            while (true) {
+                long current = fullAt.get();
+                long next = Math.max(current, now) + interval;
+                long debt = next - now;
+
+                if (debt > capacity) {
+                    long waitNanos = debt - capacity;
+                    return new Decision(false, 0, TimeUnit.NANOSECONDS.toMillis(waitNanos) + 1);
+                }
+
+                if (fullAt.compareAndSet(current, next)) {
+                    int remaining = (int) ((capacity - debt) / interval);
+                    return new Decision(true, remaining, 0);
+                }
+            }
+        }
+
+        boolean isIdle(long now) {
+            return fullAt.get() <= now;
+        }
+    }
+
+    public RateLimiter() {
+        this(DEFAULT_MAX_TRACKED_CLIENTS);
+    }
+
+    public RateLimiter(int maxTrackedClients) {
+        if (maxTrackedClients < 1) {
+            throw new IllegalArgumentException("Must track at least one client");
+        }
+        this.endpointLimits = new ConcurrentHashMap<>();
+        this.buckets = new ConcurrentHashMap<>();
+        this.overflowBuckets = new ConcurrentHashMap<>();
+        this.maxTrackedClients = maxTrackedClients;
+        this.lastEvictionAt = new AtomicLong(System.nanoTime() - EVICTION_INTERVAL_NANOS);
+    }
+
+    /**
+     * Configure the burst size and refill rate for an endpoint
+     */
+    public void configure(String endpoint, int burst, double refillPerSecond) {
+        endpointLimits.put(endpoint, new Limit(burst, refillPerSecond));
+    }
+
+    public Limit getLimit(String endpoint) {
+        return endpointLimits.getOrDefault(endpoint, DEFAULT_LIMIT);
+    }
+
+    /**
+     * Try to take one token for the given client on the given endpoint
+     */
+    public Decision tryAcquire(String endpoint, String clientId) {
+        long now = System.nanoTime();
+        Limit limit = getLimit(endpoint);
+        return resolveBucket(endpoint, clientId, now).tryAcquire(limit, now);
+    }
+
+    /**
+     * Number of client buckets currently held in memory
+     */
+    public int getTrackedClientCount() {
+        return buckets.size();
+    }
+
+    /**
+     * Drop buckets that have fully refilled; they are indistinguishable from new ones
+     */
+    public int evictIdle() {
+        long now = System.nanoTime();
+        int evicted = 0;
+        Iterator<Bucket> it = buckets.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().isIdle(now)) {
+                it.remove();
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    private Bucket resolveBucket(String endpoint, String clientId, long now) {
+        String key = endpoint + "|" + (clientId != null ? clientId : "anonymous");
+        Bucket bucket = buckets.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+
+        if (buckets.size() >= maxTrackedClients) {
+            // One thread sweeps; the others fall through to the overflow bucket meanwhile
+            long last = lastEvictionAt.get();
+            if (now - last >= EVICTION_INTERVAL_NANOS && lastEvictionAt.compareAndSet(last, now)) {
+                evictIdle();
+            }
+        }
+
+        // Still at capacity: clients share one bucket per endpoint so limits keep applying
+        if (buckets.size() >= maxTrackedClients) {
+            return overflowBuckets.computeIfAbsent(endpoint, k -> new Bucket(now));
+        }
+
+        return buckets.computeIfAbsent(key, k -> new Bucket(now));
+    }
+}
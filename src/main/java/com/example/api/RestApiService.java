@@ -4,9 +4,20 @@ import com.example.models.*;
 import com.example.services.PaymentGatewayService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
@@ -16,8 +27,39 @@ import java.time.format.DateTimeFormatter;
  */
 public class RestApiService {
     
+    private static final String DB_URL = "jdbc:h2:./agro_db";
+    private static final String DB_USER = "sa";
+    private static final String DB_PASSWORD = "";
+    
     private static final ObjectMapper objectMapper = new ObjectMapper();
     
+    // Rate limited endpoints
+    public static final String ENDPOINT_LOGIN = "POST /api/auth/login";
+    public static final String ENDPOINT_CREATE_ORDER = "POST /api/orders";
+    public static final String ENDPOINT_TRACK_ORDER = "GET /api/orders/track";
+    
+    private static final RateLimiter rateLimiter = new RateLimiter();
+    // Login attempts per username, kept apart so guessed names never crowd out client buckets
+    private static final RateLimiter accountLimiter = new RateLimiter();
+    private static final String LOGIN_ACCOUNT = "login-account";
+    
+    // Replay cache for retried order submissions
+    private static final IdempotencyCache<ApiResponse<Map<String, Object>>> orderIdempotency =
+        new IdempotencyCache<>(24, TimeUnit.HOURS, 50_000);
+    
+    // Webhooks are journaled and acknowledged, then applied off the request thread
+    private static final WebhookIngestionQueue webhookQueue =
+        new WebhookIngestionQueue(4, 100, RestApiService::applyWebhookEvents);
+    
+    static {
+        // Login hashes passwords and order creation charges cards, so both get tight limits
+        rateLimiter.configure(ENDPOINT_LOGIN, 5, 0.2);
+        rateLimiter.configure(ENDPOINT_CREATE_ORDER, 10, 1.0);
+        rateLimiter.configure(ENDPOINT_TRACK_ORDER, 30, 5.0);
+        // Looser than the per-client limit so one client cannot shut an account out
+        accountLimiter.configure(LOGIN_ACCOUNT, 20, 0.05);
+    }
+    
     // API Response wrapper
     public static class ApiResponse<T> {
         private final boolean success;
@@ -80,13 +122,22 @@ public class RestApiService {
         }
     }
     
+    /**
+     * Override the burst size and refill rate of an endpoint
+     */
+    public static void configureRateLimit(String endpoint, int burst, double refillPerSecond) {
+        rateLimiter.configure(endpoint, burst, refillPerSecond);
+    }
+    
     // API endpoints simulation
     
     /**
      * POST /api/auth/login
-     * User authentication endpoint
+     * User authentication endpoint. Attempts are limited per client address, so a
+     * client cycling through usernames gets no extra attempts, and more loosely per
+     * username, so guesses spread over many clients still slow down.
      */
-    public static ApiResponse<Map<String, Object>> authenticateUser(String username, String password) {
+    public static ApiResponse<Map<String, Object>> authenticateUser(String clientAddress, String username, String password) {
         try {
             // Simulate user authentication
             // In real implementation, verify against database
@@ -95,8 +146,20 @@ public class RestApiService {
                 return new ApiResponse<>(false, "Username and password are required", null, null);
             }
             
+            RateLimiter.Decision decision = rateLimiter.tryAcquire(ENDPOINT_LOGIN, clientAddress);
+            if (!decision.isAllowed()) {
+                return rateLimited(decision);
+            }
+            
             // Mock user lookup
             User user = findUserByUsername(username);
+            if (user != null) {
+                // Only real accounts get a bucket, so made-up names cannot fill the map
+                decision = accountLimiter.tryAcquire(LOGIN_ACCOUNT, username);
+                if (!decision.isAllowed()) {
+                    return rateLimited(decision);
+                }
+            }
             if (user == null || !user.checkPassword(password)) {
                 return new ApiResponse<>(false, "Invalid credentials", null, null);
             }
@@ -176,6 +239,66 @@ public class RestApiService {
     public static CompletableFuture<ApiResponse<Map<String, Object>>> createOrder(
             String authToken, 
             Map<String, Object> orderData) {
+        return createOrder(authToken, null, orderData);
+    }
+    
+    /**
+     * POST /api/orders with an Idempotency-Key header
+     * Retries with the same key receive the original response instead of charging again
+     */
+    public static CompletableFuture<ApiResponse<Map<String, Object>>> createOrder(
+            String authToken, 
+            String idempotencyKey,
+            Map<String, Object> orderData) {
+        
+        // Only valid tokens get a bucket, so made-up tokens cannot crowd out real clients
+        AuthToken token = validateToken(authToken);
+        if (token == null || token.isExpired()) {
+            return CompletableFuture.completedFuture(new ApiResponse<>(false, "Invalid or expired token", null, null));
+        }
+        
+        // Reject before any work is scheduled
+        RateLimiter.Decision decision = rateLimiter.tryAcquire(ENDPOINT_CREATE_ORDER, token.getUserId());
+        if (!decision.isAllowed()) {
+            return CompletableFuture.completedFuture(rateLimited(decision));
+        }
+        
+        // Keys are scoped to the user, so a retry after a token refresh still matches;
+        // declined orders are not replayed so the client can fix the problem and retry
+        String scopedKey = idempotencyKey != null ? token.getUserId() + ":" + idempotencyKey : null;
+        return orderIdempotency.execute(scopedKey, fingerprint(orderData),
+                () -> processOrder(authToken, orderData), ApiResponse::isSuccess)
+            .exceptionally(error -> {
+                if (error instanceof IdempotencyCache.KeyReuseException) {
+                    return new ApiResponse<>(false, error.getMessage(), null, Map.of("status", 422));
+                }
+                throw error instanceof CompletionException ? (CompletionException) error : new CompletionException(error);
+            });
+    }
+    
+    // Digest of the request body with map keys sorted, so field order does not matter
+    private static String fingerprint(Map<String, Object> orderData) {
+        try {
+            return sha256Hex(objectMapper.writer()
+                .with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+                .writeValueAsBytes(orderData));
+        } catch (JsonProcessingException e) {
+            return String.valueOf(orderData);
+        }
+    }
+    
+    private static String sha256Hex(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private static CompletableFuture<ApiResponse<Map<String, Object>>> processOrder(
+            String authToken, 
+            Map<String, Object> orderData) {
         
         return CompletableFuture.supplyAsync(() -> {
             try {
@@ -210,12 +333,26 @@ public class RestApiService {
                         Map.of("customerId", customerId)
                     ).join();
                 
+                String orderId = generateOrderId();
+                
+                // The charge may still go through: accept the order and let the payment
+                // webhook settle it, since a replay of this request must not charge again
+                if (paymentResponse.isOutcomeUnknown()) {
+                    Map<String, Object> pendingData = new HashMap<>();
+                    pendingData.put("orderId", orderId);
+                    pendingData.put("customerId", customerId);
+                    pendingData.put("total", total);
+                    pendingData.put("status", "PENDING_PAYMENT");
+                    pendingData.put("paymentStatus", "PENDING");
+                    return new ApiResponse<>(true, "Order received, payment is being confirmed",
+                        pendingData, Map.of("status", 202));
+                }
+                
                 if (!paymentResponse.isSuccess()) {
                     return new ApiResponse<>(false, "Payment failed: " + paymentResponse.getMessage(), null, null);
                 }
                 
                 // Create order
-                String orderId = generateOrderId();
                 Map<String, Object> responseData = new HashMap<>();
                 responseData.put("orderId", orderId);
                 responseData.put("customerId", customerId);
@@ -244,6 +381,11 @@ public class RestApiService {
                 return new ApiResponse<>(false, "Invalid or expired token", null, null);
             }
             
+            RateLimiter.Decision decision = rateLimiter.tryAcquire(ENDPOINT_TRACK_ORDER, token.getUserId());
+            if (!decision.isAllowed()) {
+                return rateLimited(decision);
+            }
+            
             // Mock order tracking data
             Map<String, Object> trackingData = new HashMap<>();
             trackingData.put("orderId", orderId);
@@ -298,32 +440,63 @@ public class RestApiService {
             String eventType = webhookData.get("type").asText();
             String paymentId = webhookData.get("data").get("object").get("id").asText();
             
-            // Handle different webhook events
-            switch (eventType) {
+            // Providers re-deliver events; the event id identifies duplicates, and events
+            // without one are keyed on their payload so a redelivery still matches
+            String eventId = webhookData.hasNonNull("id") ? 
+                webhookData.get("id").asText() : "sha256:" + sha256Hex(payload.getBytes(StandardCharsets.UTF_8));
+            
+            WebhookIngestionQueue.EnqueueResult result = webhookQueue.enqueue(
+                new WebhookIngestionQueue.WebhookEvent(eventId, eventType, paymentId, payload, LocalDateTime.now()));
+            
+            return new ApiResponse<>(true, 
+                result == WebhookIngestionQueue.EnqueueResult.DUPLICATE ? "Webhook already received" : "Webhook accepted", 
+                Map.of("eventId", eventId, "eventType", eventType, "paymentId", paymentId), 
+                Map.of("status", 202));
+            
+        } catch (Exception e) {
+            return new ApiResponse<>(false, "Webhook processing failed: " + e.getMessage(), null, null);
+        }
+    }
+    
+    /**
+     * Apply a batch of webhook events for one queue lane.
+     * Status changes are collapsed to the latest per payment and written in one batch.
+     */
+    private static void applyWebhookEvents(List<WebhookIngestionQueue.WebhookEvent> events) {
+        Map<String, String> paymentStatuses = new LinkedHashMap<>();
+        List<String> chargebacks = new ArrayList<>();
+        
+        for (WebhookIngestionQueue.WebhookEvent event : events) {
+            switch (event.getEventType()) {
                 case "payment_intent.succeeded":
                     // Update order status to paid
-                    updateOrderPaymentStatus(paymentId, "PAID");
+                    paymentStatuses.put(event.getPaymentId(), "PAID");
                     break;
                 case "payment_intent.payment_failed":
                     // Handle failed payment
-                    updateOrderPaymentStatus(paymentId, "FAILED");
+                    paymentStatuses.put(event.getPaymentId(), "FAILED");
                     break;
                 case "charge.dispute.created":
                     // Handle chargeback
-                    handleChargeback(paymentId);
+                    chargebacks.add(event.getPaymentId());
                     break;
             }
-            
-            return new ApiResponse<>(true, "Webhook processed successfully", 
-                Map.of("eventType", eventType, "paymentId", paymentId), null);
-            
-        } catch (Exception e) {
-            return new ApiResponse<>(false, "Webhook processing failed: " + e.getMessage(), null, null);
         }
+        
+        updateOrderPaymentStatuses(paymentStatuses);
+        chargebacks.forEach(RestApiService::handleChargeback);
     }
     
     // Helper methods
     
+    private static <T> ApiResponse<T> rateLimited(RateLimiter.Decision decision) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put("status", 429);
+        metadata.put("Retry-After", decision.getRetryAfterSeconds());
+        metadata.put("retryAfterMillis", decision.getRetryAfterMillis());
+        return new ApiResponse<>(false, "Too many requests", null, metadata);
+    }
+    
     private static User findUserByUsername(String username) {
         // Mock user lookup - in real implementation, query database
         if ("farmer1".equals(username)) {
@@ -405,9 +578,13 @@ public class RestApiService {
     }
     
     private static double calculateOrderTotal(List<Map<String, Object>> items) {
-        return items.stream()
-            .mapToDouble(item -> ((Number) item.get("price")).doubleValue() * ((Number) item.get("quantity")).intValue())
-            .sum();
+        long totalMinor = 0;
+        for (Map<String, Object> item : items) {
+            long priceMinor = Money.toMinor(((Number) item.get("price")).doubleValue());
+            totalMinor = Money.addMinor(totalMinor,
+                Money.multiplyMinor(priceMinor, ((Number) item.get("quantity")).intValue()));
+        }
+        return Money.toMajor(totalMinor);
     }
     
     private static PaymentMethod mapToPaymentMethod(Map<String, Object> data) {
@@ -450,9 +627,33 @@ public class RestApiService {
         return signature != null && !signature.isEmpty();
     }
     
-    private static void updateOrderPaymentStatus(String paymentId, String status) {
-        // Update order in database
-        System.out.println("Updated payment " + paymentId + " status to " + status);
+    // One batched write for the lane's status changes; a failure throws so the lane retries
+    private static void updateOrderPaymentStatuses(Map<String, String> statuses) {
+        if (statuses.isEmpty()) {
+            return;
+        }
+        // Webhooks only settle payments still in flight or failed; refunds and disputes stand
+        String sql = """
+            UPDATE transactions SET status = ?, updated_at = ?
+            WHERE processor_transaction_id = ? AND status IN ('PENDING', 'PROCESSING', 'AUTHORIZED', 'FAILED')
+        """;
+        
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            for (Map.Entry<String, String> entry : statuses.entrySet()) {
+                Transaction.TransactionStatus status = "PAID".equals(entry.getValue())
+                    ? Transaction.TransactionStatus.COMPLETED : Transaction.TransactionStatus.FAILED;
+                stmt.setString(1, status.name());
+                stmt.setTimestamp(2, now);
+                stmt.setString(3, entry.getKey());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Error updating payment statuses: " + e.getMessage(), e);
+        }
     }
     
     private static void handleChargeback(String paymentId) {
@@ -0,0 +1,261 @@
+package com.example.api;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Durable, ordered ingestion queue for payment webhooks.
+ * Events are journaled to H2 before they are acknowledged, then applied by a
+ * pool of lanes; all events for one payment hash to the same lane, so they are
+ * applied in arrival order. A batch that fails is retried with backoff before
+ * its lane moves on, so a later event never overtakes an earlier one.
+ */
+public class WebhookIngestionQueue {
+    private static final String DB_URL = "jdbc:h2:./agro_db";
+    private static final String DB_USER = "sa";
+    private static final String DB_PASSWORD = "";
+
+    // Providers stop redelivering after a few days; processed events are kept a bit
+    // longer than that for deduplication, then pruned in small batches
+    private static final long DEDUP_RETENTION_HOURS = 7 * 24;
+    private static final int PRUNE_BATCH_SIZE = 1000;
+    private static final long BASE_RETRY_MILLIS = 100;
+    private static final long MAX_RETRY_MILLIS = 30_000;
+
+    private final List<BlockingQueue<WebhookEvent>> lanes;
+    private final Consumer<List<WebhookEvent>> batchHandler;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService pruner;
+
+    public enum EnqueueResult {
+        ACCEPTED,
+        DUPLICATE
+    }
+
+    // A journaled webhook event
+    public static class WebhookEvent {
+        private final String eventId;
+        private final String eventType;
+        private final String paymentId;
+        private final String payload;
+        private final LocalDateTime receivedAt;
+
+        public WebhookEvent(String eventId, String eventType, String paymentId, String payload, LocalDateTime receivedAt) {
+            this.eventId = eventId;
+            this.eventType = eventType;
+            this.paymentId = paymentId;
+            this.payload = payload;
+            this.receivedAt = receivedAt;
+        }
+
+        public String getEventId() { return eventId; }
+        public String getEventType() { return eventType; }
+        public String getPaymentId() { return paymentId; }
+        public String getPayload() { return payload; }
+        public LocalDateTime getReceivedAt() { return receivedAt; }
+    }
+
+    /**
+     * @param laneCount number of worker threads; ordering is kept per payment within a lane
+     * @param maxBatchSize maximum number of events handed to the handler at once
+     * @param batchHandler applies a batch of events, in order, for a single lane
+     */
+    public WebhookIngestionQueue(int laneCount, int maxBatchSize, Consumer<List<WebhookEvent>> batchHandler) {
+        this.lanes = new ArrayList<>();
+        this.batchHandler = batchHandler;
+        this.maxBatchSize = maxBatchSize;
+
+        initializeDatabase();
+
+        for (int i = 0; i < laneCount; i++) {
+            BlockingQueue<WebhookEvent> lane = new LinkedBlockingQueue<>();
+            lanes.add(lane);
+
+            Thread worker = new Thread(() -> drainLane(lane), "webhook-lane-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        recoverPending();
+
+        this.pruner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "webhook-journal-pruner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pruner.scheduleWithFixedDelay(this::pruneProcessed, 1, 60, TimeUnit.MINUTES);
+    }
+
+    private void initializeDatabase() {
+        String createWebhookEventsTable = """
+            CREATE TABLE IF NOT EXISTS webhook_events (
+                event_id VARCHAR(100) PRIMARY KEY,
+                sequence_no BIGINT GENERATED BY DEFAULT AS IDENTITY,
+                event_type VARCHAR(100) NOT NULL,
+                payment_id VARCHAR(100) NOT NULL,
+                payload TEXT,
+                received_at TIMESTAMP NOT NULL,
+                processed_at TIMESTAMP
+            )
+        """;
+
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
+            conn.createStatement().execute(createWebhookEventsTable);
+            conn.createStatement().execute(
+                "CREATE INDEX IF NOT EXISTS idx_webhook_events_pending ON webhook_events (processed_at, sequence_no)");
+        } catch (SQLException e) {
+            System.err.println("Error initializing webhook database: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Journal an event and hand it to its lane.
+     * Returns once the event is durable; duplicates of a journaled event are rejected.
+     */
+    public EnqueueResult enqueue(WebhookEvent event) throws SQLException {
+        String sql = """
+            INSERT INTO webhook_events (event_id, event_type, payment_id, payload, received_at)
+            VALUES (?, ?, ?, ?, ?)
+        """;
+
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, event.getEventId());
+            stmt.setString(2, event.getEventType());
+            stmt.setString(3, event.getPaymentId());
+            stmt.setString(4, event.getPayload());
+            stmt.setTimestamp(5, Timestamp.valueOf(event.getReceivedAt()));
+            stmt.executeUpdate();
+
+        } catch (SQLIntegrityConstraintViolationException e) {
+            return EnqueueResult.DUPLICATE;
+        }
+
+        laneFor(event.getPaymentId()).add(event);
+        return EnqueueResult.ACCEPTED;
+    }
+
+    /**
+     * Total number of events waiting to be applied
+     */
+    public int getPendingCount() {
+        return lanes.stream().mapToInt(BlockingQueue::size).sum();
+    }
+
+    private BlockingQueue<WebhookEvent> laneFor(String paymentId) {
+        return lanes.get(Math.floorMod(paymentId.hashCode(), lanes.size()));
+    }
+
+    private void drainLane(BlockingQueue<WebhookEvent> lane) {
+        List<WebhookEvent> batch = new ArrayList<>(maxBatchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(lane.take());
+                lane.drainTo(batch, maxBatchSize - 1);
+                applyUntilDone(batch);
+            } catch (InterruptedException e) {
+                // Unapplied events stay pending in the journal and are replayed on restart
+                Thread.currentThread().interrupt();
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    // Blocks the lane until the batch is applied and recorded; a batch already applied
+    // is not applied again when only recording it failed
+    private void applyUntilDone(List<WebhookEvent> batch) throws InterruptedException {
+        boolean applied = false;
+        long backoff = BASE_RETRY_MILLIS;
+        while (true) {
+            try {
+                if (!applied) {
+                    batchHandler.accept(batch);
+                    applied = true;
+                }
+                markProcessed(batch);
+                return;
+            } catch (Exception e) {
+                System.err.println("Error applying webhook batch, retrying in " + backoff + "ms: " + e.getMessage());
+                Thread.sleep(backoff);
+                backoff = Math.min(MAX_RETRY_MILLIS, backoff * 2);
+            }
+        }
+    }
+
+    private void markProcessed(List<WebhookEvent> batch) throws SQLException {
+        String sql = "UPDATE webhook_events SET processed_at = ? WHERE event_id = ?";
+
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            for (WebhookEvent event : batch) {
+                stmt.setTimestamp(1, now);
+                stmt.setString(2, event.getEventId());
+                stmt.addBatch();
+            }
+
+            stmt.executeBatch();
+        }
+    }
+
+    /**
+     * Re-queue events that were journaled but never applied, in arrival order
+     */
+    private void recoverPending() {
+        String sql = "SELECT * FROM webhook_events WHERE processed_at IS NULL ORDER BY sequence_no";
+
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                WebhookEvent event = new WebhookEvent(
+                    rs.getString("event_id"),
+                    rs.getString("event_type"),
+                    rs.getString("payment_id"),
+                    rs.getString("payload"),
+                    rs.getTimestamp("received_at").toLocalDateTime()
+                );
+                laneFor(event.getPaymentId()).add(event);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error recovering pending webhooks: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Delete processed events older than the deduplication window.
+     * Pending events are never pruned, however old.
+     */
+    public int pruneProcessed() {
+        String sql = "DELETE FROM webhook_events WHERE processed_at < ? LIMIT " + PRUNE_BATCH_SIZE;
+        Timestamp cutoff = Timestamp.valueOf(LocalDateTime.now().minusHours(DEDUP_RETENTION_HOURS));
+        int total = 0;
+
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setTimestamp(1, cutoff);
+            int deleted;
+            do {
+                deleted = stmt.executeUpdate();
+                total += deleted;
+            } while (deleted == PRUNE_BATCH_SIZE);
+
+        } catch (SQLException e) {
+            System.err.println("Error pruning webhook journal: " + e.getMessage());
+        }
+        return total;
+    }
+}
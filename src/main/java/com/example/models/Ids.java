@@ -0,0 +1,106 @@
+package com.example.models;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+
+/**
+ * Source of primary keys for models and services.
+ *
+ * The default generator produces ULIDs: 26 Crockford base32 characters made of a
+ * 48-bit millisecond timestamp followed by 80 random bits. They sort by creation
+ * time, so H2 inserts land at the right edge of the primary key index instead of
+ * at random pages, and they fit the existing VARCHAR(36) id columns.
+ */
+public final class Ids {
+
+    /**
+     * Pluggable id strategy, e.g. for tests that need predictable ids
+     */
+    @FunctionalInterface
+    public interface Generator {
+        String nextId();
+    }
+
+    public static final Generator RANDOM_UUID = () -> UUID.randomUUID().toString();
+    public static final Generator ULID = new UlidGenerator();
+
+    private static volatile Generator generator = ULID;
+
+    private Ids() {
+    }
+
+    public static String next() {
+        return generator.nextId();
+    }
+
+    public static Generator getGenerator() {
+        return generator;
+    }
+
+    public static void setGenerator(Generator generator) {
+        if (generator == null) {
+            throw new IllegalArgumentException("Generator cannot be null");
+        }
+        Ids.generator = generator;
+    }
+
+    /**
+     * ULID generator with per-thread state, so no locks or shared counters.
+     * Ids from one thread are strictly increasing: within the same millisecond (or
+     * if the clock steps back) the random part moves forward by a random step of up
+     * to 2^32 instead of being redrawn. Randomness comes from a per-thread
+     * SecureRandom, so seeing one id does not reveal the next.
+     */
+    static final class UlidGenerator implements Generator {
+        private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+        private static final int LENGTH = 26;
+        private static final int TIME_CHARS = 10;
+
+        private static final class State {
+            final SecureRandom random = new SecureRandom();
+            long lastMillis = -1;
+            long randomHigh; // top 16 of the 80 random bits
+            long randomLow;
+        }
+
+        private final ThreadLocal<State> state = ThreadLocal.withInitial(State::new);
+
+        @Override
+        public String nextId() {
+            State s = state.get();
+            long now = System.currentTimeMillis();
+
+            if (now > s.lastMillis) {
+                s.lastMillis = now;
+                s.randomHigh = s.random.nextInt() & 0xFFFF;
+                s.randomLow = s.random.nextLong();
+            } else {
+                long previous = s.randomLow;
+                s.randomLow += (s.random.nextInt() & 0xFFFFFFFFL) + 1;
+                if (Long.compareUnsigned(s.randomLow, previous) < 0) {
+                    s.randomHigh = (s.randomHigh + 1) & 0xFFFF;
+                    if (s.randomHigh == 0) {
+                        // Random part overflowed within one millisecond; borrow the next one
+                        s.lastMillis++;
+                    }
+                }
+            }
+            return encode(s.lastMillis, s.randomHigh, s.randomLow);
+        }
+
+        private static String encode(long millis, long high, long low) {
+            char[] chars = new char[LENGTH];
+            long time = millis;
+            for (int i = TIME_CHARS - 1; i >= 0; i--) {
+                chars[i] = ALPHABET[(int) (time & 31)];
+                time >>>= 5;
+            }
+            for (int i = LENGTH - 1; i >= TIME_CHARS; i--) {
+                chars[i] = ALPHABET[(int) (low & 31)];
+                low = (low >>> 5) | ((high & 31) << 59);
+                high >>>= 5;
+            }
+            return new String(chars);
+        }
+    }
+}
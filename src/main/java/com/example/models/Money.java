@@ -0,0 +1,199 @@
+package com.example.models;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
+import java.util.Objects;
+
+/**
+ * Exact amount of money held as a long count of minor units plus a currency.
+ * A minor unit is the smallest unit of that currency's ISO 4217 scale: a cent for
+ * USD, a whole yen for JPY.
+ *
+ * Hot paths can skip the object entirely and use the static *Minor helpers on
+ * plain longs, which do exact, overflow-checked arithmetic without allocating.
+ * The helpers without a currency argument work in the default currency.
+ */
+public final class Money implements Comparable<Money> {
+    public static final String DEFAULT_CURRENCY = "USD";
+    private static final int SCALE = 2;
+    private static final long MINOR_PER_MAJOR = 100;
+    private static final int BASIS_POINTS = 10_000;
+
+    private final long minorUnits;
+    private final String currency;
+    private final int scale;
+
+    private Money(long minorUnits, String currency, int scale) {
+        this.minorUnits = minorUnits;
+        this.currency = currency;
+        this.scale = scale;
+    }
+
+    public static Money ofMinor(long minorUnits, String currency) {
+        String code = currency != null ? currency : DEFAULT_CURRENCY;
+        return new Money(minorUnits, code, scaleOf(code));
+    }
+
+    public static Money ofMinor(long minorUnits) {
+        return new Money(minorUnits, DEFAULT_CURRENCY, SCALE);
+    }
+
+    public static Money of(BigDecimal amount, String currency) {
+        String code = currency != null ? currency : DEFAULT_CURRENCY;
+        return ofMinor(toMinor(amount, code), code);
+    }
+
+    public static Money of(double amount) {
+        return ofMinor(toMinor(amount));
+    }
+
+    public static Money zero(String currency) {
+        return ofMinor(0, currency);
+    }
+
+    public long getMinorUnits() { return minorUnits; }
+    public String getCurrency() { return currency; }
+    public int getScale() { return scale; }
+
+    public Money plus(Money other) {
+        requireSameCurrency(other);
+        return new Money(addMinor(minorUnits, other.minorUnits), currency, scale);
+    }
+
+    public Money minus(Money other) {
+        requireSameCurrency(other);
+        return new Money(Math.subtractExact(minorUnits, other.minorUnits), currency, scale);
+    }
+
+    public Money times(int quantity) {
+        return new Money(multiplyMinor(minorUnits, quantity), currency, scale);
+    }
+
+    /**
+     * Share of this amount in basis points (850 = 8.5%), rounded half up
+     */
+    public Money percentage(int basisPoints) {
+        return new Money(percentageMinor(minorUnits, basisPoints), currency, scale);
+    }
+
+    public boolean isZero() { return minorUnits == 0; }
+    public boolean isNegative() { return minorUnits < 0; }
+
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(minorUnits, scale);
+    }
+
+    public double toDouble() {
+        return toBigDecimal().doubleValue();
+    }
+
+    /**
+     * Display form, e.g. "$12.50" for USD, "12.50 EUR" or "1500 JPY" otherwise
+     */
+    public String format() {
+        String amount = toBigDecimal().toPlainString();
+        return DEFAULT_CURRENCY.equals(currency) ? "$" + amount : amount + " " + currency;
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        requireSameCurrency(other);
+        return Long.compare(minorUnits, other.minorUnits);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Money)) return false;
+        Money other = (Money) o;
+        return minorUnits == other.minorUnits && currency.equals(other.currency);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(minorUnits, currency);
+    }
+
+    @Override
+    public String toString() {
+        return format();
+    }
+
+    private void requireSameCurrency(Money other) {
+        if (!currency.equals(other.currency)) {
+            throw new IllegalArgumentException("Currency mismatch: " + currency + " vs " + other.currency);
+        }
+    }
+
+    // Allocation-free arithmetic on minor units
+
+    public static long addMinor(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    public static long multiplyMinor(long minorUnits, int quantity) {
+        return Math.multiplyExact(minorUnits, (long) quantity);
+    }
+
+    public static long percentageMinor(long minorUnits, int basisPoints) {
+        long scaled = Math.multiplyExact(minorUnits, (long) basisPoints);
+        long half = scaled >= 0 ? BASIS_POINTS / 2 : -BASIS_POINTS / 2;
+        return (scaled + half) / BASIS_POINTS;
+    }
+
+    /**
+     * Round a double amount to the nearest minor unit. Doubles such as 0.285 sit just
+     * below the decimal value, so round through the shortest decimal representation.
+     */
+    public static long toMinor(double amount) {
+        double scaled = amount * MINOR_PER_MAJOR;
+        long rounded = Math.round(scaled);
+        // Fast path: far enough from a half-cent boundary that the naive rounding is exact
+        if (Math.abs(scaled - rounded) < 0.499) {
+            return rounded;
+        }
+        return toMinor(BigDecimal.valueOf(amount));
+    }
+
+    public static long toMinor(BigDecimal amount) {
+        return amount.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    public static long toMinor(BigDecimal amount, String currency) {
+        return amount.setScale(scaleOf(currency), RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Round a double amount to the nearest minor unit of the given currency
+     */
+    public static long toMinor(double amount, String currency) {
+        int scale = scaleOf(currency);
+        return scale == SCALE ? toMinor(amount) : toMinor(BigDecimal.valueOf(amount), currency);
+    }
+
+    public static double toMajor(long minorUnits) {
+        return minorUnits / (double) MINOR_PER_MAJOR;
+    }
+
+    public static double toMajor(long minorUnits, String currency) {
+        return BigDecimal.valueOf(minorUnits, scaleOf(currency)).doubleValue();
+    }
+
+    /**
+     * Decimal places of a currency, e.g. 2 for USD and 0 for JPY
+     *
+     * @throws IllegalArgumentException if the code is not an ISO 4217 currency
+     */
+    public static int scaleOf(String currency) {
+        if (DEFAULT_CURRENCY.equals(currency)) {
+            return SCALE;
+        }
+        int digits = Currency.getInstance(currency.toUpperCase()).getDefaultFractionDigits();
+        // Pseudo-currencies such as XXX have no minor unit defined
+        if (digits < 0) {
+            throw new IllegalArgumentException("Currency has no minor unit: " + currency);
+        }
+        return digits;
+    }
+}
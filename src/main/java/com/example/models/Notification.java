@@ -38,7 +38,8 @@ public class Notification {
     }
     
     public enum Status {
-        PENDING, SENT, DELIVERED, FAILED, READ
+        PENDING, SENT, DELIVERED, FAILED, READ,
+        SUPERSEDED  // Folded into a newer update that went out in a digest in its place
     }
     
     private String id;
@@ -58,7 +59,7 @@ public class Notification {
     private boolean pushSent;
     
     public Notification(String userId, Type type, String title, String message) {
-        this.id = java.util.UUID.randomUUID().toString();
+        this.id = Ids.next();
         this.userId = userId;
         this.type = type;
         this.title = title;
@@ -74,6 +75,7 @@ public class Notification {
     
     // Getters and setters
     public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
     
     public String getUserId() { return userId; }
     public void setUserId(String userId) { this.userId = userId; }
@@ -101,10 +103,12 @@ public class Notification {
     public void addMetadata(String key, String value) { this.metadata.put(key, value); }
     
     public LocalDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
     public LocalDateTime getSentAt() { return sentAt; }
     public void setSentAt(LocalDateTime sentAt) { this.sentAt = sentAt; }
     
     public LocalDateTime getReadAt() { return readAt; }
+    public void setReadAt(LocalDateTime readAt) { this.readAt = readAt; }
     public void markAsRead() { 
         this.readAt = LocalDateTime.now();
         this.status = Status.READ;
@@ -155,6 +159,30 @@ public class Notification {
         return notification;
     }
     
+    /**
+     * Create a payment notification; failureReason is only used for PAYMENT_FAILED
+     */
+    public static Notification createPaymentNotification(String userId, String orderId, String transactionId,
+                                                       Type paymentType, String amount, String failureReason) {
+        String title = paymentType.getDisplayName();
+        String message;
+        
+        if (paymentType == Type.PAYMENT_FAILED) {
+            message = String.format("Your payment of %s for order #%s failed: %s", amount, orderId, failureReason);
+        } else {
+            message = String.format("We received your payment of %s for order #%s", amount, orderId);
+        }
+        
+        Notification notification = new Notification(userId, paymentType, title, message);
+        notification.setPriority(Priority.HIGH);
+        notification.addMetadata("orderId", orderId);
+        notification.addMetadata("transactionId", transactionId);
+        notification.addMetadata("amount", amount);
+        notification.setActionUrl("/orders/" + orderId);
+        
+        return notification;
+    }
+    
     /**
      * Create a security notification
      */
@@ -14,7 +14,7 @@ public class Order {
     private String customerName;
     private String farmerName;
     private List<OrderItem> items;
-    private double total;
+    private long totalMinor; // cents
     private OrderStatus status;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
@@ -49,15 +49,15 @@ public class Order {
         private String productId;
         private String productName;
         private int quantity;
-        private double price;
-        private double subtotal;
+        private long priceMinor;
+        private long subtotalMinor;
         
         public OrderItem(String productId, String productName, int quantity, double price) {
             this.productId = productId;
             this.productName = productName;
             this.quantity = quantity;
-            this.price = price;
-            this.subtotal = quantity * price;
+            this.priceMinor = Money.toMinor(price);
+            this.subtotalMinor = Money.multiplyMinor(priceMinor, quantity);
         }
         
         // Getters and setters
@@ -70,21 +70,24 @@ public class Order {
         public int getQuantity() { return quantity; }
         public void setQuantity(int quantity) { 
             this.quantity = quantity;
-            this.subtotal = quantity * price;
+            this.subtotalMinor = Money.multiplyMinor(priceMinor, quantity);
         }
         
-        public double getPrice() { return price; }
+        public double getPrice() { return Money.toMajor(priceMinor); }
         public void setPrice(double price) { 
-            this.price = price;
-            this.subtotal = quantity * price;
+            this.priceMinor = Money.toMinor(price);
+            this.subtotalMinor = Money.multiplyMinor(priceMinor, quantity);
         }
         
-        public double getSubtotal() { return subtotal; }
+        public long getPriceMinor() { return priceMinor; }
+        
+        public double getSubtotal() { return Money.toMajor(subtotalMinor); }
+        public long getSubtotalMinor() { return subtotalMinor; }
     }
     
     // Constructors
     public Order() {
-        this.id = java.util.UUID.randomUUID().toString();
+        this.id = Ids.next();
         this.items = new ArrayList<>();
         this.status = OrderStatus.PLACED;
         this.createdAt = LocalDateTime.now();
@@ -120,8 +123,11 @@ public class Order {
         calculateTotal();
     }
     
-    public double getTotal() { return total; }
-    public void setTotal(double total) { this.total = total; }
+    public double getTotal() { return Money.toMajor(totalMinor); }
+    public void setTotal(double total) { this.totalMinor = Money.toMinor(total); }
+    
+    public long getTotalMinor() { return totalMinor; }
+    public Money getTotalMoney() { return Money.ofMinor(totalMinor); }
     
     public OrderStatus getStatus() { return status; }
     public void setStatus(OrderStatus status) { 
@@ -173,9 +179,11 @@ public class Order {
     }
     
     private void calculateTotal() {
-        this.total = items.stream()
-            .mapToDouble(OrderItem::getSubtotal)
-            .sum();
+        long sum = 0;
+        for (OrderItem item : items) {
+            sum = Money.addMinor(sum, item.getSubtotalMinor());
+        }
+        this.totalMinor = sum;
         this.updatedAt = LocalDateTime.now();
     }
     
@@ -210,7 +218,7 @@ public class Order {
     }
     
     public String getFormattedTotal() {
-        return String.format("$%.2f", total);
+        return getTotalMoney().format();
     }
     
     public String getStatusDisplayName() {
@@ -220,6 +228,6 @@ public class Order {
     @Override
     public String toString() {
         return String.format("Order{id='%s', customer='%s', total=%.2f, status=%s, items=%d}", 
-            id, customerName, total, status, items.size());
+            id, customerName, getTotal(), status, items.size());
     }
 }
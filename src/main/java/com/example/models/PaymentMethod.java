@@ -55,7 +55,7 @@ public class PaymentMethod {
     }
     
     public PaymentMethod(String userId, PaymentType type, String displayName) {
-        this.id = java.util.UUID.randomUUID().toString();
+        this.id = Ids.next();
         this.userId = userId;
         this.type = type;
         this.displayName = displayName;
@@ -83,8 +83,33 @@ public class PaymentMethod {
         this.walletAccountId = walletAccountId;
     }
     
+    // Copy constructor; every field is immutable, so a field-by-field copy is independent
+    public PaymentMethod(PaymentMethod other) {
+        this.id = other.id;
+        this.userId = other.userId;
+        this.type = other.type;
+        this.displayName = other.displayName;
+        this.encryptedData = other.encryptedData;
+        this.isDefault = other.isDefault;
+        this.isActive = other.isActive;
+        this.createdAt = other.createdAt;
+        this.lastUpdated = other.lastUpdated;
+        this.lastUsed = other.lastUsed;
+        this.cardHolderName = other.cardHolderName;
+        this.maskedCardNumber = other.maskedCardNumber;
+        this.cardType = other.cardType;
+        this.expiryMonth = other.expiryMonth;
+        this.expiryYear = other.expiryYear;
+        this.walletProvider = other.walletProvider;
+        this.walletAccountId = other.walletAccountId;
+        this.bankName = other.bankName;
+        this.accountHolderName = other.accountHolderName;
+        this.maskedAccountNumber = other.maskedAccountNumber;
+    }
+    
     // Getters and setters
     public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
     
     public String getUserId() { return userId; }
     
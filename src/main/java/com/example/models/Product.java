@@ -9,7 +9,7 @@ import java.util.HashSet;
 public class Product {
     private String id;
     private String name;
-    private double price;
+    private long priceMinor; // cents
     private String description;
     private String unit; // e.g., kg, piece, bag
     private int quantity;
@@ -38,7 +38,7 @@ public class Product {
     
     // Inventory and sales tracking
     private int totalSold;
-    private double totalRevenue;
+    private long totalRevenueMinor;
     private LocalDateTime lastSold;
     
     // Product specifications
@@ -56,9 +56,9 @@ public class Product {
     }
 
     public Product(String name, double price, String description, String unit, int quantity, String farmerId) {
-        this.id = java.util.UUID.randomUUID().toString();
+        this.id = Ids.next();
         this.name = name;
-        this.price = price;
+        this.priceMinor = Money.toMinor(price);
         this.description = description;
         this.unit = unit;
         this.quantity = quantity;
@@ -78,7 +78,7 @@ public class Product {
         this.averageRating = 0.0;
         this.totalReviews = 0;
         this.totalSold = 0;
-        this.totalRevenue = 0.0;
+        this.totalRevenueMinor = 0;
     }
     
     // Enhanced constructor with category and tags
@@ -108,11 +108,19 @@ public class Product {
     }
 
     public double getPrice() {
-        return price;
+        return Money.toMajor(priceMinor);
+    }
+
+    public long getPriceMinor() {
+        return priceMinor;
+    }
+
+    public Money getPriceMoney() {
+        return Money.ofMinor(priceMinor);
     }
 
     public void setPrice(double price) {
-        this.price = price;
+        this.priceMinor = Money.toMinor(price);
         this.lastUpdated = LocalDateTime.now();
     }
 
@@ -324,7 +332,11 @@ public class Product {
     }
     
     public double getTotalRevenue() {
-        return totalRevenue;
+        return Money.toMajor(totalRevenueMinor);
+    }
+
+    public long getTotalRevenueMinor() {
+        return totalRevenueMinor;
     }
     
     public LocalDateTime getLastSold() {
@@ -335,7 +347,7 @@ public class Product {
         if (quantity >= amount) {
             this.quantity -= amount;
             this.totalSold += amount;
-            this.totalRevenue += (amount * price);
+            this.totalRevenueMinor = Money.addMinor(totalRevenueMinor, Money.multiplyMinor(priceMinor, amount));
             this.lastSold = LocalDateTime.now();
             this.lastUpdated = LocalDateTime.now();
             updateAvailabilityStatus();
@@ -415,7 +427,7 @@ public class Product {
     }
     
     public String getFormattedPrice() {
-        return String.format("$%.2f/%s", price, unit);
+        return getPriceMoney().format() + "/" + unit;
     }
     
     public boolean matchesSearchTerm(String searchTerm) {
@@ -433,6 +445,6 @@ public class Product {
     @Override
     public String toString() {
         return String.format("Product{id='%s', name='%s', price=%.2f, category='%s', status=%s, quantity=%d}", 
-                id, name, price, category, status, quantity);
+                id, name, getPrice(), category, status, quantity);
     }
 }
\ No newline at end of file
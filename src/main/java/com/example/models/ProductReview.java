@@ -28,7 +28,7 @@ public class ProductReview {
     
     public ProductReview(String productId, String customerId, String customerName, 
                         int rating, String title, String comment) {
-        this.id = java.util.UUID.randomUUID().toString();
+        this.id = Ids.next();
         this.productId = productId;
         this.customerId = customerId;
         this.customerName = customerName;
@@ -4,6 +4,8 @@ import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * Represents a payment transaction in the system.
@@ -27,6 +29,7 @@ public class Transaction {
     private LocalDateTime updatedAt;
     private LocalDateTime processedAt;
     private String processorTransactionId; // External payment processor ID
+    private String provider; // Payment provider that handled the charge, e.g. STRIPE
     private String processorResponse;
     private List<TransactionItem> items;
     private PaymentDetails paymentDetails;
@@ -34,6 +37,7 @@ public class Transaction {
     private int retryCount;
     private String refundReason;
     private String refundTransactionId;
+    private Set<String> couponCodes; // Coupons priced into this purchase, redeemed when it is charged
     
     public enum TransactionType {
         PURCHASE("Purchase"),
@@ -156,7 +160,7 @@ public class Transaction {
     
     public Transaction(String orderId, String userId, String paymentMethodId, 
                       TransactionType type, BigDecimal amount, String currency) {
-        this.id = java.util.UUID.randomUUID().toString();
+        this.id = Ids.next();
         this.orderId = orderId;
         this.userId = userId;
         this.paymentMethodId = paymentMethodId;
@@ -170,10 +174,12 @@ public class Transaction {
         this.items = new ArrayList<>();
         this.paymentDetails = new PaymentDetails();
         this.retryCount = 0;
+        this.couponCodes = new LinkedHashSet<>();
     }
     
     // Getters and setters
     public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
     
     public String getOrderId() { return orderId; }
     
@@ -226,12 +232,24 @@ public class Transaction {
     public LocalDateTime getUpdatedAt() { return updatedAt; }
     public LocalDateTime getProcessedAt() { return processedAt; }
     
+    // Restore stored timestamps when loading; set these after every other field,
+    // since the other setters stamp updatedAt
+    public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
+    public void setUpdatedAt(LocalDateTime updatedAt) { this.updatedAt = updatedAt; }
+    public void setProcessedAt(LocalDateTime processedAt) { this.processedAt = processedAt; }
+    
     public String getProcessorTransactionId() { return processorTransactionId; }
     public void setProcessorTransactionId(String processorTransactionId) { 
         this.processorTransactionId = processorTransactionId;
         this.updatedAt = LocalDateTime.now();
     }
     
+    public String getProvider() { return provider; }
+    public void setProvider(String provider) { 
+        this.provider = provider;
+        this.updatedAt = LocalDateTime.now();
+    }
+    
     public String getProcessorResponse() { return processorResponse; }
     public void setProcessorResponse(String processorResponse) { 
         this.processorResponse = processorResponse;
@@ -249,6 +267,12 @@ public class Transaction {
         this.updatedAt = LocalDateTime.now();
     }
     
+    public Set<String> getCouponCodes() { return new LinkedHashSet<>(couponCodes); }
+    public void setCouponCodes(Set<String> couponCodes) { 
+        this.couponCodes = new LinkedHashSet<>(couponCodes);
+        this.updatedAt = LocalDateTime.now();
+    }
+    
     public PaymentDetails getPaymentDetails() { return paymentDetails; }
     public void setPaymentDetails(PaymentDetails paymentDetails) { 
         this.paymentDetails = paymentDetails;
@@ -262,6 +286,7 @@ public class Transaction {
     }
     
     public int getRetryCount() { return retryCount; }
+    public void setRetryCount(int retryCount) { this.retryCount = retryCount; }
     public void incrementRetryCount() { 
         this.retryCount++;
         this.updatedAt = LocalDateTime.now();
@@ -56,7 +56,7 @@ public abstract class User {
      * Protected constructor for subclasses
      */
     protected User(String fullName, String username, String email, String phoneNumber) {
-        this.id = java.util.UUID.randomUUID().toString();
+        this.id = Ids.next();
         this.fullName = fullName;
         this.username = username;
         this.email = email;
@@ -33,9 +33,9 @@ public class AnalyticsService {
      * Sales Analytics for Farmers
      */
     public static class SalesAnalytics {
-        private double totalRevenue;
+        private long totalRevenueMinor;
         private int totalOrders;
-        private double averageOrderValue;
+        private long averageOrderValueMinor;
         private int totalCustomers;
         private double growthRate;
         private String topProduct;
@@ -45,14 +45,18 @@ public class AnalyticsService {
         private Map<String, Double> customerSegments;
         
         // Getters and setters
-        public double getTotalRevenue() { return totalRevenue; }
-        public void setTotalRevenue(double totalRevenue) { this.totalRevenue = totalRevenue; }
+        public double getTotalRevenue() { return Money.toMajor(totalRevenueMinor); }
+        public void setTotalRevenue(double totalRevenue) { this.totalRevenueMinor = Money.toMinor(totalRevenue); }
+        public long getTotalRevenueMinor() { return totalRevenueMinor; }
+        public void setTotalRevenueMinor(long totalRevenueMinor) { this.totalRevenueMinor = totalRevenueMinor; }
         
         public int getTotalOrders() { return totalOrders; }
         public void setTotalOrders(int totalOrders) { this.totalOrders = totalOrders; }
         
-        public double getAverageOrderValue() { return averageOrderValue; }
-        public void setAverageOrderValue(double averageOrderValue) { this.averageOrderValue = averageOrderValue; }
+        public double getAverageOrderValue() { return Money.toMajor(averageOrderValueMinor); }
+        public void setAverageOrderValue(double averageOrderValue) { this.averageOrderValueMinor = Money.toMinor(averageOrderValue); }
+        public long getAverageOrderValueMinor() { return averageOrderValueMinor; }
+        public void setAverageOrderValueMinor(long averageOrderValueMinor) { this.averageOrderValueMinor = averageOrderValueMinor; }
         
         public int getTotalCustomers() { return totalCustomers; }
         public void setTotalCustomers(int totalCustomers) { this.totalCustomers = totalCustomers; }
@@ -285,22 +289,22 @@ public class AnalyticsService {
                 
                 SalesAnalytics analytics = new SalesAnalytics();
                 
-                // Calculate total revenue
-                double totalRevenue = orders.stream()
-                    .filter(order -> farmerId.equals(order.getFarmerId()))
-                    .mapToDouble(Order::getTotal)
-                    .sum();
-                analytics.setTotalRevenue(totalRevenue);
-                
-                // Count total orders
-                int totalOrders = (int) orders.stream()
-                    .filter(order -> farmerId.equals(order.getFarmerId()))
-                    .count();
+                // Calculate total revenue and order count in cents, in one pass
+                long totalRevenueMinor = 0;
+                int totalOrders = 0;
+                for (Order order : orders) {
+                    if (farmerId.equals(order.getFarmerId())) {
+                        totalRevenueMinor = Money.addMinor(totalRevenueMinor, order.getTotalMinor());
+                        totalOrders++;
+                    }
+                }
+                analytics.setTotalRevenueMinor(totalRevenueMinor);
                 analytics.setTotalOrders(totalOrders);
                 
-                // Calculate average order value
-                double avgOrderValue = totalOrders > 0 ? totalRevenue / totalOrders : 0;
-                analytics.setAverageOrderValue(avgOrderValue);
+                // Calculate average order value, rounded to the nearest cent
+                long avgOrderValueMinor = totalOrders > 0
+                    ? Math.round((double) totalRevenueMinor / totalOrders) : 0;
+                analytics.setAverageOrderValueMinor(avgOrderValueMinor);
                 
                 // Count unique customers
                 int uniqueCustomers = (int) orders.stream()
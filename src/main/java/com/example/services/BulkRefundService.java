@@ -0,0 +1,555 @@
+package com.example.services;
+
+import com.example.models.Ids;
+import com.example.models.PaymentMethod.PaymentType;
+import com.example.services.PaymentGatewayService.PaymentProvider;
+import com.example.services.PaymentGatewayService.PaymentResponse;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refunds many orders in one batch, e.g. every order of a failed harvest.
+ * Eligibility is checked in a single query, refunds fan out with a fixed number
+ * in flight per provider, and outcomes are written back in batches. The batch and
+ * its items are persisted before any refund is sent, so an interrupted batch can be
+ * resumed. Refunds go to the provider that took the payment and carry a key derived
+ * from the purchase alone, so the provider refunds a purchase at most once even if
+ * two batches pick it up.
+ */
+public class BulkRefundService {
+    private static final String DB_URL = "jdbc:h2:./agro_db";
+    private static final String DB_USER = "sa";
+    private static final String DB_PASSWORD = "";
+
+    private static final int DEFAULT_MAX_CONCURRENT_PER_PROVIDER = 8;
+    private static final int FLUSH_BATCH_SIZE = 100;
+    private static final long FLUSH_INTERVAL_MILLIS = 250;
+
+    private static BulkRefundService instance;
+
+    private final int maxConcurrentPerProvider;
+    private final LinkedBlockingQueue<RefundOutcome> pendingWrites = new LinkedBlockingQueue<>();
+    private final ScheduledExecutorService flusher;
+
+    public enum ItemStatus { PENDING, SUCCEEDED, FAILED }
+
+    // A refundable purchase captured in a batch
+    public static class RefundItem {
+        private final String batchId;
+        private final String transactionId;
+        private final String orderId;
+        private final String userId;
+        private final String paymentMethodId;
+        private final String processorTransactionId;
+        private final PaymentProvider provider;
+        private final BigDecimal amount;
+        private final String currency;
+
+        RefundItem(String batchId, String transactionId, String orderId, String userId, String paymentMethodId,
+                   String processorTransactionId, PaymentProvider provider, BigDecimal amount, String currency) {
+            this.batchId = batchId;
+            this.transactionId = transactionId;
+            this.orderId = orderId;
+            this.userId = userId;
+            this.paymentMethodId = paymentMethodId;
+            this.processorTransactionId = processorTransactionId;
+            this.provider = provider;
+            this.amount = amount;
+            this.currency = currency;
+        }
+
+        public String getTransactionId() { return transactionId; }
+        public String getOrderId() { return orderId; }
+        public PaymentProvider getProvider() { return provider; }
+        public BigDecimal getAmount() { return amount; }
+
+        String getIdempotencyKey() { return "refund:" + transactionId; }
+    }
+
+    // Result of one refund call, waiting to be persisted
+    private static class RefundOutcome {
+        private final RefundItem item;
+        private final String reason;
+        private final PaymentResponse response;
+        private final String error;
+        // Set once written: false when another batch had already recorded the refund
+        private volatile Boolean recorded;
+
+        RefundOutcome(RefundItem item, String reason, PaymentResponse response, String error) {
+            this.item = item;
+            this.reason = reason;
+            this.response = response;
+            this.error = error;
+        }
+
+        boolean isSuccess() { return response != null && response.isSuccess(); }
+    }
+
+    public static class BatchResult {
+        private final String batchId;
+        private final List<String> ineligibleOrderIds;
+        private final int refunded;
+        private final int alreadyRefunded;
+        private final int failed;
+        private final BigDecimal refundedAmount;
+
+        BatchResult(String batchId, List<String> ineligibleOrderIds, int refunded, int alreadyRefunded, int failed,
+                    BigDecimal refundedAmount) {
+            this.batchId = batchId;
+            this.ineligibleOrderIds = ineligibleOrderIds;
+            this.refunded = refunded;
+            this.alreadyRefunded = alreadyRefunded;
+            this.failed = failed;
+            this.refundedAmount = refundedAmount;
+        }
+
+        public String getBatchId() { return batchId; }
+        public List<String> getIneligibleOrderIds() { return ineligibleOrderIds; }
+        public int getRefundedCount() { return refunded; }
+        // Purchases another batch refunded first; not part of the refunded count or amount
+        public int getAlreadyRefundedCount() { return alreadyRefunded; }
+        public int getFailedCount() { return failed; }
+        public BigDecimal getRefundedAmount() { return refundedAmount; }
+
+        @Override
+        public String toString() {
+            return String.format("BatchResult{batch=%s, refunded=%d, alreadyRefunded=%d, failed=%d, amount=%s, ineligible=%d}",
+                batchId, refunded, alreadyRefunded, failed, refundedAmount, ineligibleOrderIds.size());
+        }
+    }
+
+    public BulkRefundService(int maxConcurrentPerProvider) {
+        this.maxConcurrentPerProvider = maxConcurrentPerProvider;
+        initializeDatabase();
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "refund-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized BulkRefundService getInstance() {
+        if (instance == null) {
+            instance = new BulkRefundService(DEFAULT_MAX_CONCURRENT_PER_PROVIDER);
+        }
+        return instance;
+    }
+
+    private void initializeDatabase() {
+        String createBatchesTable = """
+            CREATE TABLE IF NOT EXISTS refund_batches (
+                id VARCHAR(36) PRIMARY KEY,
+                reason TEXT NOT NULL,
+                created_at TIMESTAMP NOT NULL,
+                completed_at TIMESTAMP
+            )
+        """;
+
+        String createItemsTable = """
+            CREATE TABLE IF NOT EXISTS refund_batch_items (
+                batch_id VARCHAR(36) NOT NULL,
+                transaction_id VARCHAR(36) NOT NULL,
+                order_id VARCHAR(36) NOT NULL,
+                user_id VARCHAR(36) NOT NULL,
+                payment_method_id VARCHAR(36),
+                processor_transaction_id VARCHAR(100),
+                provider VARCHAR(20) NOT NULL,
+                amount DECIMAL(10,2) NOT NULL,
+                currency VARCHAR(3) NOT NULL,
+                status VARCHAR(20) NOT NULL,
+                refund_transaction_id VARCHAR(36),
+                error TEXT,
+                PRIMARY KEY (batch_id, transaction_id)
+            )
+        """;
+
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
+            conn.createStatement().execute(createBatchesTable);
+            conn.createStatement().execute(createItemsTable);
+        } catch (SQLException e) {
+            System.err.println("Error initializing refund batch tables: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Refund every eligible purchase for the given orders
+     */
+    public CompletableFuture<BatchResult> refundOrders(Collection<String> orderIds, String reason) {
+        String batchId = Ids.next();
+        List<RefundItem> items;
+        try {
+            items = findRefundable(batchId, orderIds);
+            createBatch(batchId, reason, items);
+        } catch (SQLException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        Set<String> eligibleOrders = new HashSet<>();
+        items.forEach(item -> eligibleOrders.add(item.orderId));
+        List<String> ineligible = new ArrayList<>();
+        for (String orderId : orderIds) {
+            if (!eligibleOrders.contains(orderId)) {
+                ineligible.add(orderId);
+            }
+        }
+
+        return run(batchId, reason, items, ineligible);
+    }
+
+    /**
+     * Finish batches interrupted by a crash; items not yet refunded are sent again
+     */
+    public List<CompletableFuture<BatchResult>> resumeIncomplete() {
+        List<CompletableFuture<BatchResult>> resumed = new ArrayList<>();
+        String sql = "SELECT id, reason FROM refund_batches WHERE completed_at IS NULL";
+
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                String batchId = rs.getString("id");
+                resumed.add(run(batchId, rs.getString("reason"), loadUnfinishedItems(batchId), List.of()));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error resuming refund batches: " + e.getMessage());
+        }
+
+        return resumed;
+    }
+
+    /**
+     * Send the refunds of a batch again for items that failed, e.g. after a provider outage
+     */
+    public CompletableFuture<BatchResult> retryFailed(String batchId, String reason) {
+        try {
+            return run(batchId, reason, loadUnfinishedItems(batchId), List.of());
+        } catch (SQLException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * One query for all orders, applying the same rules as Transaction.canBeRefunded
+     */
+    private List<RefundItem> findRefundable(String batchId, Collection<String> orderIds) throws SQLException {
+        String sql = """
+            SELECT t.id, t.order_id, t.user_id, t.payment_method_id, t.processor_transaction_id,
+                   t.total_amount, t.currency, t.provider, pm.type AS payment_type
+            FROM transactions t
+            LEFT JOIN payment_methods pm ON pm.id = t.payment_method_id
+            WHERE t.order_id = ANY(?)
+              AND t.status = 'COMPLETED' AND t.type = 'PURCHASE' AND t.refund_transaction_id IS NULL
+        """;
+
+        List<RefundItem> items = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setArray(1, conn.createArrayOf("VARCHAR", orderIds.toArray()));
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                // Purchases made before the provider was recorded fall back to the static choice
+                String charged = rs.getString("provider");
+                String paymentType = rs.getString("payment_type");
+                PaymentProvider provider = charged != null ? PaymentProvider.valueOf(charged)
+                    : paymentType != null ? PaymentRouter.defaultProvider(PaymentType.valueOf(paymentType))
+                    : PaymentProvider.MOCK;
+                items.add(new RefundItem(batchId, rs.getString("id"), rs.getString("order_id"), rs.getString("user_id"),
+                    rs.getString("payment_method_id"), rs.getString("processor_transaction_id"), provider,
+                    rs.getBigDecimal("total_amount"), rs.getString("currency")));
+            }
+        }
+        return items;
+    }
+
+    // Persist the batch and its items before anything is sent
+    private void createBatch(String batchId, String reason, List<RefundItem> items) throws SQLException {
+        String batchSql = "INSERT INTO refund_batches (id, reason, created_at) VALUES (?, ?, ?)";
+        String itemSql = """
+            INSERT INTO refund_batch_items
+            (batch_id, transaction_id, order_id, user_id, payment_method_id, processor_transaction_id,
+             provider, amount, currency, status)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, 'PENDING')
+        """;
+
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement batchStmt = conn.prepareStatement(batchSql);
+                 PreparedStatement itemStmt = conn.prepareStatement(itemSql)) {
+                batchStmt.setString(1, batchId);
+                batchStmt.setString(2, reason);
+                batchStmt.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
+                batchStmt.executeUpdate();
+
+                for (RefundItem item : items) {
+                    itemStmt.setString(1, batchId);
+                    itemStmt.setString(2, item.transactionId);
+                    itemStmt.setString(3, item.orderId);
+                    itemStmt.setString(4, item.userId);
+                    itemStmt.setString(5, item.paymentMethodId);
+                    itemStmt.setString(6, item.processorTransactionId);
+                    itemStmt.setString(7, item.provider.name());
+                    itemStmt.setBigDecimal(8, item.amount);
+                    itemStmt.setString(9, item.currency);
+                    itemStmt.addBatch();
+                }
+                itemStmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private List<RefundItem> loadUnfinishedItems(String batchId) throws SQLException {
+        String sql = "SELECT * FROM refund_batch_items WHERE batch_id = ? AND status <> 'SUCCEEDED'";
+
+        List<RefundItem> items = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, batchId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                items.add(new RefundItem(batchId, rs.getString("transaction_id"), rs.getString("order_id"),
+                    rs.getString("user_id"), rs.getString("payment_method_id"), rs.getString("processor_transaction_id"),
+                    PaymentProvider.valueOf(rs.getString("provider")), rs.getBigDecimal("amount"), rs.getString("currency")));
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Each provider gets a fixed number of workers pulling from its own queue,
+     * so a slow provider never holds up refunds going to another one
+     */
+    private CompletableFuture<BatchResult> run(String batchId, String reason, List<RefundItem> items,
+                                               List<String> ineligible) {
+        Map<PaymentProvider, ConcurrentLinkedQueue<RefundItem>> byProvider = new EnumMap<>(PaymentProvider.class);
+        for (RefundItem item : items) {
+            byProvider.computeIfAbsent(item.provider, p -> new ConcurrentLinkedQueue<>()).add(item);
+        }
+
+        ConcurrentLinkedQueue<RefundOutcome> outcomes = new ConcurrentLinkedQueue<>();
+
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        byProvider.forEach((provider, queue) -> {
+            int workerCount = Math.min(maxConcurrentPerProvider, queue.size());
+            for (int i = 0; i < workerCount; i++) {
+                workers.add(drain(queue, reason, outcomes::add));
+            }
+        });
+
+        return CompletableFuture.allOf(workers.toArray(new CompletableFuture[0]))
+            .thenApplyAsync(ignored -> {
+                // Write out the tail of the batch before reporting; the write decides which refunds were ours
+                flush();
+                markCompleted(batchId);
+
+                int refunded = 0;
+                int alreadyRefunded = 0;
+                int failed = 0;
+                BigDecimal total = BigDecimal.ZERO;
+                for (RefundOutcome outcome : outcomes) {
+                    if (!outcome.isSuccess()) {
+                        failed++;
+                    } else if (Boolean.FALSE.equals(outcome.recorded)) {
+                        alreadyRefunded++;
+                    } else {
+                        // Includes refunds whose write failed; a resume records them
+                        refunded++;
+                        total = total.add(outcome.item.amount);
+                    }
+                }
+                return new BatchResult(batchId, ineligible, refunded, alreadyRefunded, failed, total);
+            }, flusher);
+    }
+
+    private interface OutcomeListener {
+        void accept(RefundOutcome outcome);
+    }
+
+    private CompletableFuture<Void> drain(ConcurrentLinkedQueue<RefundItem> queue, String reason, OutcomeListener listener) {
+        RefundItem item = queue.poll();
+        if (item == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return PaymentGatewayService.refundPayment(item.processorTransactionId, item.provider,
+                item.amount.doubleValue(), reason, item.getIdempotencyKey())
+            .handle((response, error) -> new RefundOutcome(item, reason, response,
+                error != null ? error.getMessage() : (response.isSuccess() ? null : response.getMessage())))
+            // Async hop so refunds that complete immediately (e.g. an open circuit) do not grow the stack
+            .thenComposeAsync(outcome -> {
+                pendingWrites.add(outcome);
+                listener.accept(outcome);
+                return drain(queue, reason, listener);
+            });
+    }
+
+    /**
+     * Write queued outcomes in batches: the refund transaction, the original
+     * purchase marked refunded, and the batch item, all in one commit
+     */
+    private synchronized void flush() {
+        List<RefundOutcome> outcomes = new ArrayList<>(FLUSH_BATCH_SIZE);
+        while (pendingWrites.drainTo(outcomes, FLUSH_BATCH_SIZE) > 0) {
+            try {
+                writeOutcomes(outcomes);
+            } catch (SQLException e) {
+                // Leave the items pending so a resume picks them up again
+                System.err.println("Error saving refund results: " + e.getMessage());
+            }
+            outcomes.clear();
+        }
+    }
+
+    private void writeOutcomes(List<RefundOutcome> outcomes) throws SQLException {
+        String insertRefundSql = """
+            INSERT INTO transactions
+            (id, order_id, user_id, payment_method_id, type, status, amount, total_amount, currency,
+             description, created_at, updated_at, processed_at, processor_transaction_id, refund_reason, retry_count,
+             provider)
+            VALUES (?, ?, ?, ?, 'REFUND', 'COMPLETED', ?, ?, ?, ?, ?, ?, ?, ?, ?, 0, ?)
+        """;
+        String updateOriginalSql = """
+            UPDATE transactions SET status = 'REFUNDED', refund_transaction_id = ?, refund_reason = ?, updated_at = ?
+            WHERE id = ? AND status = 'COMPLETED' AND refund_transaction_id IS NULL
+        """;
+        String updateItemSql = """
+            UPDATE refund_batch_items SET status = ?, refund_transaction_id = ?, error = ?
+            WHERE batch_id = ? AND transaction_id = ?
+        """;
+
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement insertRefund = conn.prepareStatement(insertRefundSql);
+                 PreparedStatement updateOriginal = conn.prepareStatement(updateOriginalSql);
+                 PreparedStatement updateItem = conn.prepareStatement(updateItemSql)) {
+
+                // Claim the purchases first; only the claim that wins records a refund row,
+                // so a purchase picked up by two batches is recorded as refunded once
+                List<RefundOutcome> succeeded = new ArrayList<>();
+                List<String> refundIds = new ArrayList<>();
+                for (RefundOutcome outcome : outcomes) {
+                    if (outcome.isSuccess()) {
+                        String refundId = Ids.next();
+                        updateOriginal.setString(1, refundId);
+                        updateOriginal.setString(2, outcome.reason);
+                        updateOriginal.setTimestamp(3, now);
+                        updateOriginal.setString(4, outcome.item.transactionId);
+                        updateOriginal.addBatch();
+                        succeeded.add(outcome);
+                        refundIds.add(refundId);
+                    }
+                }
+                int[] claimed = updateOriginal.executeBatch();
+
+                Map<RefundOutcome, String> recorded = new IdentityHashMap<>();
+                for (int i = 0; i < succeeded.size(); i++) {
+                    if (claimed[i] == 0) {
+                        continue;
+                    }
+                    RefundOutcome outcome = succeeded.get(i);
+                    RefundItem item = outcome.item;
+                    recorded.put(outcome, refundIds.get(i));
+
+                    insertRefund.setString(1, refundIds.get(i));
+                    insertRefund.setString(2, item.orderId);
+                    insertRefund.setString(3, item.userId);
+                    insertRefund.setString(4, item.paymentMethodId);
+                    insertRefund.setBigDecimal(5, item.amount);
+                    insertRefund.setBigDecimal(6, item.amount);
+                    insertRefund.setString(7, item.currency);
+                    insertRefund.setString(8, "Refund for order " + item.orderId);
+                    insertRefund.setTimestamp(9, now);
+                    insertRefund.setTimestamp(10, now);
+                    insertRefund.setTimestamp(11, now);
+                    insertRefund.setString(12, outcome.response.getProviderTransactionId());
+                    insertRefund.setString(13, outcome.reason);
+                    insertRefund.setString(14, item.provider.name());
+                    insertRefund.addBatch();
+                }
+
+                for (RefundOutcome outcome : outcomes) {
+                    RefundItem item = outcome.item;
+                    updateItem.setString(1, (outcome.isSuccess() ? ItemStatus.SUCCEEDED : ItemStatus.FAILED).name());
+                    updateItem.setString(2, recorded.get(outcome));
+                    updateItem.setString(3, outcome.isSuccess() && !recorded.containsKey(outcome)
+                        ? "Already refunded by another batch" : outcome.error);
+                    updateItem.setString(4, item.batchId);
+                    updateItem.setString(5, item.transactionId);
+                    updateItem.addBatch();
+                }
+
+                insertRefund.executeBatch();
+                updateItem.executeBatch();
+                conn.commit();
+
+                for (RefundOutcome outcome : succeeded) {
+                    outcome.recorded = recorded.containsKey(outcome);
+                }
+
+                // Refunded orders give their coupon uses back
+                releaseCoupons(conn, recorded.keySet());
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private void releaseCoupons(Connection conn, Collection<RefundOutcome> refunded) {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT coupon_codes FROM transactions WHERE id = ?")) {
+            for (RefundOutcome outcome : refunded) {
+                stmt.setString(1, outcome.item.transactionId);
+                ResultSet rs = stmt.executeQuery();
+                if (rs.next()) {
+                    CouponService.getInstance().releaseAll(CouponService.splitCodes(rs.getString(1)), outcome.item.orderId);
+                }
+            }
+        } catch (SQLException e) {
+            // The refunds are committed; only the coupon uses stay counted
+            System.err.println("Error releasing coupons of refunded orders: " + e.getMessage());
+        }
+    }
+
+    // Only complete once every item has a recorded outcome, so a failed write stays resumable
+    private void markCompleted(String batchId) {
+        String sql = """
+            UPDATE refund_batches SET completed_at = ?
+            WHERE id = ? AND NOT EXISTS (
+                SELECT 1 FROM refund_batch_items WHERE batch_id = ? AND status = 'PENDING')
+        """;
+
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now()));
+            stmt.setString(2, batchId);
+            stmt.setString(3, batchId);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Error completing refund batch: " + e.getMessage());
+        }
+    }
+}
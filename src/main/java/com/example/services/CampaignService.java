@@ -0,0 +1,459 @@
+package com.example.services;
+
+import com.example.api.RateLimiter;
+import com.example.models.Customer;
+import com.example.models.Ids;
+import com.example.models.User;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends a promotional notification to every customer who accepts promotions.
+ *
+ * Recipients are read from the customers database, filtered on their stored
+ * promotions preference; campaign progress is kept in the application database.
+ * The customer id range at launch is split into shards that workers walk in
+ * parallel, one page of customers at a time. All shards draw from one global
+ * send-rate limit. After each page a shard records the last customer it finished
+ * with, so a campaign interrupted by a crash resumes from there; at most the page
+ * in flight is sent again. Campaign emails bypass the notification digest, so the
+ * rate limit, counts and checkpoints all track emails actually sent.
+ */
+public class CampaignService {
+    private static final String DB_URL = "jdbc:h2:./agro_db";
+    private static final String DB_USER = "sa";
+    private static final String DB_PASSWORD = "";
+
+    static final int DEFAULT_SHARDS = 4;
+    static final int DEFAULT_PAGE_SIZE = 200;
+    private static final double DEFAULT_SENDS_PER_SECOND = 100;
+    private static final String SEND_LIMIT = "campaign-send";
+
+    private static CampaignService instance;
+
+    private final String dbUrl;
+    private final String customersDbUrl;
+    private final RecipientSender sender;
+    private final int shards;
+    private final int pageSize;
+    private final RateLimiter rateLimiter = new RateLimiter();
+    private final ExecutorService workers;
+    private final Map<String, CompletableFuture<CampaignResult>> running = new ConcurrentHashMap<>();
+    private volatile boolean shutdown;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * Delivers a campaign to one recipient; completes with whether it was sent
+     */
+    @FunctionalInterface
+    public interface RecipientSender {
+        CompletableFuture<Boolean> send(User recipient, Campaign campaign);
+    }
+
+    public static class Campaign {
+        private final String id;
+        private final String title;
+        private final String details;
+        private final String promoCode;
+
+        Campaign(String id, String title, String details, String promoCode) {
+            this.id = id;
+            this.title = title;
+            this.details = details;
+            this.promoCode = promoCode;
+        }
+
+        public String getId() { return id; }
+        public String getTitle() { return title; }
+        public String getDetails() { return details; }
+        public String getPromoCode() { return promoCode; }
+    }
+
+    // A contiguous slice of customer ids and how far through it the campaign got
+    private static class Shard {
+        private final int index;
+        private final long lastId;
+        private final long rangeEnd;
+
+        Shard(int index, long lastId, long rangeEnd) {
+            this.index = index;
+            this.lastId = lastId;
+            this.rangeEnd = rangeEnd;
+        }
+    }
+
+    public static class CampaignResult {
+        private final String campaignId;
+        private final long sent;
+        private final long failed;
+
+        CampaignResult(String campaignId, long sent, long failed) {
+            this.campaignId = campaignId;
+            this.sent = sent;
+            this.failed = failed;
+        }
+
+        public String getCampaignId() { return campaignId; }
+        public long getSentCount() { return sent; }
+        public long getFailedCount() { return failed; }
+
+        @Override
+        public String toString() {
+            return String.format("CampaignResult{campaign=%s, sent=%d, failed=%d}",
+                campaignId, sent, failed);
+        }
+    }
+
+    /**
+     * @param dbUrl database holding campaign progress
+     * @param customersDbUrl database holding the Customer table
+     */
+    public CampaignService(String dbUrl, String customersDbUrl, RecipientSender sender,
+                           int shards, int pageSize, double sendsPerSecond) {
+        this.dbUrl = dbUrl;
+        this.customersDbUrl = customersDbUrl;
+        this.sender = sender;
+        this.shards = shards;
+        this.pageSize = pageSize;
+        // Allow a tenth of a second of burst so shards can start together
+        rateLimiter.configure(SEND_LIMIT, Math.max(1, (int) (sendsPerSecond / 10)), sendsPerSecond);
+        initializeDatabase();
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(shards, r -> {
+            Thread thread = new Thread(r, "campaign-shard-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static synchronized CampaignService getInstance() {
+        if (instance == null) {
+            NotificationService notifications = NotificationService.getInstance();
+            instance = new CampaignService(DB_URL, CustomerDirectory.DB_URL,
+                (recipient, campaign) -> notifications.sendCampaignNotification(recipient,
+                    campaign.getTitle(), campaign.getDetails(), campaign.getPromoCode()),
+                DEFAULT_SHARDS, DEFAULT_PAGE_SIZE, DEFAULT_SENDS_PER_SECOND);
+        }
+        return instance;
+    }
+
+    private void initializeDatabase() {
+        String createCampaignsTable = """
+            CREATE TABLE IF NOT EXISTS campaigns (
+                id VARCHAR(36) PRIMARY KEY,
+                title VARCHAR(255) NOT NULL,
+                details TEXT,
+                promo_code VARCHAR(50),
+                created_at TIMESTAMP NOT NULL,
+                completed_at TIMESTAMP
+            )
+        """;
+
+        String createShardsTable = """
+            CREATE TABLE IF NOT EXISTS campaign_shards (
+                campaign_id VARCHAR(36) NOT NULL,
+                shard INT NOT NULL,
+                last_customer_id BIGINT NOT NULL,
+                range_end BIGINT NOT NULL,
+                sent INT NOT NULL DEFAULT 0,
+                failed INT NOT NULL DEFAULT 0,
+                completed_at TIMESTAMP,
+                PRIMARY KEY (campaign_id, shard)
+            )
+        """;
+
+        try (Connection conn = DriverManager.getConnection(dbUrl, DB_USER, DB_PASSWORD)) {
+            conn.createStatement().execute(createCampaignsTable);
+            conn.createStatement().execute(createShardsTable);
+        } catch (SQLException e) {
+            System.err.println("Error initializing campaign tables: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Start a campaign to all current customers who accept promotions
+     */
+    public CompletableFuture<CampaignResult> launch(String title, String details, String promoCode) {
+        Campaign campaign = new Campaign(Ids.next(), title, details, promoCode);
+        try {
+            createCampaign(campaign);
+        } catch (SQLException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return start(campaign);
+    }
+
+    /**
+     * Continue campaigns interrupted by a crash or shutdown from their last checkpoint
+     */
+    public List<CompletableFuture<CampaignResult>> resumeIncomplete() {
+        List<CompletableFuture<CampaignResult>> resumed = new ArrayList<>();
+        String sql = "SELECT id, title, details, promo_code FROM campaigns WHERE completed_at IS NULL";
+
+        try (Connection conn = DriverManager.getConnection(dbUrl, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                Campaign campaign = new Campaign(rs.getString("id"), rs.getString("title"),
+                    rs.getString("details"), rs.getString("promo_code"));
+                if (!running.containsKey(campaign.getId())) {
+                    resumed.add(start(campaign));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error resuming campaigns: " + e.getMessage());
+        }
+
+        return resumed;
+    }
+
+    /**
+     * Stop all shards after their current page; progress so far stays checkpointed
+     */
+    public void shutdown() {
+        shutdown = true;
+        // No interrupts: H2 closes its file when a thread is interrupted mid-read,
+        // losing the checkpoints not yet written out
+        workers.shutdown();
+    }
+
+    public int getRunningCount() { return running.size(); }
+    public long getSentCount() { return sent.sum(); }
+    public long getFailedCount() { return failed.sum(); }
+
+    @Override
+    public String toString() {
+        return String.format("CampaignService{shards=%d, running=%d, sent=%d, failed=%d}",
+            shards, getRunningCount(), getSentCount(), getFailedCount());
+    }
+
+    // Split the id range at launch so each shard walks its own slice of the primary key
+    private void createCampaign(Campaign campaign) throws SQLException {
+        String campaignSql = """
+            INSERT INTO campaigns (id, title, details, promo_code, created_at) VALUES (?, ?, ?, ?, ?)
+        """;
+        String shardSql = """
+            INSERT INTO campaign_shards (campaign_id, shard, last_customer_id, range_end) VALUES (?, ?, ?, ?)
+        """;
+
+        long minId = 0;
+        long maxId = -1;
+        try (Connection customers = DriverManager.getConnection(customersDbUrl, DB_USER, DB_PASSWORD);
+             ResultSet rs = customers.createStatement().executeQuery("SELECT MIN(id), MAX(id) FROM Customer")) {
+            if (rs.next() && rs.getObject(1) != null) {
+                minId = rs.getLong(1);
+                maxId = rs.getLong(2);
+            }
+        }
+
+        try (Connection conn = DriverManager.getConnection(dbUrl, DB_USER, DB_PASSWORD)) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement campaignStmt = conn.prepareStatement(campaignSql);
+                 PreparedStatement shardStmt = conn.prepareStatement(shardSql)) {
+                campaignStmt.setString(1, campaign.getId());
+                campaignStmt.setString(2, campaign.getTitle());
+                campaignStmt.setString(3, campaign.getDetails());
+                campaignStmt.setString(4, campaign.getPromoCode());
+                campaignStmt.setTimestamp(5, Timestamp.valueOf(LocalDateTime.now()));
+                campaignStmt.executeUpdate();
+
+                long span = maxId - minId + 1;
+                long rangeStart = minId;
+                for (int i = 0; i < shards; i++) {
+                    long rangeEnd = i == shards - 1 ? maxId : minId + span * (i + 1) / shards - 1;
+                    shardStmt.setString(1, campaign.getId());
+                    shardStmt.setInt(2, i);
+                    shardStmt.setLong(3, rangeStart - 1);
+                    shardStmt.setLong(4, rangeEnd);
+                    shardStmt.addBatch();
+                    rangeStart = rangeEnd + 1;
+                }
+                shardStmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private CompletableFuture<CampaignResult> start(Campaign campaign) {
+        List<Shard> pending;
+        try {
+            pending = loadUnfinishedShards(campaign.getId());
+        } catch (SQLException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        List<CompletableFuture<Void>> shardRuns = new ArrayList<>();
+        for (Shard shard : pending) {
+            shardRuns.add(CompletableFuture.runAsync(() -> runShard(campaign, shard), workers));
+        }
+
+        CompletableFuture<CampaignResult> result = CompletableFuture.allOf(shardRuns.toArray(new CompletableFuture[0]))
+            .thenApply(ignored -> complete(campaign.getId()));
+        running.put(campaign.getId(), result);
+        result.whenComplete((r, error) -> running.remove(campaign.getId()));
+        return result;
+    }
+
+    private List<Shard> loadUnfinishedShards(String campaignId) throws SQLException {
+        String sql = """
+            SELECT shard, last_customer_id, range_end FROM campaign_shards
+            WHERE campaign_id = ? AND completed_at IS NULL
+            ORDER BY shard
+        """;
+
+        List<Shard> pending = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection(dbUrl, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, campaignId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                pending.add(new Shard(rs.getInt("shard"), rs.getLong("last_customer_id"), rs.getLong("range_end")));
+            }
+        }
+        return pending;
+    }
+
+    private void runShard(Campaign campaign, Shard shard) {
+        long cursor = shard.lastId;
+
+        try (Connection conn = DriverManager.getConnection(dbUrl, DB_USER, DB_PASSWORD);
+             Connection customers = DriverManager.getConnection(customersDbUrl, DB_USER, DB_PASSWORD)) {
+            while (true) {
+                if (shutdown || Thread.currentThread().isInterrupted()) {
+                    throw new IllegalStateException("Campaign service stopped");
+                }
+
+                List<Customer> page = loadPage(customers, cursor, shard.rangeEnd);
+                if (page.isEmpty()) {
+                    checkpoint(conn, campaign.getId(), shard.index, cursor, 0, 0, true);
+                    return;
+                }
+
+                List<CompletableFuture<Boolean>> sends = new ArrayList<>(page.size());
+                for (Customer customer : page) {
+                    acquireSendPermit();
+                    sends.add(send(customer, campaign));
+                }
+
+                // Only move the checkpoint once every send in the page has finished
+                int pageSent = 0;
+                for (CompletableFuture<Boolean> send : sends) {
+                    if (send.join()) {
+                        pageSent++;
+                    }
+                }
+                int pageFailed = sends.size() - pageSent;
+
+                cursor = Long.parseLong(page.get(page.size() - 1).getId());
+                checkpoint(conn, campaign.getId(), shard.index, cursor, pageSent, pageFailed, false);
+                sent.add(pageSent);
+                failed.add(pageFailed);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error running campaign shard " + shard.index + ": " + e.getMessage());
+            throw new IllegalStateException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Campaign shard " + shard.index + " interrupted");
+        }
+    }
+
+    private CompletableFuture<Boolean> send(Customer customer, Campaign campaign) {
+        CompletableFuture<Boolean> result;
+        try {
+            result = sender.send(customer, campaign);
+        } catch (Exception e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return result.handle((ok, error) -> error == null && Boolean.TRUE.equals(ok));
+    }
+
+    // Blocks until the global rate limit admits one more send
+    private void acquireSendPermit() throws InterruptedException {
+        RateLimiter.Decision decision;
+        while (!(decision = rateLimiter.tryAcquire(SEND_LIMIT, null)).isAllowed()) {
+            Thread.sleep(decision.getRetryAfterMillis());
+        }
+    }
+
+    // Opted-out customers never leave the database
+    private List<Customer> loadPage(Connection conn, long afterId, long rangeEnd) throws SQLException {
+        String sql = "SELECT " + CustomerDirectory.COLUMNS + " FROM Customer "
+            + "WHERE id > ? AND id <= ? AND deactivated = FALSE AND promotionalNotifications = TRUE "
+            + "AND email IS NOT NULL ORDER BY id LIMIT ?";
+
+        List<Customer> page = new ArrayList<>(pageSize);
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setLong(1, afterId);
+            stmt.setLong(2, rangeEnd);
+            stmt.setInt(3, pageSize);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                page.add(CustomerDirectory.createCustomerFromResultSet(rs));
+            }
+        }
+        return page;
+    }
+
+    private void checkpoint(Connection conn, String campaignId, int shard, long lastId,
+                            int pageSent, int pageFailed, boolean done) throws SQLException {
+        String sql = """
+            UPDATE campaign_shards
+            SET last_customer_id = ?, sent = sent + ?, failed = failed + ?, completed_at = ?
+            WHERE campaign_id = ? AND shard = ?
+        """;
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setLong(1, lastId);
+            stmt.setInt(2, pageSent);
+            stmt.setInt(3, pageFailed);
+            stmt.setTimestamp(4, done ? Timestamp.valueOf(LocalDateTime.now()) : null);
+            stmt.setString(5, campaignId);
+            stmt.setInt(6, shard);
+            stmt.executeUpdate();
+        }
+    }
+
+    // Totals include pages sent before any restart
+    private CampaignResult complete(String campaignId) {
+        String totalsSql = """
+            SELECT COALESCE(SUM(sent), 0), COALESCE(SUM(failed), 0)
+            FROM campaign_shards WHERE campaign_id = ?
+        """;
+        String completeSql = "UPDATE campaigns SET completed_at = ? WHERE id = ?";
+
+        try (Connection conn = DriverManager.getConnection(dbUrl, DB_USER, DB_PASSWORD);
+             PreparedStatement totals = conn.prepareStatement(totalsSql);
+             PreparedStatement completeStmt = conn.prepareStatement(completeSql)) {
+
+            completeStmt.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now()));
+            completeStmt.setString(2, campaignId);
+            completeStmt.executeUpdate();
+
+            totals.setString(1, campaignId);
+            ResultSet rs = totals.executeQuery();
+            rs.next();
+            return new CampaignResult(campaignId, rs.getLong(1), rs.getLong(2));
+        } catch (SQLException e) {
+            System.err.println("Error completing campaign: " + e.getMessage());
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.services;
+
+/**
+ * Consecutive-failure circuit breaker.
+ * Opens after a run of failures, rejects calls while open, then lets a single
+ * probe through (half-open) to decide whether to close again.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openDurationMillis;
+
+    private State state;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    public CircuitBreaker(int failureThreshold, long openDurationMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openDurationMillis = openDurationMillis;
+        this.state = State.CLOSED;
+    }
+
+    /**
+     * Whether a call may proceed; in half-open state only one probe is admitted
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < openDurationMillis) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                return true;
+            case HALF_OPEN:
+            default:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        state = State.CLOSED;
+    }
+
+    public synchronized void recordFailure() {
+        probeInFlight = false;
+        consecutiveFailures++;
+
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized State getState() {
+        // Report an elapsed open period as half-open without admitting a probe
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDurationMillis) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+}
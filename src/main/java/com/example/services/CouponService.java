@@ -0,0 +1,503 @@
+package com.example.services;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Validates and counts coupon redemptions in memory, persisting them in batches.
+ * Limited codes use a single atomic counter with a compare-and-set against the limit,
+ * so a code can never be over-redeemed however many checkouts race for the last use;
+ * unlimited codes count on a striped LongAdder to avoid contention on popular codes.
+ * Redemptions are keyed by order, so redeeming the same order twice is harmless.
+ * A crash loses at most one flush interval of redemption records.
+ */
+public class CouponService {
+    private static final String DB_URL = "jdbc:h2:./agro_db";
+    private static final String DB_USER = "sa";
+    private static final String DB_PASSWORD = "";
+
+    private static final long FLUSH_INTERVAL_MILLIS = 1_000;
+
+    private static CouponService instance;
+
+    private final String dbUrl;
+    private final Map<String, Coupon> coupons = new ConcurrentHashMap<>();
+    // code:orderId -> userId for every redemption we know about
+    private final Map<String, String> redemptionsByOrder = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<RedemptionEvent> pendingWrites = new ConcurrentLinkedQueue<>();
+    // Events of a flush that failed, written ahead of newer ones next time; guarded by flush
+    private List<RedemptionEvent> unflushed = new ArrayList<>();
+    private final ScheduledExecutorService flusher;
+
+    public enum DiscountType { PERCENT_OFF, AMOUNT_OFF, FREE_SHIPPING }
+
+    public enum RedemptionResult {
+        ACCEPTED,
+        ALREADY_REDEEMED,       // Same order redeemed before; nothing counted twice
+        UNKNOWN_CODE,
+        NOT_ACTIVE,
+        EXHAUSTED,
+        USER_LIMIT_REACHED;
+
+        public boolean isAccepted() {
+            return this == ACCEPTED || this == ALREADY_REDEEMED;
+        }
+    }
+
+    public static class Coupon {
+        private final String code;
+        private final DiscountType discountType;
+        private final BigDecimal discountValue;
+        private final BigDecimal minSubtotal;
+        private final long maxRedemptions;      // 0 for unlimited
+        private final int maxPerUser;           // 0 for unlimited
+        private final LocalDateTime validFrom;
+        private final LocalDateTime validTo;
+
+        private final AtomicLong limitedCount = new AtomicLong();
+        private final LongAdder unlimitedCount = new LongAdder();
+        private final Map<String, AtomicInteger> perUser = new ConcurrentHashMap<>();
+
+        public Coupon(String code, DiscountType discountType, BigDecimal discountValue, BigDecimal minSubtotal,
+                      long maxRedemptions, int maxPerUser, LocalDateTime validFrom, LocalDateTime validTo) {
+            this.code = normalize(code);
+            this.discountType = discountType;
+            this.discountValue = discountValue;
+            this.minSubtotal = minSubtotal != null ? minSubtotal : BigDecimal.ZERO;
+            this.maxRedemptions = maxRedemptions;
+            this.maxPerUser = maxPerUser;
+            this.validFrom = validFrom;
+            this.validTo = validTo;
+        }
+
+        public String getCode() { return code; }
+        public DiscountType getDiscountType() { return discountType; }
+        public BigDecimal getDiscountValue() { return discountValue; }
+        public BigDecimal getMinSubtotal() { return minSubtotal; }
+        public long getMaxRedemptions() { return maxRedemptions; }
+        public int getMaxPerUser() { return maxPerUser; }
+        public LocalDateTime getValidFrom() { return validFrom; }
+        public LocalDateTime getValidTo() { return validTo; }
+
+        public long getRedemptionCount() {
+            return maxRedemptions > 0 ? limitedCount.get() : unlimitedCount.sum();
+        }
+
+        public boolean isActive(LocalDateTime now) {
+            return (validFrom == null || !now.isBefore(validFrom)) && (validTo == null || now.isBefore(validTo));
+        }
+
+        // Discount rule the pricing engine applies when this code is entered
+        PricingEngine.PricingRule toPricingRule() {
+            String ruleId = "coupon-" + code;
+            PricingEngine.PricingRule rule;
+            switch (discountType) {
+                case PERCENT_OFF:
+                    rule = PricingEngine.PricingRule.cartPercentOff(ruleId, minSubtotal, discountValue);
+                    break;
+                case AMOUNT_OFF:
+                    rule = PricingEngine.PricingRule.cartAmountOff(ruleId, minSubtotal, discountValue);
+                    break;
+                default:
+                    rule = PricingEngine.PricingRule.freeShipping(ruleId, minSubtotal);
+                    break;
+            }
+            return rule.withCoupon(code).validBetween(validFrom, validTo);
+        }
+
+        boolean tryIncrementTotal() {
+            if (maxRedemptions <= 0) {
+                unlimitedCount.increment();
+                return true;
+            }
+            long current;
+            do {
+                current = limitedCount.get();
+                if (current >= maxRedemptions) {
+                    return false;
+                }
+            } while (!limitedCount.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        void decrementTotal() {
+            if (maxRedemptions <= 0) {
+                unlimitedCount.decrement();
+            } else {
+                limitedCount.decrementAndGet();
+            }
+        }
+
+        boolean tryIncrementUser(String userId) {
+            AtomicInteger count = perUser.computeIfAbsent(userId, u -> new AtomicInteger());
+            if (maxPerUser <= 0) {
+                count.incrementAndGet();
+                return true;
+            }
+            int current;
+            do {
+                current = count.get();
+                if (current >= maxPerUser) {
+                    return false;
+                }
+            } while (!count.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        void decrementUser(String userId) {
+            AtomicInteger count = perUser.get(userId);
+            if (count != null) {
+                count.decrementAndGet();
+            }
+        }
+    }
+
+    // A redemption or release waiting to be written
+    private static class RedemptionEvent {
+        private final String code;
+        private final String orderId;
+        private final String userId;
+        private final boolean released;
+        private final LocalDateTime at = LocalDateTime.now();
+
+        RedemptionEvent(String code, String orderId, String userId, boolean released) {
+            this.code = code;
+            this.orderId = orderId;
+            this.userId = userId;
+            this.released = released;
+        }
+    }
+
+    public CouponService(String dbUrl) {
+        this.dbUrl = dbUrl;
+        initializeDatabase();
+        loadCoupons();
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "coupon-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "coupon-final-flush"));
+    }
+
+    public static synchronized CouponService getInstance() {
+        if (instance == null) {
+            instance = new CouponService(DB_URL);
+        }
+        return instance;
+    }
+
+    private void initializeDatabase() {
+        String createCouponsTable = """
+            CREATE TABLE IF NOT EXISTS coupons (
+                code VARCHAR(50) PRIMARY KEY,
+                discount_type VARCHAR(20) NOT NULL,
+                discount_value DECIMAL(10,2) NOT NULL,
+                min_subtotal DECIMAL(10,2) DEFAULT 0,
+                max_redemptions BIGINT DEFAULT 0,
+                max_per_user INTEGER DEFAULT 0,
+                valid_from TIMESTAMP,
+                valid_to TIMESTAMP,
+                redeemed_count BIGINT DEFAULT 0
+            )
+        """;
+
+        String createRedemptionsTable = """
+            CREATE TABLE IF NOT EXISTS coupon_redemptions (
+                code VARCHAR(50) NOT NULL,
+                order_id VARCHAR(36) NOT NULL,
+                user_id VARCHAR(36) NOT NULL,
+                redeemed_at TIMESTAMP NOT NULL,
+                PRIMARY KEY (code, order_id)
+            )
+        """;
+
+        try (Connection conn = DriverManager.getConnection(dbUrl, DB_USER, DB_PASSWORD)) {
+            conn.createStatement().execute(createCouponsTable);
+            conn.createStatement().execute(createRedemptionsTable);
+        } catch (SQLException e) {
+            System.err.println("Error initializing coupon tables: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Create or replace a coupon and register its discount with the pricing engine
+     */
+    public void saveCoupon(Coupon coupon) throws SQLException {
+        String sql = """
+            MERGE INTO coupons (code, discount_type, discount_value, min_subtotal, max_redemptions,
+                                max_per_user, valid_from, valid_to)
+            KEY (code) VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+        """;
+
+        try (Connection conn = DriverManager.getConnection(dbUrl, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, coupon.code);
+            stmt.setString(2, coupon.discountType.name());
+            stmt.setBigDecimal(3, coupon.discountValue);
+            stmt.setBigDecimal(4, coupon.minSubtotal);
+            stmt.setLong(5, coupon.maxRedemptions);
+            stmt.setInt(6, coupon.maxPerUser);
+            stmt.setTimestamp(7, coupon.validFrom != null ? Timestamp.valueOf(coupon.validFrom) : null);
+            stmt.setTimestamp(8, coupon.validTo != null ? Timestamp.valueOf(coupon.validTo) : null);
+            stmt.executeUpdate();
+        }
+
+        // Carry counts over when a coupon is edited
+        Coupon previous = coupons.put(coupon.code, coupon);
+        if (previous != null) {
+            long used = previous.getRedemptionCount();
+            coupon.limitedCount.set(used);
+            coupon.unlimitedCount.add(used);
+            coupon.perUser.putAll(previous.perUser);
+        }
+        PricingEngine.getInstance().addRule(coupon.toPricingRule());
+    }
+
+    public Coupon getCoupon(String code) {
+        return code != null ? coupons.get(normalize(code)) : null;
+    }
+
+    /**
+     * Check a code without using it, e.g. when the customer types it at checkout
+     */
+    public RedemptionResult validate(String code, String userId) {
+        Coupon coupon = getCoupon(code);
+        if (coupon == null) {
+            return RedemptionResult.UNKNOWN_CODE;
+        }
+        if (!coupon.isActive(LocalDateTime.now())) {
+            return RedemptionResult.NOT_ACTIVE;
+        }
+        if (coupon.maxRedemptions > 0 && coupon.limitedCount.get() >= coupon.maxRedemptions) {
+            return RedemptionResult.EXHAUSTED;
+        }
+        AtomicInteger used = coupon.perUser.get(userId);
+        if (coupon.maxPerUser > 0 && used != null && used.get() >= coupon.maxPerUser) {
+            return RedemptionResult.USER_LIMIT_REACHED;
+        }
+        return RedemptionResult.ACCEPTED;
+    }
+
+    /**
+     * Use a code for an order. Safe to call concurrently and to repeat for the same order.
+     */
+    public RedemptionResult redeem(String code, String userId, String orderId) {
+        Coupon coupon = getCoupon(code);
+        if (coupon == null) {
+            return RedemptionResult.UNKNOWN_CODE;
+        }
+        if (!coupon.isActive(LocalDateTime.now())) {
+            return RedemptionResult.NOT_ACTIVE;
+        }
+
+        String orderKey = coupon.code + ":" + orderId;
+        if (redemptionsByOrder.putIfAbsent(orderKey, userId) != null) {
+            return RedemptionResult.ALREADY_REDEEMED;
+        }
+
+        // Claim the user's allowance first, then the global one, undoing on failure
+        if (!coupon.tryIncrementUser(userId)) {
+            redemptionsByOrder.remove(orderKey);
+            return RedemptionResult.USER_LIMIT_REACHED;
+        }
+        if (!coupon.tryIncrementTotal()) {
+            coupon.decrementUser(userId);
+            redemptionsByOrder.remove(orderKey);
+            return RedemptionResult.EXHAUSTED;
+        }
+
+        pendingWrites.add(new RedemptionEvent(coupon.code, orderId, userId, false));
+        return RedemptionResult.ACCEPTED;
+    }
+
+    /**
+     * Redeem every code for an order, all or nothing: if one is refused, the codes
+     * already redeemed here are released again and the refusal is returned
+     */
+    public RedemptionResult redeemAll(Collection<String> codes, String userId, String orderId) {
+        List<String> redeemed = new ArrayList<>();
+        for (String code : codes) {
+            RedemptionResult result = redeem(code, userId, orderId);
+            if (!result.isAccepted()) {
+                redeemed.forEach(done -> release(done, orderId));
+                return result;
+            }
+            if (result == RedemptionResult.ACCEPTED) {
+                redeemed.add(code);
+            }
+        }
+        return RedemptionResult.ACCEPTED;
+    }
+
+    public void releaseAll(Collection<String> codes, String orderId) {
+        for (String code : codes) {
+            release(code, orderId);
+        }
+    }
+
+    /**
+     * Give a redemption back, e.g. when the order's payment fails or is cancelled
+     */
+    public boolean release(String code, String orderId) {
+        Coupon coupon = getCoupon(code);
+        if (coupon == null) {
+            return false;
+        }
+
+        String userId = redemptionsByOrder.remove(coupon.code + ":" + orderId);
+        if (userId == null) {
+            return false;
+        }
+
+        coupon.decrementUser(userId);
+        coupon.decrementTotal();
+        pendingWrites.add(new RedemptionEvent(coupon.code, orderId, userId, true));
+        return true;
+    }
+
+    private void loadCoupons() {
+        String couponSql = "SELECT * FROM coupons";
+        String redemptionSql = "SELECT code, order_id, user_id FROM coupon_redemptions";
+
+        List<PricingEngine.PricingRule> rules = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection(dbUrl, DB_USER, DB_PASSWORD)) {
+            ResultSet rs = conn.createStatement().executeQuery(couponSql);
+            while (rs.next()) {
+                Timestamp from = rs.getTimestamp("valid_from");
+                Timestamp to = rs.getTimestamp("valid_to");
+                Coupon coupon = new Coupon(rs.getString("code"), DiscountType.valueOf(rs.getString("discount_type")),
+                    rs.getBigDecimal("discount_value"), rs.getBigDecimal("min_subtotal"), rs.getLong("max_redemptions"),
+                    rs.getInt("max_per_user"), from != null ? from.toLocalDateTime() : null,
+                    to != null ? to.toLocalDateTime() : null);
+                coupons.put(coupon.code, coupon);
+                rules.add(coupon.toPricingRule());
+            }
+
+            // Rebuild counters from the redemption log, the source of truth
+            rs = conn.createStatement().executeQuery(redemptionSql);
+            while (rs.next()) {
+                Coupon coupon = coupons.get(rs.getString("code"));
+                if (coupon == null) {
+                    continue;
+                }
+                String userId = rs.getString("user_id");
+                redemptionsByOrder.put(coupon.code + ":" + rs.getString("order_id"), userId);
+                coupon.perUser.computeIfAbsent(userId, u -> new AtomicInteger()).incrementAndGet();
+                coupon.limitedCount.incrementAndGet();
+                coupon.unlimitedCount.increment();
+            }
+        } catch (SQLException e) {
+            System.err.println("Error loading coupons: " + e.getMessage());
+        }
+
+        if (!rules.isEmpty()) {
+            PricingEngine.getInstance().addRules(rules);
+        }
+    }
+
+    /**
+     * Write queued redemptions and releases, then the current count per touched code
+     */
+    synchronized void flush() {
+        List<RedemptionEvent> events = unflushed;
+        unflushed = new ArrayList<>();
+        RedemptionEvent event;
+        while ((event = pendingWrites.poll()) != null) {
+            events.add(event);
+        }
+        if (events.isEmpty()) {
+            return;
+        }
+
+        String insertSql = "MERGE INTO coupon_redemptions (code, order_id, user_id, redeemed_at) KEY (code, order_id) VALUES (?, ?, ?, ?)";
+        String deleteSql = "DELETE FROM coupon_redemptions WHERE code = ? AND order_id = ?";
+        String countSql = "UPDATE coupons SET redeemed_count = ? WHERE code = ?";
+
+        try (Connection conn = DriverManager.getConnection(dbUrl, DB_USER, DB_PASSWORD)) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement insert = conn.prepareStatement(insertSql);
+                 PreparedStatement delete = conn.prepareStatement(deleteSql);
+                 PreparedStatement count = conn.prepareStatement(countSql)) {
+
+                // Apply in order so a redeem-then-release of one order ends up deleted
+                for (RedemptionEvent e : events) {
+                    if (e.released) {
+                        insert.executeBatch();
+                        delete.setString(1, e.code);
+                        delete.setString(2, e.orderId);
+                        delete.addBatch();
+                    } else {
+                        delete.executeBatch();
+                        insert.setString(1, e.code);
+                        insert.setString(2, e.orderId);
+                        insert.setString(3, e.userId);
+                        insert.setTimestamp(4, Timestamp.valueOf(e.at));
+                        insert.addBatch();
+                    }
+                }
+                insert.executeBatch();
+                delete.executeBatch();
+
+                for (String code : touchedCodes(events)) {
+                    count.setLong(1, coupons.get(code).getRedemptionCount());
+                    count.setString(2, code);
+                    count.addBatch();
+                }
+                count.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            // Keep them for the next flush, still ahead of anything queued since
+            unflushed = events;
+            System.err.println("Error saving coupon redemptions: " + e.getMessage());
+        }
+    }
+
+    private static Set<String> touchedCodes(List<RedemptionEvent> events) {
+        Set<String> codes = new LinkedHashSet<>();
+        for (RedemptionEvent event : events) {
+            codes.add(event.code);
+        }
+        return codes;
+    }
+
+    // Codes stored on a transaction row, comma separated
+    static String joinCodes(Collection<String> codes) {
+        return codes.isEmpty() ? null : String.join(",", codes);
+    }
+
+    static Set<String> splitCodes(String joined) {
+        Set<String> codes = new LinkedHashSet<>();
+        if (joined != null && !joined.isBlank()) {
+            for (String code : joined.split(",")) {
+                codes.add(normalize(code));
+            }
+        }
+        return codes;
+    }
+
+    static String normalize(String code) {
+        return PricingEngine.normalizeCouponCode(code);
+    }
+}
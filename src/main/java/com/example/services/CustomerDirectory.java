@@ -0,0 +1,50 @@
+package com.example.services;
+
+import com.example.models.Customer;
+import com.example.models.User;
+import java.sql.*;
+
+/**
+ * Looks up customers in the accounts database the app keeps them in, for services
+ * that only hold a user id (e.g. rows written by an earlier run).
+ */
+final class CustomerDirectory {
+    static final String DB_URL = "jdbc:h2:~/farmers_customers_db;MODE=MySQL";
+    static final String DB_USER = "sa";
+    static final String DB_PASSWORD = "";
+    static final String COLUMNS = "id, name, username, email, phone, address, promotionalNotifications";
+
+    private CustomerDirectory() {
+    }
+
+    /**
+     * The customer with this id, or null if there is none. Customers are stored
+     * under numeric ids; any other id resolves to null.
+     */
+    static User find(String userId) {
+        String sql = "SELECT " + COLUMNS + " FROM Customer WHERE id = ?";
+
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setLong(1, Long.parseLong(userId));
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? createCustomerFromResultSet(rs) : null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Builds a customer from a row selected with {@link #COLUMNS}
+     */
+    static Customer createCustomerFromResultSet(ResultSet rs) throws SQLException {
+        Customer customer = new Customer(rs.getString("name"), rs.getString("username"),
+            rs.getString("email"), rs.getString("phone"), rs.getString("address"));
+        customer.setId(String.valueOf(rs.getLong("id")));
+        customer.setPromotionalNotificationsEnabled(rs.getBoolean("promotionalNotifications"));
+        return customer;
+    }
+}
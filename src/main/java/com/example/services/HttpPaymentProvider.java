@@ -0,0 +1,60 @@
+package com.example.services;
+
+import com.example.models.Money;
+import com.example.models.PaymentMethod;
+import com.example.services.PaymentGatewayService.PaymentProvider;
+import com.example.services.PaymentGatewayService.PaymentResponse;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Provider integration that charges over HTTP using the shared {@link PaymentHttpClient}.
+ * Calls complete on the client's I/O threads, so no provider thread is held while waiting.
+ */
+public class HttpPaymentProvider implements PaymentGatewayService.ProviderClient {
+    private final PaymentProvider provider;
+    private final URI chargeEndpoint;
+    private final PaymentHttpClient httpClient;
+
+    public HttpPaymentProvider(PaymentProvider provider, URI chargeEndpoint) {
+        this(provider, chargeEndpoint, PaymentHttpClient.getInstance());
+    }
+
+    public HttpPaymentProvider(PaymentProvider provider, URI chargeEndpoint, PaymentHttpClient httpClient) {
+        this.provider = provider;
+        this.chargeEndpoint = chargeEndpoint;
+        this.httpClient = httpClient;
+    }
+
+    @Override
+    public PaymentResponse charge(PaymentMethod paymentMethod, double amount, String currency,
+                                  String description, Map<String, Object> metadata) throws Exception {
+        try {
+            return chargeAsync(paymentMethod, amount, currency, description, metadata, null).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<PaymentResponse> chargeAsync(PaymentMethod paymentMethod, double amount, String currency,
+                                                          String description, Map<String, Object> metadata,
+                                                          Executor executor) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("amount", amount);
+        body.put("amount_minor", Money.toMinor(amount, currency)); // Gateways take minor units, e.g. whole yen for JPY
+        body.put("currency", currency);
+        body.put("description", description);
+        body.put("payment_method_type", paymentMethod.getType().name());
+        body.put("payment_method_id", paymentMethod.getId());
+        if (metadata != null) {
+            body.put("metadata", metadata);
+        }
+
+        return httpClient.postPayment(provider, chargeEndpoint, body, currency, metadata);
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.services;
+
+import com.example.services.SmsGateway.SmsResult;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.Closeable;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+/**
+ * SMS provider reached over HTTP with a non-blocking client.
+ *
+ * A batch is one POST of {"messages": [{"id", "to", "body"}, ...]} answered with
+ * {"results": [{"id", "status", "error"}, ...]}. 429 and 5xx answers fail the whole
+ * batch so it is retried; any other error status rejects every message in it.
+ *
+ * Results are read one at a time. The provider accepted a batch it answered with 2xx
+ * and may have sent any of it, so a result with an unknown status rejects only that
+ * message, and an unreadable body rejects the messages instead of sending them twice.
+ */
+public class HttpSmsGateway implements SmsGateway, Closeable {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final URI batchEndpoint;
+    private final CloseableHttpAsyncClient client;
+
+    public HttpSmsGateway(URI batchEndpoint) {
+        this(batchEndpoint, 16, 10_000);
+    }
+
+    /**
+     * @param maxConnections connections kept open to the provider
+     * @param responseTimeoutMillis socket-level timeout for a response
+     */
+    public HttpSmsGateway(URI batchEndpoint, int maxConnections, long responseTimeoutMillis) {
+        this.batchEndpoint = batchEndpoint;
+        this.client = HttpAsyncClients.custom()
+            .setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                    .setConnectTimeout(Timeout.ofSeconds(5))
+                    .setSocketTimeout(Timeout.ofMilliseconds(responseTimeoutMillis))
+                    .setTimeToLive(TimeValue.ofMinutes(5))
+                    .build())
+                .build())
+            .setIOReactorConfig(IOReactorConfig.custom().setTcpNoDelay(true).setSoKeepAlive(true).build())
+            // SmsChannel decides what to retry and when
+            .disableAutomaticRetries()
+            .build();
+        this.client.start();
+    }
+
+    @Override
+    public CompletableFuture<List<SmsResult>> sendBatch(List<SmsMessage> messages) {
+        CompletableFuture<List<SmsResult>> result = new CompletableFuture<>();
+        SimpleHttpRequest request;
+        try {
+            request = buildRequest(messages);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        client.execute(request, new FutureCallback<SimpleHttpResponse>() {
+            @Override
+            public void completed(SimpleHttpResponse response) {
+                completeFromResponse(result, response, messages);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+
+        return result;
+    }
+
+    @Override
+    public void close() {
+        client.close(CloseMode.GRACEFUL);
+    }
+
+    private SimpleHttpRequest buildRequest(List<SmsMessage> messages) throws Exception {
+        List<Map<String, String>> payload = new ArrayList<>(messages.size());
+        for (SmsMessage message : messages) {
+            payload.add(Map.of("id", message.getId(), "to", message.getTo(), "body", message.getBody()));
+        }
+        return SimpleRequestBuilder.post(batchEndpoint)
+            .setBody(objectMapper.writeValueAsString(Map.of("messages", payload)), ContentType.APPLICATION_JSON)
+            .build();
+    }
+
+    private static void completeFromResponse(CompletableFuture<List<SmsResult>> future, SimpleHttpResponse response,
+                                             List<SmsMessage> messages) {
+        int status = response.getCode();
+        if (status == 429 || status >= 500) {
+            future.completeExceptionally(new IllegalStateException("SMS gateway returned HTTP " + status));
+            return;
+        }
+
+        List<SmsResult> results = new ArrayList<>(messages.size());
+        if (status >= 300) {
+            for (SmsMessage message : messages) {
+                results.add(new SmsResult(message.getId(), SmsResult.Status.REJECTED, "HTTP " + status));
+            }
+            future.complete(results);
+            return;
+        }
+
+        JsonNode json;
+        try {
+            String body = response.getBodyText();
+            json = body != null ? objectMapper.readTree(body) : null;
+        } catch (Exception e) {
+            json = null;
+        }
+        if (json == null || !json.path("results").isArray()) {
+            for (SmsMessage message : messages) {
+                results.add(new SmsResult(message.getId(), SmsResult.Status.REJECTED,
+                    "Unreadable gateway response to HTTP " + status));
+            }
+            future.complete(results);
+            return;
+        }
+
+        for (JsonNode node : json.path("results")) {
+            // Without an id the result cannot be matched; SmsChannel treats the message as unreported
+            String id = node.path("id").asText(null);
+            if (id != null) {
+                results.add(parseResult(id, node));
+            }
+        }
+        future.complete(results);
+    }
+
+    private static SmsResult parseResult(String id, JsonNode node) {
+        String status = node.path("status").asText("");
+        try {
+            return new SmsResult(id, SmsResult.Status.valueOf(status.toUpperCase(Locale.ROOT)), node.path("error").asText(null));
+        } catch (IllegalArgumentException e) {
+            return new SmsResult(id, SmsResult.Status.REJECTED, "Unknown gateway status '" + status + "'");
+        }
+    }
+}
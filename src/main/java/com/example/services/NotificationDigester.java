@@ -0,0 +1,267 @@
+package com.example.services;
+
+import com.example.EmailTemplate;
+import com.example.models.Notification;
+import com.example.models.User;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Collects a user's non-urgent email notifications and sends them as one digest.
+ *
+ * LOW and MEDIUM priority notifications are buffered per user; HIGH and URGENT are
+ * never accepted and go out on their own. Updates about the same order collapse
+ * into the latest one; the replaced ones are marked SUPERSEDED right away. A user's digest
+ * goes out one interval after the first item was buffered, or as soon as the
+ * buffer holds the maximum number of entries.
+ *
+ * The buffer lives in memory only. Buffered notifications stay PENDING in the
+ * store until their digest is sent, which is what NotificationService rebuilds
+ * the digests from after a restart.
+ */
+public class NotificationDigester {
+    public static final Duration DEFAULT_INTERVAL = Duration.ofHours(1);
+    public static final int DEFAULT_MAX_ENTRIES = 50;
+
+    private static final EmailTemplate DIGEST_TEMPLATE = EmailTemplate.compile("""
+        <html><body>\
+        <h2>📬 Here's what happened since your last update</h2>\
+        <ul>\
+        {{#entries}}<li><strong>{{icon}} {{title}}</strong> {{message}}\
+        {{#updates}} <small>({{updates}} updates)</small>{{/updates}}</li>{{/entries}}\
+        </ul>\
+        <hr>\
+        <p><small>Urgent alerts are still sent to you right away.</small></p>\
+        </body></html>""");
+
+    /**
+     * Delivers a rendered digest; completes with whether it was sent
+     */
+    @FunctionalInterface
+    public interface DigestSender {
+        CompletableFuture<Boolean> send(User user, String subject, String htmlBody);
+    }
+
+    private final DigestSender sender;
+    private final Consumer<Notification> deliveryListener;
+    private final int maxEntries;
+    private volatile Duration interval;
+    private final Map<String, UserDigest> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    private final LongAdder notificationsBuffered = new LongAdder();
+    private final LongAdder notificationsCoalesced = new LongAdder();
+    private final LongAdder digestsSent = new LongAdder();
+    private final LongAdder digestsFailed = new LongAdder();
+
+    // One line of a digest: the latest notification for its key and how many it stands for
+    private static class DigestEntry {
+        private Notification latest;
+        private int updates = 1;
+
+        DigestEntry(Notification notification) {
+            this.latest = notification;
+        }
+
+        // Returns the notification that was replaced
+        Notification replaceWith(Notification notification) {
+            Notification replaced = latest;
+            this.latest = notification;
+            updates++;
+            return replaced;
+        }
+    }
+
+    private static class UserDigest {
+        private User user;
+        private final Map<String, DigestEntry> entries = new LinkedHashMap<>();
+
+        UserDigest(User user) {
+            this.user = user;
+        }
+    }
+
+    public NotificationDigester(DigestSender sender, Consumer<Notification> deliveryListener,
+                                Duration interval, int maxEntries) {
+        this.sender = sender;
+        this.deliveryListener = deliveryListener;
+        this.interval = interval;
+        this.maxEntries = maxEntries;
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "notification-digest");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Whether a notification may wait for the digest instead of being emailed now
+     */
+    public boolean accepts(Notification notification) {
+        return notification.getPriority() == Notification.Priority.LOW
+            || notification.getPriority() == Notification.Priority.MEDIUM;
+    }
+
+    /**
+     * Buffer a notification for the user's next digest
+     */
+    public void add(User user, Notification notification) {
+        boolean[] full = new boolean[1];
+        Notification[] superseded = new Notification[1];
+        pending.compute(user.getId(), (userId, digest) -> {
+            if (digest == null) {
+                UserDigest created = new UserDigest(user);
+                scheduler.schedule(() -> flushIfCurrent(userId, created), interval.toMillis(), TimeUnit.MILLISECONDS);
+                digest = created;
+            }
+            digest.user = user;
+
+            String key = coalescingKey(notification);
+            DigestEntry entry = digest.entries.get(key);
+            if (entry == null) {
+                digest.entries.put(key, new DigestEntry(notification));
+            } else {
+                superseded[0] = entry.replaceWith(notification);
+                notificationsCoalesced.increment();
+            }
+            full[0] = digest.entries.size() >= maxEntries;
+            return digest;
+        });
+        notificationsBuffered.increment();
+
+        if (superseded[0] != null) {
+            // The newer update goes out in its place; settle this one now so a busy
+            // order does not keep every intermediate update in memory until the digest.
+            // It was never emailed itself, so it gets no sent time.
+            Notification replaced = superseded[0];
+            replaced.setStatus(Notification.Status.SUPERSEDED);
+            deliveryListener.accept(replaced);
+        }
+
+        if (full[0]) {
+            scheduler.execute(() -> flush(user.getId()));
+        }
+    }
+
+    /**
+     * Send a user's digest now. Completes with false if there was nothing to send
+     * or sending failed.
+     */
+    public CompletableFuture<Boolean> flush(String userId) {
+        UserDigest digest = pending.remove(userId);
+        if (digest == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return send(digest);
+    }
+
+    // A timer only sends the digest it was set for; an early flush may have replaced it
+    private void flushIfCurrent(String userId, UserDigest digest) {
+        if (pending.remove(userId, digest)) {
+            send(digest);
+        }
+    }
+
+    private CompletableFuture<Boolean> send(UserDigest digest) {
+        if (digest.entries.isEmpty()) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        List<DigestEntry> entries = new ArrayList<>(digest.entries.values());
+        String subject = String.format("📬 Your FarmConnect digest (%d update%s)",
+            entries.size(), entries.size() == 1 ? "" : "s");
+
+        CompletableFuture<Boolean> sent;
+        try {
+            sent = sender.send(digest.user, subject, buildDigestBody(entries));
+        } catch (Exception e) {
+            sent = CompletableFuture.failedFuture(e);
+        }
+
+        return sent.handle((ok, error) -> {
+            boolean delivered = error == null && Boolean.TRUE.equals(ok);
+            if (delivered) {
+                digestsSent.increment();
+            } else {
+                digestsFailed.increment();
+                System.err.println("Failed to send notification digest: "
+                    + (error != null ? error.getMessage() : "sender reported failure"));
+            }
+
+            LocalDateTime now = LocalDateTime.now();
+            for (DigestEntry entry : entries) {
+                Notification notification = entry.latest;
+                notification.setEmailSent(delivered);
+                notification.setStatus(delivered ? Notification.Status.SENT : Notification.Status.FAILED);
+                if (delivered) {
+                    notification.setSentAt(now);
+                }
+                deliveryListener.accept(notification);
+            }
+            return delivered;
+        });
+    }
+
+    /**
+     * Send every pending digest now, e.g. before shutdown
+     */
+    public void flushAll() {
+        for (String userId : new ArrayList<>(pending.keySet())) {
+            flush(userId);
+        }
+    }
+
+    public void setInterval(Duration interval) { this.interval = interval; }
+    public Duration getInterval() { return interval; }
+
+    public int getPendingUserCount() { return pending.size(); }
+    public long getNotificationsBuffered() { return notificationsBuffered.sum(); }
+    public long getNotificationsCoalesced() { return notificationsCoalesced.sum(); }
+    public long getDigestsSent() { return digestsSent.sum(); }
+    public long getDigestsFailed() { return digestsFailed.sum(); }
+
+    @Override
+    public String toString() {
+        return String.format("NotificationDigester{interval=%s, pendingUsers=%d, buffered=%d, coalesced=%d, sent=%d, failed=%d}",
+            interval, getPendingUserCount(), getNotificationsBuffered(), getNotificationsCoalesced(),
+            getDigestsSent(), getDigestsFailed());
+    }
+
+    // Order events collapse per order; everything else stays its own entry
+    private static String coalescingKey(Notification notification) {
+        String orderId = notification.getMetadata().get("orderId");
+        boolean orderEvent = switch (notification.getType()) {
+            case ORDER_CREATED, ORDER_UPDATED, ORDER_SHIPPED, ORDER_DELIVERED -> true;
+            default -> false;
+        };
+        return orderEvent && orderId != null ? "order:" + orderId : notification.getId();
+    }
+
+    private static String buildDigestBody(List<DigestEntry> entries) {
+        List<Map<String, Object>> lines = new ArrayList<>(entries.size());
+        for (DigestEntry entry : entries) {
+            Notification notification = entry.latest;
+            Map<String, Object> line = new HashMap<>();
+            line.put("icon", notification.getType().getIcon());
+            line.put("title", notification.getTitle());
+            line.put("message", notification.getMessage());
+            // Only worth mentioning when updates were folded together
+            line.put("updates", entry.updates > 1 ? entry.updates : null);
+            lines.add(line);
+        }
+        return DIGEST_TEMPLATE.render(Map.of("entries", lines));
+    }
+}
@@ -0,0 +1,296 @@
+package com.example.services;
+
+import com.example.models.Notification;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Delivers notifications over external channels on dedicated worker threads, so
+ * slow SMTP or SMS calls never run on the common pool.
+ *
+ * Each channel has its own bounded queue and workers. Higher priorities are taken
+ * first and may fill more of the queue: LOW only up to half, URGENT all of it. A
+ * sender that finds its share full waits briefly for room, then is rejected, so a
+ * promotional blast slows down instead of piling up or crowding out alerts.
+ *
+ * Sends may also be asynchronous: the worker only starts them, and the lane caps
+ * how many are in flight. The SMS lane works this way so the SMS channel can batch.
+ */
+public class NotificationDispatcher {
+    private static final int DEFAULT_EMAIL_WORKERS = 4;
+    private static final int DEFAULT_SMS_WORKERS = 2;
+    private static final int DEFAULT_EMAIL_CAPACITY = 10_000;
+    private static final int DEFAULT_SMS_CAPACITY = 5_000;
+    private static final int DEFAULT_SMS_MAX_IN_FLIGHT = 500;
+    private static final long DEFAULT_MAX_WAIT_MILLIS = 1_000;
+
+    private static NotificationDispatcher instance;
+
+    public enum Channel { EMAIL, SMS }
+
+    private final Map<Channel, Lane> lanes = new EnumMap<>(Channel.class);
+    private final long maxWaitNanos;
+
+    // A queued send; ordered by priority, then arrival
+    private static class DispatchTask implements Comparable<DispatchTask> {
+        private final Notification.Priority priority;
+        private final long sequence;
+        private final long enqueuedAt;
+        private final Callable<CompletableFuture<Boolean>> send;
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        DispatchTask(Notification.Priority priority, long sequence, Callable<CompletableFuture<Boolean>> send) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.enqueuedAt = System.nanoTime();
+            this.send = send;
+        }
+
+        @Override
+        public int compareTo(DispatchTask other) {
+            int byPriority = other.priority.compareTo(priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static class Lane {
+        private final Channel channel;
+        private final int capacity;
+        private final PriorityQueue<DispatchTask> queue = new PriorityQueue<>();
+        private final int[] depthByPriority = new int[Notification.Priority.values().length];
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+        private final Semaphore inFlight;
+        private long nextSequence;
+
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder totalQueueDelayNanos = new LongAdder();
+        private final AtomicLong maxQueueDelayNanos = new AtomicLong();
+        private final LongAdder totalSendNanos = new LongAdder();
+        private final AtomicLong maxSendNanos = new AtomicLong();
+
+        Lane(Channel channel, int capacity, int workers, int maxInFlight) {
+            this.channel = channel;
+            this.capacity = capacity;
+            this.inFlight = new Semaphore(maxInFlight);
+            for (int i = 1; i <= workers; i++) {
+                Thread worker = new Thread(this::work, "notify-" + channel.name().toLowerCase() + "-" + i);
+                worker.setDaemon(true);
+                worker.start();
+            }
+        }
+
+        // Share of the queue a priority may fill
+        private int limitFor(Notification.Priority priority) {
+            switch (priority) {
+                case LOW: return capacity / 2;
+                case MEDIUM: return capacity * 3 / 4;
+                case HIGH: return capacity * 9 / 10;
+                default: return capacity;
+            }
+        }
+
+        DispatchTask offer(Notification.Priority priority, Callable<CompletableFuture<Boolean>> send, long maxWaitNanos)
+                throws InterruptedException {
+            int limit = Math.max(1, limitFor(priority));
+            long remaining = maxWaitNanos;
+            lock.lockInterruptibly();
+            try {
+                while (queue.size() >= limit) {
+                    if (remaining <= 0) {
+                        rejected.increment();
+                        return null;
+                    }
+                    remaining = notFull.awaitNanos(remaining);
+                }
+                DispatchTask task = new DispatchTask(priority, nextSequence++, send);
+                queue.add(task);
+                depthByPriority[priority.ordinal()]++;
+                notEmpty.signal();
+                return task;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private DispatchTask take() throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                while (queue.isEmpty()) {
+                    notEmpty.await();
+                }
+                DispatchTask task = queue.poll();
+                depthByPriority[task.priority.ordinal()]--;
+                // Waiters have different limits, so wake them all to recheck
+                notFull.signalAll();
+                return task;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void work() {
+            while (!Thread.currentThread().isInterrupted()) {
+                DispatchTask task;
+                try {
+                    inFlight.acquire();
+                    task = take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+
+                long started = System.nanoTime();
+                long delay = started - task.enqueuedAt;
+                totalQueueDelayNanos.add(delay);
+                maxQueueDelayNanos.accumulateAndGet(delay, Math::max);
+
+                CompletableFuture<Boolean> sending;
+                try {
+                    sending = task.send.call();
+                } catch (Exception e) {
+                    sending = CompletableFuture.failedFuture(e);
+                }
+
+                sending.whenComplete((result, error) -> {
+                    if (error != null) {
+                        System.err.println("Error dispatching " + channel + " notification: " + error.getMessage());
+                    }
+                    boolean sent = error == null && Boolean.TRUE.equals(result);
+
+                    long sendTime = System.nanoTime() - started;
+                    totalSendNanos.add(sendTime);
+                    maxSendNanos.accumulateAndGet(sendTime, Math::max);
+                    completed.increment();
+                    if (!sent) {
+                        failed.increment();
+                    }
+                    inFlight.release();
+                    task.result.complete(sent);
+                });
+            }
+        }
+
+        int depth() {
+            lock.lock();
+            try {
+                return queue.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int depth(Notification.Priority priority) {
+            lock.lock();
+            try {
+                return depthByPriority[priority.ordinal()];
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @param smsMaxInFlight asynchronous SMS sends started but not yet completed
+     */
+    public NotificationDispatcher(int emailWorkers, int emailCapacity, int smsWorkers, int smsCapacity,
+                                  int smsMaxInFlight, long maxWaitMillis) {
+        // Email sends block their worker, so the worker count already bounds them
+        lanes.put(Channel.EMAIL, new Lane(Channel.EMAIL, emailCapacity, emailWorkers, emailWorkers));
+        lanes.put(Channel.SMS, new Lane(Channel.SMS, smsCapacity, smsWorkers, smsMaxInFlight));
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    public static synchronized NotificationDispatcher getInstance() {
+        if (instance == null) {
+            instance = new NotificationDispatcher(DEFAULT_EMAIL_WORKERS, DEFAULT_EMAIL_CAPACITY,
+                DEFAULT_SMS_WORKERS, DEFAULT_SMS_CAPACITY, DEFAULT_SMS_MAX_IN_FLIGHT, DEFAULT_MAX_WAIT_MILLIS);
+        }
+        return instance;
+    }
+
+    /**
+     * Queue a send on a channel. Completes with whether the send succeeded, or
+     * exceptionally with RejectedExecutionException when the channel stayed full.
+     * May block the caller for up to the configured wait while the queue is full.
+     */
+    public CompletableFuture<Boolean> dispatch(Channel channel, Notification.Priority priority, Callable<Boolean> send) {
+        return dispatchAsync(channel, priority, () -> CompletableFuture.completedFuture(send.call()));
+    }
+
+    /**
+     * Queue a send that completes on its own; the worker only starts it. It counts
+     * against the channel's in-flight limit until its future completes.
+     */
+    public CompletableFuture<Boolean> dispatchAsync(Channel channel, Notification.Priority priority,
+                                                    Callable<CompletableFuture<Boolean>> send) {
+        DispatchTask task;
+        try {
+            task = lanes.get(channel).offer(priority, send, maxWaitNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Interrupted while queueing " + channel));
+        }
+        if (task == null) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException(channel + " queue is full"));
+        }
+        return task.result;
+    }
+
+    public int getQueueDepth(Channel channel) { return lanes.get(channel).depth(); }
+    public int getQueueDepth(Channel channel, Notification.Priority priority) { return lanes.get(channel).depth(priority); }
+    public int getCapacity(Channel channel) { return lanes.get(channel).capacity; }
+    public long getCompletedCount(Channel channel) { return lanes.get(channel).completed.sum(); }
+    public long getFailedCount(Channel channel) { return lanes.get(channel).failed.sum(); }
+    public long getRejectedCount(Channel channel) { return lanes.get(channel).rejected.sum(); }
+
+    public double getAverageQueueDelayMillis(Channel channel) {
+        Lane lane = lanes.get(channel);
+        return averageMillis(lane.totalQueueDelayNanos.sum(), lane.completed.sum());
+    }
+
+    public double getMaxQueueDelayMillis(Channel channel) {
+        return TimeUnit.NANOSECONDS.toMicros(lanes.get(channel).maxQueueDelayNanos.get()) / 1000.0;
+    }
+
+    public double getAverageSendMillis(Channel channel) {
+        Lane lane = lanes.get(channel);
+        return averageMillis(lane.totalSendNanos.sum(), lane.completed.sum());
+    }
+
+    public double getMaxSendMillis(Channel channel) {
+        return TimeUnit.NANOSECONDS.toMicros(lanes.get(channel).maxSendNanos.get()) / 1000.0;
+    }
+
+    private static double averageMillis(long totalNanos, long count) {
+        return count == 0 ? 0.0 : TimeUnit.NANOSECONDS.toMicros(totalNanos) / 1000.0 / count;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder("NotificationDispatcher{");
+        for (Channel channel : Channel.values()) {
+            if (channel.ordinal() > 0) {
+                summary.append(", ");
+            }
+            summary.append(String.format("%s[depth=%d/%d, completed=%d, failed=%d, rejected=%d, avgQueueMs=%.1f, avgSendMs=%.1f]",
+                channel, getQueueDepth(channel), getCapacity(channel), getCompletedCount(channel),
+                getFailedCount(channel), getRejectedCount(channel), getAverageQueueDelayMillis(channel),
+                getAverageSendMillis(channel)));
+        }
+        return summary.append('}').toString();
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.services;
+
+import com.example.models.Notification;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One user's notifications, oldest first, in a fixed-size ring buffer. Writers take
+ * the inbox lock; the unread count is kept in an atomic so badge refreshes read it
+ * without locking or scanning. Lookups by id go through an index instead of a scan.
+ */
+class NotificationInbox {
+
+    /**
+     * How many notifications a user keeps and for how long. When either limit is
+     * hit the oldest notifications are dropped, read or not.
+     */
+    static final class RetentionPolicy {
+        static final RetentionPolicy DEFAULT = new RetentionPolicy(200, Duration.ofDays(90));
+
+        private final int maxNotifications;
+        private final Duration maxAge;
+
+        RetentionPolicy(int maxNotifications, Duration maxAge) {
+            if (maxNotifications <= 0) {
+                throw new IllegalArgumentException("maxNotifications must be positive");
+            }
+            this.maxNotifications = maxNotifications;
+            this.maxAge = maxAge;
+        }
+
+        int getMaxNotifications() { return maxNotifications; }
+        Duration getMaxAge() { return maxAge; }
+    }
+
+    // Slots between head and head + used; deleted notifications leave a null slot
+    private Notification[] slots;
+    private int head;
+    private int used;
+    private final Map<String, Integer> slotById = new HashMap<>();
+    private final AtomicInteger unread = new AtomicInteger();
+
+    NotificationInbox(RetentionPolicy policy) {
+        this.slots = new Notification[policy.getMaxNotifications()];
+    }
+
+    synchronized void add(Notification notification, RetentionPolicy policy) {
+        Integer existing = slotById.get(notification.getId());
+        if (existing != null) {
+            // Delivered again, e.g. by the outbox relay after a crash; keep one copy
+            removeAt(existing);
+        }
+        if (slots.length != policy.getMaxNotifications()) {
+            resize(policy.getMaxNotifications());
+        }
+        expire(policy);
+
+        if (used == slots.length) {
+            if (slotById.size() < used) {
+                compact();
+            } else {
+                removeAt(head);
+                head = (head + 1) % slots.length;
+                used--;
+            }
+        }
+
+        int slot = (head + used) % slots.length;
+        slots[slot] = notification;
+        used++;
+        slotById.put(notification.getId(), slot);
+        if (!notification.isRead()) {
+            unread.incrementAndGet();
+        }
+    }
+
+    /**
+     * Snapshot of the live notifications, oldest first
+     */
+    synchronized List<Notification> list() {
+        List<Notification> result = new ArrayList<>(slotById.size());
+        for (int i = 0; i < used; i++) {
+            Notification notification = slots[(head + i) % slots.length];
+            if (notification != null) {
+                result.add(notification);
+            }
+        }
+        return result;
+    }
+
+    synchronized List<Notification> listUnread() {
+        List<Notification> result = new ArrayList<>(unread.get());
+        for (int i = 0; i < used; i++) {
+            Notification notification = slots[(head + i) % slots.length];
+            if (notification != null && !notification.isRead()) {
+                result.add(notification);
+            }
+        }
+        return result;
+    }
+
+    int getUnreadCount() {
+        return unread.get();
+    }
+
+    synchronized boolean markAsRead(String notificationId) {
+        Integer slot = slotById.get(notificationId);
+        if (slot == null) {
+            return false;
+        }
+        Notification notification = slots[slot];
+        if (!notification.isRead()) {
+            notification.markAsRead();
+            unread.decrementAndGet();
+        }
+        return true;
+    }
+
+    synchronized void markAllAsRead() {
+        for (Integer slot : slotById.values()) {
+            Notification notification = slots[slot];
+            if (!notification.isRead()) {
+                notification.markAsRead();
+            }
+        }
+        unread.set(0);
+    }
+
+    synchronized boolean delete(String notificationId) {
+        Integer slot = slotById.get(notificationId);
+        if (slot == null) {
+            return false;
+        }
+        removeAt(slot);
+        return true;
+    }
+
+    synchronized int size() {
+        return slotById.size();
+    }
+
+    private void removeAt(int slot) {
+        Notification notification = slots[slot];
+        if (notification == null) {
+            return;
+        }
+        slots[slot] = null;
+        slotById.remove(notification.getId());
+        if (!notification.isRead()) {
+            unread.decrementAndGet();
+        }
+    }
+
+    // Notifications arrive in creation order, so expired ones sit at the head
+    private void expire(RetentionPolicy policy) {
+        if (policy.getMaxAge() == null) {
+            return;
+        }
+        LocalDateTime cutoff = LocalDateTime.now().minus(policy.getMaxAge());
+        while (used > 0) {
+            Notification oldest = slots[head];
+            if (oldest != null && !oldest.getCreatedAt().isBefore(cutoff)) {
+                break;
+            }
+            removeAt(head);
+            head = (head + 1) % slots.length;
+            used--;
+        }
+    }
+
+    // Squeeze out deleted slots so they stop counting against capacity
+    private void compact() {
+        resize(slots.length);
+    }
+
+    private void resize(int capacity) {
+        List<Notification> live = list();
+        int skip = Math.max(0, live.size() - capacity);
+        for (int i = 0; i < skip; i++) {
+            removeAt(slotById.get(live.get(i).getId()));
+        }
+
+        slots = new Notification[capacity];
+        slotById.clear();
+        head = 0;
+        used = 0;
+        for (int i = skip; i < live.size(); i++) {
+            Notification notification = live.get(i);
+            slots[used] = notification;
+            slotById.put(notification.getId(), used);
+            used++;
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.example.services;
+
+import com.example.models.Notification;
+import com.example.models.User;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Transactional outbox for notifications raised by order and payment changes.
+ *
+ * Callers write the notification with {@link #enqueue} on the connection of the
+ * transaction that changes the order or payment, so both commit or neither does.
+ * A relay thread drains due rows in batches into the notification service. A row
+ * is leased while its delivery is in flight and marked delivered only afterwards,
+ * so a crash at any point delivers it again rather than losing it. Each business
+ * event carries a dedup key that is stored at most once, and a redelivered row
+ * reuses its notification id, which the notification store already keys on.
+ */
+public class NotificationOutbox {
+    private static final String DB_URL = "jdbc:h2:./agro_db";
+    private static final String DB_USER = "sa";
+    private static final String DB_PASSWORD = "";
+
+    static final int DEFAULT_BATCH_SIZE = 100;
+    private static final long DEFAULT_POLL_MILLIS = 250;
+    // A row still unresolved this long after it was claimed is handed out again
+    private static final long LEASE_MILLIS = 60_000;
+    private static final int MAX_ATTEMPTS = 8;
+    private static final long BASE_BACKOFF_MILLIS = 1_000;
+    private static final long MAX_BACKOFF_MILLIS = 300_000;
+    private static final String DUPLICATE_KEY_STATE = "23505";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static NotificationOutbox instance;
+
+    private final String dbUrl;
+    private final Function<String, User> recipients;
+    private final Delivery delivery;
+    private final int batchSize;
+    private final ScheduledExecutorService relay;
+    private final ConcurrentLinkedQueue<Outcome> outcomes = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed;
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder abandoned = new LongAdder();
+
+    /**
+     * Hands one notification to its recipient; completes with whether it went out
+     */
+    @FunctionalInterface
+    public interface Delivery {
+        CompletableFuture<Boolean> deliver(User recipient, Notification notification);
+    }
+
+    // A claimed row and how its delivery ended
+    private static class Outcome {
+        private final String id;
+        private final int attempts;
+        private final String error;
+
+        Outcome(String id, int attempts, String error) {
+            this.id = id;
+            this.attempts = attempts;
+            this.error = error;
+        }
+    }
+
+    public NotificationOutbox(String dbUrl, Function<String, User> recipients, Delivery delivery,
+                              int batchSize, long pollMillis) {
+        this.dbUrl = dbUrl;
+        this.recipients = recipients;
+        this.delivery = delivery;
+        this.batchSize = batchSize;
+        initializeDatabase();
+
+        this.relay = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "notification-outbox-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        relay.scheduleWithFixedDelay(this::drain, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Outbox on the application database, delivering through the notification service
+     */
+    public static synchronized NotificationOutbox getInstance() {
+        if (instance == null) {
+            instance = new NotificationOutbox(DB_URL, CustomerDirectory::find,
+                (recipient, notification) -> NotificationService.getInstance().sendNotification(recipient, notification),
+                DEFAULT_BATCH_SIZE, DEFAULT_POLL_MILLIS);
+        }
+        return instance;
+    }
+
+    private void initializeDatabase() {
+        String createOutboxTable = """
+            CREATE TABLE IF NOT EXISTS notification_outbox (
+                id VARCHAR(36) PRIMARY KEY,
+                dedup_key VARCHAR(200) NOT NULL UNIQUE,
+                user_id VARCHAR(36) NOT NULL,
+                type VARCHAR(30) NOT NULL,
+                priority VARCHAR(10) NOT NULL,
+                title VARCHAR(200) NOT NULL,
+                message VARCHAR(2000) NOT NULL,
+                action_url VARCHAR(500),
+                metadata VARCHAR(4000),
+                created_at TIMESTAMP NOT NULL,
+                attempts INT DEFAULT 0,
+                next_attempt_at TIMESTAMP,
+                delivered_at TIMESTAMP,
+                last_error VARCHAR(500)
+            )
+        """;
+        String createDueIndex = """
+            CREATE INDEX IF NOT EXISTS idx_notification_outbox_due
+            ON notification_outbox (delivered_at, next_attempt_at)
+        """;
+
+        try (Connection conn = DriverManager.getConnection(dbUrl, DB_USER, DB_PASSWORD)) {
+            conn.createStatement().execute(createOutboxTable);
+            conn.createStatement().execute(createDueIndex);
+        } catch (SQLException e) {
+            System.err.println("Error initializing notification outbox: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Record a notification as part of the caller's transaction. Returns false when
+     * the dedup key was already recorded, in which case nothing is written.
+     */
+    public boolean enqueue(Connection conn, String dedupKey, Notification notification) throws SQLException {
+        String sql = """
+            INSERT INTO notification_outbox
+            (id, dedup_key, user_id, type, priority, title, message, action_url, metadata, created_at, next_attempt_at)
+            SELECT ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?
+            WHERE NOT EXISTS (SELECT 1 FROM notification_outbox WHERE dedup_key = ?)
+        """;
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            stmt.setString(1, notification.getId());
+            stmt.setString(2, dedupKey);
+            stmt.setString(3, notification.getUserId());
+            stmt.setString(4, notification.getType().name());
+            stmt.setString(5, notification.getPriority().name());
+            stmt.setString(6, notification.getTitle());
+            stmt.setString(7, notification.getMessage());
+            stmt.setString(8, notification.getActionUrl());
+            stmt.setString(9, writeMetadata(notification.getMetadata()));
+            stmt.setTimestamp(10, Timestamp.valueOf(notification.getCreatedAt()));
+            stmt.setTimestamp(11, now);
+            stmt.setString(12, dedupKey);
+            if (stmt.executeUpdate() == 1) {
+                enqueued.increment();
+                return true;
+            }
+        } catch (SQLException e) {
+            // A concurrent transaction recorded the same key first
+            if (!DUPLICATE_KEY_STATE.equals(e.getSQLState())) {
+                throw e;
+            }
+        }
+        duplicates.increment();
+        return false;
+    }
+
+    /**
+     * Drain soon instead of at the next poll; call after committing an enqueue
+     */
+    public void wakeUp() {
+        if (!closed) {
+            try {
+                relay.execute(this::drain);
+            } catch (Exception e) {
+                // Shut down meanwhile; the rows wait for the next relay
+            }
+        }
+    }
+
+    public long getEnqueuedCount() { return enqueued.sum(); }
+    public long getDuplicateCount() { return duplicates.sum(); }
+    public long getDeliveredCount() { return delivered.sum(); }
+    public long getRetriedCount() { return retried.sum(); }
+    public long getAbandonedCount() { return abandoned.sum(); }
+
+    /**
+     * Stop relaying after the batch being claimed. Deliveries in flight finish, but
+     * rows they leave unmarked are picked up again by the next relay once their
+     * lease runs out.
+     */
+    public void shutdown() {
+        closed = true;
+        relay.shutdown();
+        try {
+            relay.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("NotificationOutbox{enqueued=%d, duplicates=%d, delivered=%d, retried=%d, abandoned=%d}",
+            getEnqueuedCount(), getDuplicateCount(), getDeliveredCount(), getRetriedCount(), getAbandonedCount());
+    }
+
+    private void drain() {
+        if (closed) {
+            return;
+        }
+        try (Connection conn = DriverManager.getConnection(dbUrl, DB_USER, DB_PASSWORD)) {
+            recordOutcomes(conn);
+            List<Notification> batch;
+            do {
+                Map<String, Integer> attempts = new HashMap<>();
+                batch = claimBatch(conn, attempts);
+                for (Notification notification : batch) {
+                    deliver(notification, attempts.get(notification.getId()));
+                }
+                recordOutcomes(conn);
+            } while (batch.size() == batchSize && !closed);
+        } catch (Exception e) {
+            System.err.println("Error relaying notification outbox: " + e.getMessage());
+        }
+    }
+
+    // Lease the next due rows so no other relay delivers them meanwhile
+    private List<Notification> claimBatch(Connection conn, Map<String, Integer> attempts) throws SQLException {
+        String selectSql = """
+            SELECT id, user_id, type, priority, title, message, action_url, metadata, created_at, attempts
+            FROM notification_outbox
+            WHERE delivered_at IS NULL AND next_attempt_at <= ?
+            ORDER BY next_attempt_at
+            LIMIT ?
+            FOR UPDATE
+        """;
+        String leaseSql = "UPDATE notification_outbox SET attempts = attempts + 1, next_attempt_at = ? WHERE id = ?";
+
+        List<Notification> batch = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+        conn.setAutoCommit(false);
+        try (PreparedStatement select = conn.prepareStatement(selectSql);
+             PreparedStatement lease = conn.prepareStatement(leaseSql)) {
+            select.setTimestamp(1, Timestamp.valueOf(now));
+            select.setInt(2, batchSize);
+            ResultSet rs = select.executeQuery();
+            while (rs.next()) {
+                Notification notification = new Notification(rs.getString("user_id"),
+                    Notification.Type.valueOf(rs.getString("type")), rs.getString("title"), rs.getString("message"));
+                // Redeliveries keep the id so the notification is stored once
+                notification.setId(rs.getString("id"));
+                notification.setPriority(Notification.Priority.valueOf(rs.getString("priority")));
+                notification.setActionUrl(rs.getString("action_url"));
+                notification.setMetadata(readMetadata(rs.getString("metadata")));
+                notification.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
+                attempts.put(notification.getId(), rs.getInt("attempts") + 1);
+                batch.add(notification);
+
+                lease.setTimestamp(1, Timestamp.valueOf(now.plusNanos(LEASE_MILLIS * 1_000_000)));
+                lease.setString(2, notification.getId());
+                lease.addBatch();
+            }
+            if (!batch.isEmpty()) {
+                lease.executeBatch();
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+        return batch;
+    }
+
+    private void deliver(Notification notification, int attempt) {
+        User recipient;
+        try {
+            recipient = recipients.apply(notification.getUserId());
+        } catch (Exception e) {
+            outcomes.add(new Outcome(notification.getId(), attempt, "Recipient lookup failed: " + e.getMessage()));
+            return;
+        }
+        if (recipient == null) {
+            outcomes.add(new Outcome(notification.getId(), MAX_ATTEMPTS, "Unknown recipient " + notification.getUserId()));
+            return;
+        }
+
+        CompletableFuture<Boolean> result;
+        try {
+            result = delivery.deliver(recipient, notification);
+        } catch (Exception e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((sent, error) -> {
+            String failure = error != null ? String.valueOf(error.getMessage())
+                : Boolean.TRUE.equals(sent) ? null : "No channel accepted the notification";
+            outcomes.add(new Outcome(notification.getId(), attempt, failure));
+        });
+    }
+
+    // Mark finished deliveries; failures wait out a backoff, then are given up on
+    private void recordOutcomes(Connection conn) throws SQLException {
+        if (outcomes.isEmpty()) {
+            return;
+        }
+        String deliveredSql = "UPDATE notification_outbox SET delivered_at = ?, last_error = NULL WHERE id = ?";
+        String failedSql = """
+            UPDATE notification_outbox SET next_attempt_at = ?, last_error = ?
+            WHERE id = ? AND delivered_at IS NULL
+        """;
+
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        conn.setAutoCommit(false);
+        try (PreparedStatement deliveredStmt = conn.prepareStatement(deliveredSql);
+             PreparedStatement failedStmt = conn.prepareStatement(failedSql)) {
+            Outcome outcome;
+            while ((outcome = outcomes.poll()) != null) {
+                if (outcome.error == null) {
+                    delivered.increment();
+                    deliveredStmt.setTimestamp(1, now);
+                    deliveredStmt.setString(2, outcome.id);
+                    deliveredStmt.addBatch();
+                    continue;
+                }
+
+                Timestamp nextAttempt = null;
+                if (outcome.attempts < MAX_ATTEMPTS) {
+                    retried.increment();
+                    long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (outcome.attempts - 1));
+                    backoff = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+                    nextAttempt = new Timestamp(now.getTime() + backoff);
+                } else {
+                    abandoned.increment();
+                    System.err.println("Giving up on outbox notification " + outcome.id + ": " + outcome.error);
+                }
+                String error = outcome.error.length() > 500 ? outcome.error.substring(0, 500) : outcome.error;
+                failedStmt.setTimestamp(1, nextAttempt);
+                failedStmt.setString(2, error);
+                failedStmt.setString(3, outcome.id);
+                failedStmt.addBatch();
+            }
+            deliveredStmt.executeBatch();
+            failedStmt.executeBatch();
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static String writeMetadata(Map<String, String> metadata) {
+        if (metadata.isEmpty()) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(metadata);
+        } catch (Exception e) {
+            System.err.println("Error serializing notification metadata: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static Map<String, String> readMetadata(String json) {
+        if (json == null) {
+            return Map.of();
+        }
+        try {
+            return objectMapper.readValue(json, new TypeReference<Map<String, String>>() {});
+        } catch (Exception e) {
+            System.err.println("Error reading notification metadata: " + e.getMessage());
+            return Map.of();
+        }
+    }
+}
@@ -2,24 +2,69 @@ package com.example.services;
 
 import com.example.models.Notification;
 import com.example.models.User;
+import com.example.EmailTemplate;
 import com.example.EmailUtil;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
+import java.time.Duration;
 import java.time.LocalDateTime;
 
 /**
  * Service for managing and sending notifications
  */
 public class NotificationService {
+    // Digests left unsent by a previous run are rebuilt from notifications at most this old
+    private static final Duration DIGEST_RECOVERY_WINDOW = Duration.ofDays(2);
+
+    private static final EmailTemplate EMAIL_TEMPLATE = EmailTemplate.compile("""
+        <html><body>\
+        <h2>{{icon}} {{title}}</h2>\
+        <p>{{message}}</p>\
+        {{#actionUrl}}<p><a href="{{actionUrl}}" style="background-color: #22c55e; color: white; padding: 10px 20px; \
+        text-decoration: none; border-radius: 5px;">View Details</a></p>{{/actionUrl}}\
+        <hr>\
+        <p><small>This notification was sent on {{createdAt}}</small></p>\
+        </body></html>""");
+    
     private static NotificationService instance;
-    private final Map<String, List<Notification>> userNotifications;
+    private final Map<String, NotificationInbox> userNotifications;
+    private final NotificationStore store;
+    private final NotificationDispatcher dispatcher;
+    private final NotificationDigester digester;
+    private final SmsChannel smsChannel;
+    private volatile NotificationInbox.RetentionPolicy retentionPolicy = NotificationInbox.RetentionPolicy.DEFAULT;
+    
+    /**
+     * One page of a user's notifications, newest first. Pass nextCursor back to get
+     * the following page; it is null on the last page.
+     */
+    public static class NotificationPage {
+        private final List<Notification> notifications;
+        private final String nextCursor;
+        
+        public NotificationPage(List<Notification> notifications, String nextCursor) {
+            this.notifications = notifications;
+            this.nextCursor = nextCursor;
+        }
+        
+        public List<Notification> getNotifications() { return notifications; }
+        public String getNextCursor() { return nextCursor; }
+        public boolean hasMore() { return nextCursor != null; }
+    }
     
     private NotificationService() {
         this.userNotifications = new ConcurrentHashMap<>();
+        this.store = NotificationStore.getInstance();
+        this.dispatcher = NotificationDispatcher.getInstance();
+        this.smsChannel = SmsChannel.getInstance();
+        this.digester = new NotificationDigester(this::sendDigestEmail, store::updateDelivery,
+                NotificationDigester.DEFAULT_INTERVAL, NotificationDigester.DEFAULT_MAX_ENTRIES);
+        recoverDigests();
     }
     
     public static synchronized NotificationService getInstance() {
@@ -30,41 +75,81 @@ public class NotificationService {
     }
     
     /**
-     * Send a notification to a user
+     * Send a notification to a user. Email and SMS go through the dispatcher's
+     * queues; when a channel is backed up this may wait briefly before queueing.
+     * Low and medium priority emails wait for the user's digest instead; those
+     * notifications stay PENDING until the digest goes out.
      */
     public CompletableFuture<Boolean> sendNotification(User user, Notification notification) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                // Store notification
-                storeNotification(notification);
-                
-                // Send via different channels based on user preferences
-                boolean emailSent = false;
-                boolean smsSent = false;
-                
-                if (shouldSendEmail(user, notification)) {
-                    emailSent = sendEmailNotification(user, notification);
-                    notification.setEmailSent(emailSent);
-                }
-                
-                if (shouldSendSms(user, notification)) {
-                    smsSent = sendSmsNotification(user, notification);
-                    notification.setSmsSent(smsSent);
-                }
-                
-                // Mark as sent if at least one channel succeeded
-                if (emailSent || smsSent || !needsExternalSending(user, notification)) {
-                    notification.setStatus(Notification.Status.SENT);
-                    notification.setSentAt(LocalDateTime.now());
-                    return true;
-                } else {
-                    notification.setStatus(Notification.Status.FAILED);
-                    return false;
-                }
-                
-            } catch (Exception e) {
+        return send(user, notification, true);
+    }
+    
+    private CompletableFuture<Boolean> send(User user, Notification notification, boolean mayDigest) {
+        try {
+            storeNotification(notification);
+        } catch (Exception e) {
+            notification.setStatus(Notification.Status.FAILED);
+            System.err.println("Failed to send notification: " + e.getMessage());
+            return CompletableFuture.completedFuture(false);
+        }
+        
+        // Send via different channels based on user preferences
+        boolean external = needsExternalSending(user, notification);
+        
+        boolean digested = mayDigest && shouldSendEmail(user, notification) && digester.accepts(notification);
+        if (digested) {
+            digester.add(user, notification);
+        }
+        
+        CompletableFuture<Boolean> email = CompletableFuture.completedFuture(false);
+        if (shouldSendEmail(user, notification) && !digested) {
+            email = dispatcher.dispatch(NotificationDispatcher.Channel.EMAIL, notification.getPriority(),
+                    () -> sendEmailNotification(user, notification))
+                .handle((sent, error) -> {
+                    boolean ok = channelSucceeded(sent, error);
+                    notification.setEmailSent(ok);
+                    return ok;
+                });
+        }
+        
+        CompletableFuture<Boolean> sms = CompletableFuture.completedFuture(false);
+        if (shouldSendSms(user, notification)) {
+            // The dispatcher slot is freed once the channel accepts the message; a
+            // number's rate limit can hold it back for minutes after that
+            CompletableFuture<Boolean> delivered = new CompletableFuture<>();
+            sms = dispatcher.dispatchAsync(NotificationDispatcher.Channel.SMS, notification.getPriority(), () -> {
+                    SmsChannel.Submission submission = submitSms(user, notification);
+                    submission.delivered().whenComplete((sent, error) -> {
+                        if (error != null) {
+                            delivered.completeExceptionally(error);
+                        } else {
+                            delivered.complete(sent);
+                        }
+                    });
+                    return submission.accepted();
+                })
+                .thenCompose(accepted -> accepted ? delivered : CompletableFuture.completedFuture(false))
+                .handle((sent, error) -> {
+                    boolean ok = channelSucceeded(sent, error);
+                    notification.setSmsSent(ok);
+                    return ok;
+                });
+        }
+        
+        return email.thenCombine(sms, (emailSent, smsSent) -> {
+            if (digested && !smsSent) {
+                // The digest settles the status
+                return true;
+            }
+            // Mark as sent if at least one channel succeeded
+            if (emailSent || smsSent || !external) {
+                notification.setStatus(Notification.Status.SENT);
+                notification.setSentAt(LocalDateTime.now());
+                store.updateDelivery(notification);
+                return true;
+            } else {
                 notification.setStatus(Notification.Status.FAILED);
-                System.err.println("Failed to send notification: " + e.getMessage());
+                store.updateDelivery(notification);
                 return false;
             }
         });
@@ -85,62 +170,108 @@ public class NotificationService {
     }
     
     /**
-     * Get notifications for a user
+     * Get a user's recent notifications, oldest first
      */
     public List<Notification> getUserNotifications(String userId) {
-        return userNotifications.getOrDefault(userId, new ArrayList<>());
+        return inboxFor(userId).list();
     }
     
     /**
-     * Get unread notifications for a user
+     * Get a page of a user's full notification history, newest first.
+     * Throws IllegalArgumentException for a non-positive limit or a malformed cursor.
+     */
+    public NotificationPage getUserNotifications(String userId, String cursor, int limit) {
+        return store.page(userId, cursor, limit, false);
+    }
+    
+    /**
+     * Get a user's recent unread notifications
      */
     public List<Notification> getUnreadNotifications(String userId) {
-        return getUserNotifications(userId).stream()
-                .filter(n -> !n.isRead())
-                .collect(Collectors.toList());
+        return inboxFor(userId).listUnread();
+    }
+    
+    /**
+     * Get a page of all of a user's unread notifications, newest first.
+     * Throws IllegalArgumentException for a non-positive limit or a malformed cursor.
+     */
+    public NotificationPage getUnreadNotifications(String userId, String cursor, int limit) {
+        return store.page(userId, cursor, limit, true);
     }
     
     /**
      * Get notification count for a user
      */
     public int getUnreadCount(String userId) {
-        return getUnreadNotifications(userId).size();
+        return store.countUnread(userId);
     }
     
     /**
      * Mark notification as read
      */
     public boolean markAsRead(String userId, String notificationId) {
-        List<Notification> notifications = getUserNotifications(userId);
-        return notifications.stream()
-                .filter(n -> n.getId().equals(notificationId))
-                .findFirst()
-                .map(notification -> {
-                    notification.markAsRead();
-                    return true;
-                })
-                .orElse(false);
+        // Store first: a queued insert must be written while still unread
+        boolean stored = store.markRead(userId, notificationId, LocalDateTime.now());
+        NotificationInbox inbox = userNotifications.get(userId);
+        boolean cached = inbox != null && inbox.markAsRead(notificationId);
+        return stored || cached;
     }
     
     /**
      * Mark all notifications as read for a user
      */
     public void markAllAsRead(String userId) {
-        getUserNotifications(userId).forEach(Notification::markAsRead);
+        store.markAllRead(userId);
+        NotificationInbox inbox = userNotifications.get(userId);
+        if (inbox != null) {
+            inbox.markAllAsRead();
+        }
     }
     
     /**
      * Delete a notification
      */
     public boolean deleteNotification(String userId, String notificationId) {
-        List<Notification> notifications = getUserNotifications(userId);
-        return notifications.removeIf(n -> n.getId().equals(notificationId));
+        boolean stored = store.delete(userId, notificationId);
+        NotificationInbox inbox = userNotifications.get(userId);
+        boolean cached = inbox != null && inbox.delete(notificationId);
+        return stored || cached;
+    }
+    
+    /**
+     * Queue depths and latencies of the email and SMS channels
+     */
+    public NotificationDispatcher getDispatcher() {
+        return dispatcher;
+    }
+    
+    /**
+     * Batches low-priority emails into per-user digests
+     */
+    public NotificationDigester getDigester() {
+        return digester;
+    }
+    
+    /**
+     * Batched, rate-limited SMS delivery with retries
+     */
+    public SmsChannel getSmsChannel() {
+        return smsChannel;
+    }
+    
+    /**
+     * Limit how many notifications each user keeps and for how long.
+     * Applies to every inbox on its next write.
+     */
+    public void setRetentionPolicy(int maxNotificationsPerUser, Duration maxAge) {
+        this.retentionPolicy = new NotificationInbox.RetentionPolicy(maxNotificationsPerUser, maxAge);
     }
     
     /**
      * Clear all notifications for a user
      */
     public void clearAllNotifications(String userId) {
+        store.deleteAll(userId);
         userNotifications.remove(userId);
     }
     
@@ -182,17 +313,73 @@ public class NotificationService {
     /**
      * Send promotional notification
      */
-    public void sendPromotionalNotification(User user, String title, String details, String promoCode) {
+    public CompletableFuture<Boolean> sendPromotionalNotification(User user, String title, String details, String promoCode) {
         Notification notification = Notification.createPromotionalNotification(
                 user.getId(), title, details, promoCode);
-        sendNotification(user, notification);
+        return sendNotification(user, notification);
+    }
+    
+    /**
+     * Send one recipient's copy of a campaign. Unlike other promotions it skips the
+     * digest, so the future completes once the email was actually sent or failed.
+     */
+    public CompletableFuture<Boolean> sendCampaignNotification(User user, String title, String details, String promoCode) {
+        Notification notification = Notification.createPromotionalNotification(
+                user.getId(), title, details, promoCode);
+        return send(user, notification, false);
     }
     
     // Private helper methods
     
+    // Buffered digests are lost on restart, but their notifications are still PENDING
+    private void recoverDigests() {
+        List<Notification> awaiting = store.loadAwaitingDigest(LocalDateTime.now().minus(DIGEST_RECOVERY_WINDOW));
+        Map<String, User> users = new HashMap<>();
+        int recovered = 0;
+        for (Notification notification : awaiting) {
+            String userId = notification.getUserId();
+            if (!users.containsKey(userId)) {
+                try {
+                    users.put(userId, CustomerDirectory.find(userId));
+                } catch (IllegalStateException e) {
+                    System.err.println("Error recovering notification digests: " + e.getMessage());
+                    return;
+                }
+            }
+            User user = users.get(userId);
+            if (user != null && shouldSendEmail(user, notification) && digester.accepts(notification)) {
+                digester.add(user, notification);
+                recovered++;
+            }
+        }
+        if (recovered > 0) {
+            System.out.println("Recovered " + recovered + " notifications awaiting a digest");
+        }
+    }
+    
     private void storeNotification(Notification notification) {
-        userNotifications.computeIfAbsent(notification.getUserId(), k -> new ArrayList<>())
-                .add(notification);
+        inboxFor(notification.getUserId()).add(notification, retentionPolicy);
+        store.insert(notification);
+    }
+    
+    // Inboxes start from the user's latest stored notifications, e.g. after a restart
+    private NotificationInbox inboxFor(String userId) {
+        return userNotifications.computeIfAbsent(userId, k -> {
+            NotificationInbox.RetentionPolicy policy = retentionPolicy;
+            NotificationInbox inbox = new NotificationInbox(policy);
+            for (Notification notification : store.loadRecent(userId, policy.getMaxNotifications())) {
+                inbox.add(notification, policy);
+            }
+            return inbox;
+        });
+    }
+    
+    private static boolean channelSucceeded(Boolean sent, Throwable error) {
+        if (error != null) {
+            System.err.println("Failed to send notification: " + error.getMessage());
+            return false;
+        }
+        return Boolean.TRUE.equals(sent);
     }
     
     private boolean shouldSendEmail(User user, Notification notification) {
@@ -240,37 +427,24 @@ public class NotificationService {
         }
     }
     
-    private boolean sendSmsNotification(User user, Notification notification) {
-        try {
-            // SMS implementation would go here
-            // For now, just log that SMS would be sent
-            System.out.println("SMS would be sent to " + user.getPhoneNumber() + 
-                             ": " + notification.getTitle() + " - " + notification.getMessage());
+    private CompletableFuture<Boolean> sendDigestEmail(User user, String subject, String body) {
+        return dispatcher.dispatch(NotificationDispatcher.Channel.EMAIL, Notification.Priority.LOW, () -> {
+            EmailUtil.sendNotificationEmail(user.getEmail(), subject, body);
             return true;
-        } catch (Exception e) {
-            System.err.println("Failed to send SMS notification: " + e.getMessage());
-            return false;
-        }
+        });
+    }
+    
+    private SmsChannel.Submission submitSms(User user, Notification notification) {
+        return smsChannel.submit(user.getPhoneNumber(), notification.getTitle() + " - " + notification.getMessage());
     }
     
     private String buildEmailBody(Notification notification) {
-        StringBuilder body = new StringBuilder();
-        body.append("<html><body>");
-        body.append("<h2>").append(notification.getType().getIcon()).append(" ")
-            .append(notification.getTitle()).append("</h2>");
-        body.append("<p>").append(notification.getMessage()).append("</p>");
-        
-        if (notification.getActionUrl() != null) {
-            body.append("<p><a href=\"").append(notification.getActionUrl())
-                .append("\" style=\"background-color: #22c55e; color: white; padding: 10px 20px; ")
-                .append("text-decoration: none; border-radius: 5px;\">View Details</a></p>");
-        }
-        
-        body.append("<hr>");
-        body.append("<p><small>This notification was sent on ")
-            .append(notification.getCreatedAt()).append("</small></p>");
-        body.append("</body></html>");
-        
-        return body.toString();
+        Map<String, Object> values = new HashMap<>();
+        values.put("icon", notification.getType().getIcon());
+        values.put("title", notification.getTitle());
+        values.put("message", notification.getMessage());
+        values.put("actionUrl", EmailTemplate.safeUrl(notification.getActionUrl()));
+        values.put("createdAt", notification.getCreatedAt());
+        return EMAIL_TEMPLATE.render(values);
     }
 }
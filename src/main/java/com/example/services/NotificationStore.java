@@ -0,0 +1,613 @@
+package com.example.services;
+
+import com.example.models.Notification;
+import com.example.services.NotificationService.NotificationPage;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * H2 persistence for notifications. New notifications and delivery updates are
+ * queued and written in batches; reads flush the queue first so callers always see
+ * their own writes. Unread counts come from the (user_id, read_at, created_at) index
+ * once per user and are then kept current in memory.
+ *
+ * Inserts never overwrite: a notification delivered again (e.g. by the outbox after
+ * a crash) keeps its stored row, read state included, and is counted once.
+ *
+ * A batch that fails is retried row by row, so one bad row (e.g. an oversized
+ * message) cannot hold back the rest; a row that keeps failing is dropped after a
+ * few attempts. The queue is bounded and sheds its oldest inserts while the
+ * database is unreachable.
+ */
+class NotificationStore {
+    private static final String DB_URL = "jdbc:h2:./agro_db";
+    private static final String DB_USER = "sa";
+    private static final String DB_PASSWORD = "";
+
+    private static final int FLUSH_BATCH_SIZE = 100;
+    private static final long FLUSH_INTERVAL_MILLIS = 250;
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+    private static final int MAX_PENDING = 10_000;
+    private static final String COLUMNS =
+        "id, user_id, type, priority, status, title, message, action_url, metadata, "
+            + "created_at, sent_at, read_at, email_sent, sms_sent, push_sent";
+
+    private static final String INSERT_SQL = "INSERT INTO notifications (" + COLUMNS + ") "
+        + "SELECT ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ? "
+        + "WHERE NOT EXISTS (SELECT 1 FROM notifications WHERE id = ?)";
+    // A read notification stays READ whatever its delivery outcome
+    private static final String UPDATE_DELIVERY_SQL = """
+        UPDATE notifications SET status = CASE WHEN read_at IS NULL THEN ? ELSE status END,
+            sent_at = ?, email_sent = ?, sms_sent = ?, push_sent = ?
+        WHERE id = ?
+    """;
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static NotificationStore instance;
+
+    // Both keyed by notification id, so repeated writes before a flush collapse
+    private final Map<String, Notification> pendingInserts = new LinkedHashMap<>();
+    private final Map<String, Notification> pendingUpdates = new LinkedHashMap<>();
+    private final Object pendingLock = new Object();
+    // Failed row-by-row writes per notification id, guarded by pendingLock
+    private final Map<String, Integer> writeAttempts = new HashMap<>();
+    private final Map<String, AtomicInteger> unreadCounts = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+
+    NotificationStore() {
+        initializeDatabase();
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "notification-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "notification-final-flush"));
+    }
+
+    static synchronized NotificationStore getInstance() {
+        if (instance == null) {
+            instance = new NotificationStore();
+        }
+        return instance;
+    }
+
+    private void initializeDatabase() {
+        String createNotificationsTable = """
+            CREATE TABLE IF NOT EXISTS notifications (
+                id VARCHAR(36) PRIMARY KEY,
+                user_id VARCHAR(36) NOT NULL,
+                type VARCHAR(30) NOT NULL,
+                priority VARCHAR(10) NOT NULL,
+                status VARCHAR(10) NOT NULL,
+                title VARCHAR(255),
+                message VARCHAR(2000),
+                action_url VARCHAR(500),
+                metadata VARCHAR(4000),
+                created_at TIMESTAMP NOT NULL,
+                sent_at TIMESTAMP,
+                read_at TIMESTAMP,
+                email_sent BOOLEAN DEFAULT FALSE,
+                sms_sent BOOLEAN DEFAULT FALSE,
+                push_sent BOOLEAN DEFAULT FALSE
+            )
+        """;
+
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             Statement stmt = conn.createStatement()) {
+            stmt.execute(createNotificationsTable);
+            // Unread counts and unread pages
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_notifications_user_read ON notifications(user_id, read_at, created_at)");
+            // Full history pages
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_notifications_user_created ON notifications(user_id, created_at, id)");
+        } catch (SQLException e) {
+            System.err.println("Error initializing notifications table: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Queue a new notification for the next batch
+     */
+    void insert(Notification notification) {
+        boolean flushNow;
+        Notification shed = null;
+        synchronized (pendingLock) {
+            pendingInserts.put(notification.getId(), notification);
+            if (pendingInserts.size() > MAX_PENDING) {
+                shed = pendingInserts.remove(pendingInserts.keySet().iterator().next());
+                writeAttempts.remove(shed.getId());
+            }
+            flushNow = pendingInserts.size() >= FLUSH_BATCH_SIZE;
+        }
+        if (shed != null) {
+            System.err.println("Notification queue full, dropped " + shed.getId());
+        }
+        if (flushNow) {
+            flusher.execute(this::flush);
+        }
+    }
+
+    /**
+     * Queue the delivery status of an already stored notification. Never recreates
+     * a row that was deleted meanwhile. Also queued while the insert is pending: if
+     * that insert turns out to be a redelivery it writes nothing, and this update
+     * is what records the outcome.
+     */
+    void updateDelivery(Notification notification) {
+        synchronized (pendingLock) {
+            pendingUpdates.put(notification.getId(), notification);
+        }
+    }
+
+    boolean markRead(String userId, String notificationId, LocalDateTime readAt) {
+        flushIfPending(notificationId);
+        String sql = "UPDATE notifications SET read_at = ?, status = ? WHERE id = ? AND user_id = ? AND read_at IS NULL";
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setTimestamp(1, Timestamp.valueOf(readAt));
+            stmt.setString(2, Notification.Status.READ.name());
+            stmt.setString(3, notificationId);
+            stmt.setString(4, userId);
+            if (stmt.executeUpdate() == 1) {
+                decrementUnread(userId);
+                return true;
+            }
+            return exists(conn, userId, notificationId);
+        } catch (SQLException e) {
+            System.err.println("Error marking notification as read: " + e.getMessage());
+            return false;
+        }
+    }
+
+    void markAllRead(String userId) {
+        flush();
+        String sql = "UPDATE notifications SET read_at = ?, status = ? WHERE user_id = ? AND read_at IS NULL";
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now()));
+            stmt.setString(2, Notification.Status.READ.name());
+            stmt.setString(3, userId);
+            stmt.executeUpdate();
+            unreadCounts.remove(userId);
+        } catch (SQLException e) {
+            System.err.println("Error marking notifications as read: " + e.getMessage());
+        }
+    }
+
+    boolean delete(String userId, String notificationId) {
+        flushIfPending(notificationId);
+        synchronized (pendingLock) {
+            pendingUpdates.remove(notificationId);
+        }
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement deleteUnread = conn.prepareStatement(
+                 "DELETE FROM notifications WHERE id = ? AND user_id = ? AND read_at IS NULL");
+             PreparedStatement deleteAny = conn.prepareStatement(
+                 "DELETE FROM notifications WHERE id = ? AND user_id = ?")) {
+
+            deleteUnread.setString(1, notificationId);
+            deleteUnread.setString(2, userId);
+            if (deleteUnread.executeUpdate() == 1) {
+                decrementUnread(userId);
+                return true;
+            }
+            deleteAny.setString(1, notificationId);
+            deleteAny.setString(2, userId);
+            return deleteAny.executeUpdate() == 1;
+        } catch (SQLException e) {
+            System.err.println("Error deleting notification: " + e.getMessage());
+            return false;
+        }
+    }
+
+    void deleteAll(String userId) {
+        flush();
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement("DELETE FROM notifications WHERE user_id = ?")) {
+
+            stmt.setString(1, userId);
+            stmt.executeUpdate();
+            unreadCounts.remove(userId);
+        } catch (SQLException e) {
+            System.err.println("Error clearing notifications: " + e.getMessage());
+        }
+    }
+
+    int countUnread(String userId) {
+        // The counter moves only once rows are written, so write this user's queued inserts first
+        flushIfPendingFor(userId);
+        AtomicInteger unread = unreadCounts.get(userId);
+        if (unread != null) {
+            return unread.get();
+        }
+
+        // Holding the flush lock keeps rows from landing between the count and the counter
+        synchronized (this) {
+            unread = unreadCounts.get(userId);
+            if (unread == null) {
+                flush();
+                unread = new AtomicInteger(queryUnreadCount(userId));
+                unreadCounts.put(userId, unread);
+            }
+        }
+        return unread.get();
+    }
+
+    /**
+     * Latest notifications of a user, oldest first, for warming the in-memory inbox
+     */
+    List<Notification> loadRecent(String userId, int limit) {
+        List<Notification> recent = page(userId, null, limit, false).getNotifications();
+        Collections.reverse(recent);
+        return recent;
+    }
+
+    /**
+     * Notifications still waiting for a digest email, oldest first. Only rows created
+     * after the given time are returned, so a digest that never went out is not
+     * mailed days later.
+     */
+    List<Notification> loadAwaitingDigest(LocalDateTime createdAfter) {
+        flush();
+        String sql = "SELECT " + COLUMNS + " FROM notifications "
+            + "WHERE status = ? AND email_sent = FALSE AND priority IN (?, ?) AND created_at >= ? "
+            + "ORDER BY created_at, id";
+
+        List<Notification> notifications = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, Notification.Status.PENDING.name());
+            stmt.setString(2, Notification.Priority.LOW.name());
+            stmt.setString(3, Notification.Priority.MEDIUM.name());
+            stmt.setTimestamp(4, Timestamp.valueOf(createdAfter));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    notifications.add(createNotificationFromResultSet(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error loading notifications awaiting a digest: " + e.getMessage());
+        }
+        return notifications;
+    }
+
+    /**
+     * Keyset page, newest first. Pass the previous page's cursor to continue, or null
+     * for the first page; the next cursor is null when there is nothing more.
+     */
+    NotificationPage page(String userId, String cursor, int limit, boolean unreadOnly) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Page limit must be positive: " + limit);
+        }
+        Timestamp cursorCreatedAt = null;
+        String cursorId = null;
+        if (cursor != null) {
+            int separator = cursor.indexOf('|');
+            try {
+                cursorCreatedAt = Timestamp.valueOf(LocalDateTime.parse(cursor.substring(0, Math.max(0, separator))));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Malformed page cursor: " + cursor);
+            }
+            cursorId = cursor.substring(separator + 1);
+        }
+        flush();
+
+        StringBuilder sql = new StringBuilder("SELECT ").append(COLUMNS)
+            .append(" FROM notifications WHERE user_id = ?");
+        if (unreadOnly) {
+            sql.append(" AND read_at IS NULL");
+        }
+        if (cursor != null) {
+            sql.append(" AND (created_at < ? OR (created_at = ? AND id < ?))");
+        }
+        sql.append(" ORDER BY created_at DESC, id DESC LIMIT ?");
+
+        List<Notification> notifications = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+
+            int index = 1;
+            stmt.setString(index++, userId);
+            if (cursor != null) {
+                stmt.setTimestamp(index++, cursorCreatedAt);
+                stmt.setTimestamp(index++, cursorCreatedAt);
+                stmt.setString(index++, cursorId);
+            }
+            // One extra row tells us whether another page exists
+            stmt.setInt(index, limit + 1);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    notifications.add(createNotificationFromResultSet(rs));
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error loading notifications: " + e.getMessage());
+        }
+
+        String nextCursor = null;
+        if (notifications.size() > limit) {
+            notifications.remove(limit);
+            Notification last = notifications.get(limit - 1);
+            nextCursor = last.getCreatedAt() + "|" + last.getId();
+        }
+        return new NotificationPage(notifications, nextCursor);
+    }
+
+    synchronized void flush() {
+        List<Notification> inserts;
+        List<Notification> updates;
+        synchronized (pendingLock) {
+            if (pendingInserts.isEmpty() && pendingUpdates.isEmpty()) {
+                return;
+            }
+            inserts = new ArrayList<>(pendingInserts.values());
+            updates = new ArrayList<>(pendingUpdates.values());
+            pendingInserts.clear();
+            pendingUpdates.clear();
+        }
+
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
+            try {
+                writeBatch(conn, inserts, updates);
+                clearAttempts(inserts, updates);
+            } catch (SQLException e) {
+                // One bad row fails the whole batch; write row by row so only it is held back
+                writeEachRow(conn, inserts, updates);
+            }
+        } catch (SQLException e) {
+            // Database unreachable; keep everything for the next flush
+            requeue(inserts, updates);
+            System.err.println("Error flushing notifications: " + e.getMessage());
+        }
+    }
+
+    private void writeBatch(Connection conn, List<Notification> inserts, List<Notification> updates) throws SQLException {
+        conn.setAutoCommit(false);
+        try (PreparedStatement insert = conn.prepareStatement(INSERT_SQL);
+             PreparedStatement update = conn.prepareStatement(UPDATE_DELIVERY_SQL)) {
+
+            for (Notification notification : inserts) {
+                bindNotification(insert, notification);
+                insert.addBatch();
+            }
+            int[] inserted = insert.executeBatch();
+
+            for (Notification notification : updates) {
+                bindDelivery(update, notification);
+                update.addBatch();
+            }
+            update.executeBatch();
+            conn.commit();
+
+            for (int i = 0; i < inserted.length; i++) {
+                if (inserted[i] > 0) {
+                    countInserted(inserts.get(i));
+                }
+            }
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private void writeEachRow(Connection conn, List<Notification> inserts, List<Notification> updates) throws SQLException {
+        try (PreparedStatement insert = conn.prepareStatement(INSERT_SQL);
+             PreparedStatement update = conn.prepareStatement(UPDATE_DELIVERY_SQL)) {
+
+            for (Notification notification : inserts) {
+                try {
+                    bindNotification(insert, notification);
+                    if (insert.executeUpdate() > 0) {
+                        countInserted(notification);
+                    }
+                    clearAttempts(List.of(notification), List.of());
+                } catch (SQLException e) {
+                    rowFailed(notification, pendingInserts, e);
+                }
+            }
+            for (Notification notification : updates) {
+                try {
+                    bindDelivery(update, notification);
+                    update.executeUpdate();
+                    clearAttempts(List.of(), List.of(notification));
+                } catch (SQLException e) {
+                    rowFailed(notification, pendingUpdates, e);
+                }
+            }
+        }
+    }
+
+    // Retry a failed row on the next flush, or give up on it after a few attempts
+    private void rowFailed(Notification notification, Map<String, Notification> queue, SQLException error) {
+        synchronized (pendingLock) {
+            int attempts = writeAttempts.merge(notification.getId(), 1, Integer::sum);
+            if (attempts < MAX_WRITE_ATTEMPTS) {
+                queue.putIfAbsent(notification.getId(), notification);
+                return;
+            }
+            writeAttempts.remove(notification.getId());
+        }
+        System.err.println("Dropping notification " + notification.getId() + " after "
+            + MAX_WRITE_ATTEMPTS + " failed writes: " + error.getMessage());
+    }
+
+    private void requeue(List<Notification> inserts, List<Notification> updates) {
+        // Put them back unless a newer write arrived meanwhile
+        synchronized (pendingLock) {
+            inserts.forEach(n -> pendingInserts.putIfAbsent(n.getId(), n));
+            updates.forEach(n -> pendingUpdates.putIfAbsent(n.getId(), n));
+        }
+    }
+
+    private void clearAttempts(List<Notification> inserts, List<Notification> updates) {
+        synchronized (pendingLock) {
+            if (writeAttempts.isEmpty()) {
+                return;
+            }
+            inserts.forEach(n -> writeAttempts.remove(n.getId()));
+            updates.forEach(n -> writeAttempts.remove(n.getId()));
+        }
+    }
+
+    private void flushIfPending(String notificationId) {
+        boolean pending;
+        synchronized (pendingLock) {
+            pending = pendingInserts.containsKey(notificationId) || pendingUpdates.containsKey(notificationId);
+        }
+        if (pending) {
+            flush();
+        }
+    }
+
+    private void flushIfPendingFor(String userId) {
+        boolean pending;
+        synchronized (pendingLock) {
+            pending = pendingInserts.values().stream().anyMatch(n -> userId.equals(n.getUserId()));
+        }
+        if (pending) {
+            flush();
+        }
+    }
+
+    // Runs under the flush lock, after the row is committed
+    private void countInserted(Notification notification) {
+        AtomicInteger unread = unreadCounts.get(notification.getUserId());
+        if (unread != null && !notification.isRead()) {
+            unread.incrementAndGet();
+        }
+    }
+
+    private void decrementUnread(String userId) {
+        AtomicInteger unread = unreadCounts.get(userId);
+        if (unread != null) {
+            unread.updateAndGet(count -> Math.max(0, count - 1));
+        }
+    }
+
+    private boolean exists(Connection conn, String userId, String notificationId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT 1 FROM notifications WHERE id = ? AND user_id = ?")) {
+            stmt.setString(1, notificationId);
+            stmt.setString(2, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private int queryUnreadCount(String userId) {
+        String sql = "SELECT COUNT(*) FROM notifications WHERE user_id = ? AND read_at IS NULL";
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, userId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        } catch (SQLException e) {
+            System.err.println("Error counting unread notifications: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    private void bindNotification(PreparedStatement stmt, Notification notification) throws SQLException {
+        stmt.setString(1, notification.getId());
+        stmt.setString(2, notification.getUserId());
+        stmt.setString(3, notification.getType().name());
+        stmt.setString(4, notification.getPriority().name());
+        stmt.setString(5, notification.getStatus().name());
+        stmt.setString(6, notification.getTitle());
+        stmt.setString(7, notification.getMessage());
+        stmt.setString(8, notification.getActionUrl());
+        stmt.setString(9, writeMetadata(notification.getMetadata()));
+        stmt.setTimestamp(10, Timestamp.valueOf(notification.getCreatedAt()));
+        stmt.setTimestamp(11, toTimestamp(notification.getSentAt()));
+        stmt.setTimestamp(12, toTimestamp(notification.getReadAt()));
+        stmt.setBoolean(13, notification.isEmailSent());
+        stmt.setBoolean(14, notification.isSmsSent());
+        stmt.setBoolean(15, notification.isPushSent());
+        stmt.setString(16, notification.getId());
+    }
+
+    private void bindDelivery(PreparedStatement stmt, Notification notification) throws SQLException {
+        stmt.setString(1, notification.getStatus().name());
+        stmt.setTimestamp(2, toTimestamp(notification.getSentAt()));
+        stmt.setBoolean(3, notification.isEmailSent());
+        stmt.setBoolean(4, notification.isSmsSent());
+        stmt.setBoolean(5, notification.isPushSent());
+        stmt.setString(6, notification.getId());
+    }
+
+    private Notification createNotificationFromResultSet(ResultSet rs) throws SQLException {
+        Notification notification = new Notification(
+            rs.getString("user_id"),
+            Notification.Type.valueOf(rs.getString("type")),
+            rs.getString("title"),
+            rs.getString("message")
+        );
+        notification.setId(rs.getString("id"));
+        notification.setPriority(Notification.Priority.valueOf(rs.getString("priority")));
+        notification.setStatus(Notification.Status.valueOf(rs.getString("status")));
+        notification.setActionUrl(rs.getString("action_url"));
+        notification.setMetadata(readMetadata(rs.getString("metadata")));
+        notification.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
+        Timestamp sentAt = rs.getTimestamp("sent_at");
+        notification.setSentAt(sentAt != null ? sentAt.toLocalDateTime() : null);
+        Timestamp readAt = rs.getTimestamp("read_at");
+        notification.setReadAt(readAt != null ? readAt.toLocalDateTime() : null);
+        notification.setEmailSent(rs.getBoolean("email_sent"));
+        notification.setSmsSent(rs.getBoolean("sms_sent"));
+        notification.setPushSent(rs.getBoolean("push_sent"));
+        return notification;
+    }
+
+    private static Timestamp toTimestamp(LocalDateTime time) {
+        return time != null ? Timestamp.valueOf(time) : null;
+    }
+
+    private static String writeMetadata(Map<String, String> metadata) {
+        if (metadata.isEmpty()) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(metadata);
+        } catch (JsonProcessingException e) {
+            System.err.println("Error serializing notification metadata: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static Map<String, String> readMetadata(String json) {
+        if (json == null) {
+            return new HashMap<>();
+        }
+        try {
+            return objectMapper.readValue(json, new TypeReference<Map<String, String>>() {});
+        } catch (JsonProcessingException e) {
+            System.err.println("Error reading notification metadata: " + e.getMessage());
+            return new HashMap<>();
+        }
+    }
+}
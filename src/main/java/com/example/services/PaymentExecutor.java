@@ -0,0 +1,208 @@
+package com.example.services;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Dedicated executor for the blocking payment pipeline.
+ * Keeps slow gateway I/O off the common ForkJoinPool, caps the number of payments
+ * in flight, bounds the backlog, and records how long payments wait to start.
+ *
+ * On a JVM with virtual threads (Java 21+) each payment gets its own virtual
+ * thread; otherwise a fixed pool of platform threads is used. Select the mode
+ * with -Dpayments.executor=virtual|platform (virtual when available by default).
+ */
+public class PaymentExecutor implements Executor {
+    private static final int DEFAULT_MAX_IN_FLIGHT = 64;
+    private static final int DEFAULT_MAX_QUEUED = 1_000;
+
+    private static PaymentExecutor instance;
+
+    private final ExecutorService delegate;
+    private final boolean virtualThreads;
+    private final Semaphore inFlightPermits;
+    private final int maxQueued;
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalQueueDelayNanos = new LongAdder();
+    private final AtomicLong maxQueueDelayNanos = new AtomicLong();
+
+    public PaymentExecutor(boolean preferVirtualThreads, int maxInFlight, int maxQueued) {
+        ExecutorService virtual = preferVirtualThreads ? newThreadPerTaskExecutor() : null;
+        this.virtualThreads = virtual != null;
+        this.delegate = virtual != null ? virtual : newPlatformPool("payment-worker", maxInFlight);
+        this.inFlightPermits = new Semaphore(maxInFlight);
+        this.maxQueued = maxQueued;
+    }
+
+    public static synchronized PaymentExecutor getInstance() {
+        if (instance == null) {
+            instance = new PaymentExecutor(isVirtualThreadsRequested(), DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_QUEUED);
+        }
+        return instance;
+    }
+
+    /**
+     * Run a payment task; rejects when the backlog is full rather than growing it
+     */
+    @Override
+    public void execute(Runnable task) {
+        dispatch(task, () -> System.err.println("Payment task dropped: worker interrupted before it started"));
+    }
+
+    /**
+     * Run a payment step and expose its result. Unlike {@code CompletableFuture.supplyAsync},
+     * the future also fails if the task is abandoned before it starts, so callers never wait forever.
+     */
+    public <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        dispatch(() -> {
+            try {
+                future.complete(supplier.get());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }, () -> future.completeExceptionally(
+            new RejectedExecutionException("Payment worker interrupted before the task started")));
+        return future;
+    }
+
+    private void dispatch(Runnable task, Runnable onAbandoned) {
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            rejected.increment();
+            throw new RejectedExecutionException("Payment pipeline is at capacity");
+        }
+
+        long enqueuedAt = System.nanoTime();
+        try {
+            delegate.execute(() -> {
+                try {
+                    // Virtual threads park here cheaply; platform workers never wait since pool size equals the permits
+                    inFlightPermits.acquire();
+                } catch (InterruptedException e) {
+                    // Typically a shutdown; the task never ran, so report it as rejected
+                    queued.decrementAndGet();
+                    rejected.increment();
+                    Thread.currentThread().interrupt();
+                    onAbandoned.run();
+                    return;
+                }
+
+                queued.decrementAndGet();
+                inFlight.incrementAndGet();
+                long delay = System.nanoTime() - enqueuedAt;
+                totalQueueDelayNanos.add(delay);
+                maxQueueDelayNanos.accumulateAndGet(delay, Math::max);
+
+                try {
+                    task.run();
+                } finally {
+                    inFlight.decrementAndGet();
+                    inFlightPermits.release();
+                    completed.increment();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    public boolean isVirtualThreads() { return virtualThreads; }
+    public int getQueuedCount() { return queued.get(); }
+    public int getInFlightCount() { return inFlight.get(); }
+    public long getCompletedCount() { return completed.sum(); }
+    public long getRejectedCount() { return rejected.sum(); }
+
+    public double getAverageQueueDelayMillis() {
+        long started = completed.sum() + inFlight.get();
+        return started == 0 ? 0.0 : TimeUnit.NANOSECONDS.toMicros(totalQueueDelayNanos.sum()) / 1000.0 / started;
+    }
+
+    public double getMaxQueueDelayMillis() {
+        return TimeUnit.NANOSECONDS.toMicros(maxQueueDelayNanos.get()) / 1000.0;
+    }
+
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PaymentExecutor{mode=%s, inFlight=%d, queued=%d, completed=%d, rejected=%d, avgQueueMs=%.1f, maxQueueMs=%.1f}",
+                virtualThreads ? "virtual" : "platform", getInFlightCount(), getQueuedCount(), getCompletedCount(),
+                getRejectedCount(), getAverageQueueDelayMillis(), getMaxQueueDelayMillis());
+    }
+
+    /**
+     * Whether virtual threads were requested and the running JVM supports them
+     */
+    public static boolean isVirtualThreadsRequested() {
+        String mode = System.getProperty("payments.executor", "virtual");
+        return "virtual".equalsIgnoreCase(mode) && isVirtualThreadsSupported();
+    }
+
+    public static boolean isVirtualThreadsSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * One virtual thread per task, or null when the JVM has no virtual threads.
+     * Looked up reflectively so the code still builds and runs on Java 17.
+     */
+    static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Executor for one provider's blocking calls: virtual threads when enabled
+     * (the caller's bulkhead bounds concurrency), otherwise a pool of the given size
+     */
+    static ExecutorService newBoundedExecutor(String namePrefix, int threads) {
+        ExecutorService virtual = isVirtualThreadsRequested() ? newThreadPerTaskExecutor() : null;
+        return virtual != null ? virtual : newPlatformPool(namePrefix, threads);
+    }
+
+    /**
+     * Fixed pool of daemon platform threads that shrinks when idle
+     */
+    static ExecutorService newPlatformPool(String namePrefix, int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, namePrefix + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), factory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
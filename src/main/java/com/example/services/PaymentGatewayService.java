@@ -2,9 +2,19 @@ package com.example.services;
 
 import com.example.models.PaymentMethod;
 import com.example.models.Transaction;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import java.time.LocalDateTime;
 import java.security.SecureRandom;
 import java.util.Base64;
@@ -62,6 +72,175 @@ public class PaymentGatewayService {
         public double getProcessedAmount() { return processedAmount; }
         public String getCurrency() { return currency; }
         public Map<String, Object> getMetadata() { return metadata; }
+        
+        // True when the payment never reached the provider, so it can safely be sent again
+        public boolean isRejectedLocally() { return false; }
+        
+        // True when the provider may or may not have taken the money
+        public boolean isOutcomeUnknown() { return false; }
+    }
+    
+    /**
+     * A charge whose result was not seen in time: the provider may still approve it.
+     * Callers must not treat it as a decline or charge again; they record it as
+     * unconfirmed and settle it from the pending outcome, or by reconciliation
+     * against the provider's ledger when there is none.
+     */
+    public static class UnknownOutcomeResponse extends PaymentResponse {
+        private final CompletableFuture<PaymentResponse> pendingOutcome;
+        
+        UnknownOutcomeResponse(String message, PaymentProvider provider, String currency, 
+                               Map<String, Object> metadata, CompletableFuture<PaymentResponse> pendingOutcome) {
+            super(false, null, null, message, provider, 0.0, currency, metadata);
+            this.pendingOutcome = pendingOutcome;
+        }
+        
+        @Override
+        public boolean isOutcomeUnknown() { return true; }
+        
+        /**
+         * The provider call that is still running, or null when the transport failed
+         * and only reconciliation can tell whether the charge went through
+         */
+        public CompletableFuture<PaymentResponse> getPendingOutcome() { return pendingOutcome; }
+    }
+    
+    /**
+     * A payment provider integration.
+     * Throws on transport errors or outages; returns an unsuccessful response for declines.
+     */
+    @FunctionalInterface
+    public interface ProviderClient {
+        PaymentResponse charge(PaymentMethod paymentMethod, double amount, String currency, 
+                               String description, Map<String, Object> metadata) throws Exception;
+        
+        /**
+         * Start a charge. Blocking clients run on the provider's executor;
+         * non-blocking clients override this and ignore the executor.
+         */
+        default CompletableFuture<PaymentResponse> chargeAsync(PaymentMethod paymentMethod, double amount, String currency, 
+                                                               String description, Map<String, Object> metadata, 
+                                                               Executor executor) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return charge(paymentMethod, amount, currency, description, metadata);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        }
+    }
+    
+    // Per-provider isolation: concurrency limit, dedicated threads, timeout and breaker
+    private static class ProviderGuard {
+        private final Semaphore bulkhead;
+        private final ExecutorService executor;
+        private final CircuitBreaker circuitBreaker;
+        private final long timeoutMillis;
+        
+        ProviderGuard(PaymentProvider provider, String purpose, int maxConcurrent, long timeoutMillis, 
+                      int failureThreshold, long openDurationMillis) {
+            this.bulkhead = new Semaphore(maxConcurrent);
+            this.circuitBreaker = new CircuitBreaker(failureThreshold, openDurationMillis);
+            this.timeoutMillis = timeoutMillis;
+            
+            this.executor = PaymentExecutor.newBoundedExecutor(purpose + "-" + provider.name().toLowerCase(), maxConcurrent);
+        }
+    }
+    
+    // Failure produced locally without contacting the provider
+    private static class RejectedResponse extends PaymentResponse {
+        RejectedResponse(String message, PaymentProvider provider, String currency, Map<String, Object> metadata) {
+            super(false, null, null, message, provider, 0.0, currency, metadata);
+        }
+        
+        @Override
+        public boolean isRejectedLocally() { return true; }
+    }
+    
+    // Default isolation settings
+    private static final int DEFAULT_MAX_CONCURRENT_CALLS = 10;
+    private static final long DEFAULT_CALL_TIMEOUT_MILLIS = 10_000;
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_OPEN_DURATION_MILLIS = 30_000;
+    
+    // Refunds are isolated separately so bulk refund runs cannot starve checkout
+    private static final int DEFAULT_MAX_CONCURRENT_REFUNDS = 8;
+    private static final long DEFAULT_REFUND_TIMEOUT_MILLIS = 30_000;
+    
+    private static final Map<PaymentProvider, ProviderClient> providerClients = new ConcurrentHashMap<>();
+    private static final Map<PaymentProvider, ProviderGuard> providerGuards = new ConcurrentHashMap<>();
+    private static final Map<PaymentProvider, ProviderMetrics> providerMetrics = new ConcurrentHashMap<>();
+    private static final Map<PaymentProvider, ProviderGuard> refundGuards = new ConcurrentHashMap<>();
+    // Kept apart from providerMetrics, which only charges may feed since they drive routing
+    private static final Map<PaymentProvider, ProviderMetrics> refundMetrics = new ConcurrentHashMap<>();
+    
+    private static final PaymentRouter router = new PaymentRouter(PaymentRouter.Policy.ADAPTIVE, 
+        providerMetrics::get, provider -> getCircuitState(provider) != CircuitBreaker.State.OPEN);
+    
+    static {
+        providerClients.put(PaymentProvider.STRIPE, PaymentGatewayService::processStripePayment);
+        providerClients.put(PaymentProvider.PAYPAL, PaymentGatewayService::processPayPalPayment);
+        providerClients.put(PaymentProvider.SQUARE, PaymentGatewayService::processSquarePayment);
+        providerClients.put(PaymentProvider.RAZORPAY, PaymentGatewayService::processRazorpayPayment);
+        providerClients.put(PaymentProvider.MOCK, PaymentGatewayService::processMockPayment);
+        
+        for (PaymentProvider provider : PaymentProvider.values()) {
+            providerMetrics.put(provider, new ProviderMetrics());
+            configureProvider(provider, DEFAULT_MAX_CONCURRENT_CALLS, DEFAULT_CALL_TIMEOUT_MILLIS, 
+                DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION_MILLIS);
+            
+            refundMetrics.put(provider, new ProviderMetrics());
+            refundGuards.put(provider, new ProviderGuard(provider, "refund", DEFAULT_MAX_CONCURRENT_REFUNDS, 
+                DEFAULT_REFUND_TIMEOUT_MILLIS, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION_MILLIS));
+        }
+    }
+    
+    /**
+     * Replace the integration used for a provider (e.g. with a local stub)
+     */
+    public static void registerProviderClient(PaymentProvider provider, ProviderClient client) {
+        providerClients.put(provider, client);
+    }
+    
+    /**
+     * Configure the bulkhead size, call timeout and circuit breaker of a provider
+     */
+    public static void configureProvider(PaymentProvider provider, int maxConcurrent, long timeoutMillis, 
+                                         int failureThreshold, long openDurationMillis) {
+        ProviderGuard previous = providerGuards.put(provider, 
+            new ProviderGuard(provider, "payment", maxConcurrent, timeoutMillis, failureThreshold, openDurationMillis));
+        if (previous != null) {
+            previous.executor.shutdown();
+        }
+    }
+    
+    /**
+     * Switch how providers are chosen for new payments
+     */
+    public static void setRoutingPolicy(PaymentRouter.Policy policy) {
+        router.setPolicy(policy);
+    }
+    
+    /**
+     * Provider the router would send a new payment to first
+     */
+    public static PaymentProvider selectProvider(PaymentMethod.PaymentType type, String currency, double amount) {
+        return router.rank(type, currency, amount).get(0);
+    }
+    
+    public static ProviderMetrics getProviderMetrics(PaymentProvider provider) {
+        return providerMetrics.get(provider);
+    }
+    
+    public static ProviderMetrics getRefundMetrics(PaymentProvider provider) {
+        return refundMetrics.get(provider);
+    }
+    
+    public static CircuitBreaker.State getCircuitState(PaymentProvider provider) {
+        return providerGuards.get(provider).circuitBreaker.getState();
     }
     
     /**
@@ -73,29 +252,132 @@ public class PaymentGatewayService {
             String currency, 
             String description,
             Map<String, Object> metadata) {
+        return processPayment(paymentMethod, amount, currency, description, metadata, null);
+    }
+    
+    /**
+     * Process payment through the given provider only, without failover, e.g. a retry
+     * that must stay with the provider that saw the first attempt. A null provider
+     * lets the router choose.
+     */
+    public static CompletableFuture<PaymentResponse> processPayment(
+            PaymentMethod paymentMethod, 
+            double amount, 
+            String currency, 
+            String description,
+            Map<String, Object> metadata,
+            PaymentProvider provider) {
         
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                PaymentProvider provider = determineProvider(paymentMethod);
-                
-                switch (provider) {
-                    case STRIPE:
-                        return processStripePayment(paymentMethod, amount, currency, description, metadata);
-                    case PAYPAL:
-                        return processPayPalPayment(paymentMethod, amount, currency, description, metadata);
-                    case SQUARE:
-                        return processSquarePayment(paymentMethod, amount, currency, description, metadata);
-                    case RAZORPAY:
-                        return processRazorpayPayment(paymentMethod, amount, currency, description, metadata);
-                    case MOCK:
-                    default:
-                        return processMockPayment(paymentMethod, amount, currency, description, metadata);
+        // Validate once here so every provider path rejects incomplete details alike
+        if (!isValidPaymentMethod(paymentMethod)) {
+            return CompletableFuture.completedFuture(new PaymentResponse(false, null, null, 
+                "Invalid payment method", PaymentProvider.MOCK, 0.0, currency, metadata));
+        }
+        
+        List<PaymentProvider> candidates;
+        try {
+            candidates = provider != null ? List.of(provider) : router.rank(paymentMethod.getType(), currency, amount);
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(new PaymentResponse(false, null, null, 
+                "Payment processing failed: " + e.getMessage(), 
+                PaymentProvider.MOCK, 0.0, currency, metadata));
+        }
+        
+        return processWithFailover(candidates, 0, paymentMethod, amount, currency, description, metadata);
+    }
+    
+    /**
+     * Try candidates in rank order. Only local rejections (open circuit, full bulkhead)
+     * fail over, since nothing was sent to that provider and a retry cannot double charge.
+     */
+    private static CompletableFuture<PaymentResponse> processWithFailover(
+            List<PaymentProvider> candidates, 
+            int index,
+            PaymentMethod paymentMethod, 
+            double amount, 
+            String currency, 
+            String description,
+            Map<String, Object> metadata) {
+        
+        PaymentProvider provider = candidates.get(index);
+        ProviderClient client = providerClients.get(provider);
+        
+        return callProvider(provider, providerGuards.get(provider), providerMetrics.get(provider), 
+            executor -> client.chargeAsync(paymentMethod, amount, currency, description, metadata, executor), 
+            currency, metadata)
+            .thenCompose(response -> {
+                if (response.isRejectedLocally() && index + 1 < candidates.size()) {
+                    return processWithFailover(candidates, index + 1, paymentMethod, amount, currency, description, metadata);
                 }
-            } catch (Exception e) {
-                return new PaymentResponse(false, null, null, 
-                    "Payment processing failed: " + e.getMessage(), 
-                    PaymentProvider.MOCK, 0.0, currency, metadata);
+                return CompletableFuture.completedFuture(response);
+            });
+    }
+    
+    /**
+     * Run a provider call inside the given bulkhead, timeout and circuit breaker.
+     * A call that times out or fails in transport has an unknown outcome, not a failed one.
+     */
+    private static CompletableFuture<PaymentResponse> callProvider(PaymentProvider provider, 
+                                                                   ProviderGuard guard,
+                                                                   ProviderMetrics metrics,
+                                                                   Function<Executor, CompletableFuture<PaymentResponse>> call,
+                                                                   String currency, 
+                                                                   Map<String, Object> metadata) {
+        
+        // Fail fast instead of queueing behind a saturated provider
+        if (!guard.bulkhead.tryAcquire()) {
+            metrics.recordRejection();
+            return CompletableFuture.completedFuture(new RejectedResponse(
+                provider + " is at capacity, please retry", provider, currency, metadata));
+        }
+        
+        if (!guard.circuitBreaker.allowRequest()) {
+            guard.bulkhead.release();
+            metrics.recordRejection();
+            return CompletableFuture.completedFuture(new RejectedResponse(
+                provider + " is temporarily unavailable", provider, currency, metadata));
+        }
+        
+        long start = System.nanoTime();
+        CompletableFuture<PaymentResponse> future;
+        try {
+            future = call.apply(guard.executor);
+            future.whenComplete((response, error) -> guard.bulkhead.release());
+        } catch (RejectedExecutionException e) {
+            guard.bulkhead.release();
+            guard.circuitBreaker.recordFailure();
+            metrics.recordRejection();
+            return CompletableFuture.completedFuture(new RejectedResponse(
+                provider + " is unavailable", provider, currency, metadata));
+        }
+        
+        // Time out a copy so the permit is held until the provider call really finishes
+        return future.copy().orTimeout(guard.timeoutMillis, TimeUnit.MILLISECONDS).handle((response, error) -> {
+            long latency = System.nanoTime() - start;
+            
+            if (error == null) {
+                // A decline is a healthy answer from the provider
+                guard.circuitBreaker.recordSuccess();
+                if (response.isSuccess()) {
+                    metrics.recordSuccess(latency);
+                } else {
+                    metrics.recordDecline(latency);
+                }
+                return response;
+            }
+            
+            guard.circuitBreaker.recordFailure();
+            Throwable cause = error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof TimeoutException) {
+                metrics.recordTimeout(latency);
+                // The provider may still complete it; hand the running call to the caller
+                return new UnknownOutcomeResponse(provider + " did not respond in time", 
+                    provider, currency, metadata, future);
             }
+            
+            metrics.recordFailure(latency);
+            return new UnknownOutcomeResponse("Payment outcome unknown: " + cause.getMessage(), 
+                provider, currency, metadata, null);
         });
     }
     
@@ -310,8 +592,29 @@ public class PaymentGatewayService {
             PaymentProvider provider, 
             double amount, 
             String reason) {
+        return refundPayment(providerTransactionId, provider, amount, reason, null);
+    }
+    
+    /**
+     * Refund a payment with an idempotency key, so a refund resent after a crash
+     * is recognised by the provider instead of being paid out twice
+     */
+    public static CompletableFuture<PaymentResponse> refundPayment(
+            String providerTransactionId, 
+            PaymentProvider provider, 
+            double amount, 
+            String reason,
+            String idempotencyKey) {
+        
+        Map<String, Object> refundMetadata = new HashMap<>();
+        refundMetadata.put("refund_reason", reason);
+        refundMetadata.put("original_transaction", providerTransactionId);
+        if (idempotencyKey != null) {
+            refundMetadata.put("idempotency_key", idempotencyKey);
+        }
         
-        return CompletableFuture.supplyAsync(() -> {
+        return callProvider(provider, refundGuards.get(provider), refundMetrics.get(provider), 
+                executor -> CompletableFuture.supplyAsync(() -> {
             try {
                 Thread.sleep(1500); // Simulate processing time
                 
@@ -323,7 +626,7 @@ public class PaymentGatewayService {
                     provider,
                     amount,
                     "USD",
-                    Map.of("refund_reason", reason, "original_transaction", providerTransactionId)
+                    refundMetadata
                 );
                 
             } catch (Exception e) {
@@ -331,27 +634,7 @@ public class PaymentGatewayService {
                     "Refund failed: " + e.getMessage(), 
                     provider, 0.0, "USD", null);
             }
-        });
-    }
-    
-    /**
-     * Determine the best payment provider based on payment method
-     */
-    private static PaymentProvider determineProvider(PaymentMethod paymentMethod) {
-        switch (paymentMethod.getType()) {
-            case CREDIT_CARD:
-            case DEBIT_CARD:
-                return PaymentProvider.STRIPE; // Stripe for cards
-            case PAYPAL:
-                return PaymentProvider.PAYPAL;
-            case APPLE_PAY:
-            case GOOGLE_PAY:
-                return PaymentProvider.STRIPE; // Stripe supports digital wallets
-            case BANK_TRANSFER:
-                return PaymentProvider.RAZORPAY; // Good for bank transfers
-            default:
-                return PaymentProvider.MOCK;
-        }
+        }, executor), "USD", null);
     }
     
     /**
@@ -378,7 +661,7 @@ public class PaymentGatewayService {
     /**
      * Generate unique transaction ID
      */
-    private static String generateTransactionId() {
+    static String generateTransactionId() {
         return "TXN_" + System.currentTimeMillis() + "_" + generateRandomId();
     }
     
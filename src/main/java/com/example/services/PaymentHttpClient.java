@@ -0,0 +1,287 @@
+package com.example.services;
+
+import com.example.services.PaymentGatewayService.PaymentProvider;
+import com.example.services.PaymentGatewayService.PaymentResponse;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.Closeable;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.async.methods.SimpleRequestProducer;
+import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.async.MinimalHttpAsyncClient;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.config.Http1Config;
+import org.apache.hc.core5.http.nio.AsyncClientEndpoint;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.config.H2Config;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+/**
+ * Shared non-blocking HTTP client for payment gateway calls.
+ * Connections are pooled per route and kept alive between payments; HTTP/2 is
+ * negotiated where the gateway supports it (multiplexing many payments over one
+ * connection) and HTTP/1.1 requests can be pipelined over a leased connection.
+ */
+public class PaymentHttpClient implements Closeable {
+    /** Metadata entry sent as the Idempotency-Key header of a charge */
+    public static final String IDEMPOTENCY_KEY = "idempotency_key";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static PaymentHttpClient instance;
+
+    private final MinimalHttpAsyncClient client;
+    private final PoolingAsyncClientConnectionManager connectionManager;
+
+    public PaymentHttpClient() {
+        this(HttpVersionPolicy.NEGOTIATE, 200, 50, 10_000);
+    }
+
+    /**
+     * @param versionPolicy HTTP/1.1 only, HTTP/2 only, or negotiated per connection
+     * @param maxConnTotal connection cap across all gateways
+     * @param maxConnPerRoute connection cap per gateway host
+     * @param responseTimeoutMillis socket-level timeout for a response
+     */
+    public PaymentHttpClient(HttpVersionPolicy versionPolicy, int maxConnTotal, int maxConnPerRoute, long responseTimeoutMillis) {
+        this.connectionManager = PoolingAsyncClientConnectionManagerBuilder.create()
+            .setMaxConnTotal(maxConnTotal)
+            .setMaxConnPerRoute(maxConnPerRoute)
+            .setDefaultConnectionConfig(ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.ofSeconds(5))
+                .setSocketTimeout(Timeout.ofMilliseconds(responseTimeoutMillis))
+                .setTimeToLive(TimeValue.ofMinutes(5))
+                .setValidateAfterInactivity(TimeValue.ofSeconds(10))
+                .build())
+            .setDefaultTlsConfig(TlsConfig.custom()
+                .setVersionPolicy(versionPolicy)
+                .build())
+            .build();
+
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+            .setIoThreadCount(Runtime.getRuntime().availableProcessors())
+            .setSoKeepAlive(true)
+            .setTcpNoDelay(true)
+            .build();
+
+        // The minimal client is kept over custom() because only it can lease an endpoint for pipelining
+        this.client = HttpAsyncClients.createMinimal(H2Config.DEFAULT, Http1Config.DEFAULT,
+            ioReactorConfig, connectionManager);
+        this.client.start();
+    }
+
+    /**
+     * Process-wide client shared by all provider integrations
+     */
+    public static synchronized PaymentHttpClient getInstance() {
+        if (instance == null) {
+            instance = new PaymentHttpClient();
+        }
+        return instance;
+    }
+
+    /**
+     * POST a JSON payment request; completes without blocking any caller thread.
+     * The Idempotency-Key header comes from the body's metadata, so a resent charge
+     * is recognised by the gateway.
+     */
+    public CompletableFuture<PaymentResponse> postPayment(PaymentProvider provider, URI uri, Map<String, Object> body,
+                                                          String currency, Map<String, Object> metadata) {
+        CompletableFuture<PaymentResponse> result = new CompletableFuture<>();
+        SimpleHttpRequest request;
+        try {
+            request = buildRequest(uri, body);
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        client.execute(request, new FutureCallback<SimpleHttpResponse>() {
+            @Override
+            public void completed(SimpleHttpResponse response) {
+                completeFromResponse(result, response, provider, body, currency, metadata);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Send several payment requests back to back over one leased HTTP/1.1 connection
+     * (or one HTTP/2 connection), without waiting for each response in turn.
+     * Completes with one response per body, in order: a request that could not be
+     * built is declined unsent, and one whose answer was lost has an unknown outcome.
+     * Only a failure to lease a connection, before anything was sent, fails the whole list.
+     */
+    public CompletableFuture<List<PaymentResponse>> postPaymentsPipelined(PaymentProvider provider, URI uri,
+                                                                          List<Map<String, Object>> bodies, String currency) {
+        CompletableFuture<List<PaymentResponse>> result = new CompletableFuture<>();
+        HttpHost host = HttpHost.create(uri);
+
+        client.lease(host, new FutureCallback<AsyncClientEndpoint>() {
+            @Override
+            public void completed(AsyncClientEndpoint endpoint) {
+                List<CompletableFuture<PaymentResponse>> responses = new ArrayList<>(bodies.size());
+                for (Map<String, Object> body : bodies) {
+                    CompletableFuture<PaymentResponse> future = new CompletableFuture<>();
+                    responses.add(future);
+                    SimpleHttpRequest request;
+                    try {
+                        request = buildRequest(uri, body);
+                    } catch (Exception e) {
+                        future.complete(new PaymentResponse(false, null, null,
+                            "Invalid payment request: " + e.getMessage(), provider, 0.0, currency, null));
+                        continue;
+                    }
+                    endpoint.execute(SimpleRequestProducer.create(request), SimpleResponseConsumer.create(),
+                        new FutureCallback<SimpleHttpResponse>() {
+                            @Override
+                            public void completed(SimpleHttpResponse response) {
+                                completeFromResponse(future, response, provider, body, currency, null);
+                            }
+
+                            @Override
+                            public void failed(Exception e) {
+                                future.completeExceptionally(e);
+                            }
+
+                            @Override
+                            public void cancelled() {
+                                future.cancel(false);
+                            }
+                        });
+                }
+
+                CompletableFuture.allOf(responses.stream()
+                        .map(future -> future.handle((response, error) -> null))
+                        .toArray(CompletableFuture[]::new))
+                    .thenRun(() -> {
+                        boolean allCompleted = responses.stream().noneMatch(CompletableFuture::isCompletedExceptionally);
+                        if (allCompleted) {
+                            endpoint.releaseAndReuse();
+                        } else {
+                            // A failed exchange may leave the connection out of step with its requests
+                            endpoint.releaseAndDiscard();
+                        }
+                        result.complete(responses.stream()
+                            .map(future -> future.handle((response, error) -> error == null ? response
+                                : unknownOutcome(provider, currency, error)).join())
+                            .collect(Collectors.toList()));
+                    });
+            }
+
+            @Override
+            public void failed(Exception e) {
+                result.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Leased, available and pending connections across all routes
+     */
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Close connections idle for longer than the given time
+     */
+    public void closeIdle(long idleSeconds) {
+        connectionManager.closeIdle(TimeValue.of(idleSeconds, TimeUnit.SECONDS));
+    }
+
+    @Override
+    public void close() {
+        client.close(CloseMode.GRACEFUL);
+    }
+
+    private static SimpleHttpRequest buildRequest(URI uri, Map<String, Object> body) throws Exception {
+        return SimpleRequestBuilder.post(uri)
+            .setHeader("Idempotency-Key", idempotencyKey(body))
+            .setBody(objectMapper.writeValueAsString(body), ContentType.APPLICATION_JSON)
+            .build();
+    }
+
+    // Callers that may resend a charge supply the key; otherwise each request gets its own
+    private static String idempotencyKey(Map<String, Object> body) {
+        Object metadata = body.get("metadata");
+        Object key = metadata instanceof Map ? ((Map<?, ?>) metadata).get(IDEMPOTENCY_KEY) : null;
+        return key != null ? key.toString() : UUID.randomUUID().toString();
+    }
+
+    private static PaymentResponse unknownOutcome(PaymentProvider provider, String currency, Throwable error) {
+        Throwable cause = error.getCause() != null ? error.getCause() : error;
+        return new PaymentGatewayService.UnknownOutcomeResponse("Payment outcome unknown: " + cause.getMessage(),
+            provider, currency, null, null);
+    }
+
+    /**
+     * Map a gateway reply onto a PaymentResponse.
+     * 5xx answers fail the future (a provider fault); other non-2xx answers are declines.
+     */
+    private static void completeFromResponse(CompletableFuture<PaymentResponse> future, SimpleHttpResponse response,
+                                             PaymentProvider provider, Map<String, Object> body,
+                                             String currency, Map<String, Object> metadata) {
+        int status = response.getCode();
+        if (status >= 500) {
+            future.completeExceptionally(new IllegalStateException(provider + " returned HTTP " + status));
+            return;
+        }
+
+        try {
+            JsonNode json = response.getBodyText() != null ? objectMapper.readTree(response.getBodyText()) : null;
+            String message = json != null && json.hasNonNull("message") ? json.get("message").asText() : "HTTP " + status;
+            boolean approved = status < 300 && json != null && "succeeded".equals(json.path("status").asText());
+
+            if (!approved) {
+                future.complete(new PaymentResponse(false, null, null, message, provider, 0.0, currency, metadata));
+                return;
+            }
+
+            double amount = ((Number) body.getOrDefault("amount", 0)).doubleValue();
+            future.complete(new PaymentResponse(true, PaymentGatewayService.generateTransactionId(),
+                json.path("id").asText(null), message, provider, amount, currency, metadata));
+
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.services;
+
+import com.example.models.PaymentMethod;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Per-user cache of active payment methods for the checkout path, shared by all
+ * PaymentService instances. Entries are dropped whenever a user's methods change
+ * and expire after a few minutes as a safety net. last_used updates are collected
+ * here and written in one batch per second instead of once per payment.
+ * Callers always receive their own copies, so mutating a returned method never
+ * changes what other checkouts see.
+ */
+class PaymentMethodCache {
+    private static final String DB_URL = "jdbc:h2:./agro_db";
+    private static final String DB_USER = "sa";
+    private static final String DB_PASSWORD = "";
+
+    private static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final int DEFAULT_MAX_USERS = 10_000;
+    private static final long USAGE_FLUSH_INTERVAL_MILLIS = 1_000;
+
+    private static PaymentMethodCache instance;
+
+    private final long ttlMillis;
+    private final int maxUsers;
+    private final Map<String, Entry> byUser = new ConcurrentHashMap<>();
+    private final Map<String, String> ownerByMethodId = new ConcurrentHashMap<>();
+    // Bumped on every invalidation so a load that raced with a change is not cached
+    private final AtomicLong generation = new AtomicLong();
+    // Latest use per method; repeated uses before a flush collapse into one update
+    private final Map<String, PaymentMethod> pendingUsage = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService usageFlusher;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private static class Entry {
+        private final List<PaymentMethod> methods;
+        private final long loadedAt;
+
+        Entry(List<PaymentMethod> methods, long loadedAt) {
+            this.methods = methods;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    PaymentMethodCache(long ttlMillis, int maxUsers) {
+        this.ttlMillis = ttlMillis;
+        this.maxUsers = maxUsers;
+
+        this.usageFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "payment-method-usage-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        usageFlusher.scheduleWithFixedDelay(this::flushUsage, USAGE_FLUSH_INTERVAL_MILLIS,
+            USAGE_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flushUsage, "payment-method-usage-final-flush"));
+    }
+
+    static synchronized PaymentMethodCache getInstance() {
+        if (instance == null) {
+            instance = new PaymentMethodCache(DEFAULT_TTL_MILLIS, DEFAULT_MAX_USERS);
+        }
+        return instance;
+    }
+
+    /**
+     * Active methods of a user, loading them on a miss
+     */
+    List<PaymentMethod> getByUser(String userId, Function<String, List<PaymentMethod>> loader) {
+        Entry entry = byUser.get(userId);
+        if (entry != null && System.currentTimeMillis() - entry.loadedAt < ttlMillis) {
+            hits.increment();
+            return copyOf(entry.methods);
+        }
+
+        misses.increment();
+        long loadGeneration = generation.get();
+        List<PaymentMethod> methods = loader.apply(userId);
+        if (generation.get() == loadGeneration) {
+            put(userId, methods);
+        }
+        return copyOf(methods);
+    }
+
+    /**
+     * Look a method up through its owner's cached list. A miss loads the method,
+     * then the owner's full list so the rest of the checkout hits the cache.
+     */
+    Optional<PaymentMethod> getById(String methodId, Function<String, Optional<PaymentMethod>> loader,
+                                    Function<String, List<PaymentMethod>> userLoader) {
+        String owner = ownerByMethodId.get(methodId);
+        if (owner != null) {
+            Entry entry = byUser.get(owner);
+            if (entry != null && System.currentTimeMillis() - entry.loadedAt < ttlMillis) {
+                for (PaymentMethod method : entry.methods) {
+                    if (method.getId().equals(methodId)) {
+                        hits.increment();
+                        return Optional.of(new PaymentMethod(method));
+                    }
+                }
+            }
+        }
+
+        misses.increment();
+        Optional<PaymentMethod> loaded = loader.apply(methodId);
+        loaded.ifPresent(method -> getByUser(method.getUserId(), userLoader));
+        return loaded;
+    }
+
+    void invalidateUser(String userId) {
+        generation.incrementAndGet();
+        Entry removed = byUser.remove(userId);
+        if (removed != null) {
+            removed.methods.forEach(method -> ownerByMethodId.remove(method.getId()));
+        }
+    }
+
+    void invalidateMethod(String methodId) {
+        String owner = ownerByMethodId.get(methodId);
+        if (owner != null) {
+            invalidateUser(owner);
+        } else {
+            generation.incrementAndGet();
+        }
+    }
+
+    /**
+     * Queue a last_used update; written by the background flusher
+     */
+    void recordUsage(PaymentMethod method) {
+        pendingUsage.put(method.getId(), method);
+    }
+
+    long getHitCount() { return hits.sum(); }
+    long getMissCount() { return misses.sum(); }
+    int getPendingUsageCount() { return pendingUsage.size(); }
+
+    private void put(String userId, List<PaymentMethod> methods) {
+        if (byUser.size() >= maxUsers && !byUser.containsKey(userId)) {
+            evictOne();
+        }
+        byUser.put(userId, new Entry(List.copyOf(copyOf(methods)), System.currentTimeMillis()));
+        methods.forEach(method -> ownerByMethodId.put(method.getId(), userId));
+    }
+
+    private static List<PaymentMethod> copyOf(List<PaymentMethod> methods) {
+        List<PaymentMethod> copies = new ArrayList<>(methods.size());
+        for (PaymentMethod method : methods) {
+            copies.add(new PaymentMethod(method));
+        }
+        return copies;
+    }
+
+    // Any entry will do; the cache only needs to stay bounded
+    private void evictOne() {
+        Iterator<String> users = byUser.keySet().iterator();
+        if (users.hasNext()) {
+            invalidateUser(users.next());
+        }
+    }
+
+    synchronized void flushUsage() {
+        if (pendingUsage.isEmpty()) {
+            return;
+        }
+
+        List<PaymentMethod> batch = new ArrayList<>(pendingUsage.size());
+        for (String methodId : new ArrayList<>(pendingUsage.keySet())) {
+            PaymentMethod method = pendingUsage.remove(methodId);
+            if (method != null) {
+                batch.add(method);
+            }
+        }
+
+        String sql = "UPDATE payment_methods SET last_used = ?, last_updated = ? WHERE id = ?";
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            for (PaymentMethod method : batch) {
+                stmt.setTimestamp(1, Timestamp.valueOf(method.getLastUsed()));
+                stmt.setTimestamp(2, Timestamp.valueOf(method.getLastUpdated()));
+                stmt.setString(3, method.getId());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        } catch (SQLException e) {
+            // Put them back unless a newer use arrived meanwhile
+            batch.forEach(method -> pendingUsage.putIfAbsent(method.getId(), method));
+            System.err.println("Error flushing payment method usage: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.example.services;
+
+import com.example.models.Transaction;
+import com.example.services.PaymentGatewayService.PaymentProvider;
+import java.sql.*;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Re-runs failed payments with exponential backoff and jitter.
+ * Pending retries are persisted in payment_retries so they survive a restart, and
+ * held in memory in a DelayQueue so the dispatcher sleeps until the next one is due
+ * instead of polling the table. Each provider has its own cap on concurrent retries.
+ */
+public class PaymentRetryScheduler {
+    private static final String DB_URL = "jdbc:h2:./agro_db";
+    private static final String DB_USER = "sa";
+    private static final String DB_PASSWORD = "";
+
+    private static final long DEFAULT_BASE_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long DEFAULT_MAX_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    private static final int DEFAULT_MAX_CONCURRENT_PER_PROVIDER = 4;
+    // How long a retry waits when its provider is already at the cap
+    private static final long PROVIDER_BUSY_DELAY_MILLIS = 250;
+    private static final String UNASSIGNED_PROVIDER = "UNASSIGNED";
+
+    private static PaymentRetryScheduler instance;
+
+    private final PaymentService paymentService;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxConcurrentPerProvider;
+
+    private final DelayQueue<RetryTask> queue = new DelayQueue<>();
+    // Latest task per transaction; older queue entries for the same transaction are skipped
+    private final Map<String, RetryTask> scheduled = new ConcurrentHashMap<>();
+    private final Map<String, Semaphore> providerPermits = new ConcurrentHashMap<>();
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder deferrals = new LongAdder();
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    // One pending retry, due at an absolute wall-clock time so it can be persisted
+    static class RetryTask implements Delayed {
+        private final String transactionId;
+        private final String provider;
+        private final int attempt;
+        private final long dueAtMillis;
+
+        RetryTask(String transactionId, String provider, int attempt, long dueAtMillis) {
+            this.transactionId = transactionId;
+            this.provider = provider;
+            this.attempt = attempt;
+            this.dueAtMillis = dueAtMillis;
+        }
+
+        RetryTask deferredBy(long millis) {
+            return new RetryTask(transactionId, provider, attempt, System.currentTimeMillis() + millis);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAtMillis - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAtMillis, ((RetryTask) other).dueAtMillis);
+        }
+    }
+
+    public PaymentRetryScheduler(PaymentService paymentService, long baseDelayMillis, long maxDelayMillis,
+                                 int maxConcurrentPerProvider) {
+        this.paymentService = paymentService;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.maxConcurrentPerProvider = maxConcurrentPerProvider;
+
+        initializeDatabase();
+        recoverPending();
+
+        this.dispatcher = new Thread(this::dispatchLoop, "payment-retry-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    public static synchronized PaymentRetryScheduler getInstance() {
+        if (instance == null) {
+            instance = new PaymentRetryScheduler(new PaymentService(), DEFAULT_BASE_DELAY_MILLIS,
+                DEFAULT_MAX_DELAY_MILLIS, DEFAULT_MAX_CONCURRENT_PER_PROVIDER);
+        }
+        return instance;
+    }
+
+    private void initializeDatabase() {
+        String createRetriesTable = """
+            CREATE TABLE IF NOT EXISTS payment_retries (
+                transaction_id VARCHAR(36) PRIMARY KEY,
+                provider VARCHAR(20) NOT NULL,
+                attempt INTEGER NOT NULL,
+                next_attempt_at TIMESTAMP NOT NULL
+            )
+        """;
+
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
+            conn.createStatement().execute(createRetriesTable);
+        } catch (SQLException e) {
+            System.err.println("Error initializing payment retry table: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Schedule the next attempt for a failed transaction.
+     * Returns false when the transaction has used up its retries or is not FAILED.
+     */
+    public boolean schedule(Transaction transaction, PaymentProvider provider) {
+        if (!transaction.canBeRetried()) {
+            return false;
+        }
+
+        int attempt = transaction.getRetryCount() + 1;
+        RetryTask task = new RetryTask(transaction.getId(), provider != null ? provider.name() : UNASSIGNED_PROVIDER,
+            attempt, System.currentTimeMillis() + backoffMillis(attempt));
+
+        try {
+            persist(task);
+        } catch (SQLException e) {
+            System.err.println("Error persisting payment retry: " + e.getMessage());
+        }
+
+        scheduled.put(task.transactionId, task);
+        queue.offer(task);
+        return true;
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half the window is fixed, half random,
+     * so retries spread out after a provider outage but never fire immediately
+     */
+    long backoffMillis(int attempt) {
+        long window = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 20));
+        long half = window / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    /**
+     * Cancel a pending retry, e.g. when the customer pays another way or retries by hand.
+     * Returns false when none was pending, including one already handed to the payment pipeline.
+     */
+    public boolean cancel(String transactionId) {
+        if (scheduled.remove(transactionId) != null) {
+            deleteRow(transactionId);
+            return true;
+        }
+        return false;
+    }
+
+    public boolean isPending(String transactionId) { return scheduled.containsKey(transactionId); }
+    public int getPendingCount() { return scheduled.size(); }
+    public long getAttemptCount() { return attempts.sum(); }
+    public long getDeferredCount() { return deferrals.sum(); }
+
+    public void shutdown() {
+        running = false;
+        dispatcher.interrupt();
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            RetryTask task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            // Superseded by a newer schedule or cancelled
+            if (scheduled.get(task.transactionId) != task) {
+                continue;
+            }
+
+            Semaphore permits = providerPermits.computeIfAbsent(task.provider, p -> new Semaphore(maxConcurrentPerProvider));
+            if (!permits.tryAcquire()) {
+                defer(task);
+                continue;
+            }
+
+            scheduled.remove(task.transactionId, task);
+            runRetry(task, permits);
+        }
+    }
+
+    // Push back a retry whose provider is saturated without blocking other providers
+    private void defer(RetryTask task) {
+        RetryTask deferred = task.deferredBy(PROVIDER_BUSY_DELAY_MILLIS);
+        if (scheduled.replace(task.transactionId, task, deferred)) {
+            deferrals.increment();
+            queue.offer(deferred);
+        }
+    }
+
+    private void runRetry(RetryTask task, Semaphore permits) {
+        CompletableFuture<Transaction> retry;
+        try {
+            retry = PaymentExecutor.getInstance()
+                .supplyAsync(() -> paymentService.getTransactionById(task.transactionId))
+                .thenCompose(this::retryTransaction);
+        } catch (RejectedExecutionException e) {
+            // Payment pipeline is full; try again shortly
+            permits.release();
+            scheduled.put(task.transactionId, task);
+            defer(task);
+            return;
+        }
+
+        attempts.increment();
+        retry.whenComplete((transaction, error) -> {
+            permits.release();
+            if (error != null) {
+                System.err.println("Error retrying payment " + task.transactionId + ": " + error.getMessage());
+            }
+            // A failed attempt with retries left has already rescheduled itself
+            if (!scheduled.containsKey(task.transactionId)) {
+                deleteRow(task.transactionId);
+            }
+        });
+    }
+
+    private CompletableFuture<Transaction> retryTransaction(Optional<Transaction> loaded) {
+        if (loaded.isEmpty() || !loaded.get().canBeRetried()) {
+            return CompletableFuture.completedFuture(loaded.orElse(null));
+        }
+
+        Transaction transaction = loaded.get();
+        transaction.incrementRetryCount();
+        return paymentService.processPayment(transaction);
+    }
+
+    /**
+     * Reload retries left pending by a previous run; overdue ones fire straight away
+     */
+    private void recoverPending() {
+        String sql = "SELECT transaction_id, provider, attempt, next_attempt_at FROM payment_retries";
+
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                RetryTask task = new RetryTask(rs.getString("transaction_id"), rs.getString("provider"),
+                    rs.getInt("attempt"), rs.getTimestamp("next_attempt_at").getTime());
+                scheduled.put(task.transactionId, task);
+                queue.offer(task);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error recovering payment retries: " + e.getMessage());
+        }
+    }
+
+    private void persist(RetryTask task) throws SQLException {
+        String sql = """
+            MERGE INTO payment_retries (transaction_id, provider, attempt, next_attempt_at)
+            KEY (transaction_id) VALUES (?, ?, ?, ?)
+        """;
+
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, task.transactionId);
+            stmt.setString(2, task.provider);
+            stmt.setInt(3, task.attempt);
+            stmt.setTimestamp(4, new Timestamp(task.dueAtMillis));
+            stmt.executeUpdate();
+        }
+    }
+
+    private void deleteRow(String transactionId) {
+        String sql = "DELETE FROM payment_retries WHERE transaction_id = ?";
+
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, transactionId);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            System.err.println("Error removing payment retry: " + e.getMessage());
+        }
+    }
+}
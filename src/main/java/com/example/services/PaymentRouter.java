@@ -0,0 +1,164 @@
+package com.example.services;
+
+import com.example.models.PaymentMethod.PaymentType;
+import com.example.services.PaymentGatewayService.PaymentProvider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Chooses which payment provider handles a payment.
+ * Candidates are the providers that support the payment type and currency;
+ * they are ranked by the active policy, best first, so callers can fail over
+ * down the list.
+ */
+public class PaymentRouter {
+
+    // Scoring weights, expressed in dollars so they combine with provider fees
+    private static final double LATENCY_COST_PER_SECOND = 0.10;
+    private static final double ERROR_RATE_COST = 5.00;
+
+    // Below this many samples a provider is scored with neutral priors
+    private static final int MIN_SAMPLES = 20;
+    private static final double PRIOR_P99_MILLIS = 2000.0;
+
+    // Recent success rate under which a provider is considered degraded
+    private static final double DEGRADED_SUCCESS_RATE = 0.5;
+
+    public enum Policy {
+        STATIC,       // Fixed provider per payment type
+        LOWEST_COST,  // Cheapest eligible provider
+        ADAPTIVE      // Cost, p99 latency and recent health combined
+    }
+
+    private static final Map<PaymentType, List<PaymentProvider>> SUPPORTED_PROVIDERS = new EnumMap<>(PaymentType.class);
+
+    static {
+        // First entry is the static default for the payment type. Saved cards are
+        // tokenized with Stripe, and a card token can only be charged where it was issued
+        SUPPORTED_PROVIDERS.put(PaymentType.CREDIT_CARD, List.of(PaymentProvider.STRIPE));
+        SUPPORTED_PROVIDERS.put(PaymentType.DEBIT_CARD, List.of(PaymentProvider.STRIPE));
+        SUPPORTED_PROVIDERS.put(PaymentType.PAYPAL, List.of(PaymentProvider.PAYPAL));
+        SUPPORTED_PROVIDERS.put(PaymentType.APPLE_PAY, List.of(PaymentProvider.STRIPE, PaymentProvider.SQUARE));
+        SUPPORTED_PROVIDERS.put(PaymentType.GOOGLE_PAY, List.of(PaymentProvider.STRIPE, PaymentProvider.SQUARE));
+        SUPPORTED_PROVIDERS.put(PaymentType.BANK_TRANSFER, List.of(PaymentProvider.RAZORPAY, PaymentProvider.STRIPE));
+        SUPPORTED_PROVIDERS.put(PaymentType.CASH_ON_DELIVERY, List.of(PaymentProvider.MOCK));
+    }
+
+    private final Function<PaymentProvider, ProviderMetrics> metrics;
+    private final Predicate<PaymentProvider> available;
+    private volatile Policy policy;
+
+    /**
+     * @param metrics live statistics for each provider
+     * @param available whether a provider currently accepts calls (e.g. its circuit is not open)
+     */
+    public PaymentRouter(Policy policy, Function<PaymentProvider, ProviderMetrics> metrics, Predicate<PaymentProvider> available) {
+        this.policy = policy;
+        this.metrics = metrics;
+        this.available = available;
+    }
+
+    public Policy getPolicy() { return policy; }
+    public void setPolicy(Policy policy) { this.policy = policy; }
+
+    /**
+     * Providers able to take this payment, best first.
+     * Degraded or unavailable providers are moved behind healthy ones rather than dropped,
+     * so a payment still has somewhere to go if every provider is struggling.
+     *
+     * @throws IllegalArgumentException if no provider can charge this type in this currency
+     */
+    public List<PaymentProvider> rank(PaymentType type, String currency, double amount) {
+        List<PaymentProvider> eligible = new ArrayList<>();
+        for (PaymentProvider provider : SUPPORTED_PROVIDERS.getOrDefault(type, List.of(PaymentProvider.MOCK))) {
+            if (supportsCurrency(provider, currency)) {
+                eligible.add(provider);
+            }
+        }
+        if (eligible.isEmpty()) {
+            throw new IllegalArgumentException("No payment provider accepts " + type + " payments in " + currency);
+        }
+
+        // Score each candidate once; the comparator only looks values up
+        Policy current = policy;
+        Map<PaymentProvider, Double> scores = new HashMap<>();
+        Map<PaymentProvider, Boolean> healthy = new HashMap<>();
+        for (PaymentProvider provider : eligible) {
+            if (current == Policy.LOWEST_COST) {
+                scores.put(provider, PaymentGatewayService.getProviderFee(provider, amount));
+            } else if (current == Policy.ADAPTIVE) {
+                scores.put(provider, score(provider, amount));
+            }
+            if (current != Policy.STATIC) {
+                healthy.put(provider, isHealthy(provider));
+            }
+        }
+
+        Comparator<PaymentProvider> order;
+        switch (current) {
+            case LOWEST_COST:
+            case ADAPTIVE:
+                order = Comparator.comparingDouble(scores::get);
+                break;
+            case STATIC:
+            default:
+                // Keep the declared preference order
+                return eligible;
+        }
+
+        order = Comparator.comparing((PaymentProvider p) -> !healthy.get(p)).thenComparing(order);
+
+        eligible.sort(order);
+        return eligible;
+    }
+
+    /**
+     * Expected cost of sending a payment to a provider under the adaptive policy
+     */
+    public double score(PaymentProvider provider, double amount) {
+        ProviderMetrics stats = metrics.apply(provider);
+        double p99Millis = PRIOR_P99_MILLIS;
+        double errorRate = 0.0;
+
+        if (stats != null && stats.getRecentSampleCount() >= MIN_SAMPLES) {
+            p99Millis = stats.getRecentLatencyPercentileMillis(0.99);
+            errorRate = 1.0 - stats.getRecentSuccessRate();
+        }
+
+        return PaymentGatewayService.getProviderFee(provider, amount)
+            + LATENCY_COST_PER_SECOND * p99Millis / 1000.0
+            + ERROR_RATE_COST * errorRate;
+    }
+
+    public boolean isHealthy(PaymentProvider provider) {
+        if (!available.test(provider)) {
+            return false;
+        }
+        ProviderMetrics stats = metrics.apply(provider);
+        return stats == null
+            || stats.getRecentSampleCount() < MIN_SAMPLES
+            || stats.getRecentSuccessRate() >= DEGRADED_SUCCESS_RATE;
+    }
+
+    /**
+     * Fixed provider per payment type, as used by the static policy
+     */
+    public static PaymentProvider defaultProvider(PaymentType type) {
+        List<PaymentProvider> providers = SUPPORTED_PROVIDERS.get(type);
+        return providers != null ? providers.get(0) : PaymentProvider.MOCK;
+    }
+
+    private static boolean supportsCurrency(PaymentProvider provider, String currency) {
+        if (currency == null) {
+            return true;
+        }
+        return Arrays.asList(PaymentGatewayService.getSupportedCurrencies(provider)).contains(currency.toUpperCase());
+    }
+}
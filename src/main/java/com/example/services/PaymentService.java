@@ -1,20 +1,28 @@
 package com.example.services;
 
+import com.example.models.Ids;
+import com.example.models.Notification;
 import com.example.models.PaymentMethod;
 import com.example.models.Transaction;
 import com.example.models.Transaction.TransactionStatus;
 import com.example.models.Transaction.TransactionType;
 import com.example.models.Transaction.TransactionItem;
 import com.example.models.Transaction.PaymentDetails;
+import com.example.services.PaymentGatewayService.PaymentProvider;
+import com.example.services.PaymentGatewayService.PaymentResponse;
 
-import java.math.BigDecimal;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Service class for handling payment operations.
@@ -25,13 +33,20 @@ public class PaymentService {
     private static final String DB_USER = "sa";
     private static final String DB_PASSWORD = "";
     
-    // Tax rate (8.5%)
-    private static final BigDecimal TAX_RATE = new BigDecimal("0.085");
+    // Blocking gateway calls run here instead of the common ForkJoinPool
+    private static final PaymentExecutor paymentExecutor = PaymentExecutor.getInstance();
     
-    // Shipping rates
-    private static final BigDecimal STANDARD_SHIPPING = new BigDecimal("5.99");
-    private static final BigDecimal EXPRESS_SHIPPING = new BigDecimal("12.99");
-    private static final BigDecimal FREE_SHIPPING_THRESHOLD = new BigDecimal("50.00");
+    // Shared across instances; each checkout creates its own PaymentService
+    private static final PaymentMethodCache paymentMethodCache = PaymentMethodCache.getInstance();
+    
+    // Compiled promotion, shipping and tax rules; the single source of checkout rates
+    private static final PricingEngine pricingEngine = PricingEngine.getInstance();
+    
+    // Payment notifications commit with the payment and are sent by the outbox relay
+    private static final NotificationOutbox notificationOutbox = NotificationOutbox.getInstance();
+    
+    // Transactions with an attempt under way in this process
+    private static final Set<String> inFlight = ConcurrentHashMap.newKeySet();
     
     public PaymentService() {
         initializeDatabase();
@@ -86,7 +101,9 @@ public class PaymentService {
                 failure_reason TEXT,
                 retry_count INTEGER DEFAULT 0,
                 refund_reason TEXT,
-                refund_transaction_id VARCHAR(36)
+                refund_transaction_id VARCHAR(36),
+                provider VARCHAR(20),
+                coupon_codes VARCHAR(500)
             )
         """;
         
@@ -107,6 +124,10 @@ public class PaymentService {
         try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
             conn.createStatement().execute(createPaymentMethodsTable);
             conn.createStatement().execute(createTransactionsTable);
+            conn.createStatement().execute(
+                "ALTER TABLE transactions ADD COLUMN IF NOT EXISTS provider VARCHAR(20)");
+            conn.createStatement().execute(
+                "ALTER TABLE transactions ADD COLUMN IF NOT EXISTS coupon_codes VARCHAR(500)");
             conn.createStatement().execute(createTransactionItemsTable);
         } catch (SQLException e) {
             System.err.println("Error initializing payment database: " + e.getMessage());
@@ -151,9 +172,15 @@ public class PaymentService {
             
             stmt.executeUpdate();
         }
+        
+        paymentMethodCache.invalidateUser(paymentMethod.getUserId());
     }
     
     public List<PaymentMethod> getPaymentMethodsByUserId(String userId) {
+        return paymentMethodCache.getByUser(userId, this::loadPaymentMethodsByUserId);
+    }
+    
+    private List<PaymentMethod> loadPaymentMethodsByUserId(String userId) {
         List<PaymentMethod> methods = new ArrayList<>();
         String sql = "SELECT * FROM payment_methods WHERE user_id = ? AND is_active = TRUE ORDER BY is_default DESC, last_used DESC";
         
@@ -175,6 +202,10 @@ public class PaymentService {
     }
     
     public Optional<PaymentMethod> getPaymentMethodById(String id) {
+        return paymentMethodCache.getById(id, this::loadPaymentMethodById, this::loadPaymentMethodsByUserId);
+    }
+    
+    private Optional<PaymentMethod> loadPaymentMethodById(String id) {
         String sql = "SELECT * FROM payment_methods WHERE id = ? AND is_active = TRUE";
         
         try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
@@ -214,6 +245,8 @@ public class PaymentService {
             }
             
             conn.commit();
+        } finally {
+            paymentMethodCache.invalidateUser(userId);
         }
     }
     
@@ -227,178 +260,435 @@ public class PaymentService {
             stmt.setString(2, id);
             stmt.executeUpdate();
         }
+        
+        paymentMethodCache.invalidateMethod(id);
     }
     
     // Transaction Processing
     public CompletableFuture<Transaction> processPayment(Transaction transaction) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                // Validate payment method
-                Optional<PaymentMethod> paymentMethod = getPaymentMethodById(transaction.getPaymentMethodId());
-                if (paymentMethod.isEmpty()) {
-                    transaction.setStatus(TransactionStatus.FAILED);
-                    transaction.setFailureReason("Invalid payment method");
-                    return transaction;
-                }
-                
-                // Check if payment method is expired
-                if (paymentMethod.get().isExpired()) {
-                    transaction.setStatus(TransactionStatus.FAILED);
-                    transaction.setFailureReason("Payment method has expired");
-                    return transaction;
+        // One attempt per transaction at a time, so a manual retry racing a scheduled one cannot charge twice
+        if (!inFlight.add(transaction.getId())) {
+            return CompletableFuture.completedFuture(getTransactionById(transaction.getId()).orElse(transaction));
+        }
+        try {
+            return paymentExecutor.supplyAsync(() -> {
+                try {
+                    return executePayment(transaction);
+                } finally {
+                    inFlight.remove(transaction.getId());
                 }
-                
-                // Set status to processing
-                transaction.setStatus(TransactionStatus.PROCESSING);
-                saveTransaction(transaction);
-                
-                // Simulate payment processing
-                Thread.sleep(2000 + ThreadLocalRandom.current().nextInt(3000)); // 2-5 seconds
-                
-                // Simulate payment gateway response
-                boolean paymentSuccess = simulatePaymentGateway(transaction, paymentMethod.get());
-                
-                if (paymentSuccess) {
-                    transaction.setStatus(TransactionStatus.COMPLETED);
-                    transaction.setProcessorTransactionId("TXN_" + System.currentTimeMillis());
-                    
-                    // Update payment details
-                    PaymentDetails details = transaction.getPaymentDetails();
-                    details.setProcessorName("AgroPayments Gateway");
-                    details.setAuthorizationCode("AUTH_" + ThreadLocalRandom.current().nextInt(100000, 999999));
-                    details.setAuthorizationTime(LocalDateTime.now());
-                    details.setGatewayResponse("SUCCESS");
-                    
-                    if (paymentMethod.get().getType() == PaymentMethod.PaymentType.CREDIT_CARD ||
-                        paymentMethod.get().getType() == PaymentMethod.PaymentType.DEBIT_CARD) {
-                        details.setCardLast4(paymentMethod.get().getMaskedCardNumber().replaceAll(".*", "").substring(0, 4));
-                        details.setCardType(paymentMethod.get().getCardType());
-                    }
-                    
-                    // Mark payment method as used
-                    paymentMethod.get().markAsUsed();
-                    updatePaymentMethodUsage(paymentMethod.get());
-                    
-                } else {
-                    transaction.setStatus(TransactionStatus.FAILED);
-                    transaction.setFailureReason("Payment declined by processor");
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(transaction.getId());
+            transaction.setStatus(TransactionStatus.FAILED);
+            transaction.setFailureReason("Payment system busy, please retry");
+            try {
+                saveAndScheduleRetry(transaction);
+            } catch (SQLException sqlEx) {
+                System.err.println("Error saving failed transaction: " + sqlEx.getMessage());
+            }
+            return CompletableFuture.completedFuture(transaction);
+        }
+    }
+    
+    /**
+     * In-flight, queued and queueing-delay figures for the payment pipeline
+     */
+    public static PaymentExecutor getPaymentExecutor() {
+        return paymentExecutor;
+    }
+    
+    /**
+     * Whether a failed payment is waiting for an automatic retry
+     */
+    public boolean isRetryPending(String transactionId) {
+        return PaymentRetryScheduler.getInstance().isPending(transactionId);
+    }
+    
+    /**
+     * Cancel the automatic retry of a failed payment, e.g. before the customer
+     * retries it by hand. Returns false when none was pending.
+     */
+    public boolean cancelRetry(String transactionId) {
+        return PaymentRetryScheduler.getInstance().cancel(transactionId);
+    }
+    
+    // Blocking payment pipeline; runs on the payment executor
+    private Transaction executePayment(Transaction transaction) {
+        PaymentMethod paymentMethod;
+        try {
+            // An order already paid, or whose charge still awaits the provider's answer, is not charged again
+            Optional<Transaction> charged = findChargeForOrder(transaction.getOrderId());
+            if (charged.isPresent()) {
+                if (charged.get().getId().equals(transaction.getId())) {
+                    return charged.get();
                 }
-                
-                saveTransaction(transaction);
+                transaction.setStatus(TransactionStatus.FAILED);
+                transaction.setFailureReason("This order is already paid or its payment is being confirmed");
                 return transaction;
-                
-            } catch (Exception e) {
+            }
+            
+            // Validate payment method
+            Optional<PaymentMethod> method = getPaymentMethodById(transaction.getPaymentMethodId());
+            if (method.isEmpty()) {
                 transaction.setStatus(TransactionStatus.FAILED);
-                transaction.setFailureReason("System error: " + e.getMessage());
-                try {
-                    saveTransaction(transaction);
-                } catch (SQLException sqlEx) {
-                    System.err.println("Error saving failed transaction: " + sqlEx.getMessage());
-                }
+                transaction.setFailureReason("Invalid payment method");
+                return transaction;
+            }
+            paymentMethod = method.get();
+            
+            // Check if payment method is expired
+            if (paymentMethod.isExpired()) {
+                transaction.setStatus(TransactionStatus.FAILED);
+                transaction.setFailureReason("Payment method has expired");
                 return transaction;
             }
+            
+            // Paying for the order again, by hand or another way, supersedes pending retries
+            cancelPendingRetries(transaction);
+            
+            // Claim coupons before charging so the last use of a limited code is never sold twice
+            CouponService.RedemptionResult coupons = CouponService.getInstance().redeemAll(
+                transaction.getCouponCodes(), transaction.getUserId(), transaction.getOrderId());
+            if (!coupons.isAccepted()) {
+                transaction.setStatus(TransactionStatus.FAILED);
+                transaction.setFailureReason("Coupon can no longer be used (" + coupons + ")");
+                saveTransaction(transaction);
+                return transaction;
+            }
+            
+            // Set status to processing
+            transaction.setStatus(TransactionStatus.PROCESSING);
+            saveTransaction(transaction);
+            
+        } catch (Exception e) {
+            // Nothing has reached the provider yet, so the attempt can safely be retried
+            transaction.setStatus(TransactionStatus.FAILED);
+            transaction.setFailureReason("System error: " + e.getMessage());
+            // A retry redeems them again
+            releaseCoupons(transaction);
+            try {
+                saveAndScheduleRetry(transaction);
+            } catch (SQLException sqlEx) {
+                System.err.println("Error saving failed transaction: " + sqlEx.getMessage());
+            }
+            return transaction;
+        }
+        
+        PaymentResponse response;
+        try {
+            response = charge(transaction, paymentMethod).join();
+        } catch (Exception e) {
+            // The request may have gone out; only the provider knows whether it was charged
+            response = new PaymentResponse(false, null, null, "Payment outcome unknown: " + e.getMessage(),
+                null, 0.0, transaction.getCurrency(), null);
+            recordUnknownOutcome(transaction, response);
+            return transaction;
+        }
+        
+        if (response.isSuccess()) {
+            recordApproval(transaction, paymentMethod, response);
+        } else if (response.isOutcomeUnknown()) {
+            recordUnknownOutcome(transaction, response);
+            if (response instanceof PaymentGatewayService.UnknownOutcomeResponse) {
+                settleWhenKnown(transaction.getId(), paymentMethod, 
+                    ((PaymentGatewayService.UnknownOutcomeResponse) response).getPendingOutcome());
+            }
+        } else {
+            recordFailure(transaction, response);
+        }
+        return transaction;
+    }
+    
+    // Charge through the gateway; retries stay with the provider that first took the payment
+    private CompletableFuture<PaymentResponse> charge(Transaction transaction, PaymentMethod paymentMethod) {
+        // One key per attempt: the provider recognises a resend, but a new attempt after a decline is charged afresh
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put(PaymentHttpClient.IDEMPOTENCY_KEY, transaction.getId() + ":" + transaction.getRetryCount());
+        metadata.put("order_id", transaction.getOrderId());
+        
+        PaymentProvider provider = transaction.getProvider() != null 
+            ? PaymentProvider.valueOf(transaction.getProvider()) : null;
+        return PaymentGatewayService.processPayment(paymentMethod, transaction.getTotalAmount().doubleValue(),
+            transaction.getCurrency(), "Order " + transaction.getOrderId(), metadata, provider);
+    }
+    
+    // The money has been taken: record it at once, and never release coupons or retry from here on
+    private void recordApproval(Transaction transaction, PaymentMethod paymentMethod, PaymentResponse response) {
+        transaction.setProvider(response.getProvider().name());
+        transaction.setStatus(TransactionStatus.COMPLETED);
+        transaction.setProcessorTransactionId(response.getProviderTransactionId());
+        transaction.setProcessorResponse(response.getMessage());
+        
+        // Update payment details
+        PaymentDetails details = transaction.getPaymentDetails();
+        details.setProcessorName(response.getProvider().name());
+        details.setAuthorizationCode(response.getTransactionId());
+        details.setAuthorizationTime(LocalDateTime.now());
+        details.setGatewayResponse("SUCCESS");
+        
+        if (paymentMethod.getType() == PaymentMethod.PaymentType.CREDIT_CARD ||
+            paymentMethod.getType() == PaymentMethod.PaymentType.DEBIT_CARD) {
+            details.setCardLast4(lastFourDigits(paymentMethod.getMaskedCardNumber()));
+            details.setCardType(paymentMethod.getCardType());
+        }
+        
+        try {
+            saveTransaction(transaction);
+        } catch (SQLException e) {
+            // Stays PROCESSING in the table, so it is neither charged again nor lost to reconciliation
+            System.err.println("Error saving completed payment " + transaction.getId() + ": " + e.getMessage());
+        }
+        
+        // Mark payment method as used; last_used is written in the background
+        paymentMethod.markAsUsed();
+        paymentMethodCache.recordUsage(paymentMethod);
+    }
+    
+    // Coupons stay redeemed and no retry is scheduled until the provider's answer is known
+    private void recordUnknownOutcome(Transaction transaction, PaymentResponse response) {
+        if (response.getProvider() != null) {
+            transaction.setProvider(response.getProvider().name());
+        }
+        transaction.setProcessorResponse("Awaiting provider confirmation: " + response.getMessage());
+        try {
+            saveTransaction(transaction);
+        } catch (SQLException e) {
+            System.err.println("Error saving unconfirmed payment " + transaction.getId() + ": " + e.getMessage());
+        }
+    }
+    
+    // Only failures that never reached the provider are retried; a decline would only be declined again
+    private void recordFailure(Transaction transaction, PaymentResponse response) {
+        if (response.isRejectedLocally()) {
+            transaction.setProvider(response.getProvider().name());
+        }
+        transaction.setStatus(TransactionStatus.FAILED);
+        transaction.setFailureReason(response.isRejectedLocally() ? response.getMessage() 
+            : "Payment declined by processor: " + response.getMessage());
+        releaseCoupons(transaction);
+        try {
+            if (response.isRejectedLocally()) {
+                saveAndScheduleRetry(transaction);
+            } else {
+                saveTransaction(transaction);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error saving failed transaction: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Record the provider's late answer to a charge that timed out. A call that fails
+     * instead leaves the payment PROCESSING for reconciliation against the provider.
+     */
+    private void settleWhenKnown(String transactionId, PaymentMethod paymentMethod, 
+                                 CompletableFuture<PaymentResponse> pendingOutcome) {
+        if (pendingOutcome == null) {
+            return;
+        }
+        pendingOutcome.whenComplete((response, error) -> {
+            if (error != null) {
+                System.err.println("Payment " + transactionId + " left for reconciliation: " + error.getMessage());
+                return;
+            }
+            Optional<Transaction> stored = getTransactionById(transactionId);
+            if (stored.isEmpty() || stored.get().getStatus() != TransactionStatus.PROCESSING) {
+                return;
+            }
+            if (response.isSuccess()) {
+                recordApproval(stored.get(), paymentMethod, response);
+            } else {
+                recordFailure(stored.get(), response);
+            }
         });
     }
     
-    private boolean simulatePaymentGateway(Transaction transaction, PaymentMethod paymentMethod) {
-        // Simulate different success rates for different payment methods
-        double successRate;
-        switch (paymentMethod.getType()) {
-            case CREDIT_CARD:
-            case DEBIT_CARD:
-                successRate = 0.92; // 92% success
-                break;
-            case PAYPAL:
-            case APPLE_PAY:
-            case GOOGLE_PAY:
-                successRate = 0.96; // 96% success
-                break;
-            case BANK_TRANSFER:
-                successRate = 0.88; // 88% success
-                break;
-            case CASH_ON_DELIVERY:
-                successRate = 0.99; // 99% success (almost always works)
-                break;
-            default:
-                successRate = 0.85;
+    // Masked numbers look like "**** **** **** 4242"
+    private static String lastFourDigits(String maskedCardNumber) {
+        if (maskedCardNumber == null) {
+            return null;
         }
+        String digits = maskedCardNumber.replaceAll("\\D", "");
+        return digits.length() > 4 ? digits.substring(digits.length() - 4) : digits;
+    }
+    
+    // Only transient failures (system errors, a busy pipeline) are retried, through the same provider.
+    // The customer hears about the failure only once no retry is left to fix it.
+    private void saveAndScheduleRetry(Transaction transaction) throws SQLException {
+        boolean retrying = transaction.canBeRetried();
+        saveTransaction(transaction, !retrying);
+        if (retrying) {
+            PaymentRetryScheduler.getInstance().schedule(transaction,
+                transaction.getProvider() != null ? PaymentProvider.valueOf(transaction.getProvider()) : null);
+        }
+    }
+    
+    // Give back the coupons of a payment that did not go through
+    private static void releaseCoupons(Transaction transaction) {
+        CouponService.getInstance().releaseAll(transaction.getCouponCodes(), transaction.getOrderId());
+    }
+    
+    // Includes this transaction's own retry, which a manual attempt replaces
+    private void cancelPendingRetries(Transaction transaction) throws SQLException {
+        String sql = "SELECT id FROM transactions WHERE order_id = ? AND status = ?";
         
-        // Additional validation checks
-        if (transaction.getTotalAmount().compareTo(new BigDecimal("10000")) > 0) {
-            successRate *= 0.8; // Reduce success rate for large amounts
+        List<String> superseded = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            
+            stmt.setString(1, transaction.getOrderId());
+            stmt.setString(2, TransactionStatus.FAILED.name());
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                superseded.add(rs.getString("id"));
+            }
         }
         
-        return ThreadLocalRandom.current().nextDouble() < successRate;
+        for (String transactionId : superseded) {
+            PaymentRetryScheduler.getInstance().cancel(transactionId);
+        }
     }
     
     public Transaction calculateTransactionAmounts(Transaction transaction, boolean expressShipping) {
-        BigDecimal subtotal = transaction.getAmount();
-        
-        // Calculate tax
-        BigDecimal tax = subtotal.multiply(TAX_RATE).setScale(2, java.math.RoundingMode.HALF_UP);
-        transaction.setTaxAmount(tax);
+        return calculateTransactionAmounts(transaction, expressShipping, null, Set.of());
+    }
+    
+    /**
+     * Apply promotions, coupons, shipping tiers and the region's tax through the pricing engine
+     */
+    public Transaction calculateTransactionAmounts(Transaction transaction, boolean expressShipping, 
+                                                   String taxRegion, Set<String> couponCodes) {
+        List<PricingEngine.CartLine> lines = new ArrayList<>();
+        for (TransactionItem item : transaction.getItems()) {
+            lines.add(new PricingEngine.CartLine(item.getProductId(), item.getCategory(), 
+                                                 item.getQuantity(), item.getUnitPrice()));
+        }
+        if (lines.isEmpty()) {
+            // No itemisation; price the amount as a single line
+            lines.add(new PricingEngine.CartLine(null, null, 1, transaction.getAmount()));
+        }
         
-        // Calculate shipping
-        BigDecimal shipping;
-        if (subtotal.compareTo(FREE_SHIPPING_THRESHOLD) >= 0) {
-            shipping = BigDecimal.ZERO; // Free shipping
-        } else {
-            shipping = expressShipping ? EXPRESS_SHIPPING : STANDARD_SHIPPING;
+        // Only codes the customer can still use take part in pricing; they are
+        // redeemed when the payment is made and released if it fails
+        Set<String> usableCoupons = new LinkedHashSet<>();
+        for (String code : couponCodes) {
+            if (CouponService.getInstance().validate(code, transaction.getUserId()).isAccepted()) {
+                usableCoupons.add(CouponService.normalize(code));
+            }
         }
-        transaction.setShippingAmount(shipping);
+        
+        PricingEngine.PricingResult pricing = pricingEngine.price(lines, taxRegion, usableCoupons, expressShipping);
+        transaction.setCouponCodes(usableCoupons);
+        transaction.setDiscountAmount(pricing.getDiscount());
+        transaction.setTaxAmount(pricing.getTax());
+        transaction.setShippingAmount(pricing.getShipping());
         
         return transaction;
     }
     
+    /**
+     * Promotion and pricing rules used at checkout
+     */
+    public static PricingEngine getPricingEngine() {
+        return pricingEngine;
+    }
+    
+    /**
+     * Write the transaction, its items and any notification it raises in one
+     * database transaction. Completed and failed payments notify the customer
+     * through the outbox, once per transaction and status however often the
+     * status is saved.
+     */
     public void saveTransaction(Transaction transaction) throws SQLException {
+        saveTransaction(transaction, true);
+    }
+    
+    // notify is false for a failure that is about to be retried
+    private void saveTransaction(Transaction transaction, boolean notify) throws SQLException {
         String sql = """
             MERGE INTO transactions 
             (id, order_id, user_id, payment_method_id, type, status, amount, tax_amount, 
              shipping_amount, discount_amount, total_amount, currency, description, 
              created_at, updated_at, processed_at, processor_transaction_id, processor_response, 
-             failure_reason, retry_count, refund_reason, refund_transaction_id)
-            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+             failure_reason, retry_count, refund_reason, refund_transaction_id, provider, coupon_codes)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
         """;
         
-        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            
-            stmt.setString(1, transaction.getId());
-            stmt.setString(2, transaction.getOrderId());
-            stmt.setString(3, transaction.getUserId());
-            stmt.setString(4, transaction.getPaymentMethodId());
-            stmt.setString(5, transaction.getType().name());
-            stmt.setString(6, transaction.getStatus().name());
-            stmt.setBigDecimal(7, transaction.getAmount());
-            stmt.setBigDecimal(8, transaction.getTaxAmount());
-            stmt.setBigDecimal(9, transaction.getShippingAmount());
-            stmt.setBigDecimal(10, transaction.getDiscountAmount());
-            stmt.setBigDecimal(11, transaction.getTotalAmount());
-            stmt.setString(12, transaction.getCurrency());
-            stmt.setString(13, transaction.getDescription());
-            stmt.setTimestamp(14, Timestamp.valueOf(transaction.getCreatedAt()));
-            stmt.setTimestamp(15, Timestamp.valueOf(transaction.getUpdatedAt()));
-            stmt.setTimestamp(16, transaction.getProcessedAt() != null ? 
-                             Timestamp.valueOf(transaction.getProcessedAt()) : null);
-            stmt.setString(17, transaction.getProcessorTransactionId());
-            stmt.setString(18, transaction.getProcessorResponse());
-            stmt.setString(19, transaction.getFailureReason());
-            stmt.setInt(20, transaction.getRetryCount());
-            stmt.setString(21, transaction.getRefundReason());
-            stmt.setString(22, transaction.getRefundTransactionId());
-            
-            stmt.executeUpdate();
-            
-            // Save transaction items
-            saveTransactionItems(transaction);
+        boolean notified = false;
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setString(1, transaction.getId());
+                stmt.setString(2, transaction.getOrderId());
+                stmt.setString(3, transaction.getUserId());
+                stmt.setString(4, transaction.getPaymentMethodId());
+                stmt.setString(5, transaction.getType().name());
+                stmt.setString(6, transaction.getStatus().name());
+                stmt.setBigDecimal(7, transaction.getAmount());
+                stmt.setBigDecimal(8, transaction.getTaxAmount());
+                stmt.setBigDecimal(9, transaction.getShippingAmount());
+                stmt.setBigDecimal(10, transaction.getDiscountAmount());
+                stmt.setBigDecimal(11, transaction.getTotalAmount());
+                stmt.setString(12, transaction.getCurrency());
+                stmt.setString(13, transaction.getDescription());
+                stmt.setTimestamp(14, Timestamp.valueOf(transaction.getCreatedAt()));
+                stmt.setTimestamp(15, Timestamp.valueOf(transaction.getUpdatedAt()));
+                stmt.setTimestamp(16, transaction.getProcessedAt() != null ? 
+                                 Timestamp.valueOf(transaction.getProcessedAt()) : null);
+                stmt.setString(17, transaction.getProcessorTransactionId());
+                stmt.setString(18, transaction.getProcessorResponse());
+                stmt.setString(19, transaction.getFailureReason());
+                stmt.setInt(20, transaction.getRetryCount());
+                stmt.setString(21, transaction.getRefundReason());
+                stmt.setString(22, transaction.getRefundTransactionId());
+                stmt.setString(23, transaction.getProvider());
+                stmt.setString(24, CouponService.joinCodes(transaction.getCouponCodes()));
+                
+                stmt.executeUpdate();
+                
+                // Save transaction items
+                saveTransactionItems(conn, transaction);
+                
+                Notification notification = notify ? paymentNotification(transaction) : null;
+                if (notification != null) {
+                    notified = notificationOutbox.enqueue(conn,
+                        "payment:" + transaction.getId() + ":" + transaction.getStatus().name(), notification);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+        
+        if (notified) {
+            notificationOutbox.wakeUp();
         }
     }
     
-    private void saveTransactionItems(Transaction transaction) throws SQLException {
+    // Purchases notify once they succeed or fail; processing and refund states do not
+    private static Notification paymentNotification(Transaction transaction) {
+        if (transaction.getType() != TransactionType.PURCHASE) {
+            return null;
+        }
+        String amount = transaction.getCurrency() + " " + transaction.getTotalAmount();
+        switch (transaction.getStatus()) {
+            case COMPLETED:
+                return Notification.createPaymentNotification(transaction.getUserId(), transaction.getOrderId(),
+                    transaction.getId(), Notification.Type.PAYMENT_RECEIVED, amount, null);
+            case FAILED:
+                return Notification.createPaymentNotification(transaction.getUserId(), transaction.getOrderId(),
+                    transaction.getId(), Notification.Type.PAYMENT_FAILED, amount, transaction.getFailureReason());
+            default:
+                return null;
+        }
+    }
+    
+    private void saveTransactionItems(Connection conn, Transaction transaction) throws SQLException {
         // First delete existing items
         String deleteSql = "DELETE FROM transaction_items WHERE transaction_id = ?";
-        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-             PreparedStatement stmt = conn.prepareStatement(deleteSql)) {
+        try (PreparedStatement stmt = conn.prepareStatement(deleteSql)) {
             stmt.setString(1, transaction.getId());
             stmt.executeUpdate();
         }
@@ -410,11 +700,10 @@ public class PaymentService {
             VALUES (?, ?, ?, ?, ?, ?, ?, ?)
         """;
         
-        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-             PreparedStatement stmt = conn.prepareStatement(insertSql)) {
+        try (PreparedStatement stmt = conn.prepareStatement(insertSql)) {
             
             for (TransactionItem item : transaction.getItems()) {
-                stmt.setString(1, java.util.UUID.randomUUID().toString());
+                stmt.setString(1, Ids.next());
                 stmt.setString(2, transaction.getId());
                 stmt.setString(3, item.getProductId());
                 stmt.setString(4, item.getProductName());
@@ -451,22 +740,47 @@ public class PaymentService {
         return transactions;
     }
     
-    private void updatePaymentMethodUsage(PaymentMethod paymentMethod) throws SQLException {
-        String sql = "UPDATE payment_methods SET last_used = ?, last_updated = ? WHERE id = ?";
+    private Optional<Transaction> findChargeForOrder(String orderId) throws SQLException {
+        String sql = """
+            SELECT * FROM transactions 
+            WHERE order_id = ? AND status IN ('PROCESSING', 'AUTHORIZED', 'COMPLETED')
+            LIMIT 1
+        """;
         
         try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             
-            stmt.setTimestamp(1, Timestamp.valueOf(paymentMethod.getLastUsed()));
-            stmt.setTimestamp(2, Timestamp.valueOf(paymentMethod.getLastUpdated()));
-            stmt.setString(3, paymentMethod.getId());
-            stmt.executeUpdate();
+            stmt.setString(1, orderId);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? Optional.of(createTransactionFromResultSet(rs)) : Optional.empty();
+        }
+    }
+    
+    public Optional<Transaction> getTransactionById(String id) {
+        String sql = "SELECT * FROM transactions WHERE id = ?";
+        
+        try (Connection conn = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            
+            stmt.setString(1, id);
+            ResultSet rs = stmt.executeQuery();
+            
+            if (rs.next()) {
+                Transaction transaction = createTransactionFromResultSet(rs);
+                loadTransactionItems(transaction);
+                return Optional.of(transaction);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error fetching transaction: " + e.getMessage());
         }
+        
+        return Optional.empty();
     }
     
     private PaymentMethod createPaymentMethodFromResultSet(ResultSet rs) throws SQLException {
         PaymentMethod.PaymentType type = PaymentMethod.PaymentType.valueOf(rs.getString("type"));
         PaymentMethod method = new PaymentMethod(rs.getString("user_id"), type, rs.getString("display_name"));
+        method.setId(rs.getString("id"));
         
         // Set common fields
         method.setEncryptedData(rs.getString("encrypted_data"));
@@ -498,6 +812,8 @@ public class PaymentService {
             rs.getString("currency")
         );
         
+        transaction.setId(rs.getString("id"));
+        transaction.setRetryCount(rs.getInt("retry_count"));
         transaction.setStatus(TransactionStatus.valueOf(rs.getString("status")));
         transaction.setTaxAmount(rs.getBigDecimal("tax_amount"));
         transaction.setShippingAmount(rs.getBigDecimal("shipping_amount"));
@@ -508,6 +824,14 @@ public class PaymentService {
         transaction.setFailureReason(rs.getString("failure_reason"));
         transaction.setRefundReason(rs.getString("refund_reason"));
         transaction.setRefundTransactionId(rs.getString("refund_transaction_id"));
+        transaction.setProvider(rs.getString("provider"));
+        transaction.setCouponCodes(CouponService.splitCodes(rs.getString("coupon_codes")));
+        
+        // Last, since the setters above stamp the current time; the MERGE writes these back
+        transaction.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
+        transaction.setUpdatedAt(rs.getTimestamp("updated_at").toLocalDateTime());
+        Timestamp processedAt = rs.getTimestamp("processed_at");
+        transaction.setProcessedAt(processedAt != null ? processedAt.toLocalDateTime() : null);
         
         return transaction;
     }
@@ -536,10 +860,4 @@ public class PaymentService {
             transaction.setItems(items);
         }
     }
-    
-    // Utility methods
-    public BigDecimal getTaxRate() { return TAX_RATE; }
-    public BigDecimal getStandardShipping() { return STANDARD_SHIPPING; }
-    public BigDecimal getExpressShipping() { return EXPRESS_SHIPPING; }
-    public BigDecimal getFreeShippingThreshold() { return FREE_SHIPPING_THRESHOLD; }
 }
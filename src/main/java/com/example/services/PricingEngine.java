@@ -0,0 +1,544 @@
+package com.example.services;
+
+import com.example.models.Money;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Prices a cart from a set of promotion, coupon, shipping and tax rules.
+ * The active rules are compiled into a plan of hash indexes and sorted threshold
+ * tables, so pricing a cart costs one lookup per line plus a few binary searches
+ * no matter how many rules exist. The plan is rebuilt when rules change or when a
+ * rule's validity window opens or closes. All arithmetic is in integer cents.
+ *
+ * Stacking: each line gets its best product or category discount, the cart gets
+ * its best automatic cart discount, and coupon discounts stack on top; the total
+ * discount never exceeds the subtotal. Shipping tiers and free shipping use the
+ * discounted subtotal, and tax is charged on the discounted subtotal.
+ */
+public class PricingEngine {
+    private static final long NEVER = Long.MAX_VALUE;
+    private static final int BASIS_POINTS = 10_000;
+
+    private static PricingEngine instance;
+
+    private final Map<String, PricingRule> rules = new HashMap<>();
+    private volatile CompiledPlan plan;
+
+    public enum RuleType {
+        PRODUCT_PERCENT_OFF,
+        CATEGORY_PERCENT_OFF,
+        CART_PERCENT_OFF,
+        CART_AMOUNT_OFF,
+        FREE_SHIPPING,
+        SHIPPING_TIER,
+        TAX_RATE
+    }
+
+    // One promotion, shipping or tax rule; amounts are stored in cents and rates in basis points
+    public static class PricingRule {
+        private final String id;
+        private final RuleType type;
+        private final String target;            // Product id, category or tax region
+        private final long minSubtotalCents;
+        private final int basisPoints;
+        private final long amountCents;
+        private final long expressAmountCents;
+        private String couponCode;
+        private long validFromMillis = Long.MIN_VALUE;
+        private long validToMillis = NEVER;
+
+        private PricingRule(String id, RuleType type, String target, long minSubtotalCents,
+                            int basisPoints, long amountCents, long expressAmountCents) {
+            this.id = id;
+            this.type = type;
+            this.target = target;
+            this.minSubtotalCents = minSubtotalCents;
+            this.basisPoints = basisPoints;
+            this.amountCents = amountCents;
+            this.expressAmountCents = expressAmountCents;
+        }
+
+        public static PricingRule productPercentOff(String id, String productId, BigDecimal percent) {
+            return new PricingRule(id, RuleType.PRODUCT_PERCENT_OFF, productId, 0, percentToBasisPoints(percent), 0, 0);
+        }
+
+        public static PricingRule categoryPercentOff(String id, String category, BigDecimal percent) {
+            return new PricingRule(id, RuleType.CATEGORY_PERCENT_OFF, category, 0, percentToBasisPoints(percent), 0, 0);
+        }
+
+        public static PricingRule cartPercentOff(String id, BigDecimal minSubtotal, BigDecimal percent) {
+            return new PricingRule(id, RuleType.CART_PERCENT_OFF, null, toCents(minSubtotal), percentToBasisPoints(percent), 0, 0);
+        }
+
+        public static PricingRule cartAmountOff(String id, BigDecimal minSubtotal, BigDecimal amount) {
+            return new PricingRule(id, RuleType.CART_AMOUNT_OFF, null, toCents(minSubtotal), 0, toCents(amount), 0);
+        }
+
+        public static PricingRule freeShipping(String id, BigDecimal minSubtotal) {
+            return new PricingRule(id, RuleType.FREE_SHIPPING, null, toCents(minSubtotal), 0, 0, 0);
+        }
+
+        public static PricingRule shippingTier(String id, BigDecimal minSubtotal, BigDecimal standardRate, BigDecimal expressRate) {
+            return new PricingRule(id, RuleType.SHIPPING_TIER, null, toCents(minSubtotal), 0, toCents(standardRate), toCents(expressRate));
+        }
+
+        /**
+         * Tax rate for a region, e.g. 0.085; a null region sets the default rate
+         */
+        public static PricingRule taxRate(String id, String region, BigDecimal rate) {
+            return new PricingRule(id, RuleType.TAX_RATE, region, 0, rate.movePointRight(4).intValueExact(), 0, 0);
+        }
+
+        /**
+         * Only apply when the customer enters this coupon code
+         */
+        public PricingRule withCoupon(String couponCode) {
+            this.couponCode = couponCode;
+            return this;
+        }
+
+        /**
+         * Only apply between the two times; either may be null for an open end
+         */
+        public PricingRule validBetween(LocalDateTime from, LocalDateTime to) {
+            this.validFromMillis = from != null ? toEpochMillis(from) : Long.MIN_VALUE;
+            this.validToMillis = to != null ? toEpochMillis(to) : NEVER;
+            return this;
+        }
+
+        public String getId() { return id; }
+        public RuleType getType() { return type; }
+        public String getTarget() { return target; }
+        public String getCouponCode() { return couponCode; }
+
+        boolean isActiveAt(long millis) {
+            return millis >= validFromMillis && millis < validToMillis;
+        }
+
+        boolean isLineRule() {
+            return type == RuleType.PRODUCT_PERCENT_OFF || type == RuleType.CATEGORY_PERCENT_OFF;
+        }
+
+        boolean appliesToLine(CartLine line) {
+            return type == RuleType.PRODUCT_PERCENT_OFF ? target.equals(line.productId) : target.equals(line.category);
+        }
+    }
+
+    public static class CartLine {
+        private final String productId;
+        private final String category;
+        private final int quantity;
+        private final long unitPriceCents;
+
+        public CartLine(String productId, String category, int quantity, BigDecimal unitPrice) {
+            this(productId, category, quantity, toCents(unitPrice));
+        }
+
+        public CartLine(String productId, String category, int quantity, long unitPriceCents) {
+            this.productId = productId;
+            this.category = category;
+            this.quantity = quantity;
+            this.unitPriceCents = unitPriceCents;
+        }
+
+        public String getProductId() { return productId; }
+        public String getCategory() { return category; }
+        public int getQuantity() { return quantity; }
+        public long getUnitPriceCents() { return unitPriceCents; }
+    }
+
+    public static class PricingResult {
+        private final long subtotalCents;
+        private final long discountCents;
+        private final long shippingCents;
+        private final long taxCents;
+        private final List<String> appliedRuleIds;
+
+        PricingResult(long subtotalCents, long discountCents, long shippingCents, long taxCents, List<String> appliedRuleIds) {
+            this.subtotalCents = subtotalCents;
+            this.discountCents = discountCents;
+            this.shippingCents = shippingCents;
+            this.taxCents = taxCents;
+            this.appliedRuleIds = appliedRuleIds;
+        }
+
+        public long getSubtotalCents() { return subtotalCents; }
+        public long getDiscountCents() { return discountCents; }
+        public long getShippingCents() { return shippingCents; }
+        public long getTaxCents() { return taxCents; }
+        public long getTotalCents() { return subtotalCents - discountCents + shippingCents + taxCents; }
+        public List<String> getAppliedRuleIds() { return appliedRuleIds; }
+
+        public BigDecimal getSubtotal() { return BigDecimal.valueOf(subtotalCents, 2); }
+        public BigDecimal getDiscount() { return BigDecimal.valueOf(discountCents, 2); }
+        public BigDecimal getShipping() { return BigDecimal.valueOf(shippingCents, 2); }
+        public BigDecimal getTax() { return BigDecimal.valueOf(taxCents, 2); }
+        public BigDecimal getTotal() { return BigDecimal.valueOf(getTotalCents(), 2); }
+
+        @Override
+        public String toString() {
+            return String.format("PricingResult{subtotal=%s, discount=%s, shipping=%s, tax=%s, total=%s, rules=%s}",
+                getSubtotal(), getDiscount(), getShipping(), getTax(), getTotal(), appliedRuleIds);
+        }
+    }
+
+    public PricingEngine(Collection<PricingRule> initialRules) {
+        initialRules.forEach(rule -> rules.put(rule.getId(), rule));
+        this.plan = compile(rules.values(), System.currentTimeMillis());
+    }
+
+    /**
+     * Engine seeded with the checkout defaults: 8.5% tax, $5.99 / $12.99 shipping,
+     * free shipping from $50
+     */
+    public static synchronized PricingEngine getInstance() {
+        if (instance == null) {
+            instance = new PricingEngine(defaultRules());
+        }
+        return instance;
+    }
+
+    public static List<PricingRule> defaultRules() {
+        List<PricingRule> defaults = new ArrayList<>();
+        defaults.add(PricingRule.taxRate("tax-default", null, new BigDecimal("0.085")));
+        defaults.add(PricingRule.shippingTier("shipping-base", BigDecimal.ZERO, new BigDecimal("5.99"), new BigDecimal("12.99")));
+        defaults.add(PricingRule.freeShipping("shipping-free-over-50", new BigDecimal("50.00")));
+        return defaults;
+    }
+
+    public synchronized void addRule(PricingRule rule) {
+        rules.put(rule.getId(), rule);
+        plan = compile(rules.values(), System.currentTimeMillis());
+    }
+
+    public synchronized void addRules(Collection<PricingRule> newRules) {
+        newRules.forEach(rule -> rules.put(rule.getId(), rule));
+        plan = compile(rules.values(), System.currentTimeMillis());
+    }
+
+    public synchronized boolean removeRule(String ruleId) {
+        boolean removed = rules.remove(ruleId) != null;
+        if (removed) {
+            plan = compile(rules.values(), System.currentTimeMillis());
+        }
+        return removed;
+    }
+
+    public synchronized List<PricingRule> getRules() {
+        return new ArrayList<>(rules.values());
+    }
+
+    /**
+     * Price a cart for a tax region (null for the default rate) and the coupons entered
+     */
+    public PricingResult price(List<CartLine> lines, String region, Set<String> couponCodes, boolean expressShipping) {
+        return currentPlan().price(lines, region, couponCodes != null ? couponCodes : Collections.emptySet(), expressShipping);
+    }
+
+    // Rebuild once a validity window has opened or closed since the last compile
+    private CompiledPlan currentPlan() {
+        CompiledPlan current = plan;
+        long now = System.currentTimeMillis();
+        if (now < current.nextChangeAtMillis) {
+            return current;
+        }
+        synchronized (this) {
+            if (now >= plan.nextChangeAtMillis) {
+                plan = compile(rules.values(), now);
+            }
+            return plan;
+        }
+    }
+
+    /**
+     * Evaluation plan for the rules active at one point in time
+     */
+    private static final class CompiledPlan {
+        private final long nextChangeAtMillis;
+        private final Map<String, PricingRule> bestByProduct;
+        private final Map<String, PricingRule> bestByCategory;
+        private final Map<String, PricingRule[]> byCoupon;
+
+        // Automatic cart discounts sorted by threshold, with the best rule seen so far at each position
+        private final long[] cartPercentThresholds;
+        private final PricingRule[] cartPercentBest;
+        private final long[] cartAmountThresholds;
+        private final PricingRule[] cartAmountBest;
+
+        private final PricingRule freeShipping;       // Lowest automatic free-shipping threshold
+        private final long[] shippingThresholds;
+        private final PricingRule[] shippingTiers;
+        private final Map<String, PricingRule> taxByRegion;
+        private final PricingRule defaultTax;
+
+        CompiledPlan(long nextChangeAtMillis, Map<String, PricingRule> bestByProduct, Map<String, PricingRule> bestByCategory,
+                     Map<String, PricingRule[]> byCoupon, List<PricingRule> cartPercent, List<PricingRule> cartAmount,
+                     PricingRule freeShipping, List<PricingRule> shippingTiers, Map<String, PricingRule> taxByRegion,
+                     PricingRule defaultTax) {
+            this.nextChangeAtMillis = nextChangeAtMillis;
+            this.bestByProduct = bestByProduct;
+            this.bestByCategory = bestByCategory;
+            this.byCoupon = byCoupon;
+            this.freeShipping = freeShipping;
+            this.taxByRegion = taxByRegion;
+            this.defaultTax = defaultTax;
+
+            cartPercent.sort(Comparator.comparingLong(r -> r.minSubtotalCents));
+            this.cartPercentThresholds = thresholds(cartPercent);
+            this.cartPercentBest = runningBest(cartPercent, Comparator.comparingInt(r -> r.basisPoints));
+
+            cartAmount.sort(Comparator.comparingLong(r -> r.minSubtotalCents));
+            this.cartAmountThresholds = thresholds(cartAmount);
+            this.cartAmountBest = runningBest(cartAmount, Comparator.comparingLong(r -> r.amountCents));
+
+            shippingTiers.sort(Comparator.comparingLong(r -> r.minSubtotalCents));
+            this.shippingThresholds = thresholds(shippingTiers);
+            this.shippingTiers = shippingTiers.toArray(new PricingRule[0]);
+        }
+
+        PricingResult price(List<CartLine> lines, String region, Set<String> couponCodes, boolean express) {
+            List<String> applied = new ArrayList<>(4);
+            List<PricingRule> couponRules = couponRules(couponCodes);
+
+            long subtotal = 0;
+            long discount = 0;
+            for (int i = 0, n = lines.size(); i < n; i++) {
+                CartLine line = lines.get(i);
+                long lineTotal = line.unitPriceCents * line.quantity;
+                subtotal += lineTotal;
+
+                PricingRule best = better(bestByProduct.get(line.productId), bestByCategory.get(line.category));
+                for (int c = 0; c < couponRules.size(); c++) {
+                    PricingRule rule = couponRules.get(c);
+                    if (rule.isLineRule() && rule.appliesToLine(line)) {
+                        best = better(best, rule);
+                    }
+                }
+                if (best != null) {
+                    discount += applyBasisPoints(lineTotal, best.basisPoints);
+                    addOnce(applied, best.id);
+                }
+            }
+
+            // Best automatic cart discount, then coupons on top
+            long afterLines = subtotal - discount;
+            PricingRule percentRule = bestAtOrBelow(cartPercentThresholds, cartPercentBest, afterLines);
+            PricingRule amountRule = bestAtOrBelow(cartAmountThresholds, cartAmountBest, afterLines);
+            long percentOff = percentRule != null ? applyBasisPoints(afterLines, percentRule.basisPoints) : 0;
+            long amountOff = amountRule != null ? amountRule.amountCents : 0;
+            if (percentOff > 0 || amountOff > 0) {
+                discount += Math.max(percentOff, amountOff);
+                applied.add(percentOff >= amountOff ? percentRule.id : amountRule.id);
+            }
+
+            boolean couponFreeShipping = false;
+            for (int c = 0; c < couponRules.size(); c++) {
+                PricingRule rule = couponRules.get(c);
+                if (rule.isLineRule() || afterLines < rule.minSubtotalCents) {
+                    continue;
+                }
+                if (rule.type == RuleType.CART_PERCENT_OFF) {
+                    discount += applyBasisPoints(afterLines, rule.basisPoints);
+                    applied.add(rule.id);
+                } else if (rule.type == RuleType.CART_AMOUNT_OFF) {
+                    discount += rule.amountCents;
+                    applied.add(rule.id);
+                } else if (rule.type == RuleType.FREE_SHIPPING) {
+                    couponFreeShipping = true;
+                    applied.add(rule.id);
+                }
+            }
+            discount = Math.min(discount, subtotal);
+            long discounted = subtotal - discount;
+
+            long shipping = 0;
+            if (couponFreeShipping) {
+                shipping = 0;
+            } else if (freeShipping != null && discounted >= freeShipping.minSubtotalCents) {
+                applied.add(freeShipping.id);
+            } else {
+                int tier = indexAtOrBelow(shippingThresholds, discounted);
+                if (tier >= 0) {
+                    PricingRule rule = shippingTiers[tier];
+                    shipping = express ? rule.expressAmountCents : rule.amountCents;
+                }
+            }
+
+            PricingRule tax = region != null ? taxByRegion.getOrDefault(region, defaultTax) : defaultTax;
+            long taxCents = tax != null ? applyBasisPoints(discounted, tax.basisPoints) : 0;
+
+            return new PricingResult(subtotal, discount, shipping, taxCents, applied);
+        }
+
+        private List<PricingRule> couponRules(Set<String> couponCodes) {
+            if (couponCodes.isEmpty()) {
+                return Collections.emptyList();
+            }
+            List<PricingRule> matched = new ArrayList<>();
+            for (String code : couponCodes) {
+                PricingRule[] forCode = byCoupon.get(normalizeCouponCode(code));
+                if (forCode != null) {
+                    matched.addAll(Arrays.asList(forCode));
+                }
+            }
+            return matched;
+        }
+    }
+
+    /**
+     * Canonical form of a coupon code, shared with CouponService so a code typed with
+     * stray spaces or in lower case finds both its rules and its redemption counter
+     */
+    static String normalizeCouponCode(String code) {
+        return code.trim().toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Index the rules active at the given time and note when that set next changes
+     */
+    static CompiledPlan compile(Collection<PricingRule> allRules, long nowMillis) {
+        long nextChange = NEVER;
+        Map<String, PricingRule> bestByProduct = new HashMap<>();
+        Map<String, PricingRule> bestByCategory = new HashMap<>();
+        Map<String, List<PricingRule>> byCoupon = new HashMap<>();
+        List<PricingRule> cartPercent = new ArrayList<>();
+        List<PricingRule> cartAmount = new ArrayList<>();
+        List<PricingRule> shippingTiers = new ArrayList<>();
+        Map<String, PricingRule> taxByRegion = new HashMap<>();
+        PricingRule freeShipping = null;
+        PricingRule defaultTax = null;
+
+        for (PricingRule rule : allRules) {
+            if (rule.validFromMillis > nowMillis) {
+                nextChange = Math.min(nextChange, rule.validFromMillis);
+                continue;
+            }
+            if (rule.validToMillis <= nowMillis) {
+                continue;
+            }
+            nextChange = Math.min(nextChange, rule.validToMillis);
+
+            if (rule.couponCode != null) {
+                byCoupon.computeIfAbsent(normalizeCouponCode(rule.couponCode), c -> new ArrayList<>()).add(rule);
+                continue;
+            }
+
+            switch (rule.type) {
+                case PRODUCT_PERCENT_OFF:
+                    bestByProduct.merge(rule.target, rule, PricingEngine::better);
+                    break;
+                case CATEGORY_PERCENT_OFF:
+                    bestByCategory.merge(rule.target, rule, PricingEngine::better);
+                    break;
+                case CART_PERCENT_OFF:
+                    cartPercent.add(rule);
+                    break;
+                case CART_AMOUNT_OFF:
+                    cartAmount.add(rule);
+                    break;
+                case FREE_SHIPPING:
+                    if (freeShipping == null || rule.minSubtotalCents < freeShipping.minSubtotalCents) {
+                        freeShipping = rule;
+                    }
+                    break;
+                case SHIPPING_TIER:
+                    shippingTiers.add(rule);
+                    break;
+                case TAX_RATE:
+                    if (rule.target == null) {
+                        defaultTax = rule;
+                    } else {
+                        taxByRegion.put(rule.target, rule);
+                    }
+                    break;
+            }
+        }
+
+        Map<String, PricingRule[]> couponIndex = new HashMap<>();
+        byCoupon.forEach((code, list) -> couponIndex.put(code, list.toArray(new PricingRule[0])));
+
+        return new CompiledPlan(nextChange, bestByProduct, bestByCategory, couponIndex, cartPercent, cartAmount,
+            freeShipping, shippingTiers, taxByRegion, defaultTax);
+    }
+
+    private static PricingRule better(PricingRule a, PricingRule b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return b.basisPoints > a.basisPoints ? b : a;
+    }
+
+    private static long[] thresholds(List<PricingRule> sorted) {
+        long[] thresholds = new long[sorted.size()];
+        for (int i = 0; i < thresholds.length; i++) {
+            thresholds[i] = sorted.get(i).minSubtotalCents;
+        }
+        return thresholds;
+    }
+
+    private static PricingRule[] runningBest(List<PricingRule> sorted, Comparator<PricingRule> order) {
+        PricingRule[] best = new PricingRule[sorted.size()];
+        for (int i = 0; i < best.length; i++) {
+            PricingRule rule = sorted.get(i);
+            best[i] = i == 0 || order.compare(rule, best[i - 1]) > 0 ? rule : best[i - 1];
+        }
+        return best;
+    }
+
+    private static PricingRule bestAtOrBelow(long[] thresholds, PricingRule[] best, long value) {
+        int index = indexAtOrBelow(thresholds, value);
+        return index >= 0 ? best[index] : null;
+    }
+
+    // Last position whose threshold is <= value, or -1
+    private static int indexAtOrBelow(long[] thresholds, long value) {
+        int low = 0;
+        int high = thresholds.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (thresholds[mid] <= value) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    // Half-up rounding, matching the BigDecimal rounding used elsewhere at checkout
+    private static long applyBasisPoints(long cents, int basisPoints) {
+        return (cents * basisPoints + BASIS_POINTS / 2) / BASIS_POINTS;
+    }
+
+    private static void addOnce(List<String> ids, String id) {
+        if (!ids.contains(id)) {
+            ids.add(id);
+        }
+    }
+
+    static long toCents(BigDecimal amount) {
+        return Money.toMinor(amount);
+    }
+
+    private static int percentToBasisPoints(BigDecimal percent) {
+        return percent.movePointRight(2).setScale(0, RoundingMode.HALF_UP).intValueExact();
+    }
+
+    private static long toEpochMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.services;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call counters and latency statistics for a single payment provider.
+ * Lifetime totals are kept alongside a rolling window of recent calls, which
+ * drives latency percentiles and the recent success rate used for routing.
+ * Calls older than the window age no longer count, so a provider that was
+ * demoted and stopped receiving traffic drifts back to neutral and gets retried.
+ */
+public class ProviderMetrics {
+    private static final int DEFAULT_WINDOW_SIZE = 512;
+    private static final long DEFAULT_WINDOW_AGE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder declines = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder totalLatencyNanos = new LongAdder();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    // Rolling window of recent calls, guarded by this
+    private final long[] windowLatencies;
+    private final boolean[] windowHealthy;
+    private final long[] windowRecordedAt;
+    private final long windowAgeNanos;
+    private int windowPosition;
+    private int windowCount;
+
+    public ProviderMetrics() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_WINDOW_AGE_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    public ProviderMetrics(int windowSize) {
+        this(windowSize, DEFAULT_WINDOW_AGE_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param windowSize maximum number of recent calls kept
+     * @param windowAge how long a call stays in the window
+     */
+    public ProviderMetrics(int windowSize, long windowAge, TimeUnit unit) {
+        this.windowLatencies = new long[windowSize];
+        this.windowHealthy = new boolean[windowSize];
+        this.windowRecordedAt = new long[windowSize];
+        this.windowAgeNanos = unit.toNanos(windowAge);
+    }
+
+    public void recordSuccess(long latencyNanos) {
+        successes.increment();
+        recordLatency(latencyNanos, true);
+    }
+
+    // Provider answered but refused the payment (e.g. invalid card)
+    public void recordDecline(long latencyNanos) {
+        declines.increment();
+        recordLatency(latencyNanos, true);
+    }
+
+    public void recordFailure(long latencyNanos) {
+        failures.increment();
+        recordLatency(latencyNanos, false);
+    }
+
+    public void recordTimeout(long latencyNanos) {
+        timeouts.increment();
+        recordLatency(latencyNanos, false);
+    }
+
+    // Call refused locally by the bulkhead or an open circuit
+    public void recordRejection() {
+        rejections.increment();
+    }
+
+    private void recordLatency(long latencyNanos, boolean healthy) {
+        totalLatencyNanos.add(latencyNanos);
+        maxLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+
+        synchronized (this) {
+            windowLatencies[windowPosition] = latencyNanos;
+            windowHealthy[windowPosition] = healthy;
+            windowRecordedAt[windowPosition] = System.nanoTime();
+            windowPosition = (windowPosition + 1) % windowLatencies.length;
+            windowCount = Math.min(windowCount + 1, windowLatencies.length);
+        }
+    }
+
+    /**
+     * Number of calls currently in the rolling window
+     */
+    public synchronized int getRecentSampleCount() {
+        long cutoff = System.nanoTime() - windowAgeNanos;
+        int live = 0;
+        for (int i = 0; i < windowCount; i++) {
+            if (windowRecordedAt[i] - cutoff >= 0) {
+                live++;
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Share of recent calls that got an answer (success or decline) from the provider
+     */
+    public synchronized double getRecentSuccessRate() {
+        long cutoff = System.nanoTime() - windowAgeNanos;
+        int live = 0;
+        int healthy = 0;
+        for (int i = 0; i < windowCount; i++) {
+            if (windowRecordedAt[i] - cutoff >= 0) {
+                live++;
+                if (windowHealthy[i]) {
+                    healthy++;
+                }
+            }
+        }
+        return live == 0 ? 1.0 : (double) healthy / live;
+    }
+
+    /**
+     * Latency percentile over the rolling window, e.g. 0.99 for p99
+     */
+    public double getRecentLatencyPercentileMillis(double percentile) {
+        long[] samples;
+        synchronized (this) {
+            long cutoff = System.nanoTime() - windowAgeNanos;
+            samples = new long[windowCount];
+            int live = 0;
+            for (int i = 0; i < windowCount; i++) {
+                if (windowRecordedAt[i] - cutoff >= 0) {
+                    samples[live++] = windowLatencies[i];
+                }
+            }
+            if (live == 0) {
+                return 0.0;
+            }
+            samples = Arrays.copyOf(samples, live);
+        }
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(percentile * samples.length) - 1;
+        index = Math.max(0, Math.min(samples.length - 1, index));
+        return TimeUnit.NANOSECONDS.toMicros(samples[index]) / 1000.0;
+    }
+
+    public long getSuccessCount() { return successes.sum(); }
+    public long getDeclineCount() { return declines.sum(); }
+    public long getFailureCount() { return failures.sum(); }
+    public long getTimeoutCount() { return timeouts.sum(); }
+    public long getRejectionCount() { return rejections.sum(); }
+
+    public long getCompletedCount() {
+        return getSuccessCount() + getDeclineCount() + getFailureCount() + getTimeoutCount();
+    }
+
+    public double getErrorRate() {
+        long completed = getCompletedCount();
+        return completed == 0 ? 0.0 : (double) (getFailureCount() + getTimeoutCount()) / completed;
+    }
+
+    public double getAverageLatencyMillis() {
+        long completed = getCompletedCount();
+        return completed == 0 ? 0.0 : (double) TimeUnit.NANOSECONDS.toMicros(totalLatencyNanos.sum()) / completed / 1000.0;
+    }
+
+    public double getMaxLatencyMillis() {
+        return TimeUnit.NANOSECONDS.toMicros(maxLatencyNanos.get()) / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ProviderMetrics{success=%d, declined=%d, failed=%d, timedOut=%d, rejected=%d, avgMs=%.1f, maxMs=%.1f}",
+                getSuccessCount(), getDeclineCount(), getFailureCount(), getTimeoutCount(), getRejectionCount(),
+                getAverageLatencyMillis(), getMaxLatencyMillis());
+    }
+}
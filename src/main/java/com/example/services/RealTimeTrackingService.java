@@ -16,7 +16,10 @@ public class RealTimeTrackingService {
     
     private static final ExecutorService executorService = Executors.newCachedThreadPool();
     private static final Map<String, TrackingSession> activeSessions = new ConcurrentHashMap<>();
-    private static final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(5);
+    // One wheel drives every session's updates; 100ms is far finer than they need
+    static final TimingWheel timers = new TimingWheel("tracking", 100, 2);
+    static final long FIRST_UPDATE_SECONDS = 30;
+    private static final long UPDATE_PERIOD_SECONDS = 60;
     
     // Order status enumeration
     public enum OrderStatus {
@@ -96,7 +99,9 @@ public class RealTimeTrackingService {
         private final LocalDateTime startTime;
         private OrderStatus currentStatus;
         private LocationData lastKnownLocation;
-        private ScheduledFuture<?> simulationTask;
+        private TimingWheel.Timeout simulationTask;
+        // Simulation updates so far; the session's age follows from it without reading the clock
+        private int simulatedUpdates;
         
         public TrackingSession(String orderId, String customerId, Consumer<TrackingUpdate> updateCallback) {
             this.orderId = orderId;
@@ -132,27 +137,29 @@ public class RealTimeTrackingService {
         
         public void startSimulation() {
             // Simulate realistic order progression
-            simulationTask = scheduler.scheduleAtFixedRate(() -> {
+            simulationTask = timers.scheduleAtFixedRate(() -> {
                 try {
                     simulateOrderProgress();
                 } catch (Exception e) {
                     System.err.println("Error in tracking simulation: " + e.getMessage());
                 }
-            }, 30, 60, TimeUnit.SECONDS); // Update every 60 seconds after initial 30 seconds
+            }, FIRST_UPDATE_SECONDS, UPDATE_PERIOD_SECONDS, TimeUnit.SECONDS);
         }
         
         public void stopSimulation() {
-            if (simulationTask != null && !simulationTask.isCancelled()) {
-                simulationTask.cancel(false);
+            if (simulationTask != null) {
+                simulationTask.cancel();
             }
         }
         
         private void simulateOrderProgress() {
+            long elapsedSeconds = FIRST_UPDATE_SECONDS + simulatedUpdates++ * UPDATE_PERIOD_SECONDS;
+            
             // Simulate realistic order status progression with locations
             switch (currentStatus) {
                 case PLACED:
                     // After 2 minutes, move to preparing
-                    if (LocalDateTime.now().isAfter(startTime.plusMinutes(2))) {
+                    if (elapsedSeconds > 2 * 60) {
                         LocationData farmLocation = new LocationData(40.7128, -74.0060, "Green Valley Farm, California");
                         updateStatus(OrderStatus.PREPARING, farmLocation, 
                             "Farmer John is preparing your fresh produce order", 
@@ -162,7 +169,7 @@ public class RealTimeTrackingService {
                     
                 case PREPARING:
                     // After 15 minutes total, move to picked up
-                    if (LocalDateTime.now().isAfter(startTime.plusMinutes(15))) {
+                    if (elapsedSeconds > 15 * 60) {
                         LocationData pickupLocation = new LocationData(40.7589, -73.9851, "Farm Gate - Ready for Pickup");
                         updateStatus(OrderStatus.PICKED_UP, pickupLocation,
                             "Order has been picked up by our delivery partner",
@@ -172,7 +179,7 @@ public class RealTimeTrackingService {
                     
                 case PICKED_UP:
                     // After 25 minutes total, move to in transit
-                    if (LocalDateTime.now().isAfter(startTime.plusMinutes(25))) {
+                    if (elapsedSeconds > 25 * 60) {
                         LocationData transitLocation = new LocationData(40.7614, -73.9776, "Highway 101 - En Route");
                         updateStatus(OrderStatus.IN_TRANSIT, transitLocation,
                             "Your order is in transit to the distribution center",
@@ -183,7 +190,7 @@ public class RealTimeTrackingService {
                     
                 case IN_TRANSIT:
                     // After 45 minutes total, move to out for delivery
-                    if (LocalDateTime.now().isAfter(startTime.plusMinutes(45))) {
+                    if (elapsedSeconds > 45 * 60) {
                         LocationData deliveryLocation = new LocationData(40.7505, -73.9934, "Downtown Distribution Center");
                         updateStatus(OrderStatus.OUT_FOR_DELIVERY, deliveryLocation,
                             "Your order is out for final delivery",
@@ -194,7 +201,7 @@ public class RealTimeTrackingService {
                     
                 case OUT_FOR_DELIVERY:
                     // After 60 minutes total, deliver
-                    if (LocalDateTime.now().isAfter(startTime.plusMinutes(60))) {
+                    if (elapsedSeconds > 60 * 60) {
                         LocationData deliveredLocation = new LocationData(40.7831, -73.9712, "123 Customer Street, New York");
                         updateStatus(OrderStatus.DELIVERED, deliveredLocation,
                             "Order delivered successfully! Thank you for your purchase.",
@@ -362,18 +369,14 @@ public class RealTimeTrackingService {
         activeSessions.clear();
         
         // Shutdown executors
-        scheduler.shutdown();
+        timers.stop();
         executorService.shutdown();
         
         try {
-            if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
-                scheduler.shutdownNow();
-            }
             if (!executorService.awaitTermination(5, TimeUnit.SECONDS)) {
                 executorService.shutdownNow();
             }
         } catch (InterruptedException e) {
-            scheduler.shutdownNow();
             executorService.shutdownNow();
             Thread.currentThread().interrupt();
         }
@@ -0,0 +1,378 @@
+package com.example.services;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Batch job that reconciles the transactions table against provider settlement records.
+ * The date range is cut into time slices that are streamed and matched in parallel,
+ * each on its own connection, against settlement records indexed by processor
+ * transaction id. Settlement records nobody claimed are reported at the end,
+ * unless the ledger has them outside the reconciled range.
+ */
+public class ReconciliationJob {
+    private static final String DB_URL = "jdbc:h2:./agro_db";
+    private static final String DB_USER = "sa";
+    private static final String DB_PASSWORD = "";
+
+    // Throughput goal: 1M transactions in under a minute
+    public static final double TARGET_TRANSACTIONS_PER_SECOND = 1_000_000 / 60.0;
+
+    private static final int FETCH_SIZE = 10_000;
+    private static final int LOOKUP_BATCH_SIZE = 500;
+    private static final int DEFAULT_MAX_REPORTED_MISMATCHES = 100_000;
+
+    private final String dbUrl;
+    private final int parallelism;
+    private final int maxReportedMismatches;
+
+    public enum MismatchType {
+        MISSING_AT_PROVIDER,    // We captured it, the provider has no record
+        MISSING_IN_LEDGER,      // The provider settled it, we have no record
+        AMOUNT_MISMATCH,
+        CURRENCY_MISMATCH,
+        STATUS_MISMATCH
+    }
+
+    // One line of a provider settlement file
+    public static class SettlementRecord {
+        private final String processorTransactionId;
+        private final long amountMinor;
+        private final String currency;
+        private final String status;
+
+        public SettlementRecord(String processorTransactionId, long amountMinor, String currency, String status) {
+            this.processorTransactionId = processorTransactionId;
+            this.amountMinor = amountMinor;
+            this.currency = currency;
+            this.status = status;
+        }
+
+        public String getProcessorTransactionId() { return processorTransactionId; }
+        public long getAmountMinor() { return amountMinor; }
+        public String getCurrency() { return currency; }
+        public String getStatus() { return status; }
+    }
+
+    public static class Mismatch {
+        private final MismatchType type;
+        private final String transactionId;
+        private final String processorTransactionId;
+        private final String detail;
+
+        Mismatch(MismatchType type, String transactionId, String processorTransactionId, String detail) {
+            this.type = type;
+            this.transactionId = transactionId;
+            this.processorTransactionId = processorTransactionId;
+            this.detail = detail;
+        }
+
+        public MismatchType getType() { return type; }
+        public String getTransactionId() { return transactionId; }
+        public String getProcessorTransactionId() { return processorTransactionId; }
+        public String getDetail() { return detail; }
+    }
+
+    public static class ReconciliationReport {
+        private final long transactionsScanned;
+        private final long matched;
+        private final Map<MismatchType, Long> mismatchCounts;
+        private final List<Mismatch> mismatches;
+        private final Duration elapsed;
+
+        ReconciliationReport(long transactionsScanned, long matched, Map<MismatchType, Long> mismatchCounts,
+                             List<Mismatch> mismatches, Duration elapsed) {
+            this.transactionsScanned = transactionsScanned;
+            this.matched = matched;
+            this.mismatchCounts = mismatchCounts;
+            this.mismatches = mismatches;
+            this.elapsed = elapsed;
+        }
+
+        public long getTransactionsScanned() { return transactionsScanned; }
+        public long getMatchedCount() { return matched; }
+        public Map<MismatchType, Long> getMismatchCounts() { return mismatchCounts; }
+        public long getMismatchCount() { return mismatchCounts.values().stream().mapToLong(Long::longValue).sum(); }
+        public List<Mismatch> getMismatches() { return mismatches; }
+        public Duration getElapsed() { return elapsed; }
+
+        public double getTransactionsPerSecond() {
+            return transactionsScanned / Math.max(0.001, elapsed.toNanos() / 1e9);
+        }
+
+        public boolean meetsThroughputTarget() {
+            return getTransactionsPerSecond() >= TARGET_TRANSACTIONS_PER_SECOND;
+        }
+
+        /**
+         * Write the recorded mismatches as CSV: type,transaction_id,processor_transaction_id,detail
+         */
+        public void writeCsv(Path file) throws IOException {
+            try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+                writer.write("type,transaction_id,processor_transaction_id,detail");
+                writer.newLine();
+                for (Mismatch mismatch : mismatches) {
+                    writer.write(mismatch.type + "," + nullToEmpty(mismatch.transactionId) + ","
+                        + nullToEmpty(mismatch.processorTransactionId) + "," + mismatch.detail.replace(',', ';'));
+                    writer.newLine();
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Reconciled %d transactions in %.2fs (%.0f/s, target %.0f/s %s): matched=%d, mismatches=%s",
+                transactionsScanned, elapsed.toNanos() / 1e9, getTransactionsPerSecond(), TARGET_TRANSACTIONS_PER_SECOND,
+                meetsThroughputTarget() ? "met" : "missed", matched, mismatchCounts);
+        }
+    }
+
+    public ReconciliationJob() {
+        this(DB_URL, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_REPORTED_MISMATCHES);
+    }
+
+    public ReconciliationJob(String dbUrl, int parallelism, int maxReportedMismatches) {
+        this.dbUrl = dbUrl;
+        this.parallelism = parallelism;
+        this.maxReportedMismatches = maxReportedMismatches;
+        ensureIndex();
+    }
+
+    // Time-slice scans need created_at indexed, leftover lookups processor_transaction_id
+    private void ensureIndex() {
+        try (Connection conn = DriverManager.getConnection(dbUrl, DB_USER, DB_PASSWORD)) {
+            conn.createStatement().execute("CREATE INDEX IF NOT EXISTS idx_transactions_created_at ON transactions(created_at)");
+            conn.createStatement().execute(
+                "CREATE INDEX IF NOT EXISTS idx_transactions_processor_id ON transactions(processor_transaction_id)");
+        } catch (SQLException e) {
+            System.err.println("Error creating reconciliation index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Load a settlement file: processor_transaction_id,amount,currency,status per line
+     */
+    public static Map<String, SettlementRecord> loadSettlementFile(Path file) throws IOException {
+        Map<String, SettlementRecord> records = new ConcurrentHashMap<>();
+        try (Stream<String> lines = Files.lines(file)) {
+            lines.parallel()
+                .filter(line -> !line.isBlank() && !line.startsWith("#") && !line.startsWith("processor_transaction_id"))
+                .forEach(line -> {
+                    String[] parts = line.split(",");
+                    SettlementRecord record = new SettlementRecord(parts[0].trim(),
+                        new BigDecimal(parts[1].trim()).movePointRight(2).longValueExact(),
+                        parts[2].trim(), parts[3].trim());
+                    records.put(record.getProcessorTransactionId(), record);
+                });
+        }
+        return records;
+    }
+
+    /**
+     * Reconcile transactions created in [from, to) against the settlement records.
+     * Matched records are removed from the map. A settlement file rarely lines up with
+     * the range exactly, so leftovers the ledger has outside it are dropped too; only
+     * what remains is reported as missing from the ledger.
+     */
+    public ReconciliationReport reconcile(LocalDateTime from, LocalDateTime to, Map<String, SettlementRecord> settlement)
+            throws SQLException {
+        long start = System.nanoTime();
+        Map<String, SettlementRecord> unclaimed = settlement instanceof ConcurrentHashMap
+            ? settlement : new ConcurrentHashMap<>(settlement);
+
+        LongAdder scanned = new LongAdder();
+        LongAdder matched = new LongAdder();
+        Map<MismatchType, LongAdder> counts = new EnumMap<>(MismatchType.class);
+        for (MismatchType type : MismatchType.values()) {
+            counts.put(type, new LongAdder());
+        }
+        ConcurrentLinkedQueue<Mismatch> mismatches = new ConcurrentLinkedQueue<>();
+        AtomicInteger reported = new AtomicInteger();
+
+        MismatchSink sink = mismatch -> {
+            counts.get(mismatch.type).increment();
+            if (reported.incrementAndGet() <= maxReportedMismatches) {
+                mismatches.add(mismatch);
+            }
+        };
+
+        // More slices than threads so a busy day does not leave other cores idle
+        List<LocalDateTime[]> slices = sliceRange(from, to, parallelism * 4);
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "reconciliation-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (LocalDateTime[] slice : slices) {
+                futures.add(workers.submit(() -> {
+                    reconcileSlice(slice[0], slice[1], unclaimed, scanned, matched, sink);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Reconciliation interrupted", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof SQLException ? (SQLException) e.getCause() : new SQLException(e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+
+        removeOutsideRange(unclaimed, from, to);
+        for (SettlementRecord record : unclaimed.values()) {
+            sink.accept(new Mismatch(MismatchType.MISSING_IN_LEDGER, null, record.getProcessorTransactionId(),
+                "Provider settled " + formatMinor(record.getAmountMinor()) + " " + record.getCurrency()));
+        }
+
+        Map<MismatchType, Long> totals = new EnumMap<>(MismatchType.class);
+        counts.forEach((type, count) -> totals.put(type, count.sum()));
+
+        return new ReconciliationReport(scanned.sum(), matched.sum(), totals,
+            Collections.unmodifiableList(new ArrayList<>(mismatches)), Duration.ofNanos(System.nanoTime() - start));
+    }
+
+    private interface MismatchSink {
+        void accept(Mismatch mismatch);
+    }
+
+    private void reconcileSlice(LocalDateTime from, LocalDateTime to, Map<String, SettlementRecord> unclaimed,
+                                LongAdder scanned, LongAdder matched, MismatchSink sink) throws SQLException {
+        String sql = """
+            SELECT id, processor_transaction_id, CAST(total_amount * 100 AS BIGINT) AS total_minor, currency, status
+            FROM transactions
+            WHERE created_at >= ? AND created_at < ? AND processor_transaction_id IS NOT NULL
+        """;
+
+        try (Connection conn = DriverManager.getConnection(dbUrl, DB_USER, DB_PASSWORD);
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setFetchSize(FETCH_SIZE);
+            stmt.setTimestamp(1, Timestamp.valueOf(from));
+            stmt.setTimestamp(2, Timestamp.valueOf(to));
+            ResultSet rs = stmt.executeQuery();
+
+            long sliceScanned = 0;
+            long sliceMatched = 0;
+            while (rs.next()) {
+                sliceScanned++;
+                String id = rs.getString(1);
+                String processorId = rs.getString(2);
+                long amountMinor = rs.getLong(3);
+                String currency = rs.getString(4);
+                String status = rs.getString(5);
+
+                SettlementRecord record = unclaimed.remove(processorId);
+                if (record == null) {
+                    if (expectedSettlementStatus(status).equals("succeeded")) {
+                        sink.accept(new Mismatch(MismatchType.MISSING_AT_PROVIDER, id, processorId,
+                            "Ledger shows " + status + " for " + formatMinor(amountMinor) + " " + currency));
+                    }
+                } else if (record.getAmountMinor() != amountMinor) {
+                    sink.accept(new Mismatch(MismatchType.AMOUNT_MISMATCH, id, processorId,
+                        "Ledger " + formatMinor(amountMinor) + " vs provider " + formatMinor(record.getAmountMinor())));
+                } else if (!record.getCurrency().equalsIgnoreCase(currency)) {
+                    sink.accept(new Mismatch(MismatchType.CURRENCY_MISMATCH, id, processorId,
+                        "Ledger " + currency + " vs provider " + record.getCurrency()));
+                } else if (!record.getStatus().equalsIgnoreCase(expectedSettlementStatus(status))) {
+                    sink.accept(new Mismatch(MismatchType.STATUS_MISMATCH, id, processorId,
+                        "Ledger " + status + " vs provider " + record.getStatus()));
+                } else {
+                    sliceMatched++;
+                }
+            }
+
+            // One update per slice keeps the shared counters off the hot path
+            scanned.add(sliceScanned);
+            matched.add(sliceMatched);
+        }
+    }
+
+    // Drop leftovers that belong to ledger transactions created outside [from, to)
+    private void removeOutsideRange(Map<String, SettlementRecord> unclaimed, LocalDateTime from, LocalDateTime to)
+            throws SQLException {
+        List<String> ids = new ArrayList<>(unclaimed.keySet());
+        try (Connection conn = DriverManager.getConnection(dbUrl, DB_USER, DB_PASSWORD)) {
+            for (int start = 0; start < ids.size(); start += LOOKUP_BATCH_SIZE) {
+                List<String> batch = ids.subList(start, Math.min(ids.size(), start + LOOKUP_BATCH_SIZE));
+                String sql = "SELECT processor_transaction_id FROM transactions WHERE processor_transaction_id IN ("
+                    + String.join(",", Collections.nCopies(batch.size(), "?"))
+                    + ") AND (created_at < ? OR created_at >= ?)";
+
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    int index = 1;
+                    for (String id : batch) {
+                        stmt.setString(index++, id);
+                    }
+                    stmt.setTimestamp(index++, Timestamp.valueOf(from));
+                    stmt.setTimestamp(index, Timestamp.valueOf(to));
+                    ResultSet rs = stmt.executeQuery();
+                    while (rs.next()) {
+                        unclaimed.remove(rs.getString(1));
+                    }
+                }
+            }
+        }
+    }
+
+    // Provider-side status a ledger status should settle as
+    static String expectedSettlementStatus(String ledgerStatus) {
+        switch (ledgerStatus) {
+            case "COMPLETED":
+            case "AUTHORIZED":
+                return "succeeded";
+            case "REFUNDED":
+            case "PARTIALLY_REFUNDED":
+                return "refunded";
+            case "DISPUTED":
+                return "disputed";
+            default:
+                return "failed";
+        }
+    }
+
+    static List<LocalDateTime[]> sliceRange(LocalDateTime from, LocalDateTime to, int slices) {
+        List<LocalDateTime[]> result = new ArrayList<>(slices);
+        long totalNanos = Duration.between(from, to).toNanos();
+        LocalDateTime sliceStart = from;
+        for (int i = 1; i <= slices; i++) {
+            LocalDateTime sliceEnd = i == slices ? to : from.plusNanos(totalNanos / slices * i);
+            result.add(new LocalDateTime[] { sliceStart, sliceEnd });
+            sliceStart = sliceEnd;
+        }
+        return result;
+    }
+
+    private static String formatMinor(long amountMinor) {
+        return BigDecimal.valueOf(amountMinor, 2).toPlainString();
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+}
@@ -0,0 +1,330 @@
+package com.example.services;
+
+import com.example.api.RateLimiter;
+import com.example.models.Ids;
+import com.example.services.SmsGateway.SmsMessage;
+import com.example.services.SmsGateway.SmsResult;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends SMS through a gateway in batches.
+ *
+ * Messages wait until their number's rate limit admits them, then queue for a
+ * single batcher thread that sends up to a full batch per gateway request, waiting
+ * a few milliseconds for a batch to fill. Requests are asynchronous with a bounded
+ * number in flight. Temporary failures are retried with exponential backoff and
+ * jitter; invalid numbers fail at once.
+ *
+ * Only a few messages per number may wait on the rate limit; beyond that new ones
+ * are dropped, since the number could not receive them for many minutes anyway.
+ */
+public class SmsChannel {
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final long DEFAULT_LINGER_MILLIS = 20;
+    private static final int DEFAULT_MAX_BATCHES_IN_FLIGHT = 8;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BASE_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    // Carriers flag bursts to one handset as spam; allow a few, then about one a minute
+    private static final int PER_NUMBER_BURST = 5;
+    private static final double PER_NUMBER_PER_SECOND = 1.0 / 60;
+    private static final String NUMBER_LIMIT = "sms-number";
+    private static final int MAX_HELD_PER_NUMBER = 10;
+    // A number's bucket refills within minutes of its last message, then is swept
+    private static final long EVICT_INTERVAL_MINUTES = 1;
+
+    private static SmsChannel instance;
+
+    private final SmsGateway gateway;
+    private final int batchSize;
+    private final long lingerMillis;
+    private final Semaphore batchesInFlight;
+    // Every number keeps its own bucket; idle ones are evicted on a timer instead of
+    // spilling into one shared overflow bucket once a fixed count is reached
+    private final RateLimiter numberLimiter = new RateLimiter(Integer.MAX_VALUE);
+    private final Map<String, AtomicInteger> heldByNumber = new ConcurrentHashMap<>();
+    private final LinkedBlockingQueue<PendingSms> ready = new LinkedBlockingQueue<>();
+    private final ScheduledExecutorService scheduler;
+    private final Thread batcher;
+    private volatile boolean closed;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    private static class PendingSms {
+        private final SmsMessage message;
+        private final CompletableFuture<Boolean> accepted = new CompletableFuture<>();
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        private int attempts;
+        private boolean held;
+
+        PendingSms(SmsMessage message) {
+            this.message = message;
+            // Anything that settles the message also settles whether it got in
+            result.whenComplete((ok, error) -> accepted.complete(false));
+        }
+    }
+
+    /**
+     * A message handed to the channel. accepted completes once it is queued for
+     * the gateway (true) or turned away (false); delivered completes with whether
+     * the provider took it, possibly after rate-limit waits and retries.
+     */
+    public static final class Submission {
+        private final CompletableFuture<Boolean> accepted;
+        private final CompletableFuture<Boolean> delivered;
+
+        Submission(CompletableFuture<Boolean> accepted, CompletableFuture<Boolean> delivered) {
+            this.accepted = accepted;
+            this.delivered = delivered;
+        }
+
+        public CompletableFuture<Boolean> accepted() { return accepted; }
+        public CompletableFuture<Boolean> delivered() { return delivered; }
+    }
+
+    public SmsChannel(SmsGateway gateway) {
+        this(gateway, DEFAULT_BATCH_SIZE, DEFAULT_LINGER_MILLIS, DEFAULT_MAX_BATCHES_IN_FLIGHT,
+            PER_NUMBER_BURST, PER_NUMBER_PER_SECOND);
+    }
+
+    public SmsChannel(SmsGateway gateway, int batchSize, long lingerMillis, int maxBatchesInFlight,
+                      int perNumberBurst, double perNumberPerSecond) {
+        this.gateway = gateway;
+        this.batchSize = batchSize;
+        this.lingerMillis = lingerMillis;
+        this.batchesInFlight = new Semaphore(maxBatchesInFlight);
+        numberLimiter.configure(NUMBER_LIMIT, perNumberBurst, perNumberPerSecond);
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sms-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.batcher = new Thread(this::runBatcher, "sms-batcher");
+        batcher.setDaemon(true);
+        batcher.start();
+        scheduler.scheduleWithFixedDelay(numberLimiter::evictIdle, EVICT_INTERVAL_MINUTES, EVICT_INTERVAL_MINUTES,
+            TimeUnit.MINUTES);
+    }
+
+    /**
+     * Channel for the provider at the sms.gateway.url system property, or one that
+     * only logs messages when none is set
+     */
+    public static synchronized SmsChannel getInstance() {
+        if (instance == null) {
+            String url = System.getProperty("sms.gateway.url");
+            instance = new SmsChannel(url != null ? new HttpSmsGateway(URI.create(url)) : SmsGateway.LOGGING);
+        }
+        return instance;
+    }
+
+    /**
+     * Queue a text message; completes with whether the provider accepted it,
+     * possibly after retries
+     */
+    public CompletableFuture<Boolean> send(String to, String body) {
+        return submit(to, body).delivered();
+    }
+
+    /**
+     * Queue a text message, reporting separately when it was accepted for sending.
+     * Callers that bound their own in-flight work can let go at acceptance rather
+     * than wait out the number's rate limit.
+     */
+    public Submission submit(String to, String body) {
+        PendingSms sms = new PendingSms(new SmsMessage(Ids.next(), to, body));
+        admit(sms);
+        return new Submission(sms.accepted, sms.result);
+    }
+
+    public int getQueuedCount() { return ready.size(); }
+    public long getSentCount() { return sent.sum(); }
+    public long getRejectedCount() { return rejected.sum(); }
+    public long getFailedCount() { return failed.sum(); }
+    public long getRetryCount() { return retries.sum(); }
+    public long getRateLimitedCount() { return rateLimited.sum(); }
+    public long getDroppedCount() { return dropped.sum(); }
+    public long getBatchCount() { return batches.sum(); }
+
+    /**
+     * Stop sending; messages not yet handed to the gateway complete with false
+     */
+    public void shutdown() {
+        closed = true;
+        batcher.interrupt();
+        scheduler.shutdownNow();
+        PendingSms sms;
+        while ((sms = ready.poll()) != null) {
+            sms.result.complete(false);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SmsChannel{queued=%d, batches=%d, sent=%d, rejected=%d, failed=%d, retries=%d, rateLimited=%d, dropped=%d}",
+            getQueuedCount(), getBatchCount(), getSentCount(), getRejectedCount(), getFailedCount(),
+            getRetryCount(), getRateLimitedCount(), getDroppedCount());
+    }
+
+    // Hold the message back until its number may receive another one
+    private void admit(PendingSms sms) {
+        if (closed) {
+            release(sms);
+            sms.result.complete(false);
+            return;
+        }
+        String to = sms.message.getTo();
+        RateLimiter.Decision decision = numberLimiter.tryAcquire(NUMBER_LIMIT, to);
+        if (decision.isAllowed()) {
+            release(sms);
+            // Before queueing, or a quick send could settle it as not accepted
+            sms.accepted.complete(true);
+            ready.add(sms);
+            return;
+        }
+
+        rateLimited.increment();
+        if (!sms.held) {
+            AtomicInteger held = heldByNumber.computeIfAbsent(to, k -> new AtomicInteger());
+            if (held.incrementAndGet() > MAX_HELD_PER_NUMBER) {
+                held.decrementAndGet();
+                dropped.increment();
+                System.err.println("Too many SMS waiting for " + to + ", dropping one");
+                sms.result.complete(false);
+                return;
+            }
+            sms.held = true;
+        }
+        schedule(sms, decision.getRetryAfterMillis());
+    }
+
+    // The message no longer waits on its number's rate limit
+    private void release(PendingSms sms) {
+        if (sms.held) {
+            sms.held = false;
+            heldByNumber.computeIfPresent(sms.message.getTo(),
+                (to, held) -> held.decrementAndGet() <= 0 ? null : held);
+        }
+    }
+
+    private void schedule(PendingSms sms, long delayMillis) {
+        try {
+            scheduler.schedule(() -> admit(sms), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // Shut down meanwhile
+            release(sms);
+            sms.result.complete(false);
+        }
+    }
+
+    private void runBatcher() {
+        while (!closed) {
+            List<PendingSms> batch = new ArrayList<>(batchSize);
+            try {
+                batch.add(ready.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+                while (batch.size() < batchSize) {
+                    ready.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    PendingSms next = ready.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                batchesInFlight.acquire();
+            } catch (InterruptedException e) {
+                batch.forEach(sms -> sms.result.complete(false));
+                return;
+            }
+            sendBatch(batch);
+        }
+    }
+
+    private void sendBatch(List<PendingSms> batch) {
+        Map<String, PendingSms> byId = new HashMap<>();
+        List<SmsMessage> messages = new ArrayList<>(batch.size());
+        for (PendingSms sms : batch) {
+            sms.attempts++;
+            byId.put(sms.message.getId(), sms);
+            messages.add(sms.message);
+        }
+        batches.increment();
+
+        CompletableFuture<List<SmsResult>> response;
+        try {
+            response = gateway.sendBatch(messages);
+        } catch (Exception e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+
+        response.whenComplete((results, error) -> {
+            batchesInFlight.release();
+            if (error != null) {
+                System.err.println("Error sending SMS batch: " + error.getMessage());
+                batch.forEach(sms -> retry(sms, error.getMessage()));
+                return;
+            }
+
+            for (SmsResult result : results) {
+                PendingSms sms = byId.remove(result.getId());
+                if (sms == null) {
+                    continue;
+                }
+                switch (result.getStatus()) {
+                    case SENT:
+                        sent.increment();
+                        sms.result.complete(true);
+                        break;
+                    case REJECTED:
+                        rejected.increment();
+                        System.err.println("SMS to " + sms.message.getTo() + " rejected: " + result.getError());
+                        sms.result.complete(false);
+                        break;
+                    default:
+                        retry(sms, result.getError());
+                }
+            }
+            // The gateway did not report on these; try them again
+            byId.values().forEach(sms -> retry(sms, "no result from gateway"));
+        });
+    }
+
+    private void retry(PendingSms sms, String reason) {
+        if (sms.attempts >= MAX_ATTEMPTS) {
+            failed.increment();
+            System.err.println("Giving up on SMS to " + sms.message.getTo() + " after " + sms.attempts
+                + " attempts: " + reason);
+            sms.result.complete(false);
+            return;
+        }
+        retries.increment();
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << (sms.attempts - 1));
+        // Wait between half and all of the backoff so retries from one failed batch spread out
+        schedule(sms, backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An SMS provider that accepts several messages per request.
+ *
+ * A batch completes with one result per message, in any order. Failing the whole
+ * future means the provider could not be reached or answered with a server error;
+ * every message of the batch may then be retried.
+ */
+public interface SmsGateway {
+
+    CompletableFuture<List<SmsResult>> sendBatch(List<SmsMessage> messages);
+
+    /**
+     * Stands in for a provider when none is configured: logs each message as sent
+     */
+    SmsGateway LOGGING = messages -> {
+        List<SmsResult> results = new ArrayList<>(messages.size());
+        for (SmsMessage message : messages) {
+            System.out.println("SMS would be sent to " + message.getTo() + ": " + message.getBody());
+            results.add(new SmsResult(message.getId(), SmsResult.Status.SENT, null));
+        }
+        return CompletableFuture.completedFuture(results);
+    };
+
+    class SmsMessage {
+        private final String id;
+        private final String to;
+        private final String body;
+
+        public SmsMessage(String id, String to, String body) {
+            this.id = id;
+            this.to = to;
+            this.body = body;
+        }
+
+        public String getId() { return id; }
+        public String getTo() { return to; }
+        public String getBody() { return body; }
+    }
+
+    class SmsResult {
+        /**
+         * SENT: accepted by the provider. REJECTED: will never go through, e.g. an
+         * invalid number. RETRY: temporary failure such as carrier throttling.
+         */
+        public enum Status { SENT, REJECTED, RETRY }
+
+        private final String id;
+        private final Status status;
+        private final String error;
+
+        public SmsResult(String id, Status status, String error) {
+            this.id = id;
+            this.status = status;
+            this.error = error;
+        }
+
+        public String getId() { return id; }
+        public Status getStatus() { return status; }
+        public String getError() { return error; }
+    }
+}
@@ -0,0 +1,361 @@
+package com.example.services;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hierarchical timing wheel for large numbers of coarse timers.
+ *
+ * Time advances in fixed ticks. Level 0 has one slot per tick; each higher level
+ * has slots as wide as a full turn of the level below, and its timers move down a
+ * level when their slot comes up. A timer sits in the level of the most
+ * significant tick digit in which its deadline differs from the current tick.
+ * Slots are intrusive linked lists, so scheduling and cancelling are O(1) and a
+ * periodic timer reuses the same object for every run.
+ *
+ * Only the ticker thread touches the wheel. Other threads hand timers to it
+ * through a lock-free stack linked through the timers themselves. Expired timers
+ * run in chunks on a small worker pool, so a timer's task should not block.
+ */
+public class TimingWheel {
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    // Enough levels for any tick number, so no deadline ever needs clamping
+    private static final int LEVELS = Long.SIZE / WHEEL_BITS;
+    private static final int RUN_CHUNK = 1024;
+
+    private static final int WAITING = 0;
+    private static final int RUNNING = 1;
+    private static final int CANCELLED = 2;
+    private static final int DONE = 3;
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Timeout[][] slots = new Timeout[LEVELS][WHEEL_SIZE];
+    private final AtomicReference<Timeout> handoff = new AtomicReference<>();
+    private final ExecutorService workers;
+    private final Thread ticker;
+    private volatile boolean stopped;
+    // Ticks up to and including this one have expired; ticker thread only
+    private long currentTick;
+    private Timeout[] dueChunk = new Timeout[RUN_CHUNK];
+    private int dueCount;
+
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * A scheduled task; cancel it to stop further runs
+     */
+    public static final class Timeout implements Runnable {
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+        private static final AtomicIntegerFieldUpdater<Timeout> QUEUED =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "queued");
+
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private final long periodNanos;
+        private volatile int state = WAITING;
+        private volatile int queued;
+        // Relative to the wheel's start; advanced by the period after each run
+        private long deadlineNanos;
+        // Handoff stack link, then slot list links; owned by the ticker thread once handed off
+        private Timeout nextHandoff;
+        private Timeout prev;
+        private Timeout next;
+        private Timeout[] slotLevel;
+        private int slot = -1;
+
+        Timeout(TimingWheel wheel, Runnable task, long deadlineNanos, long periodNanos) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+            this.periodNanos = periodNanos;
+        }
+
+        /**
+         * Stop the timer; a run already under way finishes. Returns false if it had
+         * already been cancelled or was a one-shot timer that ran.
+         */
+        public boolean cancel() {
+            int current;
+            do {
+                current = state;
+                if (current == CANCELLED || current == DONE) {
+                    return false;
+                }
+            } while (!STATE.compareAndSet(this, current, CANCELLED));
+            wheel.cancelled.increment();
+            if (current == WAITING) {
+                // Let the ticker unlink it instead of waiting for its slot to come up
+                wheel.handOff(this);
+            }
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } catch (Exception e) {
+                System.err.println("Error in timer task: " + e.getMessage());
+            }
+            if (periodNanos > 0) {
+                deadlineNanos += periodNanos;
+                if (STATE.compareAndSet(this, RUNNING, WAITING)) {
+                    wheel.handOff(this);
+                }
+            } else {
+                STATE.compareAndSet(this, RUNNING, DONE);
+            }
+        }
+    }
+
+    /**
+     * @param tickMillis timer resolution; timers fire up to one tick late
+     * @param workerThreads threads that run expired timers
+     */
+    public TimingWheel(String name, long tickMillis, int workerThreads) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.startNanos = System.nanoTime();
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads, r -> {
+            Thread thread = new Thread(r, name + "-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.ticker = new Thread(this::runTicker, name + "-ticker");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * Run the task once after the delay
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return add(new Timeout(this, task, deadlineAfter(unit.toNanos(delay)), 0));
+    }
+
+    /**
+     * Run the task after the initial delay, then every period measured from the
+     * scheduled start of the previous run
+     */
+    public Timeout scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("Period must be positive");
+        }
+        return add(new Timeout(this, task, deadlineAfter(unit.toNanos(initialDelay)), unit.toNanos(period)));
+    }
+
+    public long getScheduledCount() { return scheduled.sum(); }
+    public long getExpiredCount() { return expired.sum(); }
+    public long getCancelledCount() { return cancelled.sum(); }
+    public int getPendingCount() { return pending.get(); }
+
+    /**
+     * Stop ticking; timers that have not fired never will
+     */
+    public void stop() {
+        stopped = true;
+        LockSupport.unpark(ticker);
+        workers.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TimingWheel{tick=%dms, pending=%d, scheduled=%d, expired=%d, cancelled=%d}",
+            TimeUnit.NANOSECONDS.toMillis(tickNanos), getPendingCount(), getScheduledCount(),
+            getExpiredCount(), getCancelledCount());
+    }
+
+    private Timeout add(Timeout timeout) {
+        if (stopped) {
+            throw new IllegalStateException("Timing wheel stopped");
+        }
+        scheduled.increment();
+        handOff(timeout);
+        return timeout;
+    }
+
+    private long elapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    private long deadlineAfter(long delayNanos) {
+        long deadline = elapsedNanos() + Math.max(0, delayNanos);
+        // Saturate absurdly long delays instead of wrapping into the past
+        return deadline < 0 ? Long.MAX_VALUE - tickNanos : deadline;
+    }
+
+    // Push onto the handoff stack unless the timer is on it already
+    private void handOff(Timeout timeout) {
+        if (!Timeout.QUEUED.compareAndSet(timeout, 0, 1)) {
+            return;
+        }
+        Timeout head;
+        do {
+            head = handoff.get();
+            timeout.nextHandoff = head;
+        } while (!handoff.compareAndSet(head, timeout));
+    }
+
+    private void runTicker() {
+        while (!stopped) {
+            long nextTick = currentTick + 1;
+            long wait = nextTick * tickNanos - elapsedNanos();
+            if (wait > 0) {
+                LockSupport.parkNanos(this, wait);
+                continue;
+            }
+            drainHandoff();
+            currentTick = nextTick;
+            expireTick();
+            submitDue();
+        }
+    }
+
+    // Link new and rescheduled timers, unlink cancelled ones
+    private void drainHandoff() {
+        Timeout timeout = handoff.getAndSet(null);
+        while (timeout != null) {
+            Timeout next = timeout.nextHandoff;
+            timeout.nextHandoff = null;
+            timeout.queued = 0;
+            if (timeout.state == CANCELLED) {
+                unlink(timeout);
+            } else if (timeout.state == WAITING && timeout.slotLevel == null) {
+                place(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    private void place(Timeout timeout) {
+        // Round up so a timer never fires early
+        long deadlineTick = timeout.deadlineNanos / tickNanos + (timeout.deadlineNanos % tickNanos == 0 ? 0 : 1);
+        if (deadlineTick <= currentTick) {
+            collect(timeout);
+            return;
+        }
+        // Top level whose digit differs between the deadline and now
+        int level = (63 - Long.numberOfLeadingZeros(deadlineTick ^ currentTick)) / WHEEL_BITS;
+        int slot = (int) (deadlineTick >>> (level * WHEEL_BITS)) & WHEEL_MASK;
+        link(timeout, slots[level], slot);
+    }
+
+    private void expireTick() {
+        // Higher levels first; what they cascade may land in a lower level due this tick
+        for (int level = LEVELS - 1; level >= 1; level--) {
+            long lowerTicks = (1L << (level * WHEEL_BITS)) - 1;
+            if ((currentTick & lowerTicks) == 0) {
+                Timeout timeout = takeSlot(slots[level], (int) (currentTick >>> (level * WHEEL_BITS)) & WHEEL_MASK);
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    timeout.next = null;
+                    place(timeout);
+                    timeout = next;
+                }
+            }
+        }
+
+        Timeout timeout = takeSlot(slots[0], (int) currentTick & WHEEL_MASK);
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.next = null;
+            collect(timeout);
+            timeout = next;
+        }
+    }
+
+    private void collect(Timeout timeout) {
+        if (!Timeout.STATE.compareAndSet(timeout, WAITING, RUNNING)) {
+            return;
+        }
+        expired.increment();
+        dueChunk[dueCount++] = timeout;
+        if (dueCount == RUN_CHUNK) {
+            submitDue();
+        }
+    }
+
+    // Hand the collected timers to a worker as one task
+    private void submitDue() {
+        if (dueCount == 0) {
+            return;
+        }
+        Timeout[] chunk = dueChunk;
+        int count = dueCount;
+        dueChunk = new Timeout[RUN_CHUNK];
+        dueCount = 0;
+        try {
+            workers.execute(() -> {
+                for (int i = 0; i < count; i++) {
+                    chunk[i].run();
+                }
+            });
+        } catch (Exception e) {
+            // Stopped meanwhile
+        }
+    }
+
+    private void link(Timeout timeout, Timeout[] level, int slot) {
+        Timeout head = level[slot];
+        timeout.prev = null;
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        level[slot] = timeout;
+        timeout.slotLevel = level;
+        timeout.slot = slot;
+        pending.incrementAndGet();
+    }
+
+    private void unlink(Timeout timeout) {
+        Timeout[] level = timeout.slotLevel;
+        if (level == null) {
+            return;
+        }
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            level[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.slotLevel = null;
+        timeout.slot = -1;
+        pending.decrementAndGet();
+    }
+
+    // Detach a whole slot; its timers keep their next links
+    private Timeout takeSlot(Timeout[] level, int slot) {
+        Timeout head = level[slot];
+        level[slot] = null;
+        for (Timeout timeout = head; timeout != null; timeout = timeout.next) {
+            timeout.prev = null;
+            timeout.slotLevel = null;
+            timeout.slot = -1;
+            pending.decrementAndGet();
+        }
+        return head;
+    }
+}
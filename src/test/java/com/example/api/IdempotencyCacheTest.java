@@ -0,0 +1,106 @@
+package com.example.api;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class IdempotencyCacheTest {
+    private final IdempotencyCache<String> cache = new IdempotencyCache<>(1, TimeUnit.MINUTES, 100);
+
+    @AfterEach
+    void shutdown() {
+        cache.shutdown();
+    }
+
+    @Test
+    void replaysCompletedResultForSameKey() {
+        AtomicInteger runs = new AtomicInteger();
+
+        String first = cache.execute("key-1", () -> CompletableFuture.completedFuture("result-" + runs.incrementAndGet())).join();
+        String second = cache.execute("key-1", () -> CompletableFuture.completedFuture("result-" + runs.incrementAndGet())).join();
+
+        assertEquals(1, runs.get());
+        assertEquals("result-1", first);
+        assertEquals(first, second);
+    }
+
+    @Test
+    void concurrentDuplicateSharesInFlightExecution() {
+        AtomicInteger runs = new AtomicInteger();
+        CompletableFuture<String> pending = new CompletableFuture<>();
+
+        CompletableFuture<String> first = cache.execute("key-1", () -> {
+            runs.incrementAndGet();
+            return pending;
+        });
+        CompletableFuture<String> second = cache.execute("key-1", () -> {
+            runs.incrementAndGet();
+            return CompletableFuture.completedFuture("duplicate");
+        });
+        assertFalse(second.isDone());
+
+        pending.complete("original");
+        assertEquals("original", first.join());
+        assertEquals("original", second.join());
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void failedExecutionIsNotCached() {
+        AtomicInteger runs = new AtomicInteger();
+
+        CompletableFuture<String> failed = cache.execute("key-1", () -> {
+            runs.incrementAndGet();
+            return CompletableFuture.failedFuture(new IllegalStateException("declined"));
+        });
+        assertTrue(failed.isCompletedExceptionally());
+        assertFalse(cache.contains("key-1"));
+
+        String retried = cache.execute("key-1", () -> {
+            runs.incrementAndGet();
+            return CompletableFuture.completedFuture("approved");
+        }).join();
+        assertEquals("approved", retried);
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    void rejectsKeyReusedForDifferentRequest() {
+        AtomicInteger runs = new AtomicInteger();
+
+        String first = cache.execute("key-1", "order-a", () -> {
+            runs.incrementAndGet();
+            return CompletableFuture.completedFuture("created");
+        }, value -> true).join();
+        CompletableFuture<String> reused = cache.execute("key-1", "order-b", () -> {
+            runs.incrementAndGet();
+            return CompletableFuture.completedFuture("created again");
+        }, value -> true);
+        String replayed = cache.execute("key-1", "order-a",
+            () -> CompletableFuture.completedFuture("created again"), value -> true).join();
+
+        assertEquals("created", first);
+        CompletionException error = assertThrows(CompletionException.class, reused::join);
+        assertInstanceOf(IdempotencyCache.KeyReuseException.class, error.getCause());
+        assertEquals("created", replayed);
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    void uncacheableResultIsNotReplayed() {
+        AtomicInteger runs = new AtomicInteger();
+
+        cache.execute("key-1", () -> CompletableFuture.completedFuture("pending-" + runs.incrementAndGet()),
+            value -> !value.startsWith("pending")).join();
+        String second = cache.execute("key-1", () -> CompletableFuture.completedFuture("pending-" + runs.incrementAndGet()),
+            value -> !value.startsWith("pending")).join();
+
+        assertEquals("pending-2", second);
+        assertEquals(2, runs.get());
+    }
+}
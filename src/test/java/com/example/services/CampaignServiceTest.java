@@ -0,0 +1,143 @@
+package com.example.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class CampaignServiceTest {
+    private static final String DB_URL = "jdbc:h2:mem:campaign-test;DB_CLOSE_DELAY=-1";
+    private static final int CUSTOMERS = 60;
+    private static final int SHARDS = 2;
+    private static final int PAGE_SIZE = 5;
+    private static final double SENDS_PER_SECOND = 10_000;
+
+    private final Map<String, AtomicInteger> received = new ConcurrentHashMap<>();
+    private Set<String> eligible;
+
+    @BeforeEach
+    void seedCustomers() throws SQLException {
+        eligible = new HashSet<>();
+        try (Connection conn = connect()) {
+            conn.createStatement().execute("""
+                CREATE TABLE Customer (
+                    id BIGINT AUTO_INCREMENT PRIMARY KEY,
+                    name VARCHAR(255), username VARCHAR(255), email VARCHAR(255), phone VARCHAR(50),
+                    address VARCHAR(255), deactivated BOOLEAN DEFAULT FALSE,
+                    promotionalNotifications BOOLEAN DEFAULT TRUE
+                )
+            """);
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "INSERT INTO Customer (id, name, username, email, address, deactivated, promotionalNotifications) "
+                        + "VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+                for (int i = 1; i <= CUSTOMERS; i++) {
+                    boolean deactivated = i % 10 == 0;
+                    boolean optedOut = i % 7 == 0;
+                    stmt.setLong(1, i);
+                    stmt.setString(2, "Customer " + i);
+                    stmt.setString(3, "customer" + i);
+                    stmt.setString(4, "customer" + i + "@example.com");
+                    stmt.setString(5, "Farm Road " + i);
+                    stmt.setBoolean(6, deactivated);
+                    stmt.setBoolean(7, !optedOut);
+                    stmt.executeUpdate();
+                    if (!deactivated && !optedOut) {
+                        eligible.add(String.valueOf(i));
+                    }
+                }
+            }
+        }
+    }
+
+    @AfterEach
+    void dropTables() throws SQLException {
+        try (Connection conn = connect()) {
+            conn.createStatement().execute("DROP ALL OBJECTS");
+        }
+    }
+
+    @Test
+    void sendsOnceToEveryCustomerAcceptingPromotions() {
+        CampaignService service = newService(countingSender(null, 0));
+
+        CampaignService.CampaignResult result = service.launch("Harvest sale", "20% off all grains", "HARVEST20").join();
+
+        assertEquals(eligible, received.keySet());
+        assertTrue(received.values().stream().allMatch(count -> count.get() == 1));
+        assertEquals(eligible.size(), result.getSentCount());
+        assertEquals(0, result.getFailedCount());
+        assertTrue(service.resumeIncomplete().isEmpty());
+    }
+
+    @Test
+    void resumesInterruptedCampaignFromCheckpoints() {
+        AtomicReference<CampaignService> firstRef = new AtomicReference<>();
+        CampaignService first = newService(countingSender(firstRef, 12));
+        firstRef.set(first);
+
+        CompletableFuture<CampaignService.CampaignResult> launched = first.launch("Harvest sale", "20% off all grains", "HARVEST20");
+        assertThrows(CompletionException.class, launched::join);
+        int sentBeforeStop = received.size();
+        assertTrue(sentBeforeStop < eligible.size());
+
+        CampaignService second = newService(countingSender(null, 0));
+        var resumed = second.resumeIncomplete();
+        assertEquals(1, resumed.size());
+        CampaignService.CampaignResult result = resumed.get(0).join();
+
+        assertEquals(eligible, received.keySet());
+        // At most the page each shard had in flight is sent again
+        long duplicates = received.values().stream().filter(count -> count.get() > 1).count();
+        assertTrue(duplicates <= SHARDS * PAGE_SIZE, "duplicates: " + duplicates);
+        assertTrue(received.values().stream().allMatch(count -> count.get() <= 2));
+        assertTrue(result.getSentCount() >= eligible.size());
+        assertTrue(second.resumeIncomplete().isEmpty());
+    }
+
+    @Test
+    void failedSendsAreCountedNotRetried() {
+        CampaignService service = newService((recipient, campaign) -> {
+            received.computeIfAbsent(recipient.getId(), id -> new AtomicInteger()).incrementAndGet();
+            return CompletableFuture.failedFuture(new IllegalStateException("mail server down"));
+        });
+
+        CampaignService.CampaignResult result = service.launch("Harvest sale", "20% off all grains", "HARVEST20").join();
+
+        assertEquals(0, result.getSentCount());
+        assertEquals(eligible.size(), result.getFailedCount());
+        assertTrue(received.values().stream().allMatch(count -> count.get() == 1));
+    }
+
+    private CampaignService newService(CampaignService.RecipientSender sender) {
+        return new CampaignService(DB_URL, DB_URL, sender, SHARDS, PAGE_SIZE, SENDS_PER_SECOND);
+    }
+
+    // Counts sends per customer; shuts the given service down after stopAfter sends
+    private CampaignService.RecipientSender countingSender(AtomicReference<CampaignService> service, int stopAfter) {
+        AtomicInteger sends = new AtomicInteger();
+        return (recipient, campaign) -> {
+            received.computeIfAbsent(recipient.getId(), id -> new AtomicInteger()).incrementAndGet();
+            if (service != null && sends.incrementAndGet() == stopAfter) {
+                service.get().shutdown();
+            }
+            return CompletableFuture.completedFuture(true);
+        };
+    }
+
+    private static Connection connect() throws SQLException {
+        return DriverManager.getConnection(DB_URL, "sa", "");
+    }
+}
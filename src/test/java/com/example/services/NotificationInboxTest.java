@@ -0,0 +1,57 @@
+package com.example.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.example.models.Notification;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+class NotificationInboxTest {
+    private final NotificationInbox.RetentionPolicy policy = new NotificationInbox.RetentionPolicy(3, Duration.ofDays(1));
+    private final NotificationInbox inbox = new NotificationInbox(policy);
+
+    @Test
+    void redeliveredNotificationIsKeptOnce() {
+        Notification notification = notification("Order shipped");
+        Notification redelivered = notification("Order shipped");
+        redelivered.setId(notification.getId());
+
+        inbox.add(notification, policy);
+        inbox.add(redelivered, policy);
+
+        assertEquals(1, inbox.size());
+        assertEquals(1, inbox.getUnreadCount());
+        assertSame(redelivered, inbox.list().get(0));
+    }
+
+    @Test
+    void redeliveryOfReadNotificationKeepsUnreadCountInStep() {
+        Notification notification = notification("Order shipped");
+        inbox.add(notification, policy);
+        inbox.markAsRead(notification.getId());
+
+        Notification redelivered = notification("Order shipped");
+        redelivered.setId(notification.getId());
+        inbox.add(redelivered, policy);
+
+        assertEquals(1, inbox.size());
+        assertEquals(inbox.listUnread().size(), inbox.getUnreadCount());
+    }
+
+    @Test
+    void dropsOldestWhenFull() {
+        Notification oldest = notification("first");
+        inbox.add(oldest, policy);
+        inbox.add(notification("second"), policy);
+        inbox.add(notification("third"), policy);
+        inbox.add(notification("fourth"), policy);
+
+        assertEquals(3, inbox.size());
+        assertEquals(3, inbox.getUnreadCount());
+        assertFalse(inbox.markAsRead(oldest.getId()));
+    }
+
+    private static Notification notification(String title) {
+        return new Notification("42", Notification.Type.ORDER_SHIPPED, title, "Your order is on its way");
+    }
+}
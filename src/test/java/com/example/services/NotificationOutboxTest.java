@@ -0,0 +1,118 @@
+package com.example.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.example.models.Customer;
+import com.example.models.Notification;
+import com.example.models.User;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class NotificationOutboxTest {
+    private static final String DB_URL = "jdbc:h2:mem:outbox-test;DB_CLOSE_DELAY=-1";
+
+    private final List<Notification> deliveries = new CopyOnWriteArrayList<>();
+    private final Function<String, User> anyone = userId -> {
+        Customer customer = new Customer("Customer " + userId, "customer" + userId,
+            "customer" + userId + "@example.com", null, "Farm Road");
+        customer.setId(userId);
+        return customer;
+    };
+    private NotificationOutbox outbox;
+
+    @AfterEach
+    void shutdown() throws SQLException {
+        if (outbox != null) {
+            outbox.shutdown();
+        }
+        try (Connection conn = connect()) {
+            conn.createStatement().execute("DROP TABLE IF EXISTS notification_outbox");
+        }
+    }
+
+    @Test
+    void duplicateDedupKeyIsStoredAndDeliveredOnce() throws Exception {
+        outbox = new NotificationOutbox(DB_URL, anyone, recordingDelivery(0), 10, 20);
+
+        try (Connection conn = connect()) {
+            assertTrue(outbox.enqueue(conn, "payment:tx-1:RECEIVED", paymentNotification()));
+            assertFalse(outbox.enqueue(conn, "payment:tx-1:RECEIVED", paymentNotification()));
+        }
+        outbox.wakeUp();
+
+        awaitTrue(() -> outbox.getDeliveredCount() == 1);
+        Thread.sleep(100);
+        assertEquals(1, deliveries.size());
+        assertEquals(1, outbox.getEnqueuedCount());
+        assertEquals(1, outbox.getDuplicateCount());
+    }
+
+    @Test
+    void failedDeliveryIsRetriedUnderSameNotificationId() throws Exception {
+        outbox = new NotificationOutbox(DB_URL, anyone, recordingDelivery(1), 10, 20);
+        Notification notification = paymentNotification();
+
+        try (Connection conn = connect()) {
+            assertTrue(outbox.enqueue(conn, "payment:tx-2:RECEIVED", notification));
+        }
+        outbox.wakeUp();
+
+        // The first retry waits out a backoff of up to a second
+        awaitTrue(() -> outbox.getDeliveredCount() == 1);
+        Thread.sleep(100);
+        assertEquals(2, deliveries.size());
+        assertEquals(notification.getId(), deliveries.get(0).getId());
+        assertEquals(notification.getId(), deliveries.get(1).getId());
+        assertEquals(notification.getMetadata(), deliveries.get(1).getMetadata());
+        assertEquals(1, outbox.getRetriedCount());
+    }
+
+    @Test
+    void enqueueRolledBackWithCallerTransactionIsNeverDelivered() throws Exception {
+        outbox = new NotificationOutbox(DB_URL, anyone, recordingDelivery(0), 10, 20);
+
+        try (Connection conn = connect()) {
+            conn.setAutoCommit(false);
+            assertTrue(outbox.enqueue(conn, "payment:tx-3:RECEIVED", paymentNotification()));
+            conn.rollback();
+        }
+        outbox.wakeUp();
+
+        Thread.sleep(200);
+        assertTrue(deliveries.isEmpty());
+    }
+
+    // Records every attempt; the first failures report that no channel accepted it
+    private NotificationOutbox.Delivery recordingDelivery(int failures) {
+        return (recipient, notification) -> {
+            deliveries.add(notification);
+            return CompletableFuture.completedFuture(deliveries.size() > failures);
+        };
+    }
+
+    private static Notification paymentNotification() {
+        return Notification.createPaymentNotification("42", "1001", "tx-1",
+            Notification.Type.PAYMENT_RECEIVED, "$25.00", null);
+    }
+
+    private static Connection connect() throws SQLException {
+        return DriverManager.getConnection(DB_URL, "sa", "");
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.services;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class TimingWheelTest {
+    private final TimingWheel wheel = new TimingWheel("test", 10, 1);
+
+    @AfterEach
+    void stop() {
+        wheel.stop();
+    }
+
+    @Test
+    void runsOneShotTimerOnce() throws InterruptedException {
+        CountDownLatch ran = new CountDownLatch(1);
+        TimingWheel.Timeout timeout = wheel.schedule(ran::countDown, 20, TimeUnit.MILLISECONDS);
+
+        assertTrue(ran.await(2, TimeUnit.SECONDS));
+        awaitPending(0);
+        // The timer is marked done just after its task returns
+        Thread.sleep(50);
+        // A one-shot timer that has run can no longer be cancelled
+        assertFalse(timeout.cancel());
+        assertEquals(1, wheel.getExpiredCount());
+    }
+
+    @Test
+    void cancelledTimerNeverRuns() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        TimingWheel.Timeout timeout = wheel.schedule(runs::incrementAndGet, 100, TimeUnit.MILLISECONDS);
+
+        assertTrue(timeout.cancel());
+        assertTrue(timeout.isCancelled());
+        assertFalse(timeout.cancel());
+
+        Thread.sleep(300);
+        assertEquals(0, runs.get());
+        assertEquals(0, wheel.getPendingCount());
+        assertEquals(1, wheel.getCancelledCount());
+    }
+
+    @Test
+    void cancellingPeriodicTimerStopsFurtherRuns() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch ranTwice = new CountDownLatch(2);
+        TimingWheel.Timeout timeout = wheel.scheduleAtFixedRate(() -> {
+            runs.incrementAndGet();
+            ranTwice.countDown();
+        }, 10, 20, TimeUnit.MILLISECONDS);
+
+        assertTrue(ranTwice.await(2, TimeUnit.SECONDS));
+        assertTrue(timeout.cancel());
+        // A run already under way may still finish
+        Thread.sleep(50);
+        int runsAfterCancel = runs.get();
+
+        Thread.sleep(200);
+        assertEquals(runsAfterCancel, runs.get());
+        awaitPending(0);
+    }
+
+    @Test
+    void cancellingOneTimerLeavesOthersInSlot() throws InterruptedException {
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch kept = new CountDownLatch(2);
+        wheel.schedule(kept::countDown, 50, TimeUnit.MILLISECONDS);
+        TimingWheel.Timeout cancelled = wheel.schedule(runs::incrementAndGet, 50, TimeUnit.MILLISECONDS);
+        wheel.schedule(kept::countDown, 50, TimeUnit.MILLISECONDS);
+
+        cancelled.cancel();
+
+        assertTrue(kept.await(2, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    void rejectsNonPositivePeriod() {
+        assertThrows(IllegalArgumentException.class,
+            () -> wheel.scheduleAtFixedRate(() -> { }, 0, 0, TimeUnit.MILLISECONDS));
+    }
+
+    // Pending counts are updated by the ticker thread, a tick after the change
+    private void awaitPending(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (wheel.getPendingCount() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, wheel.getPendingCount());
+    }
+}